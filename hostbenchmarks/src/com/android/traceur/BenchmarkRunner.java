@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Times benchmarks the way JMH does in its average time mode, and writes the
+ * results in the format of JMH's JSON output, so that they can be compared
+ * between releases with the usual tools.
+ *
+ * Each benchmark runs for a number of warmup iterations, whose results are
+ * dropped, then measurement iterations. An iteration calls the operation
+ * repeatedly until it has run for the iteration time, and at least once, and
+ * yields the average time per call. The score is the mean over measurement
+ * iterations and its error the half-width of the 99.9% confidence interval,
+ * assuming they are normally distributed.
+ */
+public class BenchmarkRunner {
+
+    // Two-sided 99.9% quantile of the normal distribution.
+    private static final double Z_99_9 = 3.291;
+    private static final double NANOS_PER_MICRO = 1000;
+
+    /**
+     * An operation to time. Its result is kept so that it can't be
+     * optimized away.
+     */
+    public interface Operation {
+        public Object run() throws Exception;
+    }
+
+    private static class Result {
+        final String name;
+        final Map<String, String> params;
+        final double[] microsPerOp;
+        // How many bytes each call processes, to report throughput, or 0.
+        final long bytesPerOp;
+
+        Result(String name, Map<String, String> params, double[] microsPerOp, long bytesPerOp) {
+            this.name = name;
+            this.params = params;
+            this.microsPerOp = microsPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+
+    private final int mWarmupIterations;
+    private final int mMeasurementIterations;
+    private final long mIterationTimeNs;
+    private final Pattern mFilter;
+    private final List<Result> mResults = new ArrayList<>();
+    private int mBlackhole;
+
+    /**
+     * @param filter runs only benchmarks whose name matches, or all if null.
+     */
+    public BenchmarkRunner(int warmupIterations, int measurementIterations,
+            long iterationTimeMs, Pattern filter) {
+        mWarmupIterations = warmupIterations;
+        mMeasurementIterations = measurementIterations;
+        mIterationTimeNs = iterationTimeMs * 1000000;
+        mFilter = filter;
+    }
+
+    public void run(String name, Operation operation) throws Exception {
+        run(name, new LinkedHashMap<String, String>(), 0, operation);
+    }
+
+    /**
+     * Times the operation and keeps the result.
+     *
+     * @param params what the operation was set up with, e.g. the input size.
+     * @param bytesPerOp how many bytes each call processes, or 0.
+     */
+    public void run(String name, Map<String, String> params, long bytesPerOp,
+            Operation operation) throws Exception {
+        if (mFilter != null && !mFilter.matcher(name).find()) {
+            return;
+        }
+        System.err.print(name + params + ":");
+        for (int i = 0; i < mWarmupIterations; i++) {
+            runIteration(operation);
+        }
+        double[] microsPerOp = new double[mMeasurementIterations];
+        for (int i = 0; i < mMeasurementIterations; i++) {
+            microsPerOp[i] = runIteration(operation);
+            System.err.print(String.format(Locale.US, " %.1f", microsPerOp[i]));
+        }
+        System.err.println(" us/op");
+        mResults.add(new Result(name, params, microsPerOp, bytesPerOp));
+    }
+
+    private double runIteration(Operation operation) throws Exception {
+        long ops = 0;
+        long startNs = System.nanoTime();
+        long elapsedNs;
+        do {
+            Object result = operation.run();
+            mBlackhole += result != null ? result.hashCode() : 0;
+            ops++;
+            elapsedNs = System.nanoTime() - startNs;
+        } while (elapsedNs < mIterationTimeNs);
+        return elapsedNs / NANOS_PER_MICRO / ops;
+    }
+
+    /**
+     * Writes the results so far as a JSON array of JMH results.
+     */
+    public void writeJson(Writer out) throws IOException {
+        out.write("[\n");
+        for (int i = 0; i < mResults.size(); i++) {
+            Result result = mResults.get(i);
+            double mean = mean(result.microsPerOp);
+            out.write("  {\n");
+            out.write("    \"benchmark\": " + quote(result.name) + ",\n");
+            out.write("    \"mode\": \"avgt\",\n");
+            out.write("    \"warmupIterations\": " + mWarmupIterations + ",\n");
+            out.write("    \"measurementIterations\": " + mMeasurementIterations + ",\n");
+            out.write("    \"params\": {");
+            int param = 0;
+            for (Map.Entry<String, String> entry : result.params.entrySet()) {
+                out.write((param++ > 0 ? ", " : "") + quote(entry.getKey()) + ": "
+                    + quote(entry.getValue()));
+            }
+            out.write("},\n");
+            out.write("    \"primaryMetric\": " + formatMetric(mean, error(result.microsPerOp),
+                "us/op", result.microsPerOp));
+            if (result.bytesPerOp > 0) {
+                double[] mbPerSecond = new double[result.microsPerOp.length];
+                for (int j = 0; j < mbPerSecond.length; j++) {
+                    mbPerSecond[j] = result.bytesPerOp / (1024.0 * 1024.0)
+                        / (result.microsPerOp[j] / 1e6);
+                }
+                out.write(",\n    \"secondaryMetrics\": {\"throughput\": " + formatMetric(
+                    mean(mbPerSecond), error(mbPerSecond), "MB/s", mbPerSecond) + "}");
+            }
+            out.write("\n  }" + (i < mResults.size() - 1 ? "," : "") + "\n");
+        }
+        out.write("]\n");
+        out.flush();
+    }
+
+    private static String formatMetric(double score, double error, String unit,
+            double[] rawData) {
+        StringBuilder raw = new StringBuilder();
+        for (double value : rawData) {
+            raw.append(raw.length() > 0 ? ", " : "").append(format(value));
+        }
+        return "{\"score\": " + format(score) + ", \"scoreError\": " + format(error)
+            + ", \"scoreUnit\": " + quote(unit) + ", \"rawData\": [[" + raw + "]]}";
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return values.length > 0 ? sum / values.length : Double.NaN;
+    }
+
+    private static double error(double[] values) {
+        if (values.length < 2) {
+            return Double.NaN;
+        }
+        double mean = mean(values);
+        double squares = 0;
+        for (double value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+        double stddev = Math.sqrt(squares / (values.length - 1));
+        return Z_99_9 * stddev / Math.sqrt(values.length);
+    }
+
+    private static String format(double value) {
+        // JSON has no NaN, which JMH writes as a string.
+        return Double.isNaN(value) ? "\"NaN\"" : String.format(Locale.US, "%.3f", value);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
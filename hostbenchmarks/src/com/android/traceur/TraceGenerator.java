@@ -0,0 +1,665 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes synthetic perfetto traces of a given size, so that benchmarks and
+ * tests can work with traces as large as a long trace gets without a device
+ * recording for hours.
+ *
+ * A trace starts with its config and the ftrace stats at the start of the
+ * trace, and ends with the trace stats and ftrace stats, as perfetto writes
+ * them for a trace that lost nothing. In between are packets of ftrace
+ * sched_switch events, ftrace print events from atrace, process_stats, and
+ * battery counters and power rails, in the proportions given with
+ * {@link #setWeight}. Each data source writes on its own sequence, with
+ * timestamps that only go up.
+ *
+ * The body of the trace is generated in chunks of a fixed size, each with its
+ * own random numbers and its own second of trace time, on a pool of threads,
+ * and written out in order. The trace depends only on the seed, the options
+ * and the target size, not on the number of threads.
+ *
+ * Field numbers come from protos/perfetto/trace/trace_packet.proto and the
+ * protos it includes.
+ *
+ * Usage: TraceurTraceGenerator [--size-mb=N] [--seed=N] [--threads=N]
+ *     [--cpus=N] [--mix=sched=N,atrace=N,process_stats=N,power=N] FILE
+ */
+public class TraceGenerator {
+
+    /**
+     * The kinds of packets in the body of a trace.
+     */
+    public enum Kind {
+        SCHED,
+        ATRACE,
+        PROCESS_STATS,
+        POWER,
+    }
+
+    // Trace
+    private static final int TRACE_PACKET = 1;
+
+    // TracePacket
+    private static final int PACKET_FTRACE_EVENTS = 1;
+    private static final int PACKET_TIMESTAMP = 8;
+    private static final int PACKET_PROCESS_STATS = 9;
+    private static final int PACKET_TRUSTED_PACKET_SEQUENCE_ID = 10;
+    private static final int PACKET_TRACE_CONFIG = 33;
+    private static final int PACKET_FTRACE_STATS = 34;
+    private static final int PACKET_TRACE_STATS = 35;
+    private static final int PACKET_BATTERY = 38;
+    private static final int PACKET_POWER_RAILS = 40;
+
+    // FtraceEventBundle and FtraceEvent
+    private static final int BUNDLE_CPU = 1;
+    private static final int BUNDLE_EVENT = 2;
+    private static final int EVENT_TIMESTAMP = 1;
+    private static final int EVENT_PID = 2;
+    private static final int EVENT_PRINT = 3;
+    private static final int EVENT_SCHED_SWITCH = 4;
+
+    // PrintFtraceEvent
+    private static final int PRINT_IP = 1;
+    private static final int PRINT_BUF = 2;
+
+    // SchedSwitchFtraceEvent
+    private static final int SWITCH_PREV_COMM = 1;
+    private static final int SWITCH_PREV_PID = 2;
+    private static final int SWITCH_PREV_PRIO = 3;
+    private static final int SWITCH_PREV_STATE = 4;
+    private static final int SWITCH_NEXT_COMM = 5;
+    private static final int SWITCH_NEXT_PID = 6;
+    private static final int SWITCH_NEXT_PRIO = 7;
+
+    // ProcessStats and ProcessStats.Process
+    private static final int PROCESS_STATS_PROCESSES = 1;
+    private static final int PROCESS_PID = 1;
+    private static final int PROCESS_VM_SIZE_KB = 2;
+    private static final int PROCESS_VM_RSS_KB = 3;
+    private static final int PROCESS_RSS_ANON_KB = 4;
+    private static final int PROCESS_RSS_FILE_KB = 5;
+    private static final int PROCESS_OOM_SCORE_ADJ = 10;
+
+    // BatteryCounters
+    private static final int BATTERY_CHARGE_COUNTER_UAH = 1;
+    private static final int BATTERY_CAPACITY_PERCENT = 2;
+    private static final int BATTERY_CURRENT_UA = 3;
+
+    // PowerRails, PowerRails.RailDescriptor and PowerRails.EnergyData
+    private static final int RAILS_DESCRIPTOR = 1;
+    private static final int RAILS_ENERGY_DATA = 2;
+    private static final int RAIL_INDEX = 1;
+    private static final int RAIL_NAME = 2;
+    private static final int RAIL_SUBSYS_NAME = 3;
+    private static final int RAIL_SAMPLING_RATE = 4;
+    private static final int ENERGY_INDEX = 1;
+    private static final int ENERGY_TIMESTAMP_MS = 2;
+    private static final int ENERGY_ENERGY = 3;
+
+    // TraceStats and TraceStats.BufferStats
+    private static final int STATS_BUFFER_STATS = 1;
+    private static final int BUFFER_BYTES_WRITTEN = 1;
+    private static final int BUFFER_CHUNKS_WRITTEN = 2;
+    private static final int BUFFER_SIZE = 12;
+
+    // FtraceStats and FtraceCpuStats
+    private static final int FTRACE_STATS_PHASE = 1;
+    private static final int FTRACE_STATS_CPU_STATS = 2;
+    private static final int PHASE_START_OF_TRACE = 1;
+    private static final int PHASE_END_OF_TRACE = 2;
+    private static final int CPU_STATS_CPU = 1;
+    private static final int CPU_STATS_OVERRUN = 3;
+
+    private static final long MB = 1024 * 1024;
+    private static final int DEFAULT_CHUNK_BYTES = (int) (4 * MB);
+    // Each chunk covers this much trace time.
+    private static final long CHUNK_DURATION_NS = 1000000000L;
+    private static final long START_TIMESTAMP_NS = 1000000000L;
+    private static final int BUFFER_SIZE_KB = 16384;
+    private static final int AUX_BUFFER_SIZE_KB = 2048;
+    // The size of perfetto's chunks, for the trace stats.
+    private static final int PERFETTO_CHUNK_BYTES = 4096;
+
+    private static final int EVENTS_PER_BUNDLE = 64;
+    private static final int PROCESSES_PER_STATS = 32;
+    private static final int NUM_TASKS = 128;
+    private static final int FIRST_PID = 1000;
+    // Sequence IDs after the ones for ftrace, which has one per CPU.
+    private static final int SERVICE_SEQUENCE = 1;
+    private static final int PROCESS_STATS_SEQUENCE = 2;
+    private static final int POWER_SEQUENCE = 3;
+
+    private static final List<String> CATEGORIES = Arrays.asList(
+        "am", "binder_driver", "dalvik", "freq", "gfx", "input", "power", "res", "sched",
+        "view", "wm");
+    private static final String[] COMMS = {
+        "system_server", "surfaceflinger", "RenderThread", "HeapTaskDaemon", "binder:1234_2",
+        "kworker/u16:3", "android.bg", "ActivityManager", "InputDispatcher", "mali-cmar-backe",
+        "HwBinder:567_1", "composer@2.1-se", "ksoftirqd/0", "logd.writer", "traced_probes",
+        "com.android.systemui",
+    };
+    private static final String[] SLICES = {
+        "Choreographer#doFrame", "traversal", "draw", "measure", "layout", "inflate",
+        "binder transaction", "binder reply", "Lock contention on a monitor lock",
+        "queueBuffer", "dequeueBuffer", "onMessageReceived", "handleMessageRefresh",
+        "activityStart", "bindApplication", "GC: Wait For Completion",
+    };
+    private static final String[] RAILS = {
+        "S2M_VDD_CPUCL2", "S3M_VDD_CPUCL1", "S4M_VDD_CPUCL0", "S5M_VDD_INT", "S1M_VDD_MIF",
+        "L22M_DISP", "S9M_VDD_AOC", "VSYS_PWR_MODEM",
+    };
+
+    private static final byte[][] COMM_BYTES = new byte[COMMS.length][];
+    private static final byte[][][] BEGIN_BYTES = new byte[NUM_TASKS][SLICES.length][];
+    private static final byte[][] END_BYTES = new byte[NUM_TASKS][];
+
+    static {
+        for (int i = 0; i < COMMS.length; i++) {
+            COMM_BYTES[i] = COMMS[i].getBytes(StandardCharsets.UTF_8);
+        }
+        for (int task = 0; task < NUM_TASKS; task++) {
+            int pid = FIRST_PID + task;
+            for (int slice = 0; slice < SLICES.length; slice++) {
+                BEGIN_BYTES[task][slice] = ("B|" + pid + "|" + SLICES[slice] + "\n")
+                    .getBytes(StandardCharsets.UTF_8);
+            }
+            END_BYTES[task] = ("E|" + pid + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private final long mSeed;
+    private final Map<Kind, Integer> mWeights = new EnumMap<>(Kind.class);
+    private int mNumCpus = 8;
+    private int mThreads = Runtime.getRuntime().availableProcessors();
+    private int mChunkBytes = DEFAULT_CHUNK_BYTES;
+
+    public TraceGenerator(long seed) {
+        mSeed = seed;
+        mWeights.put(Kind.SCHED, 70);
+        mWeights.put(Kind.ATRACE, 20);
+        mWeights.put(Kind.PROCESS_STATS, 5);
+        mWeights.put(Kind.POWER, 5);
+    }
+
+    /**
+     * Sets how often packets of the given kind are written relative to the
+     * others. Zero leaves them out.
+     */
+    public TraceGenerator setWeight(Kind kind, int weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight for " + kind);
+        }
+        mWeights.put(kind, weight);
+        return this;
+    }
+
+    /**
+     * Sets the weights from a list like "sched=70,atrace=20,power=10". Kinds
+     * that aren't listed keep their weight.
+     */
+    public TraceGenerator setMix(String mix) {
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Bad event mix entry: " + entry);
+            }
+            setWeight(Kind.valueOf(parts[0].trim().toUpperCase(Locale.US)),
+                Integer.parseInt(parts[1].trim()));
+        }
+        return this;
+    }
+
+    public TraceGenerator setNumCpus(int numCpus) {
+        mNumCpus = numCpus;
+        return this;
+    }
+
+    /**
+     * Sets how many threads generate the trace. This doesn't change the
+     * trace.
+     */
+    public TraceGenerator setThreads(int threads) {
+        mThreads = Math.max(threads, 1);
+        return this;
+    }
+
+    /**
+     * Sets the size of the chunks the body is generated in, which changes
+     * the trace. Tests use small chunks to have several in a small trace.
+     */
+    TraceGenerator setChunkBytes(int chunkBytes) {
+        mChunkBytes = chunkBytes;
+        return this;
+    }
+
+    /**
+     * Writes a trace of at least the given size to the file.
+     *
+     * @return the size of the trace.
+     */
+    public long generate(File file, long targetBytes) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            return generate(out, targetBytes);
+        }
+    }
+
+    /**
+     * Writes a trace of at least the given size to the stream, which is left
+     * open.
+     *
+     * @return the size of the trace.
+     */
+    public long generate(OutputStream out, long targetBytes) throws IOException {
+        int totalWeight = 0;
+        for (int weight : mWeights.values()) {
+            totalWeight += weight;
+        }
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException("All event weights are zero");
+        }
+
+        ProtoWriter header = writeHeader();
+        out.write(header.buffer(), 0, header.size());
+        long written = header.size();
+
+        final long bodyBytes = Math.max(targetBytes - written, 0);
+        long numChunks = (bodyBytes + mChunkBytes - 1) / mChunkBytes;
+        ExecutorService pool = Executors.newFixedThreadPool(mThreads, runnable -> {
+            Thread thread = new Thread(runnable, "TraceGenerator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // Chunks are generated a few ahead of the one being written, so
+            // that the threads keep busy without holding the whole trace.
+            ArrayDeque<Future<ProtoWriter>> pending = new ArrayDeque<>();
+            long next = 0;
+            while (next < numChunks || !pending.isEmpty()) {
+                while (next < numChunks && pending.size() < 2 * mThreads) {
+                    final long index = next++;
+                    final long budget = Math.min(mChunkBytes, bodyBytes - index * mChunkBytes);
+                    pending.add(pool.submit(() -> generateChunk(index, budget)));
+                }
+                ProtoWriter chunk = await(pending.remove());
+                out.write(chunk.buffer(), 0, chunk.size());
+                written += chunk.size();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        ProtoWriter trailer = writeTrailer(written, numChunks);
+        out.write(trailer.buffer(), 0, trailer.size());
+        out.flush();
+        return written + trailer.size();
+    }
+
+    private static ProtoWriter await(Future<ProtoWriter> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while generating a trace");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to generate a trace", e.getCause());
+        }
+    }
+
+    /*
+     * The config the trace would have been recorded with, the power rails,
+     * which perfetto describes once, and the ftrace stats at the start.
+     */
+    private ProtoWriter writeHeader() {
+        ProtoWriter header = new ProtoWriter();
+        ProtoWriter packet = new ProtoWriter();
+        ProtoWriter message = new ProtoWriter();
+        ProtoWriter entry = new ProtoWriter();
+
+        byte[] config = TraceConfig.create(CATEGORIES, BUFFER_SIZE_KB, AUX_BUFFER_SIZE_KB,
+            mNumCpus, true, true, 0, 0).toByteArray();
+        packet.writeBytes(PACKET_TRACE_CONFIG, config);
+        writePacket(header, packet, START_TIMESTAMP_NS, sourceSequence(SERVICE_SEQUENCE));
+
+        for (int i = 0; i < RAILS.length; i++) {
+            entry.reset();
+            entry.writeVarint(RAIL_INDEX, i)
+                .writeString(RAIL_NAME, RAILS[i])
+                .writeString(RAIL_SUBSYS_NAME, "power")
+                .writeVarint(RAIL_SAMPLING_RATE, 1000);
+            message.writeMessage(RAILS_DESCRIPTOR, entry);
+        }
+        packet.writeMessage(PACKET_POWER_RAILS, message);
+        writePacket(header, packet, START_TIMESTAMP_NS, sourceSequence(POWER_SEQUENCE));
+
+        writeFtraceStats(header, packet, message, entry, PHASE_START_OF_TRACE,
+            START_TIMESTAMP_NS);
+        return header;
+    }
+
+    private ProtoWriter writeTrailer(long bytesWritten, long numChunks) {
+        ProtoWriter trailer = new ProtoWriter();
+        ProtoWriter packet = new ProtoWriter();
+        ProtoWriter message = new ProtoWriter();
+        ProtoWriter entry = new ProtoWriter();
+        long endNs = START_TIMESTAMP_NS + numChunks * CHUNK_DURATION_NS;
+
+        writeFtraceStats(trailer, packet, message, entry, PHASE_END_OF_TRACE, endNs);
+
+        // Everything went into the ftrace buffer, which perfetto numbers 0.
+        message.reset();
+        entry.reset();
+        entry.writeVarint(BUFFER_BYTES_WRITTEN, bytesWritten)
+            .writeVarint(BUFFER_CHUNKS_WRITTEN, bytesWritten / PERFETTO_CHUNK_BYTES)
+            .writeVarint(BUFFER_SIZE, (long) BUFFER_SIZE_KB * 1024 * mNumCpus);
+        message.writeMessage(STATS_BUFFER_STATS, entry);
+        entry.reset();
+        entry.writeVarint(BUFFER_SIZE, (long) AUX_BUFFER_SIZE_KB * 1024);
+        message.writeMessage(STATS_BUFFER_STATS, entry);
+        packet.writeMessage(PACKET_TRACE_STATS, message);
+        writePacket(trailer, packet, endNs, sourceSequence(SERVICE_SEQUENCE));
+        return trailer;
+    }
+
+    private void writeFtraceStats(ProtoWriter out, ProtoWriter packet, ProtoWriter message,
+            ProtoWriter entry, int phase, long timestampNs) {
+        message.reset();
+        message.writeVarint(FTRACE_STATS_PHASE, phase);
+        for (int cpu = 0; cpu < mNumCpus; cpu++) {
+            entry.reset();
+            entry.writeVarint(CPU_STATS_CPU, cpu).writeVarint(CPU_STATS_OVERRUN, 0);
+            message.writeMessage(FTRACE_STATS_CPU_STATS, entry);
+        }
+        packet.writeMessage(PACKET_FTRACE_STATS, message);
+        writePacket(out, packet, timestampNs, sourceSequence(SERVICE_SEQUENCE));
+    }
+
+    /*
+     * Generates packets until there are at least the given number of bytes.
+     */
+    private ProtoWriter generateChunk(long index, long budget) {
+        Chunk chunk = new Chunk(index, budget);
+        int totalWeight = 0;
+        for (int weight : mWeights.values()) {
+            totalWeight += weight;
+        }
+        while (chunk.out.size() < budget) {
+            int pick = chunk.random.nextInt(totalWeight);
+            for (Map.Entry<Kind, Integer> weight : mWeights.entrySet()) {
+                pick -= weight.getValue();
+                if (pick < 0) {
+                    writePacket(chunk, weight.getKey());
+                    break;
+                }
+            }
+        }
+        return chunk.out;
+    }
+
+    /**
+     * What is needed to generate one chunk.
+     */
+    private class Chunk {
+        final ProtoWriter out;
+        final SplittableRandom random;
+        final long endNs;
+        // What runs on each CPU.
+        final int[] running = new int[mNumCpus];
+        final ProtoWriter packet = new ProtoWriter(16 * 1024);
+        final ProtoWriter message = new ProtoWriter(16 * 1024);
+        final ProtoWriter entry = new ProtoWriter();
+        final ProtoWriter event = new ProtoWriter();
+        long timestampNs;
+
+        Chunk(long index, long budget) {
+            out = new ProtoWriter((int) budget + 64 * 1024);
+            random = new SplittableRandom(mSeed * 31 + index);
+            timestampNs = START_TIMESTAMP_NS + index * CHUNK_DURATION_NS;
+            endNs = timestampNs + CHUNK_DURATION_NS;
+            for (int cpu = 0; cpu < mNumCpus; cpu++) {
+                running[cpu] = random.nextInt(NUM_TASKS);
+            }
+        }
+
+        /*
+         * Moves time forward by about ten microseconds, staying within the
+         * chunk's time.
+         */
+        long tick() {
+            timestampNs = Math.min(timestampNs + 1 + random.nextInt(20000), endNs - 1);
+            return timestampNs;
+        }
+    }
+
+    private void writePacket(Chunk chunk, Kind kind) {
+        switch (kind) {
+            case SCHED:
+                writeSchedBundle(chunk);
+                break;
+            case ATRACE:
+                writeAtraceBundle(chunk);
+                break;
+            case PROCESS_STATS:
+                writeProcessStats(chunk);
+                break;
+            case POWER:
+                writePower(chunk);
+                break;
+        }
+    }
+
+    private void writeSchedBundle(Chunk chunk) {
+        int cpu = chunk.random.nextInt(mNumCpus);
+        ProtoWriter bundle = chunk.message;
+        bundle.reset();
+        bundle.writeVarint(BUNDLE_CPU, cpu);
+        for (int i = 0; i < EVENTS_PER_BUNDLE; i++) {
+            int prev = chunk.running[cpu];
+            int next = chunk.random.nextInt(NUM_TASKS);
+            chunk.running[cpu] = next;
+
+            ProtoWriter sched = chunk.entry;
+            sched.reset();
+            sched.writeBytes(SWITCH_PREV_COMM, COMM_BYTES[prev % COMMS.length])
+                .writeVarint(SWITCH_PREV_PID, FIRST_PID + prev)
+                .writeVarint(SWITCH_PREV_PRIO, 100 + prev % 40)
+                .writeVarint(SWITCH_PREV_STATE, chunk.random.nextInt(3))
+                .writeBytes(SWITCH_NEXT_COMM, COMM_BYTES[next % COMMS.length])
+                .writeVarint(SWITCH_NEXT_PID, FIRST_PID + next)
+                .writeVarint(SWITCH_NEXT_PRIO, 100 + next % 40);
+            ProtoWriter event = chunk.event;
+            event.reset();
+            event.writeVarint(EVENT_TIMESTAMP, chunk.tick())
+                .writeVarint(EVENT_PID, FIRST_PID + prev)
+                .writeMessage(EVENT_SCHED_SWITCH, sched);
+            bundle.writeMessage(BUNDLE_EVENT, event);
+        }
+        chunk.packet.writeMessage(PACKET_FTRACE_EVENTS, bundle);
+        writePacket(chunk.out, chunk.packet, 0, ftraceSequence(cpu));
+    }
+
+    /*
+     * Slices as atrace writes them to trace_marker, each begin followed by
+     * its end.
+     */
+    private void writeAtraceBundle(Chunk chunk) {
+        int cpu = chunk.random.nextInt(mNumCpus);
+        ProtoWriter bundle = chunk.message;
+        bundle.reset();
+        bundle.writeVarint(BUNDLE_CPU, cpu);
+        for (int i = 0; i < EVENTS_PER_BUNDLE / 2; i++) {
+            int task = chunk.random.nextInt(NUM_TASKS);
+            byte[] begin = BEGIN_BYTES[task][chunk.random.nextInt(SLICES.length)];
+            writePrint(chunk, bundle, task, begin);
+            writePrint(chunk, bundle, task, END_BYTES[task]);
+        }
+        chunk.packet.writeMessage(PACKET_FTRACE_EVENTS, bundle);
+        writePacket(chunk.out, chunk.packet, 0, ftraceSequence(cpu));
+    }
+
+    private static void writePrint(Chunk chunk, ProtoWriter bundle, int task, byte[] buf) {
+        ProtoWriter print = chunk.entry;
+        print.reset();
+        print.writeVarint(PRINT_IP, 0xffffff8008123456L).writeBytes(PRINT_BUF, buf);
+        ProtoWriter event = chunk.event;
+        event.reset();
+        event.writeVarint(EVENT_TIMESTAMP, chunk.tick())
+            .writeVarint(EVENT_PID, FIRST_PID + task)
+            .writeMessage(EVENT_PRINT, print);
+        bundle.writeMessage(BUNDLE_EVENT, event);
+    }
+
+    private void writeProcessStats(Chunk chunk) {
+        ProtoWriter stats = chunk.message;
+        stats.reset();
+        int first = chunk.random.nextInt(NUM_TASKS);
+        for (int i = 0; i < PROCESSES_PER_STATS; i++) {
+            int task = (first + i) % NUM_TASKS;
+            long rssKb = 20000 + chunk.random.nextInt(400000);
+            ProtoWriter process = chunk.entry;
+            process.reset();
+            process.writeVarint(PROCESS_PID, FIRST_PID + task)
+                .writeVarint(PROCESS_VM_SIZE_KB, 4 * rssKb + chunk.random.nextInt(1000000))
+                .writeVarint(PROCESS_VM_RSS_KB, rssKb)
+                .writeVarint(PROCESS_RSS_ANON_KB, rssKb / 2)
+                .writeVarint(PROCESS_RSS_FILE_KB, rssKb / 3)
+                .writeVarint(PROCESS_OOM_SCORE_ADJ, task % 2 == 0 ? -900 : 100 * (task % 10));
+            stats.writeMessage(PROCESS_STATS_PROCESSES, process);
+        }
+        chunk.packet.writeMessage(PACKET_PROCESS_STATS, stats);
+        writePacket(chunk.out, chunk.packet, chunk.tick(),
+            sourceSequence(PROCESS_STATS_SEQUENCE));
+    }
+
+    /*
+     * Battery counters or, as often, energy readings of every rail.
+     */
+    private void writePower(Chunk chunk) {
+        ProtoWriter message = chunk.message;
+        message.reset();
+        long timestampNs = chunk.tick();
+        if (chunk.random.nextBoolean()) {
+            message.writeVarint(BATTERY_CHARGE_COUNTER_UAH, 3000000 + chunk.random.nextInt(1000))
+                .writeFloat(BATTERY_CAPACITY_PERCENT, 50 + chunk.random.nextInt(50))
+                .writeVarint(BATTERY_CURRENT_UA, -200000 - chunk.random.nextInt(800000));
+            chunk.packet.writeMessage(PACKET_BATTERY, message);
+        } else {
+            for (int i = 0; i < RAILS.length; i++) {
+                ProtoWriter energy = chunk.entry;
+                energy.reset();
+                energy.writeVarint(ENERGY_INDEX, i)
+                    .writeVarint(ENERGY_TIMESTAMP_MS, timestampNs / 1000000)
+                    .writeVarint(ENERGY_ENERGY, timestampNs / 1000 * (i + 1)
+                        + chunk.random.nextInt(1000));
+                message.writeMessage(RAILS_ENERGY_DATA, energy);
+            }
+            chunk.packet.writeMessage(PACKET_POWER_RAILS, message);
+        }
+        writePacket(chunk.out, chunk.packet, timestampNs, sourceSequence(POWER_SEQUENCE));
+    }
+
+    private int ftraceSequence(int cpu) {
+        return 1 + cpu;
+    }
+
+    private int sourceSequence(int source) {
+        return mNumCpus + source;
+    }
+
+    /*
+     * Adds the packet's framing, then the packet to the trace, and resets
+     * it. ftrace packets have their timestamps in their events, so pass 0.
+     */
+    private static void writePacket(ProtoWriter out, ProtoWriter packet, long timestampNs,
+            int sequenceId) {
+        if (timestampNs > 0) {
+            packet.writeVarint(PACKET_TIMESTAMP, timestampNs);
+        }
+        packet.writeVarint(PACKET_TRUSTED_PACKET_SEQUENCE_ID, sequenceId);
+        out.writeMessage(TRACE_PACKET, packet);
+        packet.reset();
+    }
+
+    public static void main(String[] args) throws IOException {
+        long sizeMb = 1024;
+        long seed = 0;
+        String mix = null;
+        File file = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int numCpus = 8;
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            String value = option.length > 1 ? option[1] : "";
+            switch (option[0]) {
+                case "--size-mb":
+                    sizeMb = Long.parseLong(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--cpus":
+                    numCpus = Integer.parseInt(value);
+                    break;
+                case "--mix":
+                    mix = value;
+                    break;
+                default:
+                    if (arg.startsWith("--") || file != null) {
+                        System.err.println("Unknown option: " + arg);
+                        System.exit(1);
+                    }
+                    file = new File(arg);
+            }
+        }
+        if (file == null) {
+            System.err.println("No output file given");
+            System.exit(1);
+        }
+
+        TraceGenerator generator = new TraceGenerator(seed).setThreads(threads).setNumCpus(numCpus);
+        if (mix != null) {
+            generator.setMix(mix);
+        }
+        long startNs = System.nanoTime();
+        long size = generator.generate(file, sizeMb * MB);
+        double seconds = (System.nanoTime() - startNs) / 1e9;
+        System.err.println(String.format(Locale.US, "Wrote %d bytes to %s in %.1f s (%.0f MB/s)",
+            size, file, seconds, size / (double) MB / seconds));
+    }
+}
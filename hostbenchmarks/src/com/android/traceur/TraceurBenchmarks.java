@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks Traceur's hot paths on host: building trace configs, parsing
+ * the category list, naming trace files, and reading, splitting and
+ * compressing large traces.
+ *
+ * Usage: TraceurHostBenchmarks [--output=FILE] [--filter=REGEX]
+ *     [--warmup=N] [--iterations=N] [--time-ms=N] [--trace-sizes-mb=N,N...]
+ *     [--tmp-dir=DIR]
+ *
+ * Results are written as JMH-style JSON to the output file, or to stdout,
+ * and progress to stderr. Trace benchmarks write their traces to the
+ * temporary directory, which needs room for about three times the largest
+ * trace size.
+ */
+public class TraceurBenchmarks {
+
+    private static final int NUM_CPUS = 8;
+    private static final int CATEGORY_LIST_LINES = 200;
+    private static final long MB = 1024 * 1024;
+    // Traces are the same from run to run, so that results can be compared.
+    private static final long TRACE_SEED = 1;
+
+    // Categories that "atrace --list_categories" lists on a typical device.
+    private static final String[] CATEGORIES = {
+        "gfx", "input", "view", "webview", "wm", "am", "sm", "audio", "video", "camera",
+        "hal", "res", "dalvik", "rs", "bionic", "power", "pm", "ss", "database", "network",
+        "adb", "vibrator", "aidl", "nnapi", "rro", "sched", "irq", "i2c", "freq", "idle",
+        "disk", "sync", "workq", "memreclaim", "regulators", "binder_driver", "binder_lock",
+        "pagecache", "memory", "thermal", "gfx_vendor",
+    };
+
+    private static final List<String> TRACE_CATEGORIES = Arrays.asList(
+        "aidl", "am", "binder_driver", "camera", "dalvik", "disk", "freq", "gfx", "hal",
+        "idle", "input", "memory", "memreclaim", "network", "power", "res", "sched", "ss",
+        "thermal", "view", "webview", "wm");
+
+    public static void main(String[] args) throws Exception {
+        String output = null;
+        Pattern filter = null;
+        int warmup = 3;
+        int iterations = 5;
+        long timeMs = 1000;
+        long[] traceSizesMb = {1024};
+        File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            String value = option.length > 1 ? option[1] : "";
+            switch (option[0]) {
+                case "--output":
+                    output = value;
+                    break;
+                case "--filter":
+                    filter = Pattern.compile(value);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(value);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(value);
+                    break;
+                case "--time-ms":
+                    timeMs = Long.parseLong(value);
+                    break;
+                case "--trace-sizes-mb":
+                    String[] sizes = value.split(",");
+                    traceSizesMb = new long[sizes.length];
+                    for (int i = 0; i < sizes.length; i++) {
+                        traceSizesMb[i] = Long.parseLong(sizes[i].trim());
+                    }
+                    break;
+                case "--tmp-dir":
+                    tmpDir = new File(value);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(1);
+            }
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations, timeMs, filter);
+        runConfigBenchmarks(runner);
+        runCategoryBenchmarks(runner);
+        runFilenameBenchmarks(runner);
+        for (long sizeMb : traceSizesMb) {
+            runTraceBenchmarks(runner, tmpDir, sizeMb);
+        }
+
+        try (Writer out = output != null
+                ? new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8)
+                : new OutputStreamWriter(System.out, StandardCharsets.UTF_8)) {
+            runner.writeJson(out);
+        }
+    }
+
+    private static void runConfigBenchmarks(BenchmarkRunner runner) throws Exception {
+        runner.run("config.create", () -> TraceConfig.create(TRACE_CATEGORIES, 16384, 2048,
+            NUM_CPUS, true, false, 0, 0).toByteArray());
+        runner.run("config.createLongTrace", () -> TraceConfig.create(TRACE_CATEGORIES, 16384,
+            2048, NUM_CPUS, true, true, 10240, 60).toByteArray());
+        for (final TraceProfile profile : TraceProfile.getBuiltInProfiles()) {
+            runner.run("config.profile", params("profile", profile.getName()), 0,
+                () -> profile.createConfig(NUM_CPUS).toByteArray());
+        }
+    }
+
+    private static void runCategoryBenchmarks(BenchmarkRunner runner) throws Exception {
+        final String list = buildCategoryList(CATEGORY_LIST_LINES);
+        runner.run("categories.parse", params("lines", Integer.toString(CATEGORY_LIST_LINES)),
+            list.length(),
+            () -> CategoryCatalog.parse(new BufferedReader(new StringReader(list))));
+    }
+
+    private static void runFilenameBenchmarks(BenchmarkRunner runner) throws Exception {
+        runner.run("outputFilename", () -> TraceRetention.formatTraceName("board",
+            "ABC1.200101.001", System.currentTimeMillis(), "perfetto-trace"));
+    }
+
+    private static void runTraceBenchmarks(BenchmarkRunner runner, File tmpDir, long sizeMb)
+            throws Exception {
+        final File dir = Files.createTempDirectory(tmpDir.toPath(), "traceur-bench").toFile();
+        try {
+            final File trace = new File(dir, "trace-bench.perfetto-trace");
+            System.err.println("Writing a " + sizeMb + " MB trace to " + trace);
+            new TraceGenerator(TRACE_SEED).setNumCpus(NUM_CPUS).generate(trace, sizeMb * MB);
+            final File compressed = new File(dir, trace.getName() + ".gz");
+            BlockCompressor.gzip(trace, compressed);
+            final File partsDir = new File(dir, "parts");
+            partsDir.mkdirs();
+
+            Map<String, String> params = params("traceSizeMb", Long.toString(sizeMb));
+            runner.run("trace.summary", params, trace.length(),
+                () -> TraceSummary.read(trace).getPacketCount());
+            runner.run("trace.summaryCompressed", params, trace.length(),
+                () -> TraceSummary.read(compressed).getPacketCount());
+            runner.run("trace.split", params, trace.length(),
+                () -> new TraceSplitter(trace.length() / 4 + 1, null).split(trace, partsDir));
+            final File out = new File(dir, "out.gz");
+            runner.run("trace.compress", params, trace.length(),
+                () -> BlockCompressor.gzip(trace, out));
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    /*
+     * Returns "atrace --list_categories" output of the given length: the
+     * usual categories, then vendor ones.
+     */
+    private static String buildCategoryList(int lines) {
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            String name = i < CATEGORIES.length ? CATEGORIES[i] : "vendor_" + i;
+            list.append(String.format("%16s - %s\n", name, "Description of " + name));
+        }
+        return list.toString();
+    }
+
+    private static Map<String, String> params(String name, String value) {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put(name, value);
+        return params;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,115 @@
+#!/bin/sh
+#
+# Copyright (C) 2026 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# A fake perfetto, trigger_perfetto or atrace, depending on the name it's run
+# as, for TraceurEngineHarness. It does what Traceur's trace engines expect of
+# the real binary, taking as long, failing and writing as much as fake.conf
+# next to it says:
+#   <OP>_DELAY    seconds to take, e.g. 0.05
+#   <OP>_EXIT     exit code
+#   OUTPUT_BYTES  size of the traces written
+#   ROOT          the root directory the engines were given
+# where OP is START, STOP, QUERY or TRIGGER.
+
+bin=$(dirname "$0")
+name=$(basename "$0")
+. "$bin/fake.conf"
+
+op=
+key=$name
+out=
+clone=
+prev=
+for arg in "$@"; do
+    if [ "$prev" = "-o" ]; then
+        out=$arg
+    fi
+    case "$arg" in
+        --detach=*) op=START; key=${arg#--detach=} ;;
+        --attach=*) key=${arg#--attach=} ;;
+        --is_detached=*) op=QUERY; key=${arg#--is_detached=} ;;
+        --clone-by-name=*) op=STOP; clone=1; key=${arg#--clone-by-name=} ;;
+        --stop|--async_stop|--async_dump) op=STOP ;;
+        --async_start) op=START ;;
+        --list_categories) op=QUERY ;;
+    esac
+    prev=$arg
+done
+if [ "$name" = trigger_perfetto ]; then
+    op=TRIGGER
+fi
+if [ -z "$op" ]; then
+    echo "$name: unsupported arguments: $*" >&2
+    exit 1
+fi
+
+eval "delay=\${${op}_DELAY:-0} status=\${${op}_EXIT:-0}"
+if [ "$op" = START ]; then
+    # perfetto reads its config from stdin.
+    cat > /dev/null
+fi
+sleep "$delay"
+if [ "$status" != 0 ]; then
+    echo "$name: failing with $status as configured" >&2
+    exit "$status"
+fi
+
+session="$bin/sessions/$key"
+tracing_on="$ROOT/sys/kernel/tracing/tracing_on"
+
+# Writes to tracefs are atomic, so readers never see an empty file.
+set_tracing_on() {
+    echo "$1" > "$tracing_on.$$"
+    mv "$tracing_on.$$" "$tracing_on"
+}
+
+case "$name:$op" in
+    perfetto:START)
+        # Only one session per key, as for the real traced.
+        mkdir -p "$bin/sessions"
+        mkdir "$session" 2> /dev/null || exit 1
+        echo "$out" > "$session/out"
+        : > "$out"
+        ;;
+    perfetto:STOP)
+        [ -d "$session" ] || exit 1
+        if [ -n "$clone" ]; then
+            head -c "$OUTPUT_BYTES" /dev/zero > "$out"
+        else
+            head -c "$OUTPUT_BYTES" /dev/zero > "$(cat "$session/out")"
+            rm -r "$session"
+        fi
+        ;;
+    perfetto:QUERY)
+        [ -d "$session" ] || exit 2
+        ;;
+    atrace:START)
+        set_tracing_on 1
+        ;;
+    atrace:STOP)
+        if [ -n "$out" ]; then
+            head -c "$OUTPUT_BYTES" /dev/zero > "$out"
+        fi
+        if [ "$1" = --async_stop ]; then
+            set_tracing_on 0
+        fi
+        ;;
+    atrace:QUERY)
+        echo "         gfx - Graphics"
+        echo "       sched - CPU Scheduling"
+        ;;
+esac
+exit 0
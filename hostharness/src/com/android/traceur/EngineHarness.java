@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import android.sysprop.TraceProperties;
+import android.util.Log;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Measures how long Traceur's trace engines take to start, stop and dump
+ * traces and to tell whether one is being recorded, by running
+ * {@link PerfettoUtils} and {@link AtraceUtils} on host against fake
+ * binaries that take as long, fail and write as much as each scenario says.
+ *
+ * Usage: TraceurEngineHarness [--iterations=N] [--threads=N]
+ *     [--trace-size-kb=N] [--compression=none|gzip] [--scenario=REGEX]
+ *     [--engine=REGEX] [--tmp-dir=DIR] [--verbose]
+ *
+ * Each scenario runs a number of cycles of traceStart, isTracingOn,
+ * traceDump, then traceStart and traceStop. The concurrent scenario also
+ * polls isTracingOn from other threads meanwhile, as the tile and the UI do.
+ * The p50 and p99 latency of every call is printed to stdout, followed by
+ * the spawn-to-exit latency of the commands the engines ran.
+ */
+public class EngineHarness {
+
+    private static final List<String> TAGS = Arrays.asList(
+        "am", "binder_driver", "camera", "dalvik", "freq", "gfx", "hal", "idle", "input",
+        "memory", "power", "res", "sched", "view", "wm");
+    private static final int BUFFER_SIZE_KB = 16384;
+    private static final int AUX_BUFFER_SIZE_KB = 2048;
+
+    private static final String[] OPERATIONS = {
+        "traceStart", "traceStop", "traceDump", "isTracingOn",
+    };
+
+    private static class Scenario {
+        final String name;
+        final FakeBinaries.Behavior behavior;
+        final boolean concurrent;
+
+        Scenario(String name, FakeBinaries.Behavior behavior, boolean concurrent) {
+            this.name = name;
+            this.behavior = behavior;
+            this.concurrent = concurrent;
+        }
+    }
+
+    /**
+     * The latencies of calls to one operation, and how many failed, i.e.
+     * returned false or threw.
+     */
+    private static class Latencies {
+        private final List<Long> mNanos = new ArrayList<>();
+        private int mErrors;
+
+        synchronized void record(long nanos, boolean succeeded) {
+            mNanos.add(nanos);
+            if (!succeeded) {
+                mErrors++;
+            }
+        }
+
+        synchronized int getCount() {
+            return mNanos.size();
+        }
+
+        synchronized int getErrors() {
+            return mErrors;
+        }
+
+        /**
+         * Returns the given percentile (0-100) by the nearest rank method, in
+         * milliseconds.
+         */
+        synchronized double getPercentileMs(double percentile) {
+            if (mNanos.isEmpty()) {
+                return Double.NaN;
+            }
+            List<Long> sorted = new ArrayList<>(mNanos);
+            sorted.sort(null);
+            int rank = (int) Math.ceil(sorted.size() * percentile / 100.0);
+            return sorted.get(Math.max(rank, 1) - 1) / 1e6;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 20;
+        int threads = 4;
+        long traceSizeKb = 4096;
+        TraceCompression compression = TraceCompression.NONE;
+        Pattern scenarioFilter = null;
+        Pattern engineFilter = null;
+        File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            String value = option.length > 1 ? option[1] : "";
+            switch (option[0]) {
+                case "--iterations":
+                    iterations = Integer.parseInt(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--trace-size-kb":
+                    traceSizeKb = Long.parseLong(value);
+                    break;
+                case "--compression":
+                    compression = TraceCompression.fromPreference(value);
+                    break;
+                case "--scenario":
+                    scenarioFilter = Pattern.compile(value);
+                    break;
+                case "--engine":
+                    engineFilter = Pattern.compile(value, Pattern.CASE_INSENSITIVE);
+                    break;
+                case "--tmp-dir":
+                    tmpDir = new File(value);
+                    break;
+                case "--verbose":
+                    Log.setVerbose(true);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + arg);
+                    System.exit(1);
+            }
+        }
+
+        File dir = Files.createTempDirectory(tmpDir.toPath(), "traceur-harness").toFile();
+        try {
+            FakeBinaries fakes = new FakeBinaries(dir);
+            ProcessRunner.setBinDir(fakes.getBinDir());
+            // Set as they are once Traceur has started its first trace.
+            TraceProperties.enable(true);
+            TraceProperties.user_initiated(true);
+
+            TraceEngine[] engines = {
+                new PerfettoUtils(fakes.getRootDir()), new AtraceUtils(fakes.getRootDir()),
+            };
+            System.out.println(String.format(Locale.US, "%-12s %-9s %-28s %6s %6s %9s %9s",
+                "scenario", "engine", "operation", "count", "errors", "p50 ms", "p99 ms"));
+            for (Scenario scenario : getScenarios(traceSizeKb * 1024)) {
+                if (scenarioFilter != null && !scenarioFilter.matcher(scenario.name).find()) {
+                    continue;
+                }
+                for (TraceEngine engine : engines) {
+                    if (engineFilter != null && !engineFilter.matcher(engine.getName()).find()) {
+                        continue;
+                    }
+                    System.err.println("Running " + scenario.name + " with "
+                        + engine.getName());
+                    fakes.configure(scenario.behavior);
+                    runScenario(scenario, engine, fakes.getRootDir(), iterations,
+                        scenario.concurrent ? threads : 0, compression);
+                }
+            }
+        } finally {
+            FakeBinaries.deleteRecursively(dir);
+        }
+        // The runner's threads are daemons, but the pollers' pool may linger.
+        System.exit(0);
+    }
+
+    private static List<Scenario> getScenarios(long outputBytes) {
+        List<Scenario> scenarios = new ArrayList<>();
+        scenarios.add(new Scenario("fast", new FakeBinaries.Behavior()
+            .setOutputBytes(outputBytes), false));
+        // Roughly what a loaded device takes to set up and flush a session.
+        scenarios.add(new Scenario("slow", new FakeBinaries.Behavior()
+            .setDelayMs(FakeBinaries.START, 200)
+            .setDelayMs(FakeBinaries.STOP, 500)
+            .setDelayMs(FakeBinaries.QUERY, 50)
+            .setOutputBytes(outputBytes), false));
+        scenarios.add(new Scenario("concurrent", new FakeBinaries.Behavior()
+            .setDelayMs(FakeBinaries.START, 50)
+            .setDelayMs(FakeBinaries.STOP, 100)
+            .setDelayMs(FakeBinaries.QUERY, 10)
+            .setOutputBytes(outputBytes), true));
+        scenarios.add(new Scenario("failing", new FakeBinaries.Behavior()
+            .setDelayMs(FakeBinaries.START, 20)
+            .setDelayMs(FakeBinaries.STOP, 20)
+            .setExitCode(FakeBinaries.START, 1)
+            .setExitCode(FakeBinaries.STOP, 1)
+            .setExitCode(FakeBinaries.QUERY, 1)
+            .setOutputBytes(outputBytes), false));
+        return scenarios;
+    }
+
+    private static void runScenario(Scenario scenario, final TraceEngine engine, File rootDir,
+            int iterations, int pollers, TraceCompression compression) throws Exception {
+        final Map<String, Latencies> latencies = new LinkedHashMap<>();
+        for (String operation : OPERATIONS) {
+            latencies.put(operation, new Latencies());
+        }
+        ProcessRunner runner = ProcessRunner.getInstance();
+        for (LatencyHistogram histogram : runner.getHistograms().values()) {
+            histogram.reset();
+        }
+
+        final AtomicBoolean done = new AtomicBoolean();
+        ExecutorService pool = null;
+        List<Future<?>> polls = new ArrayList<>();
+        if (pollers > 0) {
+            pool = Executors.newFixedThreadPool(pollers);
+            for (int i = 0; i < pollers; i++) {
+                polls.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        while (!done.get()) {
+                            timeIsTracingOn(engine, latencies);
+                        }
+                    }
+                }));
+            }
+        }
+
+        final File outFile = new File(rootDir,
+            "data/local/traces/trace-harness." + engine.getOutputExtension(compression));
+        final TraceCompression dumpCompression = compression;
+        try {
+            for (int i = 0; i < iterations; i++) {
+                time(latencies.get("traceStart"), () -> engine.traceStart(TAGS, BUFFER_SIZE_KB,
+                    AUX_BUFFER_SIZE_KB, true, false, false, 0, 0));
+                timeIsTracingOn(engine, latencies);
+                time(latencies.get("traceDump"), () -> {
+                    File savedFile = engine.traceDump(outFile, dumpCompression,
+                        new SaveProgress(null));
+                    if (savedFile == null) {
+                        return false;
+                    }
+                    savedFile.delete();
+                    return true;
+                });
+
+                time(latencies.get("traceStart"), () -> engine.traceStart(TAGS, BUFFER_SIZE_KB,
+                    AUX_BUFFER_SIZE_KB, true, false, false, 0, 0));
+                time(latencies.get("traceStop"), () -> {
+                    engine.traceStop();
+                    return true;
+                });
+            }
+        } finally {
+            done.set(true);
+            for (Future<?> poll : polls) {
+                poll.get();
+            }
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+
+        for (Map.Entry<String, Latencies> entry : latencies.entrySet()) {
+            printRow(scenario.name, engine.getName(), entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : runner.getHistograms().entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                System.out.println(String.format(Locale.US, "%-12s %-9s %-28s %s",
+                    scenario.name, engine.getName(), "(exec " + entry.getKey() + ")",
+                    entry.getValue()));
+            }
+        }
+    }
+
+    /*
+     * Whether tracing is on or not, the call succeeded unless it threw.
+     */
+    private static void timeIsTracingOn(final TraceEngine engine,
+            Map<String, Latencies> latencies) {
+        time(latencies.get("isTracingOn"), () -> {
+            engine.isTracingOn();
+            return true;
+        });
+    }
+
+    private static void time(Latencies latencies, Callable<Boolean> operation) {
+        long startNs = System.nanoTime();
+        boolean succeeded;
+        try {
+            succeeded = operation.call();
+        } catch (Exception e) {
+            succeeded = false;
+        }
+        latencies.record(System.nanoTime() - startNs, succeeded);
+    }
+
+    private static void printRow(String scenario, String engine, String operation,
+            Latencies latencies) {
+        System.out.println(String.format(Locale.US, "%-12s %-9s %-28s %6d %6d %9.2f %9.2f",
+            scenario, engine, operation, latencies.getCount(), latencies.getErrors(),
+            latencies.getPercentileMs(50), latencies.getPercentileMs(99)));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Fake perfetto, trigger_perfetto and atrace binaries, all copies of
+ * fake_engine.sh, and a root directory laid out like the device's for them
+ * and the trace engines to share.
+ *
+ * How the fakes behave is set with {@link #configure}, which they read each
+ * time they run.
+ */
+public class FakeBinaries {
+
+    public static final String START = "START";
+    public static final String STOP = "STOP";
+    public static final String QUERY = "QUERY";
+    public static final String TRIGGER = "TRIGGER";
+
+    private static final String SCRIPT = "/fake_engine.sh";
+    private static final String[] NAMES = {"perfetto", "trigger_perfetto", "atrace"};
+
+    /**
+     * How long the fakes take for each operation, how they exit, and how
+     * much trace data they write.
+     */
+    public static class Behavior {
+        private final Map<String, Long> mDelaysMs = new TreeMap<>();
+        private final Map<String, Integer> mExitCodes = new TreeMap<>();
+        private long mOutputBytes = 1024 * 1024;
+
+        public Behavior setDelayMs(String op, long delayMs) {
+            mDelaysMs.put(op, delayMs);
+            return this;
+        }
+
+        public Behavior setExitCode(String op, int exitCode) {
+            mExitCodes.put(op, exitCode);
+            return this;
+        }
+
+        public Behavior setOutputBytes(long outputBytes) {
+            mOutputBytes = outputBytes;
+            return this;
+        }
+
+        private String toConfig(File rootDir) {
+            StringBuilder config = new StringBuilder();
+            for (Map.Entry<String, Long> delay : mDelaysMs.entrySet()) {
+                config.append(String.format(Locale.US, "%s_DELAY=%.3f\n", delay.getKey(),
+                    delay.getValue() / 1000.0));
+            }
+            for (Map.Entry<String, Integer> exitCode : mExitCodes.entrySet()) {
+                config.append(exitCode.getKey() + "_EXIT=" + exitCode.getValue() + "\n");
+            }
+            config.append("OUTPUT_BYTES=" + mOutputBytes + "\n");
+            config.append("ROOT='" + rootDir.getPath() + "'\n");
+            return config.toString();
+        }
+    }
+
+    private final File mRootDir;
+    private final File mBinDir;
+    private final File mTracingOn;
+
+    /**
+     * Sets up the fakes and the root directory in the given directory.
+     */
+    public FakeBinaries(File dir) throws IOException {
+        mRootDir = new File(dir, "root");
+        mBinDir = new File(dir, "bin");
+        mTracingOn = new File(mRootDir, "sys/kernel/tracing/tracing_on");
+        Files.createDirectories(new File(mRootDir, "data/local/traces").toPath());
+        Files.createDirectories(mTracingOn.getParentFile().toPath());
+        Files.createDirectories(mBinDir.toPath());
+        // atrace dumps list the host's threads, as they would the device's.
+        Files.createSymbolicLink(new File(mRootDir, "proc").toPath(), Paths.get("/proc"));
+
+        byte[] script;
+        try (InputStream in = FakeBinaries.class.getResourceAsStream(SCRIPT)) {
+            if (in == null) {
+                throw new IOException(SCRIPT + " is missing from the class path");
+            }
+            script = in.readAllBytes();
+        }
+        for (String name : NAMES) {
+            File binary = new File(mBinDir, name);
+            Files.write(binary.toPath(), script);
+            binary.setExecutable(true);
+        }
+        configure(new Behavior());
+    }
+
+    public File getRootDir() {
+        return mRootDir;
+    }
+
+    public File getBinDir() {
+        return mBinDir;
+    }
+
+    /**
+     * Makes the fakes behave as given from their next run, and forgets any
+     * session they were recording.
+     */
+    public void configure(Behavior behavior) throws IOException {
+        File config = new File(mBinDir, "fake.conf");
+        File tmp = new File(mBinDir, "fake.conf.tmp");
+        Files.write(tmp.toPath(), behavior.toConfig(mRootDir).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), config.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        deleteRecursively(new File(mBinDir, "sessions"));
+        Files.write(mTracingOn.toPath(), "0\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Deletes the file or directory, without following symbolic links.
+     */
+    static void deleteRecursively(File file) {
+        File[] children = Files.isSymbolicLink(file.toPath()) ? null : file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
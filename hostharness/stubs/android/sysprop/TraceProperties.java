@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.sysprop;
+
+import java.util.Optional;
+
+/**
+ * Host stand-in for the generated android.sysprop.TraceProperties, keeping
+ * the properties in memory.
+ */
+public final class TraceProperties {
+    private static volatile Boolean sEnable;
+    private static volatile Boolean sUserInitiated;
+
+    private TraceProperties() {}
+
+    public static Optional<Boolean> enable() {
+        return Optional.ofNullable(sEnable);
+    }
+
+    public static void enable(Boolean value) {
+        sEnable = value;
+    }
+
+    public static Optional<Boolean> user_initiated() {
+        return Optional.ofNullable(sUserInitiated);
+    }
+
+    public static void user_initiated(Boolean value) {
+        sUserInitiated = value;
+    }
+}
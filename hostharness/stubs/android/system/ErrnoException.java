@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.system;
+
+/**
+ * Host stand-in for android.system.ErrnoException.
+ */
+public final class ErrnoException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public final int errno;
+
+    public ErrnoException(String functionName, int errno, Throwable cause) {
+        super(functionName + " failed: errno " + errno, cause);
+        this.errno = errno;
+    }
+}
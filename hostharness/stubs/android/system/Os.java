@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.system;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Host stand-in for the parts of android.system.Os that Traceur's trace
+ * engines use.
+ */
+public final class Os {
+    private static final long PAGE_SIZE = 4096;
+
+    private Os() {}
+
+    public static void rename(String oldPath, String newPath) throws ErrnoException {
+        try {
+            Files.move(Paths.get(oldPath), Paths.get(newPath),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new ErrnoException("rename", OsConstants.EIO, e);
+        }
+    }
+
+    public static long sysconf(int name) {
+        return name == OsConstants._SC_PAGESIZE ? PAGE_SIZE : -1;
+    }
+
+    /**
+     * Returns null, as bionic does for users it doesn't know, so that users
+     * are named by uid.
+     */
+    public static StructPasswd getpwuid(int uid) throws ErrnoException {
+        return null;
+    }
+}
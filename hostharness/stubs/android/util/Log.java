@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+/**
+ * Host stand-in for android.util.Log, which writes to stderr.
+ *
+ * Nothing is written unless {@link #setVerbose} is called, so that the
+ * errors of failure scenarios don't drown the results.
+ */
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    private static volatile boolean sVerbose;
+
+    private Log() {}
+
+    public static void setVerbose(boolean verbose) {
+        sVerbose = verbose;
+    }
+
+    public static int v(String tag, String msg) {
+        return println(VERBOSE, tag, msg, null);
+    }
+
+    public static int w(String tag, String msg) {
+        return println(WARN, tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return println(WARN, tag, msg, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return println(ERROR, tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return println(ERROR, tag, msg, tr);
+    }
+
+    private static int println(int level, String tag, String msg, Throwable tr) {
+        if (!sVerbose) {
+            return 0;
+        }
+        String prefix = level == ERROR ? "E/" : level == WARN ? "W/" : "V/";
+        String line = prefix + tag + ": " + msg + (tr != null ? ": " + tr : "");
+        System.err.println(line);
+        return line.length();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Checks that {@link BlockCompressor} output is a valid multi-member gzip file.
+ */
+@RunWith(JUnit4.class)
+public class BlockCompressorTest {
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    @Test
+    public void emptyFile_roundTrips() throws IOException {
+        assertRoundTrips(new byte[0], 1024, 4);
+    }
+
+    @Test
+    public void singleBlock_roundTrips() throws IOException {
+        assertRoundTrips(traceLikeData(1000), 1024, 4);
+    }
+
+    @Test
+    public void manyBlocks_roundTrip() throws IOException {
+        // More blocks than are kept in flight, with a partial last block.
+        assertRoundTrips(traceLikeData(100 * 1024 + 17), 1024, 3);
+    }
+
+    @Test
+    public void incompressibleData_roundTrips() throws IOException {
+        byte[] data = new byte[64 * 1024];
+        new Random(42).nextBytes(data);
+        assertRoundTrips(data, 4096, 2);
+    }
+
+    @Test
+    public void progress_isReportedPerBlock() throws IOException {
+        File in = mTemp.newFile("trace");
+        File out = mTemp.newFile("trace.gz");
+        Files.write(in.toPath(), traceLikeData(2500));
+
+        final List<Long> progress = new ArrayList<>();
+        BlockCompressor.gzip(in, out, 1024, 2, new BlockCompressor.Listener() {
+            @Override
+            public void onProgress(long bytesCompressed, long totalBytes) {
+                assertEquals(2500, totalBytes);
+                progress.add(bytesCompressed);
+            }
+        });
+
+        assertEquals(Arrays.asList(1024L, 2048L, 2500L), progress);
+    }
+
+    @Test
+    public void pipe_isWrittenAsItIsRead() throws Exception {
+        final byte[] data = traceLikeData(50 * 1024 + 3);
+        final File in = mTemp.newFile("trace");
+        Files.write(in.toPath(), data);
+        final Pipe pipe = Pipe.open();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            // Only two blocks fit in memory, so compression keeps pace with the reader.
+            Future<Long> written = writer.submit(() -> {
+                try (Pipe.SinkChannel sink = pipe.sink()) {
+                    return BlockCompressor.gzip(in, sink, 1024, executor, 2, null);
+                }
+            });
+
+            byte[] compressed = readFully(Channels.newInputStream(pipe.source()));
+
+            assertEquals(compressed.length, (long) written.get());
+            assertArrayEquals(data, gunzip(new ByteArrayInputStream(compressed)));
+        } finally {
+            writer.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void closedPipe_stopsCompression() throws Exception {
+        final File in = mTemp.newFile("trace");
+        Files.write(in.toPath(), traceLikeData(50 * 1024));
+        final Pipe pipe = Pipe.open();
+        pipe.source().close();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (Pipe.SinkChannel sink = pipe.sink()) {
+            BlockCompressor.gzip(in, sink, 1024, executor, 2, null);
+            fail("Compressed into a closed pipe");
+        } catch (IOException e) {
+            // Expected; the reader went away.
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void gzipOrRename_compressesAndRemovesTheInput() throws IOException {
+        byte[] data = traceLikeData(5000);
+        File in = mTemp.newFile("trace.tmp");
+        File out = new File(mTemp.getRoot(), "trace.gz");
+        File fallback = new File(mTemp.getRoot(), "trace");
+        Files.write(in.toPath(), data);
+
+        assertEquals(out, BlockCompressor.gzipOrRename(in, out, fallback, null));
+
+        assertArrayEquals(data, gunzip(out));
+        assertFalse(in.exists());
+        assertFalse(fallback.exists());
+    }
+
+    @Test
+    public void gzipOrRename_keepsTheInputIfCompressionFails() throws IOException {
+        byte[] data = traceLikeData(5000);
+        File in = mTemp.newFile("trace.tmp");
+        // Can't be created, so compression fails.
+        File out = new File(mTemp.getRoot(), "missing/trace.gz");
+        File fallback = new File(mTemp.getRoot(), "trace");
+        Files.write(in.toPath(), data);
+
+        assertEquals(fallback, BlockCompressor.gzipOrRename(in, out, fallback, null));
+
+        assertArrayEquals(data, Files.readAllBytes(fallback.toPath()));
+        assertFalse(in.exists());
+        assertFalse(out.exists());
+    }
+
+    private void assertRoundTrips(byte[] data, int blockSize, int numThreads)
+            throws IOException {
+        File in = mTemp.newFile("trace");
+        File out = mTemp.newFile("trace.gz");
+        Files.write(in.toPath(), data);
+
+        long size = BlockCompressor.gzip(in, out, blockSize, numThreads);
+
+        assertEquals(out.length(), size);
+        assertArrayEquals(data, gunzip(out));
+    }
+
+    private static byte[] gunzip(File file) throws IOException {
+        return gunzip(new FileInputStream(file));
+    }
+
+    private static byte[] gunzip(InputStream compressed) throws IOException {
+        return readFully(new GZIPInputStream(compressed));
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = stream) {
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] traceLikeData(int size) {
+        Random random = new Random(size);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (random.nextInt(8) == 0 ? random.nextInt(256) : 'a' + i % 16);
+        }
+        return data;
+    }
+}
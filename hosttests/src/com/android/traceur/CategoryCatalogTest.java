@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Checks that {@link CategoryCatalog} parses atrace's category list, and only
+ * asks for it again when the build or boot changes or it's invalidated.
+ */
+@RunWith(JUnit4.class)
+public class CategoryCatalogTest {
+
+    private static final String KEY = "build-1;boot-1";
+    private static final String LIST_CATEGORIES =
+        "         gfx - Graphics\n"
+        + "        view - View System\n"
+        + "       sched - CPU Scheduling\n";
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    /*
+     * Lists the given categories and counts how often it's asked to.
+     */
+    private static class FakeSource implements CategoryCatalog.Source {
+        int calls;
+        String output = LIST_CATEGORIES;
+
+        @Override
+        public SortedMap<String, String> listCategories() throws IOException {
+            calls++;
+            return parse(output);
+        }
+    }
+
+    @Test
+    public void parse_readsNamesAndDescriptions() throws IOException {
+        SortedMap<String, String> categories = parse(LIST_CATEGORIES);
+
+        assertEquals(Arrays.asList("gfx", "sched", "view"),
+            Arrays.asList(categories.keySet().toArray()));
+        assertEquals("Graphics", categories.get("gfx"));
+        assertEquals("CPU Scheduling", categories.get("sched"));
+    }
+
+    @Test
+    public void parse_skipsMalformedLines() throws IOException {
+        SortedMap<String, String> categories = parse(
+            "error opening /sys/kernel/tracing/trace_marker\n"
+            + "\n"
+            + "        gfx\n"
+            + "       view -\n"
+            + "      - No name\n"
+            + "  freq-ish - CPU Frequency - and more\n"
+            + "         wm - Window Manager\n");
+
+        TreeMap<String, String> expected = new TreeMap<>();
+        expected.put("freq-ish", "CPU Frequency - and more");
+        expected.put("wm", "Window Manager");
+        assertEquals(expected, categories);
+    }
+
+    @Test
+    public void get_asksTheSourceOnce() throws IOException {
+        FakeSource source = new FakeSource();
+        CategoryCatalog catalog = new CategoryCatalog(newCacheFile(), KEY, source);
+
+        SortedMap<String, String> categories = catalog.get();
+
+        assertSame(categories, catalog.get());
+        assertEquals(1, source.calls);
+        assertEquals(parse(LIST_CATEGORIES), categories);
+    }
+
+    @Test
+    public void get_returnsAnImmutableSnapshot() throws IOException {
+        SortedMap<String, String> categories =
+            new CategoryCatalog(newCacheFile(), KEY, new FakeSource()).get();
+
+        try {
+            categories.put("am", "Activity Manager");
+            fail("The snapshot can be changed");
+        } catch (UnsupportedOperationException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void sameKey_readsTheCachedList() throws IOException {
+        File cacheFile = newCacheFile();
+        new CategoryCatalog(cacheFile, KEY, new FakeSource()).get();
+        FakeSource source = new FakeSource();
+
+        SortedMap<String, String> categories =
+            new CategoryCatalog(cacheFile, KEY, source).get();
+
+        assertEquals(0, source.calls);
+        assertEquals(parse(LIST_CATEGORIES), categories);
+    }
+
+    @Test
+    public void newKey_asksTheSourceAgain() throws IOException {
+        File cacheFile = newCacheFile();
+        new CategoryCatalog(cacheFile, KEY, new FakeSource()).get();
+        FakeSource source = new FakeSource();
+        source.output = "  gfx - Graphics\n  camera - Camera\n";
+
+        SortedMap<String, String> categories =
+            new CategoryCatalog(cacheFile, "build-1;boot-2", source).get();
+
+        assertEquals(1, source.calls);
+        assertEquals(parse(source.output), categories);
+        // The new list replaces the old one under the new key.
+        assertEquals(parse(source.output),
+            new CategoryCatalog(cacheFile, "build-1;boot-2", new FakeSource()).get());
+    }
+
+    @Test
+    public void invalidate_asksTheSourceAgain() throws IOException {
+        File cacheFile = newCacheFile();
+        FakeSource source = new FakeSource();
+        CategoryCatalog catalog = new CategoryCatalog(cacheFile, KEY, source);
+        catalog.get();
+
+        catalog.invalidate();
+        source.output = "  gfx - Graphics\n";
+
+        assertEquals(parse(source.output), catalog.get());
+        assertEquals(2, source.calls);
+    }
+
+    @Test
+    public void emptyList_isNotCached() throws IOException {
+        File cacheFile = newCacheFile();
+        FakeSource source = new FakeSource();
+        source.output = "";
+        CategoryCatalog catalog = new CategoryCatalog(cacheFile, KEY, source);
+
+        assertTrue(catalog.get().isEmpty());
+        source.output = LIST_CATEGORIES;
+
+        assertEquals(parse(LIST_CATEGORIES), catalog.get());
+        assertEquals(2, source.calls);
+    }
+
+    @Test
+    public void corruptCache_asksTheSourceAgain() throws IOException {
+        File cacheFile = newCacheFile();
+        Files.write(cacheFile.toPath(), ("# " + KEY + "\nnot a category\n")
+            .getBytes(StandardCharsets.UTF_8));
+        FakeSource source = new FakeSource();
+
+        assertEquals(parse(LIST_CATEGORIES),
+            new CategoryCatalog(cacheFile, KEY, source).get());
+        assertEquals(1, source.calls);
+    }
+
+    private File newCacheFile() {
+        return new File(mTemp.getRoot(), "categories");
+    }
+
+    private static TreeMap<String, String> parse(String output) throws IOException {
+        return CategoryCatalog.parse(new BufferedReader(new StringReader(output)));
+    }
+}
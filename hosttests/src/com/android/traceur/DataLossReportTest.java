@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Checks which buffers and CPUs {@link DataLossReport} blames for lost data.
+ */
+@RunWith(JUnit4.class)
+public class DataLossReportTest {
+
+    @Test
+    public void cleanTrace_hasNoLoss() throws IOException {
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, stats(new ProtoWriter().writeVarint(1, 4096)));
+        trace.writeMessage(1, ftraceStats(0, 0));
+
+        DataLossReport report = DataLossReport.from(read(trace), false);
+
+        assertFalse(report.hasLoss());
+        assertEquals("no data lost", report.toString());
+    }
+
+    @Test
+    public void lossyBuffersAndCpus_areListed() throws IOException {
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, stats(
+            new ProtoWriter().writeVarint(1, 4096),
+            new ProtoWriter().writeVarint(3, 12).writeVarint(6, 2)));
+        trace.writeMessage(1, ftraceStats(0, 0));
+        trace.writeMessage(1, ftraceStats(3, 450));
+
+        DataLossReport report = DataLossReport.from(read(trace), false);
+
+        assertTrue(report.hasLoss());
+        assertEquals(1, report.getBuffers().size());
+        assertEquals(1, report.getBuffers().get(0).index);
+        assertEquals(1, report.getCpus().size());
+        assertEquals(3, report.getCpus().get(0).cpu);
+        assertEquals("buffer 1: 12 chunks overwritten, 2 patches failed; cpu 3: 450 events overrun",
+            report.toString());
+    }
+
+    @Test
+    public void ringBuffer_mayOverwrite() throws IOException {
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, stats(new ProtoWriter().writeVarint(3, 12)));
+
+        assertFalse(DataLossReport.from(read(trace), true).hasLoss());
+        assertTrue(DataLossReport.from(read(trace), false).hasLoss());
+    }
+
+    @Test
+    public void truncatedTrace_hasLoss() throws IOException {
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 100));
+        byte[] bytes = trace.toByteArray();
+        TraceSummary summary = TraceSummary.read(
+            new ByteArrayInputStream(bytes, 0, bytes.length - 1));
+
+        DataLossReport report = DataLossReport.from(summary, false);
+
+        assertTrue(report.hasLoss());
+        assertEquals("truncated", report.toString());
+    }
+
+    private static ProtoWriter stats(ProtoWriter... buffers) {
+        ProtoWriter stats = new ProtoWriter();
+        for (ProtoWriter buffer : buffers) {
+            stats.writeMessage(1, buffer);
+        }
+        return new ProtoWriter().writeMessage(35, stats);
+    }
+
+    private static ProtoWriter ftraceStats(int cpu, long overrun) {
+        ProtoWriter stats = new ProtoWriter().writeVarint(1, 2 /* END_OF_TRACE */)
+            .writeMessage(2, new ProtoWriter().writeVarint(1, cpu).writeVarint(3, overrun));
+        return new ProtoWriter().writeMessage(34, stats);
+    }
+
+    private static TraceSummary read(ProtoWriter trace) throws IOException {
+        return TraceSummary.read(new ByteArrayInputStream(trace.toByteArray()));
+    }
+}
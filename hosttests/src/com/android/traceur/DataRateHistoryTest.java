@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that {@link DataRateHistory} records session rates and sizes
+ * buffers from them.
+ */
+@RunWith(JUnit4.class)
+public class DataRateHistoryTest {
+
+    private static final List<String> TAGS = Arrays.asList("sched", "gfx", "view");
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    @Test
+    public void session_recordsRatesPerBuffer() throws IOException {
+        DataRateHistory history = newHistory();
+
+        history.startSession(TAGS, 0);
+        long[] rates = history.endSession(stats(10000000, 200000), 10000);
+
+        assertArrayEquals(new long[] { 1000000, 20000 }, rates);
+        assertArrayEquals(rates, history.getPeakRates(TAGS));
+    }
+
+    @Test
+    public void categoryOrder_doesNotMatter() throws IOException {
+        DataRateHistory history = newHistory();
+
+        history.startSession(TAGS, 0);
+        history.endSession(stats(10000000, 200000), 10000);
+
+        assertArrayEquals(new long[] { 1000000, 20000 },
+            history.getPeakRates(Arrays.asList("view", "sched", "gfx")));
+        assertNull(history.getPeakRates(Arrays.asList("sched")));
+    }
+
+    @Test
+    public void peakRates_areTheHighestOfRecentSessions() throws IOException {
+        DataRateHistory history = newHistory();
+
+        history.startSession(TAGS, 0);
+        history.endSession(stats(10000000, 500000), 10000);
+        history.startSession(TAGS, 0);
+        history.endSession(stats(30000000, 100000), 10000);
+
+        assertArrayEquals(new long[] { 3000000, 50000 }, history.getPeakRates(TAGS));
+    }
+
+    @Test
+    public void oldSessions_areForgotten() throws IOException {
+        DataRateHistory history = newHistory();
+
+        history.startSession(TAGS, 0);
+        history.endSession(stats(90000000, 0), 10000);
+        for (int i = 0; i < 5; i++) {
+            history.startSession(TAGS, 0);
+            history.endSession(stats(10000000, 0), 10000);
+        }
+
+        assertEquals(1000000, history.getPeakRates(TAGS)[0]);
+    }
+
+    @Test
+    public void shortSession_isIgnored() throws IOException {
+        DataRateHistory history = newHistory();
+
+        history.startSession(TAGS, 0);
+
+        assertNull(history.endSession(stats(10000000, 0), 1000));
+        assertNull(history.getPeakRates(TAGS));
+    }
+
+    @Test
+    public void sessionWithoutStart_isIgnored() throws IOException {
+        assertNull(newHistory().endSession(stats(10000000, 0), 10000));
+    }
+
+    @Test
+    public void abandonedSession_isIgnored() throws IOException {
+        DataRateHistory history = newHistory();
+
+        history.startSession(TAGS, 0);
+        history.abandonSession();
+
+        assertNull(history.endSession(stats(10000000, 0), 10000));
+        assertNull(history.getPeakRates(TAGS));
+    }
+
+    @Test
+    public void history_persists() throws IOException {
+        File stateFile = new File(mTemp.getRoot(), "history");
+        DataRateHistory history = new DataRateHistory(stateFile);
+        history.startSession(TAGS, 0);
+        history.endSession(stats(10000000, 200000), 10000);
+
+        assertArrayEquals(new long[] { 1000000, 20000 },
+            new DataRateHistory(stateFile).getPeakRates(TAGS));
+    }
+
+    @Test
+    public void recommend_coversTheWindowWithHeadroom() {
+        // 8 MB/s for 30 s is 240 MB, plus 25% is 300 MB. Over 8 CPUs that's
+        // 37.5 MB, rounded up to a whole MB.
+        DataRateHistory.BufferSizes sizes = DataRateHistory.recommend(
+            new long[] { 8L << 20, 200L << 10 }, 30, 8);
+
+        assertEquals(38 * 1024, sizes.perCpuBufferKb);
+        // 200 KB/s for 30 s, plus 25%, rounded up to a whole MB.
+        assertEquals(8 * 1024, sizes.auxBufferKb);
+    }
+
+    @Test
+    public void recommend_isClamped() {
+        DataRateHistory.BufferSizes small = DataRateHistory.recommend(new long[] { 1, 1 }, 30, 8);
+        assertEquals(DataRateHistory.MIN_PER_CPU_BUFFER_KB, small.perCpuBufferKb);
+        assertEquals(DataRateHistory.MIN_AUX_BUFFER_KB, small.auxBufferKb);
+
+        DataRateHistory.BufferSizes large = DataRateHistory.recommend(
+            new long[] { 1L << 30, 1L << 30 }, 30, 8);
+        assertEquals(DataRateHistory.MAX_PER_CPU_BUFFER_KB, large.perCpuBufferKb);
+        assertEquals(DataRateHistory.MAX_AUX_BUFFER_KB, large.auxBufferKb);
+    }
+
+    @Test
+    public void recommend_withoutRates_isNull() {
+        assertNull(DataRateHistory.recommend(null, 30, 8));
+    }
+
+    private DataRateHistory newHistory() throws IOException {
+        return new DataRateHistory(mTemp.newFile());
+    }
+
+    private static List<TraceSummary.BufferStats> stats(long... bytesWritten) {
+        TraceSummary.BufferStats[] stats = new TraceSummary.BufferStats[bytesWritten.length];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new TraceSummary.BufferStats();
+            stats[i].bytesWritten = bytesWritten[i];
+        }
+        return Arrays.asList(stats);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks that {@link MemoryAdmission} admits, shrinks or refuses trace
+ * buffers depending on free memory.
+ */
+@RunWith(JUnit4.class)
+public class MemoryAdmissionTest {
+
+    private static final long GB_IN_KB = 1024 * 1024;
+
+    @Test
+    public void memInfo_isParsed() {
+        MemoryAdmission.MemoryState memory = MemoryAdmission.MemoryState.fromMemInfo(
+            "MemTotal:        3844712 kB\n"
+            + "MemFree:          123456 kB\n"
+            + "MemAvailable:     1523400 kB\n"
+            + "Buffers:            4096 kB\n");
+
+        assertEquals(3844712, memory.totalKb);
+        assertEquals(1523400, memory.availableKb);
+    }
+
+    @Test
+    public void fittingBuffers_areAdmitted() {
+        MemoryAdmission.Decision decision = MemoryAdmission.decide(
+            memory(8 * GB_IN_KB, 4 * GB_IN_KB), 16384, 2048, 8, 10);
+
+        assertEquals(MemoryAdmission.Result.ADMITTED, decision.result);
+        assertEquals(16384, decision.perCpuBufferKb);
+        assertEquals(16384 * 8 + 2048, decision.requestedKb);
+    }
+
+    @Test
+    public void largeBuffers_areClamped() {
+        // 1 GB free, less 10% of 3 GB kept free, leaves about 715 MB for 8 CPUs.
+        MemoryAdmission.Decision decision = MemoryAdmission.decide(
+            memory(3 * GB_IN_KB, GB_IN_KB), 131072, 2048, 8, 10);
+
+        assertEquals(MemoryAdmission.Result.CLAMPED, decision.result);
+        assertEquals(89 * 1024, decision.perCpuBufferKb);
+    }
+
+    @Test
+    public void lowMemoryThreshold_isKeptFree() {
+        MemoryAdmission.MemoryState memory = memory(8 * GB_IN_KB, 2 * GB_IN_KB);
+        memory.lowMemoryThresholdKb = 2 * GB_IN_KB - 8192;
+
+        MemoryAdmission.Decision decision = MemoryAdmission.decide(memory, 16384, 2048, 8, 10);
+
+        assertEquals(MemoryAdmission.Result.REJECTED, decision.result);
+        assertFalse(decision.isAdmitted());
+    }
+
+    @Test
+    public void lowMemory_isRejected() {
+        MemoryAdmission.MemoryState memory = memory(8 * GB_IN_KB, 4 * GB_IN_KB);
+        memory.lowMemory = true;
+
+        assertEquals(MemoryAdmission.Result.REJECTED,
+            MemoryAdmission.decide(memory, 4096, 2048, 8, 10).result);
+    }
+
+    @Test
+    public void noHeadroom_admitsAnything() {
+        MemoryAdmission.Decision decision = MemoryAdmission.decide(
+            memory(GB_IN_KB, 1024), 65536, 2048, 8, 0);
+
+        assertEquals(MemoryAdmission.Result.ADMITTED, decision.result);
+        assertEquals(65536, decision.perCpuBufferKb);
+    }
+
+    @Test
+    public void unknownMemory_admitsAnything() {
+        assertEquals(MemoryAdmission.Result.ADMITTED, MemoryAdmission.decide(
+            new MemoryAdmission.MemoryState(), 65536, 2048, 8, 10).result);
+    }
+
+    private static MemoryAdmission.MemoryState memory(long totalKb, long availableKb) {
+        MemoryAdmission.MemoryState memory = new MemoryAdmission.MemoryState();
+        memory.totalKb = totalKb;
+        memory.availableKb = availableKb;
+        return memory;
+    }
+}
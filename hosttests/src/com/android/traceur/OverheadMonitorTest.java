@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Checks that {@link OverheadMonitor} works out the daemons' CPU and memory
+ * use from a fake /proc.
+ */
+@RunWith(JUnit4.class)
+public class OverheadMonitorTest {
+
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    private File mProc;
+    private File mSeries;
+    private OverheadMonitor mMonitor;
+
+    @Before
+    public void setUp() throws IOException {
+        mProc = mTemp.newFolder("proc");
+        mSeries = new File(mTemp.getRoot(), "overhead.csv");
+        mMonitor = new OverheadMonitor(mProc, CLOCK_TICKS_PER_SECOND, OverheadMonitor.DAEMONS,
+            mSeries);
+    }
+
+    @Test
+    public void cpuUse_isMeasuredBetweenSamples() throws IOException {
+        newProcess(500, "traced", 10, 5, 2048);
+        newProcess(600, "traced_probes", 100, 20, 8192);
+        newProcess(700, "surfaceflinger", 1000, 1000, 65536);
+
+        OverheadMonitor.Sample first = mMonitor.sample(10000);
+        assertEquals(2, first.usages.size());
+        assertEquals(OverheadMonitor.UNKNOWN, first.getCpuPercent(), 0);
+        assertEquals(10240, first.getRssKb());
+
+        // 10 s later, traced used 0.5 s of CPU and traced_probes 2 s.
+        newProcess(500, "traced", 50, 15, 4096);
+        newProcess(600, "traced_probes", 250, 70, 8192);
+        OverheadMonitor.Sample second = mMonitor.sample(20000);
+        assertEquals(5.0, second.usages.get(0).cpuPercent, 0.001);
+        assertEquals(20.0, second.usages.get(1).cpuPercent, 0.001);
+        assertEquals(25.0, second.getCpuPercent(), 0.001);
+        assertEquals(25.0, mMonitor.getPeakCpuPercent(), 0.001);
+        assertEquals(12288, mMonitor.getPeakRssKb());
+
+        assertEquals(OverheadMonitor.CSV_HEADER
+            + "10000,traced,500,,2048\n"
+            + "10000,traced_probes,600,,8192\n"
+            + "20000,traced,500,5.0,4096\n"
+            + "20000,traced_probes,600,20.0,8192\n",
+            new String(Files.readAllBytes(mSeries.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void restartedDaemon_isFoundAgain() throws IOException {
+        newProcess(500, "traced", 10, 5, 2048);
+        mMonitor.sample(1000);
+
+        deleteProcess(500);
+        assertEquals(0, mMonitor.sample(2000).usages.size());
+
+        newProcess(800, "traced", 0, 0, 1024);
+        OverheadMonitor.Sample sample = mMonitor.sample(3000);
+        assertEquals(1, sample.usages.size());
+        assertEquals(800, sample.usages.get(0).pid);
+        assertEquals(OverheadMonitor.UNKNOWN, sample.usages.get(0).cpuPercent, 0);
+    }
+
+    private void newProcess(int pid, String name, long utime, long stime, long rssKb)
+            throws IOException {
+        File dir = new File(mProc, Integer.toString(pid));
+        dir.mkdirs();
+        write(new File(dir, "comm"), name + "\n");
+        write(new File(dir, "status"), "Name:\t" + name + "\nVmRSS:\t" + rssKb + " kB\n");
+        StringBuilder stat = new StringBuilder();
+        stat.append(pid).append(" (").append(name).append(") S 1");
+        // Fields 5 to 13.
+        for (int field = 5; field <= 13; field++) {
+            stat.append(" 0");
+        }
+        stat.append(' ').append(utime).append(' ').append(stime);
+        for (int field = 16; field <= 52; field++) {
+            stat.append(" 0");
+        }
+        write(new File(dir, "stat"), stat.append('\n').toString());
+    }
+
+    private void deleteProcess(int pid) {
+        File dir = new File(mProc, Integer.toString(pid));
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    private static void write(File file, String contents) throws IOException {
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Checks that {@link ProfileConfigCache} only builds a profile's config again
+ * when the profile changes, and the {@link TraceProfile} helpers it relies on.
+ */
+@RunWith(JUnit4.class)
+public class ProfileConfigCacheTest {
+
+    private static final int NUM_CPUS = 8;
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    @Test
+    public void config_matchesTheProfile() throws IOException {
+        TraceProfile profile = TraceProfile.forName(TraceProfile.JANK);
+        ProfileConfigCache cache = new ProfileConfigCache(mTemp.newFolder());
+
+        assertArrayEquals(profile.createConfig(NUM_CPUS).toByteArray(),
+            cache.get(profile, NUM_CPUS));
+    }
+
+    @Test
+    public void config_isOnlyBuiltOnce() throws IOException {
+        TraceProfile profile = TraceProfile.forName(TraceProfile.POWER);
+        ProfileConfigCache cache = new ProfileConfigCache(mTemp.newFolder());
+
+        assertSame(cache.get(profile, NUM_CPUS), cache.get(profile, NUM_CPUS));
+    }
+
+    @Test
+    public void config_isReadBackFromDisk() throws IOException {
+        File dir = mTemp.newFolder();
+        TraceProfile profile = TraceProfile.forName(TraceProfile.MEMORY);
+        byte[] config = new ProfileConfigCache(dir).get(profile, NUM_CPUS);
+        File file = new File(dir, TraceProfile.MEMORY + ".config");
+        assertTrue(file.exists());
+        long modified = file.lastModified();
+
+        assertArrayEquals(config, new ProfileConfigCache(dir).get(profile, NUM_CPUS));
+        assertEquals(modified, file.lastModified());
+    }
+
+    @Test
+    public void changedProfile_isBuiltAgain() throws IOException {
+        File dir = mTemp.newFolder();
+        TraceProfile profile = TraceProfile.forName(TraceProfile.BOOT);
+        byte[] config = new ProfileConfigCache(dir).get(profile, NUM_CPUS);
+
+        TraceProfile fewer = profile.retainCategories(Arrays.asList("sched", "freq"));
+        byte[] changed = new ProfileConfigCache(dir).get(fewer, NUM_CPUS);
+
+        assertFalse(Arrays.equals(config, changed));
+        assertArrayEquals(fewer.createConfig(NUM_CPUS).toByteArray(), changed);
+        assertFalse(Arrays.equals(config, new ProfileConfigCache(dir).get(profile, 4)));
+    }
+
+    @Test
+    public void corruptFile_isReplaced() throws IOException {
+        File dir = mTemp.newFolder();
+        TraceProfile profile = TraceProfile.forName(TraceProfile.JANK);
+        Files.write(new File(dir, TraceProfile.JANK + ".config").toPath(), new byte[] {1, 2});
+
+        assertArrayEquals(profile.createConfig(NUM_CPUS).toByteArray(),
+            new ProfileConfigCache(dir).get(profile, NUM_CPUS));
+    }
+
+    @Test
+    public void retainCategories_dropsUnavailableOnes() {
+        TraceProfile profile = TraceProfile.forName(TraceProfile.POWER)
+            .retainCategories(Arrays.asList("freq", "sched", "gfx"));
+
+        assertEquals(Arrays.asList("freq", "sched"), profile.getCategories());
+        assertEquals(TraceProfile.forName(TraceProfile.POWER).getBufferSizeKb(),
+            profile.getBufferSizeKb());
+    }
+
+    @Test
+    public void unknownProfile_isNull() {
+        assertNull(TraceProfile.forName("custom"));
+        assertEquals(4, TraceProfile.getBuiltInProfiles().size());
+    }
+}
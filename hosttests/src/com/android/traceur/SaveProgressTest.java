@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that {@link SaveProgress} estimates throughput and time left, and
+ * limits how often it passes updates on.
+ */
+@RunWith(JUnit4.class)
+public class SaveProgressTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void throughputAndEta_followTheCurrentPhase() {
+        SaveProgress progress = new SaveProgress(null);
+        progress.startPhase(SaveProgress.PHASE_COMPRESS, 100 * MB, 1000);
+        assertEquals(0, progress.getPercent());
+        assertEquals(SaveProgress.UNKNOWN, progress.getEtaMs());
+
+        progress.update(25 * MB, 2000);
+        assertEquals(25, progress.getPercent());
+        assertEquals(25 * MB, progress.getBytesPerSecond());
+        assertEquals(3000, progress.getEtaMs());
+    }
+
+    @Test
+    public void unknownTotal_hasNoPercentOrEta() {
+        SaveProgress progress = new SaveProgress(null);
+        progress.startPhase(SaveProgress.PHASE_STOP, SaveProgress.UNKNOWN, 0);
+        progress.update(10 * MB, 500);
+        assertEquals(SaveProgress.UNKNOWN, progress.getPercent());
+        assertEquals(SaveProgress.UNKNOWN, progress.getEtaMs());
+        assertEquals(20 * MB, progress.getBytesPerSecond());
+    }
+
+    @Test
+    public void updates_areRateLimitedExceptForNewPhases() {
+        final List<String> seen = new ArrayList<>();
+        SaveProgress progress = new SaveProgress(new SaveProgress.Listener() {
+            @Override
+            public void onProgress(SaveProgress progress) {
+                seen.add(progress.getPhase() + "@" + progress.getBytesDone());
+            }
+        });
+
+        progress.startPhase(SaveProgress.PHASE_STOP, SaveProgress.UNKNOWN, 0);
+        progress.update(1, 100);
+        progress.update(2, SaveProgress.MIN_UPDATE_INTERVAL_MS);
+        progress.update(3, SaveProgress.MIN_UPDATE_INTERVAL_MS + 1);
+        progress.startPhase(SaveProgress.PHASE_COMPRESS, 10,
+            SaveProgress.MIN_UPDATE_INTERVAL_MS + 2);
+
+        assertEquals(Arrays.asList("stop@0", "stop@2", "compress@0"), seen);
+    }
+
+    @Test
+    public void summary_listsEachPhase() {
+        SaveProgress progress = new SaveProgress(null);
+        progress.startPhase(SaveProgress.PHASE_STOP, SaveProgress.UNKNOWN, 0);
+        progress.update(512 * MB, 1200);
+        progress.startPhase(SaveProgress.PHASE_RENAME, 512 * MB, 1200);
+        progress.startPhase(SaveProgress.PHASE_POST_PROCESS, SaveProgress.UNKNOWN, 1201);
+        progress.endPhase(1300);
+        // Updates after a phase ended don't count.
+        progress.update(1, 5000);
+
+        assertEquals("stop 1200 ms (512.0 MB, 426.7 MB/s), rename 1 ms, post-process 99 ms",
+            progress.getSummary());
+        assertEquals(1300, progress.getElapsedMs());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that {@link StreamPump} copies streams whole, and that copies that
+ * never finish can be cancelled to make way for others.
+ */
+@RunWith(JUnit4.class)
+public class StreamPumpTest {
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    @Test
+    public void pump_copiesEverything() throws Exception {
+        byte[] data = newData(1 << 20);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Future<Long> copied = StreamPump.getInstance().pump(
+            new ByteArrayInputStream(data), out, 8 << 10);
+
+        assertEquals(data.length, (long) copied.get(5, TimeUnit.SECONDS));
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void pump_appendsToFile() throws Exception {
+        byte[] data = newData(1 << 20);
+        File file = mTemp.newFile();
+        Files.write(file.toPath(), new byte[] {1, 2, 3});
+
+        Future<Long> copied = StreamPump.getInstance().pump(
+            new ByteArrayInputStream(data), new FileOutputStream(file, true /* append */), 1);
+
+        assertEquals(data.length, (long) copied.get(5, TimeUnit.SECONDS));
+        byte[] written = Files.readAllBytes(file.toPath());
+        assertArrayEquals(new byte[] {1, 2, 3}, Arrays.copyOf(written, 3));
+        assertArrayEquals(data, Arrays.copyOfRange(written, 3, written.length));
+    }
+
+    @Test
+    public void pump_runsOnceStuckPumpsAreCancelled() throws Exception {
+        // More than there are threads, e.g. output a detached child kept open.
+        List<PipedOutputStream> open = new ArrayList<>();
+        List<Future<Long>> stuck = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            PipedOutputStream writer = new PipedOutputStream();
+            open.add(writer);
+            stuck.add(StreamPump.getInstance().pump(new PipedInputStream(writer),
+                new ByteArrayOutputStream(), 1024));
+        }
+        try {
+            for (Future<Long> pump : stuck) {
+                pump.cancel(true);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Future<Long> copied = StreamPump.getInstance().pump(
+                new ByteArrayInputStream(new byte[] {1, 2, 3}), out, 1024);
+
+            assertEquals(3, (long) copied.get(5, TimeUnit.SECONDS));
+        } finally {
+            for (PipedOutputStream writer : open) {
+                writer.close();
+            }
+        }
+    }
+
+    private static byte[] newData(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+}
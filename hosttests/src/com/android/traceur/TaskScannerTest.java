@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Checks that {@link TaskScanner} lists threads from a fake /proc the way
+ * "ps -AT" does.
+ */
+@RunWith(JUnit4.class)
+public class TaskScannerTest {
+
+    private static final TaskScanner.UserNames USER_NAMES =
+        uid -> uid == 0 ? "root" : "u0_a" + (uid - 10000);
+
+    // The WCHAN and ADDR columns of every task made by newTask().
+    private static final String WCHAN_ADDR = "do_epoll_wait       0 ";
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    @Test
+    public void threads_areListedInPidOrder() throws IOException {
+        File proc = mTemp.newFolder("proc");
+        newTask(proc, 1, 1, 0, "init", 'S', 0);
+        newTask(proc, 1000, 1000, 1, "system_server", 'S', 1000);
+        newTask(proc, 1000, 1010, 1, "Binder:1000_1", 'R', 1000);
+        newTask(proc, 20, 20, 1, "kworker/0:1", 'I', 0);
+        new File(proc, "self").mkdirs();
+
+        String expected = TaskScanner.HEADER
+            + "root             1     1     0    4096    400 " + WCHAN_ADDR + "S init\n"
+            + "root            20    20     1    4096    400 " + WCHAN_ADDR + "I kworker/0:1\n"
+            + "system        1000  1000     1    4096    400 " + WCHAN_ADDR + "S system_server\n"
+            + "system        1000  1010     1    4096    400 " + WCHAN_ADDR + "R Binder:1000_1\n";
+        TaskScanner.UserNames names = uid -> uid == 1000 ? "system" : USER_NAMES.getName(uid);
+        assertEquals(expected, new TaskScanner(proc, names, 4).scan(1));
+        assertEquals(expected, new TaskScanner(proc, names, 4).scan(3));
+    }
+
+    @Test
+    public void namesWithSpacesAndParentheses_areKept() {
+        TaskScanner scanner = new TaskScanner(null, USER_NAMES, 4);
+        String line = scanner.formatLine("root", 5, 6, stat(6, "a (b) c", 'S', 1), null);
+        assertEquals("root             5     6     1    4096    400 "
+            + "0                   0 S a (b) c\n", line);
+    }
+
+    @Test
+    public void exitedTasks_areSkipped() throws IOException {
+        File proc = mTemp.newFolder("proc");
+        newTask(proc, 7, 7, 1, "alive", 'S', 10001);
+        // A thread whose stat is already gone, and a process whose status is.
+        new File(proc, "7/task/8").mkdirs();
+        new File(proc, "9/task/9").mkdirs();
+
+        assertEquals(TaskScanner.HEADER
+            + "u0_a1            7     7     1    4096    400 " + WCHAN_ADDR + "S alive\n",
+            new TaskScanner(proc, USER_NAMES, 4).scan(2));
+    }
+
+    private static void newTask(File proc, int pid, int tid, int ppid, String name, char state,
+            int uid) throws IOException {
+        File processDir = new File(proc, Integer.toString(pid));
+        File threadDir = new File(processDir, "task/" + tid);
+        threadDir.mkdirs();
+        write(new File(processDir, "status"),
+            "Name:\t" + name + "\nUid:\t" + uid + "\t" + uid + "\t" + uid + "\t" + uid + "\n");
+        write(new File(threadDir, "stat"), stat(tid, name, state, ppid));
+        write(new File(threadDir, "wchan"), "do_epoll_wait");
+    }
+
+    /*
+     * Returns a stat line with a 4 MB virtual size and 100 resident pages.
+     */
+    private static String stat(int tid, String name, char state, int ppid) {
+        StringBuilder stat = new StringBuilder();
+        stat.append(tid).append(" (").append(name).append(") ").append(state).append(' ')
+            .append(ppid);
+        // Fields 5 to 22, the last of which is the start time.
+        for (int field = 5; field <= 22; field++) {
+            stat.append(" 0");
+        }
+        stat.append(" 4194304 100");
+        for (int field = 25; field <= 52; field++) {
+            stat.append(" 0");
+        }
+        return stat.append('\n').toString();
+    }
+
+    private static void write(File file, String contents) throws IOException {
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that the binary config built by {@link TraceConfig} carries exactly
+ * the same fields as the text config Traceur used to pass to perfetto.
+ */
+@RunWith(JUnit4.class)
+public class TraceConfigTest {
+
+    private static final List<String> DEFAULT_TAGS = Arrays.asList(
+            "am", "binder_driver", "camera", "dalvik", "freq", "gfx", "hal",
+            "idle", "input", "res", "sched", "sync", "view", "wm", "workq");
+
+    @Test
+    public void shortTrace_matchesTextConfig() {
+        assertConfigsMatch(DEFAULT_TAGS, 16384, 8, true, false, 10240, 30);
+    }
+
+    @Test
+    public void shortTraceWithoutApps_matchesTextConfig() {
+        assertConfigsMatch(DEFAULT_TAGS, 8192, 4, false, false, 0, 0);
+    }
+
+    @Test
+    public void longTrace_matchesTextConfig() {
+        assertConfigsMatch(DEFAULT_TAGS, 65536, 8, true, true, 20480, 1440);
+    }
+
+    @Test
+    public void longTraceWithoutLimits_matchesTextConfig() {
+        assertConfigsMatch(DEFAULT_TAGS, 32768, 2, true, true, 0, 0);
+    }
+
+    @Test
+    public void memoryAndPowerTags_matchTextConfig() {
+        List<String> tags = new ArrayList<>(DEFAULT_TAGS);
+        tags.add("memory");
+        tags.add("power");
+        assertConfigsMatch(tags, 16384, 8, true, false, 0, 0);
+        assertConfigsMatch(tags, 16384, 8, true, true, 5120, 60);
+    }
+
+    @Test
+    public void noTags_matchesTextConfig() {
+        assertConfigsMatch(Collections.<String>emptyList(), 4096, 1, false, false, 0, 0);
+    }
+
+    @Test
+    public void largeValues_areEncodedAsVarints() {
+        // 20 GB in bytes needs more than 32 bits.
+        byte[] config = TraceConfig.create(DEFAULT_TAGS, 65536, 128, true, true,
+                20480, 1440).toByteArray();
+        String decoded = canonicalize(decode(config, 0, config.length, "TraceConfig"));
+        assertTrue(decoded, decoded.contains("max_file_size_bytes: 21474836480"));
+        assertTrue(decoded, decoded.contains("size_kb: 8388608"));
+    }
+
+    @Test
+    public void auxBufferSize_isUsedForTheSecondBuffer() {
+        TraceConfig config = TraceConfig.create(DEFAULT_TAGS, 16384, 8192, 4, true, false, 0, 0);
+        assertEquals(16384 * 4, config.getBuffers().get(TraceConfig.FTRACE_BUFFER).getSizeKb());
+        assertEquals(8192, config.getBuffers().get(TraceConfig.AUX_BUFFER).getSizeKb());
+    }
+
+    @Test
+    public void startTrigger_isAppendedToTheConfig() {
+        byte[] config = TraceConfig.create(DEFAULT_TAGS, 16384, 8, true, true,
+                10240, 30).toByteArray();
+        byte[] deferred = TraceConfig.withStartTrigger(config, "start", 3600000, 1800000);
+
+        // The original fields are left as they are, followed by the trigger config.
+        assertTrue(Arrays.equals(config, Arrays.copyOf(deferred, config.length)));
+        ProtoReader reader = new ProtoReader(deferred, config.length,
+                deferred.length - config.length);
+        assertTrue(reader.next());
+        assertEquals(17, reader.getField());
+        ProtoReader triggerConfig = reader.readMessage();
+        assertFalse(reader.next());
+
+        List<String> fields = new ArrayList<>();
+        while (triggerConfig.next()) {
+            if (triggerConfig.getField() == 2) {
+                ProtoReader trigger = triggerConfig.readMessage();
+                while (trigger.next()) {
+                    fields.add(trigger.getField() == 1
+                            ? trigger.readString() : "delay " + trigger.readVarint());
+                }
+            } else {
+                fields.add(triggerConfig.getField() + ": " + triggerConfig.readVarint());
+            }
+        }
+        assertEquals(Arrays.asList("1: " + TraceConfig.TRIGGER_MODE_START_TRACING, "start",
+                "delay 1800000", "3: 3600000"), fields);
+    }
+
+    private static void assertConfigsMatch(Collection<String> tags, int bufferSizeKb,
+            int numCpus, boolean apps, boolean longTrace, int maxLongTraceSizeMb,
+            int maxLongTraceDurationMinutes) {
+        String text = legacyTextConfig(tags, bufferSizeKb, numCpus, apps, longTrace,
+                maxLongTraceSizeMb, maxLongTraceDurationMinutes);
+        byte[] binary = TraceConfig.create(tags, bufferSizeKb, numCpus, apps, longTrace,
+                maxLongTraceSizeMb, maxLongTraceDurationMinutes).toByteArray();
+
+        assertEquals(canonicalize(new TextParser(text).parseMessage()),
+                canonicalize(decode(binary, 0, binary.length, "TraceConfig")));
+    }
+
+    /**
+     * The text config PerfettoUtils.traceStart() used to build, kept verbatim
+     * as the reference for the binary config.
+     */
+    private static String legacyTextConfig(Collection<String> tags, int bufferSizeKb,
+            int numCpus, boolean apps, boolean longTrace, int maxLongTraceSizeMb,
+            int maxLongTraceDurationMinutes) {
+        final long MEGABYTES_TO_BYTES = 1024L * 1024L;
+        final long MINUTES_TO_MILLISECONDS = 60L * 1000L;
+
+        StringBuilder config = new StringBuilder()
+            .append("write_into_file: true\n")
+            .append("flush_period_ms: 30000\n");
+
+            if (longTrace) {
+                config.append("notify_traceur: true\n");
+
+                if (maxLongTraceSizeMb != 0) {
+                    config.append("max_file_size_bytes: "
+                        + (maxLongTraceSizeMb * MEGABYTES_TO_BYTES) + "\n");
+                }
+
+                if (maxLongTraceDurationMinutes != 0) {
+                    config.append("duration_ms: "
+                        + (maxLongTraceDurationMinutes * MINUTES_TO_MILLISECONDS)
+                        + "\n");
+                }
+
+                config.append("file_write_period_ms: 1000\n");
+            } else {
+                config.append("file_write_period_ms: 604800000\n");
+            }
+
+        config.append("incremental_state_config {\n")
+            .append("  clear_period_ms: 15000\n")
+            .append("} \n")
+            .append("buffers {\n")
+            .append("  size_kb: " + bufferSizeKb * numCpus + "\n")
+            .append("  fill_policy: RING_BUFFER\n")
+            .append("} \n")
+            .append("buffers {\n")
+            .append("  size_kb: 2048\n")
+            .append("  fill_policy: RING_BUFFER\n")
+            .append("} \n")
+            .append("data_sources {\n")
+            .append("  config {\n")
+            .append("    name: \"linux.ftrace\"\n")
+            .append("    target_buffer: 0\n")
+            .append("    ftrace_config {\n");
+
+        for (String tag : tags) {
+            config.append("      atrace_categories: \"" + tag + "\"\n");
+        }
+
+        if (apps) {
+            config.append("      atrace_apps: \"*\"\n");
+        }
+
+        config.append("      buffer_size_kb: 8192\n")
+            .append("      drain_period_ms: 1000\n")
+            .append("    }\n")
+            .append("  }\n")
+            .append("}\n")
+            .append(" \n");
+
+        config.append("data_sources {\n")
+            .append("  config {\n")
+            .append("    name: \"linux.process_stats\"\n")
+            .append("    target_buffer: 1\n");
+        if (tags.contains("memory")) {
+            config.append("    process_stats_config {\n")
+                .append("      proc_stats_poll_ms: 60000\n")
+                .append("    }\n");
+        }
+        config.append("  }\n")
+            .append("} \n");
+
+        if (tags.contains("power")) {
+            config.append("data_sources: {\n")
+                .append("  config { \n")
+                .append("    name: \"android.power\"\n")
+                .append("    target_buffer: 1\n")
+                .append("    android_power_config {\n");
+            if (longTrace) {
+                config.append("      battery_poll_ms: 5000\n");
+            } else {
+                config.append("      battery_poll_ms: 1000\n");
+            }
+            config.append("      collect_power_rails: true\n")
+                .append("      battery_counters: BATTERY_COUNTER_CAPACITY_PERCENT\n")
+                .append("      battery_counters: BATTERY_COUNTER_CHARGE\n")
+                .append("      battery_counters: BATTERY_COUNTER_CURRENT\n")
+                .append("    }\n")
+                .append("  }\n")
+                .append("}\n");
+        }
+
+        return config.toString();
+    }
+
+    /** A parsed message: field names mapped to scalar strings or nested messages. */
+    private static class Message {
+        final List<Map.Entry<String, Object>> fields = new ArrayList<>();
+
+        void add(String name, Object value) {
+            fields.add(new java.util.AbstractMap.SimpleEntry<>(name, value));
+        }
+    }
+
+    /**
+     * Renders a message with its fields sorted by name. Repeated fields keep
+     * their relative order, since the sort is stable.
+     */
+    private static String canonicalize(Message message) {
+        List<Map.Entry<String, Object>> fields = new ArrayList<>(message.fields);
+        Collections.sort(fields, new Comparator<Map.Entry<String, Object>>() {
+            @Override
+            public int compare(Map.Entry<String, Object> a, Map.Entry<String, Object> b) {
+                return a.getKey().compareTo(b.getKey());
+            }
+        });
+
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Object> field : fields) {
+            if (field.getValue() instanceof Message) {
+                out.append(field.getKey()).append(" { ")
+                    .append(canonicalize((Message) field.getValue())).append("} ");
+            } else {
+                out.append(field.getKey()).append(": ").append(field.getValue()).append(' ');
+            }
+        }
+        return out.toString();
+    }
+
+    /** A parser for the small subset of the protobuf text format used above. */
+    private static class TextParser {
+        private final String mText;
+        private int mPos;
+
+        TextParser(String text) {
+            mText = text;
+        }
+
+        Message parseMessage() {
+            Message message = new Message();
+            while (true) {
+                skipWhitespace();
+                if (mPos >= mText.length() || mText.charAt(mPos) == '}') {
+                    mPos++;
+                    return message;
+                }
+                String name = readToken();
+                skipWhitespace();
+                if (mText.charAt(mPos) == ':') {
+                    mPos++;
+                    skipWhitespace();
+                }
+                if (mText.charAt(mPos) == '{') {
+                    mPos++;
+                    message.add(name, parseMessage());
+                } else if (mText.charAt(mPos) == '"') {
+                    int end = mText.indexOf('"', mPos + 1);
+                    message.add(name, mText.substring(mPos + 1, end));
+                    mPos = end + 1;
+                } else {
+                    message.add(name, readToken());
+                }
+            }
+        }
+
+        private String readToken() {
+            int start = mPos;
+            while (mPos < mText.length()
+                    && (Character.isLetterOrDigit(mText.charAt(mPos))
+                        || mText.charAt(mPos) == '_')) {
+                mPos++;
+            }
+            return mText.substring(start, mPos);
+        }
+
+        private void skipWhitespace() {
+            while (mPos < mText.length() && Character.isWhitespace(mText.charAt(mPos))) {
+                mPos++;
+            }
+        }
+    }
+
+    /** How to render a field when decoding the binary proto. */
+    private static class FieldType {
+        final String name;
+        final String kind;  // "int", "bool", "string", "enum:<type>" or a message type.
+
+        FieldType(String name, String kind) {
+            this.name = name;
+            this.kind = kind;
+        }
+    }
+
+    private static final Map<String, Map<Integer, FieldType>> SCHEMA = new HashMap<>();
+    private static final Map<String, Map<Long, String>> ENUMS = new HashMap<>();
+
+    private static void field(String message, int number, String name, String kind) {
+        if (!SCHEMA.containsKey(message)) {
+            SCHEMA.put(message, new HashMap<Integer, FieldType>());
+        }
+        SCHEMA.get(message).put(number, new FieldType(name, kind));
+    }
+
+    private static void enumValue(String type, long value, String name) {
+        if (!ENUMS.containsKey(type)) {
+            ENUMS.put(type, new HashMap<Long, String>());
+        }
+        ENUMS.get(type).put(value, name);
+    }
+
+    static {
+        field("TraceConfig", 1, "buffers", "BufferConfig");
+        field("TraceConfig", 2, "data_sources", "DataSource");
+        field("TraceConfig", 3, "duration_ms", "int");
+        field("TraceConfig", 8, "write_into_file", "bool");
+        field("TraceConfig", 9, "file_write_period_ms", "int");
+        field("TraceConfig", 10, "max_file_size_bytes", "int");
+        field("TraceConfig", 13, "flush_period_ms", "int");
+        field("TraceConfig", 16, "notify_traceur", "bool");
+        field("TraceConfig", 21, "incremental_state_config", "IncrementalStateConfig");
+        field("BufferConfig", 1, "size_kb", "int");
+        field("BufferConfig", 4, "fill_policy", "enum:FillPolicy");
+        field("IncrementalStateConfig", 1, "clear_period_ms", "int");
+        field("DataSource", 1, "config", "DataSourceConfig");
+        field("DataSourceConfig", 1, "name", "string");
+        field("DataSourceConfig", 2, "target_buffer", "int");
+        field("DataSourceConfig", 100, "ftrace_config", "FtraceConfig");
+        field("DataSourceConfig", 103, "process_stats_config", "ProcessStatsConfig");
+        field("DataSourceConfig", 106, "android_power_config", "AndroidPowerConfig");
+        field("FtraceConfig", 2, "atrace_categories", "string");
+        field("FtraceConfig", 3, "atrace_apps", "string");
+        field("FtraceConfig", 10, "buffer_size_kb", "int");
+        field("FtraceConfig", 11, "drain_period_ms", "int");
+        field("ProcessStatsConfig", 4, "proc_stats_poll_ms", "int");
+        field("AndroidPowerConfig", 1, "battery_poll_ms", "int");
+        field("AndroidPowerConfig", 2, "battery_counters", "enum:BatteryCounters");
+        field("AndroidPowerConfig", 3, "collect_power_rails", "bool");
+
+        enumValue("FillPolicy", 1, "RING_BUFFER");
+        enumValue("FillPolicy", 2, "DISCARD");
+        enumValue("BatteryCounters", 1, "BATTERY_COUNTER_CHARGE");
+        enumValue("BatteryCounters", 2, "BATTERY_COUNTER_CAPACITY_PERCENT");
+        enumValue("BatteryCounters", 3, "BATTERY_COUNTER_CURRENT");
+    }
+
+    private static Message decode(byte[] data, int start, int end, String type) {
+        Message message = new Message();
+        int[] pos = { start };
+        while (pos[0] < end) {
+            long tag = readVarint(data, pos);
+            int number = (int) (tag >>> 3);
+            int wireType = (int) (tag & 0x7);
+            FieldType field = SCHEMA.get(type).get(number);
+            if (field == null) {
+                fail("Unexpected field " + number + " in " + type);
+            }
+
+            if (wireType == 0) {
+                long value = readVarint(data, pos);
+                if (field.kind.equals("bool")) {
+                    message.add(field.name, value != 0 ? "true" : "false");
+                } else if (field.kind.startsWith("enum:")) {
+                    message.add(field.name, ENUMS.get(field.kind.substring(5)).get(value));
+                } else {
+                    message.add(field.name, Long.toString(value));
+                }
+            } else if (wireType == 2) {
+                int length = (int) readVarint(data, pos);
+                if (field.kind.equals("string")) {
+                    message.add(field.name,
+                            new String(data, pos[0], length, StandardCharsets.UTF_8));
+                } else {
+                    message.add(field.name, decode(data, pos[0], pos[0] + length, field.kind));
+                }
+                pos[0] += length;
+            } else {
+                fail("Unexpected wire type " + wireType + " for " + field.name);
+            }
+        }
+        assertEquals(end, pos[0]);
+        return message;
+    }
+
+    private static long readVarint(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = data[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Checks that {@link TraceGenerator} writes valid traces that depend only on
+ * its seed and options.
+ */
+@RunWith(JUnit4.class)
+public class TraceGeneratorTest {
+
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final long TRACE_BYTES = 10 * CHUNK_BYTES + 123;
+
+    // TracePacket fields of the kinds of packets in the body.
+    private static final int PACKET_FTRACE_EVENTS = 1;
+    private static final int PACKET_PROCESS_STATS = 9;
+    private static final int PACKET_BATTERY = 38;
+    private static final int PACKET_POWER_RAILS = 40;
+
+    @Test
+    public void trace_dependsOnSeedButNotThreads() throws IOException {
+        byte[] oneThread = generate(new TraceGenerator(42).setThreads(1));
+        byte[] fourThreads = generate(new TraceGenerator(42).setThreads(4));
+        byte[] otherSeed = generate(new TraceGenerator(43).setThreads(4));
+
+        assertArrayEquals(oneThread, fourThreads);
+        assertFalse(Arrays.equals(oneThread, otherSeed));
+    }
+
+    @Test
+    public void trace_isValidAndAtLeastTheTargetSize() throws IOException {
+        byte[] trace = generate(new TraceGenerator(1).setNumCpus(4));
+
+        TraceSummary summary = TraceSummary.read(new ByteArrayInputStream(trace));
+
+        assertTrue(trace.length >= TRACE_BYTES);
+        assertFalse(summary.isTruncated());
+        assertEquals(trace.length, summary.getTraceSize());
+        assertTrue(summary.getCategories().contains("gfx"));
+        assertTrue(summary.getLastTimestampNs() > summary.getFirstTimestampNs());
+        // One sequence per CPU, plus the service, process_stats and power.
+        assertEquals(7, summary.getSequencePacketCounts().size());
+        assertFalse(DataLossReport.from(summary, false).hasLoss());
+    }
+
+    @Test
+    public void mix_choosesThePackets() throws IOException {
+        byte[] trace = generate(new TraceGenerator(1).setMix("sched=0,atrace=0,power=0"));
+
+        int[] counts = countPackets(trace);
+
+        assertEquals(0, counts[PACKET_FTRACE_EVENTS]);
+        assertEquals(0, counts[PACKET_BATTERY]);
+        assertTrue(counts[PACKET_PROCESS_STATS] > 0);
+        // The header describes the power rails.
+        assertEquals(1, counts[PACKET_POWER_RAILS]);
+    }
+
+    private static byte[] generate(TraceGenerator generator) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long size = generator.setChunkBytes(CHUNK_BYTES).generate(out, TRACE_BYTES);
+        assertEquals(out.size(), size);
+        return out.toByteArray();
+    }
+
+    /*
+     * Counts packets by the fields they have, up to field 63.
+     */
+    private static int[] countPackets(byte[] trace) {
+        int[] counts = new int[64];
+        ProtoReader reader = new ProtoReader(trace);
+        while (reader.next()) {
+            ProtoReader packet = reader.readMessage();
+            while (packet.next()) {
+                if (packet.getField() < counts.length) {
+                    counts[packet.getField()]++;
+                }
+            }
+        }
+        return counts;
+    }
+}
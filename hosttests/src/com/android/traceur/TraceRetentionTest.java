@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Checks which traces {@link TraceRetention} deletes.
+ */
+@RunWith(JUnit4.class)
+public class TraceRetentionTest {
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    private File mTraceDir;
+    private File mStateFile;
+    private TraceRetention mRetention;
+
+    @Before
+    public void setUp() throws IOException {
+        mTraceDir = mTemp.newFolder("traces");
+        mStateFile = new File(mTemp.getRoot(), "state");
+        mRetention = new TraceRetention(mTraceDir, mStateFile);
+    }
+
+    @Test
+    public void withinLimits_deletesNothing() throws IOException {
+        newTrace("trace-a.perfetto-trace", 100, 1000);
+        newTrace("trace-b.perfetto-trace", 100, 2000);
+
+        assertTrue(mRetention.enforce(1000, 10, null).isEmpty());
+    }
+
+    @Test
+    public void overQuota_deletesOldestFirst() throws IOException {
+        File a = newTrace("trace-a.perfetto-trace", 100, 1000);
+        File b = newTrace("trace-b.perfetto-trace", 100, 2000);
+        File c = newTrace("trace-c.perfetto-trace", 100, 3000);
+
+        assertEquals(Arrays.asList(a), mRetention.enforce(250, 0, null));
+        assertTrue(b.exists());
+        assertTrue(c.exists());
+    }
+
+    @Test
+    public void overCount_deletesOldestFirst() throws IOException {
+        File a = newTrace("trace-a.perfetto-trace", 100, 1000);
+        File b = newTrace("trace-b.perfetto-trace", 100, 2000);
+        newTrace("trace-c.perfetto-trace", 100, 3000);
+
+        assertEquals(Arrays.asList(a, b), mRetention.enforce(0, 1, null));
+    }
+
+    @Test
+    public void accessedTrace_isDeletedLast() throws IOException {
+        File a = newTrace("trace-a.perfetto-trace", 100, 1000);
+        File b = newTrace("trace-b.perfetto-trace", 100, 2000);
+        mRetention.markAccessed(a.getName(), 5000);
+
+        assertEquals(Arrays.asList(b), mRetention.enforce(150, 0, null));
+    }
+
+    @Test
+    public void pinnedAndKeptTraces_areNotDeleted() throws IOException {
+        File a = newTrace("trace-a.perfetto-trace", 100, 1000);
+        File b = newTrace("trace-b.perfetto-trace", 100, 2000);
+        File c = newTrace("trace-c.perfetto-trace", 100, 3000);
+        mRetention.setPinned(a.getName(), true);
+
+        assertEquals(Arrays.asList(b), mRetention.enforce(50, 0, c));
+        assertTrue(a.exists());
+        assertTrue(c.exists());
+    }
+
+    @Test
+    public void state_isPersisted() throws IOException {
+        File a = newTrace("trace-a.perfetto-trace", 100, 1000);
+        mRetention.setPinned(a.getName(), true);
+
+        assertTrue(new TraceRetention(mTraceDir, mStateFile).isPinned(a.getName()));
+    }
+
+    @Test
+    public void clear_deletesEverythingIncludingPins() throws IOException {
+        File a = newTrace("trace-a.perfetto-trace", 100, 1000);
+        newTrace("trace-b.perfetto-trace", 100, 2000);
+        File other = newTrace(".trace-in-progress.trace", 100, 3000);
+        mRetention.setPinned(a.getName(), true);
+
+        assertEquals(2, mRetention.clear());
+        assertFalse(mRetention.isPinned(a.getName()));
+        assertTrue(other.exists());
+    }
+
+    private File newTrace(String name, int size, long lastModifiedMs) throws IOException {
+        File file = new File(mTraceDir, name);
+        Files.write(file.toPath(), new byte[size]);
+        file.setLastModified(lastModifiedMs);
+        return file;
+    }
+}
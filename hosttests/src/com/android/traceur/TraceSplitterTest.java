@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that {@link TraceSplitter} cuts traces on packet boundaries and that
+ * the original trace can be restored from the manifest.
+ */
+@RunWith(JUnit4.class)
+public class TraceSplitterTest {
+
+    private static final String TRACE_NAME = "trace-board-id-2020.perfetto-trace";
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    @Test
+    public void smallTrace_isOnePart() throws IOException {
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 1000));
+
+        List<File> files = split(trace, 1024);
+
+        assertEquals(2, files.size());
+        assertArrayEquals(trace.toByteArray(), Files.readAllBytes(files.get(1).toPath()));
+    }
+
+    @Test
+    public void parts_endOnPacketBoundaries() throws IOException {
+        ProtoWriter trace = new ProtoWriter();
+        for (int i = 0; i < 100; i++) {
+            trace.writeMessage(1, new ProtoWriter().writeVarint(8, 1000 + i)
+                .writeBytes(2, new byte[40 + i]));
+        }
+
+        List<File> files = split(trace, 512);
+
+        assertTrue(files.size() > 3);
+        long packets = 0;
+        for (File part : files.subList(1, files.size())) {
+            assertTrue(part.length() <= 512);
+            TraceSummary summary = TraceSummary.read(part);
+            assertFalse(summary.isTruncated());
+            packets += summary.getPacketCount();
+        }
+        assertEquals(100, packets);
+        assertArrayEquals(trace.toByteArray(), restore(files));
+    }
+
+    @Test
+    public void headerPackets_areCopiedIntoEveryPart() throws IOException {
+        ProtoWriter trace = new ProtoWriter();
+        ProtoWriter config = new ProtoWriter().writeVarint(5, 60000);
+        trace.writeMessage(1, new ProtoWriter().writeMessage(33, config));
+        for (int i = 0; i < 50; i++) {
+            trace.writeMessage(1, new ProtoWriter().writeVarint(8, 1000 + i)
+                .writeBytes(2, new byte[100]));
+        }
+
+        List<File> files = split(trace, 1024);
+
+        byte[] configPacket = new ProtoWriter().writeMessage(1,
+            new ProtoWriter().writeMessage(33, config)).toByteArray();
+        for (File part : files.subList(1, files.size())) {
+            byte[] bytes = Files.readAllBytes(part.toPath());
+            assertArrayEquals(configPacket, Arrays.copyOf(bytes, configPacket.length));
+        }
+        assertArrayEquals(trace.toByteArray(), restore(files));
+    }
+
+    @Test
+    public void largePacket_getsItsOwnPart() throws IOException {
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 1000));
+        trace.writeMessage(1, new ProtoWriter().writeBytes(2, new byte[4096]));
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 2000));
+
+        List<File> files = split(trace, 1024);
+
+        assertEquals(4, files.size());
+        assertTrue(files.get(2).length() > 4096);
+        assertArrayEquals(trace.toByteArray(), restore(files));
+    }
+
+    @Test
+    public void truncatedPacket_isLeftOut() throws IOException {
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 1000));
+        int complete = trace.size();
+        trace.writeMessage(1, new ProtoWriter().writeBytes(2, new byte[100]));
+        File in = mTemp.newFile(TRACE_NAME);
+        Files.write(in.toPath(), Arrays.copyOf(trace.toByteArray(), trace.size() - 10));
+
+        List<File> files = new TraceSplitter(1024, null).split(in, mTemp.newFolder());
+
+        assertEquals(2, files.size());
+        assertEquals(complete, files.get(1).length());
+    }
+
+    @Test
+    public void manySmallPackets_areSplitInBoundedMemory() throws IOException {
+        final int packets = 1 << 20;
+        long smallTrace = measureSplitAllocation(packets);
+        long largeTrace = measureSplitAllocation(4 * packets);
+
+        // Holding on to anything per packet would take at least 8 bytes each.
+        assertTrue("Allocated " + (largeTrace - smallTrace) + " more bytes for "
+            + 3 * packets + " more packets", largeTrace - smallTrace < 3 * packets);
+    }
+
+    @Test
+    public void partNames_keepTheTraceExtension() {
+        assertEquals("trace-board-id-2020-part02of10.perfetto-trace",
+            TraceSplitter.getPartName(TRACE_NAME, 1, 10));
+    }
+
+    private List<File> split(ProtoWriter trace, long maxPartSize) throws IOException {
+        File in = mTemp.newFile(TRACE_NAME);
+        Files.write(in.toPath(), trace.toByteArray());
+        final long[] progress = new long[2];
+        List<File> files = new TraceSplitter(maxPartSize, new TraceSplitter.Listener() {
+            @Override
+            public void onProgress(long bytesWritten, long totalBytes) {
+                assertTrue(bytesWritten >= progress[0]);
+                progress[0] = bytesWritten;
+                progress[1] = totalBytes;
+            }
+        }).split(in, mTemp.newFolder());
+
+        assertEquals(TRACE_NAME + TraceSplitter.MANIFEST_SUFFIX, files.get(0).getName());
+        assertEquals(progress[1], progress[0]);
+        return files;
+    }
+
+    /*
+     * Returns how many bytes splitting a trace of empty packets allocates.
+     */
+    private long measureSplitAllocation(int packets) throws IOException {
+        byte[] trace = new byte[2 * packets];
+        for (int i = 0; i < trace.length; i += 2) {
+            trace[i] = (1 << 3) | ProtoReader.WIRE_TYPE_LENGTH_DELIMITED;
+        }
+        File in = mTemp.newFile();
+        Files.write(in.toPath(), trace);
+        File outDir = mTemp.newFolder();
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        List<File> files = new TraceSplitter(1 << 20, null).split(in, outDir);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertEquals(trace.length / (1 << 20) + 1, files.size());
+        return allocated;
+    }
+
+    /*
+     * Puts the original trace back together the way the manifest says to.
+     */
+    private static byte[] restore(List<File> files) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<String> lines = Files.readAllLines(files.get(0).toPath(), StandardCharsets.UTF_8);
+        int part = 1;
+        for (String line : lines) {
+            if (line.startsWith("#")) {
+                continue;
+            }
+            String[] columns = line.split("\t");
+            assertEquals(files.get(part).getName(), columns[0]);
+            byte[] bytes = Files.readAllBytes(files.get(part).toPath());
+            int headerLength = Integer.parseInt(columns[4]);
+            out.write(bytes, headerLength, bytes.length - headerLength);
+            part++;
+        }
+        assertEquals(files.size(), part);
+        return out.toByteArray();
+    }
+}
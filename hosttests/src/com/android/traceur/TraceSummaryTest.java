@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Checks that {@link TraceSummary} finds the time span and contents of a
+ * trace, and that its index round-trips.
+ */
+@RunWith(JUnit4.class)
+public class TraceSummaryTest {
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    @Test
+    public void emptyTrace_hasNoCoverage() throws IOException {
+        TraceSummary summary = read(new ProtoWriter());
+
+        assertEquals(0, summary.getPacketCount());
+        assertFalse(summary.hasTimestamps());
+        assertEquals(0, summary.getCoverageNs());
+    }
+
+    @Test
+    public void packetTimestamps_areUsed() throws IOException {
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 5000));
+        trace.writeMessage(1, new ProtoWriter().writeString(2, "no timestamp"));
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 2000));
+
+        TraceSummary summary = read(trace);
+
+        assertEquals(3, summary.getPacketCount());
+        assertEquals(2000, summary.getFirstTimestampNs());
+        assertEquals(5000, summary.getLastTimestampNs());
+        assertEquals(3000, summary.getCoverageNs());
+    }
+
+    @Test
+    public void ftraceEventTimestamps_areUsed() throws IOException {
+        ProtoWriter bundle = new ProtoWriter()
+            .writeVarint(1, 0 /* cpu */)
+            .writeMessage(2, new ProtoWriter().writeVarint(1, 1000).writeVarint(2, 42))
+            .writeMessage(2, new ProtoWriter().writeVarint(1, 9000).writeVarint(2, 42));
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, new ProtoWriter().writeMessage(1, bundle));
+
+        TraceSummary summary = read(trace);
+
+        assertEquals(1000, summary.getFirstTimestampNs());
+        assertEquals(9000, summary.getLastTimestampNs());
+    }
+
+    @Test
+    public void compactSchedTimestamps_areDeltaDecoded() throws IOException {
+        byte[] packed = packVarints(10000, 5, 20);
+        ProtoWriter compactSched = new ProtoWriter().writeBytes(1, packed);
+        ProtoWriter bundle = new ProtoWriter().writeMessage(4, compactSched);
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, new ProtoWriter().writeMessage(1, bundle));
+
+        TraceSummary summary = read(trace);
+
+        assertEquals(10000, summary.getFirstTimestampNs());
+        assertEquals(10025, summary.getLastTimestampNs());
+    }
+
+    @Test
+    public void truncatedTrace_keepsCompletePackets() throws IOException {
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 100));
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 200));
+        byte[] bytes = Arrays.copyOf(trace.toByteArray(), trace.size() - 1);
+
+        TraceSummary summary = TraceSummary.read(new ByteArrayInputStream(bytes));
+
+        assertTrue(summary.isTruncated());
+        assertEquals(1, summary.getPacketCount());
+        assertEquals(100, summary.getLastTimestampNs());
+    }
+
+    @Test
+    public void mappedFile_matchesStream() throws IOException {
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 100).writeVarint(10, 1));
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 700).writeVarint(10, 2));
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 400).writeVarint(10, 1));
+
+        TraceSummary summary = TraceSummary.read(writeFile("trace", trace));
+
+        assertFalse(summary.isTruncated());
+        assertEquals(3, summary.getPacketCount());
+        assertEquals(600, summary.getCoverageNs());
+        assertEquals(trace.size(), summary.getTraceSize());
+        assertEquals(Long.valueOf(2), summary.getSequencePacketCounts().get(1L));
+        assertEquals(Long.valueOf(1), summary.getSequencePacketCounts().get(2L));
+        // The first packet always starts a checkpoint.
+        assertEquals(Long.valueOf(0), summary.getCheckpoints().firstKey());
+    }
+
+    @Test
+    public void mappedFile_truncated_keepsCompletePackets() throws IOException {
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 100));
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 200));
+        File file = mTemp.newFile("truncated");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(trace.buffer(), 0, trace.size() - 1);
+        }
+
+        TraceSummary summary = TraceSummary.read(file);
+
+        assertTrue(summary.isTruncated());
+        assertEquals(1, summary.getPacketCount());
+    }
+
+    @Test
+    public void traceConfigAndStats_areRead() throws IOException {
+        ProtoWriter ftraceConfig = new ProtoWriter()
+            .writeString(1, "sched/sched_switch")
+            .writeString(2, "gfx")
+            .writeString(2, "am");
+        ProtoWriter dataSource = new ProtoWriter().writeMessage(1,
+            new ProtoWriter().writeString(1, "linux.ftrace").writeMessage(100, ftraceConfig));
+        ProtoWriter config = new ProtoWriter().writeMessage(2, dataSource);
+        ProtoWriter oldStats = new ProtoWriter().writeMessage(1,
+            new ProtoWriter().writeVarint(12, 4096).writeVarint(1, 1));
+        ProtoWriter stats = new ProtoWriter().writeMessage(1,
+            new ProtoWriter().writeVarint(12, 4096).writeVarint(1, 1000).writeVarint(18, 3));
+
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, new ProtoWriter().writeMessage(33, config));
+        trace.writeMessage(1, new ProtoWriter().writeMessage(35, oldStats));
+        trace.writeMessage(1, new ProtoWriter().writeMessage(35, stats));
+
+        TraceSummary summary = read(trace);
+
+        assertEquals(Arrays.asList("am", "gfx"), Arrays.asList(
+            summary.getCategories().toArray()));
+        assertEquals(1, summary.getBufferStats().size());
+        TraceSummary.BufferStats buffer = summary.getBufferStats().get(0);
+        assertEquals(4096, buffer.bufferSize);
+        assertEquals(1000, buffer.bytesWritten);
+        assertEquals(3, buffer.chunksDiscarded);
+    }
+
+    @Test
+    public void ftraceStats_areCountedFromTheStartOfTheTrace() throws IOException {
+        ProtoWriter start = new ProtoWriter().writeVarint(1, 1 /* START_OF_TRACE */)
+            .writeMessage(2, new ProtoWriter().writeVarint(1, 0).writeVarint(3, 100))
+            .writeMessage(2, new ProtoWriter().writeVarint(1, 1).writeVarint(3, 7));
+        ProtoWriter end = new ProtoWriter().writeVarint(1, 2 /* END_OF_TRACE */)
+            .writeMessage(2, new ProtoWriter().writeVarint(1, 0).writeVarint(3, 150))
+            .writeMessage(2, new ProtoWriter().writeVarint(1, 1).writeVarint(3, 7)
+                .writeVarint(8, 4));
+
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, new ProtoWriter().writeMessage(34, start));
+        trace.writeMessage(1, new ProtoWriter().writeMessage(34, end));
+
+        TraceSummary summary = read(trace);
+
+        assertEquals(2, summary.getFtraceCpuStats().size());
+        assertEquals(50, summary.getFtraceCpuStats().get(0).overrun);
+        assertEquals(0, summary.getFtraceCpuStats().get(1).overrun);
+        assertEquals(4, summary.getFtraceCpuStats().get(1).droppedEvents);
+    }
+
+    @Test
+    public void index_roundTrips() throws IOException {
+        ProtoWriter ftraceConfig = new ProtoWriter().writeString(2, "sched");
+        ProtoWriter config = new ProtoWriter().writeMessage(2,
+            new ProtoWriter().writeMessage(1, new ProtoWriter().writeMessage(100, ftraceConfig)));
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, new ProtoWriter().writeMessage(33, config).writeVarint(10, 7));
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 1000).writeVarint(10, 7));
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 3000).writeVarint(10, 7));
+        trace.writeMessage(1, new ProtoWriter().writeMessage(35, new ProtoWriter()
+            .writeMessage(1, new ProtoWriter().writeVarint(12, 1024).writeVarint(3, 2))));
+        trace.writeMessage(1, new ProtoWriter().writeMessage(34, new ProtoWriter()
+            .writeMessage(2, new ProtoWriter().writeVarint(1, 3).writeVarint(3, 9))));
+        File traceFile = writeFile("trace", trace);
+        File indexFile = new File(mTemp.getRoot(), "trace.index");
+
+        TraceSummary.read(traceFile).writeIndex(indexFile, traceFile);
+        TraceSummary index = TraceSummary.readIndex(indexFile, traceFile);
+
+        assertNotNull(index);
+        assertEquals(5, index.getPacketCount());
+        assertEquals(trace.size(), index.getTraceSize());
+        assertEquals(1000, index.getFirstTimestampNs());
+        assertEquals(3000, index.getLastTimestampNs());
+        assertEquals(Long.valueOf(3), index.getSequencePacketCounts().get(7L));
+        assertTrue(index.getCategories().contains("sched"));
+        assertEquals(1024, index.getBufferStats().get(0).bufferSize);
+        assertEquals(2, index.getBufferStats().get(0).chunksOverwritten);
+        assertEquals(3, index.getFtraceCpuStats().get(0).cpu);
+        assertEquals(9, index.getFtraceCpuStats().get(0).overrun);
+        assertEquals(Long.valueOf(0), index.getCheckpoints().firstKey());
+        assertFalse(index.isTruncated());
+    }
+
+    @Test
+    public void index_forChangedTrace_isIgnored() throws IOException {
+        ProtoWriter trace = new ProtoWriter();
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 1000));
+        File traceFile = writeFile("trace", trace);
+        File indexFile = new File(mTemp.getRoot(), "trace.index");
+        TraceSummary.read(traceFile).writeIndex(indexFile, traceFile);
+
+        trace.writeMessage(1, new ProtoWriter().writeVarint(8, 2000));
+        writeFile("trace", trace);
+
+        assertNull(TraceSummary.readIndex(indexFile, traceFile));
+        assertNull(TraceSummary.readIndex(new File(mTemp.getRoot(), "missing"), traceFile));
+    }
+
+    private File writeFile(String name, ProtoWriter contents) throws IOException {
+        File file = new File(mTemp.getRoot(), name);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(contents.buffer(), 0, contents.size());
+        }
+        return file;
+    }
+
+    private static TraceSummary read(ProtoWriter trace) throws IOException {
+        return TraceSummary.read(new ByteArrayInputStream(trace.toByteArray()));
+    }
+
+    private static byte[] packVarints(long... values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (long value : values) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+        return out.toByteArray();
+    }
+}
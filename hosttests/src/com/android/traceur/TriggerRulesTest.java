@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceur;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that {@link TriggerRules} parses rules and arms configs with them.
+ */
+@RunWith(JUnit4.class)
+public class TriggerRulesTest {
+
+    private static final long TIMEOUT_MS = 30 * 60 * 1000;
+
+    // TraceConfig fields, from protos/perfetto/config/trace_config.proto.
+    private static final int DURATION_MS = 3;
+    private static final int NOTIFY_TRACEUR = 16;
+    private static final int TRIGGER_CONFIG = 17;
+
+    @Test
+    public void rules_areParsedWithDefaults() {
+        TriggerRules rules = TriggerRules.parse(TriggerRules.MODE_STOP,
+            "slow_launch:20000:3000, jank:4000,anr", TIMEOUT_MS);
+
+        List<TriggerRules.Rule> parsed = rules.getRules();
+        assertEquals(3, parsed.size());
+        assertEquals("slow_launch", parsed.get(0).name);
+        assertEquals(20000, parsed.get(0).preRollMs);
+        assertEquals(3000, parsed.get(0).postRollMs);
+        assertEquals(4000, parsed.get(1).preRollMs);
+        assertEquals(TriggerRules.DEFAULT_POST_ROLL_MS, parsed.get(1).postRollMs);
+        assertEquals(TriggerRules.DEFAULT_PRE_ROLL_MS, parsed.get(2).preRollMs);
+    }
+
+    @Test
+    public void invalidRules_areRejected() {
+        for (String rules : Arrays.asList("", "a b", "a:-1", "a:1:2:3", "a:x", "a,,b")) {
+            try {
+                TriggerRules.parse(TriggerRules.MODE_STOP, rules, TIMEOUT_MS);
+                fail("Accepted " + rules);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void invalidModeOrTimeout_isRejected() {
+        try {
+            TriggerRules.parse("pause", "a", TIMEOUT_MS);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            TriggerRules.parse(TriggerRules.MODE_START, "a", 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void stopWindow_coversPreAndPostRoll() {
+        TriggerRules rules = TriggerRules.parse(TriggerRules.MODE_STOP,
+            "a:20000:3000,b:10000:15500", TIMEOUT_MS);
+        assertEquals(26, rules.getWindowSeconds());
+    }
+
+    @Test
+    public void startWindow_isOnlyPostRoll() {
+        TriggerRules rules = TriggerRules.parse(TriggerRules.MODE_START,
+            "a:20000:3000,b:10000:15500", TIMEOUT_MS);
+        assertEquals(16, rules.getWindowSeconds());
+    }
+
+    @Test
+    public void config_isArmedWithTheTriggers() {
+        TraceConfig config = TraceConfig.create(Arrays.asList("sched"), 4096, 4, true, true,
+            100, 10);
+        TriggerRules.parse(TriggerRules.MODE_STOP, "a:1000:2000,b:0:0", TIMEOUT_MS)
+            .applyTo(config);
+
+        ProtoReader reader = new ProtoReader(config.toByteArray());
+        boolean notify = false;
+        ProtoReader triggerConfig = null;
+        while (reader.next()) {
+            if (reader.getField() == DURATION_MS) {
+                fail("Armed sessions are bounded by the trigger timeout");
+            } else if (reader.getField() == NOTIFY_TRACEUR) {
+                notify = reader.readBool();
+            } else if (reader.getField() == TRIGGER_CONFIG) {
+                triggerConfig = reader.readMessage();
+            }
+        }
+        assertTrue(notify);
+
+        long mode = 0;
+        long timeout = 0;
+        List<String> triggers = new ArrayList<>();
+        while (triggerConfig.next()) {
+            if (triggerConfig.getField() == 1) {
+                mode = triggerConfig.readVarint();
+            } else if (triggerConfig.getField() == 2) {
+                ProtoReader trigger = triggerConfig.readMessage();
+                String name = null;
+                long stopDelay = 0;
+                while (trigger.next()) {
+                    if (trigger.getField() == 1) {
+                        name = trigger.readString();
+                    } else {
+                        assertEquals(3, trigger.getField());
+                        stopDelay = trigger.readVarint();
+                    }
+                }
+                triggers.add(name + "@" + stopDelay);
+            } else {
+                assertEquals(3, triggerConfig.getField());
+                timeout = triggerConfig.readVarint();
+            }
+        }
+        assertEquals(TraceConfig.TRIGGER_MODE_STOP_TRACING, mode);
+        assertEquals(TIMEOUT_MS, timeout);
+        assertEquals(Arrays.asList("a@2000", "b@0"), triggers);
+    }
+}
@@ -16,58 +16,97 @@
 
 package com.android.traceur;
 
+import android.os.SystemClock;
 import android.sysprop.TraceProperties;
-import android.text.TextUtils;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPasswd;
 import android.util.Log;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Utility functions for calling atrace
  */
-public class AtraceUtils implements TraceUtils.TraceEngine {
+public class AtraceUtils implements TraceEngine {
 
     static final String TAG = "Traceur";
 
-    private static final String DEBUG_TRACING_FILE = "/sys/kernel/debug/tracing/tracing_on";
-    private static final String TRACING_FILE = "/sys/kernel/tracing/tracing_on";
+    // Relative to the root directory.
+    private static final String DEBUG_TRACING_FILE = "sys/kernel/debug/tracing/tracing_on";
+    private static final String TRACING_FILE = "sys/kernel/tracing/tracing_on";
+    private static final String PROC_DIR = "proc";
 
     public static String NAME = "ATRACE";
     private static String OUTPUT_EXTENSION = "ctrace";
 
+    private static final long START_TIMEOUT_MS = 30000;
+    private static final long STOP_TIMEOUT_MS = 30000;
+    private static final long DUMP_TIMEOUT_MS = 5 * 60 * 1000;
+    private static final long LIST_CATEGORIES_TIMEOUT_MS = 10000;
+
+    // ps names users the same way for the life of the process.
+    private static final Map<Integer, String> USER_NAMES = new HashMap<>();
+
+    private final File mRootDir;
+
+    public AtraceUtils() {
+        this(new File("/"));
+    }
+
+    /**
+     * Reads tracefs and /proc under the given root directory rather than the
+     * device's, so that the engine can be run against fake binaries on host.
+     */
+    AtraceUtils(File rootDir) {
+        mRootDir = rootDir;
+    }
+
     public String getName() {
         return NAME;
     }
 
-    public String getOutputExtension() {
+    /* Note: atrace output is already compressed, so compression is ignored. */
+    public String getOutputExtension(TraceCompression compression) {
         return OUTPUT_EXTENSION;
     }
 
-    /* Note: longTrace and maxLongTrace* parameters are ignored in atrace mode. */
-    public boolean traceStart(Collection<String> tags, int bufferSizeKb, boolean apps,
-            boolean longTrace, int maxLongTraceSizeMb, int maxLongTraceDurationMinutes) {
+    /* Note: flightRecorder, longTrace and maxLongTrace* parameters are ignored in atrace mode. */
+    public boolean traceStart(Collection<String> tags, int bufferSizeKb, int auxBufferSizeKb,
+            boolean apps, boolean flightRecorder, boolean longTrace, int maxLongTraceSizeMb,
+            int maxLongTraceDurationMinutes) {
 
-        String appParameter = apps ? "-a '*' " : "";
-        String cmd = "atrace --async_start -c -b " + bufferSizeKb + " "
-            + appParameter + TextUtils.join(" ", tags);
+        List<String> cmd = new ArrayList<>(Arrays.asList(
+            "atrace", "--async_start", "-c", "-b", Integer.toString(bufferSizeKb)));
+        if (apps) {
+            cmd.add("-a");
+            cmd.add("*");
+        }
+        cmd.addAll(tags);
 
         Log.v(TAG, "Starting async atrace: " + cmd);
         try {
-            Process atrace = TraceUtils.exec(cmd);
-            if (atrace.waitFor() != 0) {
-                Log.e(TAG, "atraceStart failed with: " + atrace.exitValue());
+            ProcessRunner.Result atrace = ProcessRunner.getInstance().run(
+                new ProcessRunner.Command("atrace_start", cmd).setTimeoutMs(START_TIMEOUT_MS));
+            if (!atrace.succeeded()) {
+                Log.e(TAG, "atraceStart failed with: " + atrace.exitCode);
                 return false;
             }
         } catch (Exception e) {
@@ -76,41 +115,117 @@ public class AtraceUtils implements TraceUtils.TraceEngine {
         return true;
     }
 
+    /* atrace can't use perfetto configs, so the profile's settings are used instead. */
+    public boolean traceStart(TraceProfile profile, byte[] config) {
+        return traceStart(profile.getCategories(), profile.getBufferSizeKb(),
+            profile.getAuxBufferSizeKb(), profile.getApps(), false, false, 0, 0);
+    }
+
+    public boolean traceArm(Collection<String> tags, int bufferSizeKb, int auxBufferSizeKb,
+            boolean apps, TriggerRules triggers) {
+        Log.e(TAG, "atrace doesn't support triggers.");
+        return false;
+    }
+
+    public boolean setBootTraceConfig(byte[] config) {
+        if (config != null) {
+            Log.e(TAG, "atrace doesn't support tracing the boot.");
+            return false;
+        }
+        return true;
+    }
+
+    public boolean traceKeepArmed(byte[] config, long durationMs) {
+        Log.e(TAG, "atrace doesn't support armed sessions.");
+        return false;
+    }
+
+    public boolean traceStartArmed() {
+        return false;
+    }
+
+    public void traceDisarm() {
+        // Nothing is ever armed.
+    }
+
+    public boolean isArmed() {
+        return false;
+    }
+
     public void traceStop() {
-        String cmd = "atrace --async_stop > /dev/null";
+        ProcessRunner.Command cmd = new ProcessRunner.Command("atrace_stop",
+                "atrace", "--async_stop")
+            .setTimeoutMs(STOP_TIMEOUT_MS);
 
         Log.v(TAG, "Stopping async atrace: " + cmd);
         try {
-            Process atrace = TraceUtils.exec(cmd);
+            ProcessRunner.Result atrace = ProcessRunner.getInstance().run(cmd);
 
-            if (atrace.waitFor() != 0) {
-                Log.e(TAG, "atraceStop failed with: " + atrace.exitValue());
+            if (!atrace.succeeded()) {
+                Log.e(TAG, "atraceStop failed with: " + atrace.exitCode);
             }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    public boolean traceDump(File outFile) {
-        String cmd = "atrace --async_stop -z -c -o " + outFile;
+    public File traceDump(File outFile, TraceCompression compression,
+            SaveProgress progress) {
+        return dump(outFile, "atrace_dump", "--async_stop", progress) ? outFile : null;
+    }
+
+    /* atrace always records into a circular buffer, which it can dump while tracing. */
+    public File traceSnapshot(File outFile, TraceCompression compression) {
+        return dump(outFile, "atrace_snapshot", "--async_dump", new SaveProgress(null))
+            ? outFile : null;
+    }
+
+    /*
+     * atrace stops and writes the compressed trace in one go, so the phases
+     * of a dump are timed but their bytes aren't reported.
+     *
+     * The thread list that follows the trace is read from /proc while atrace
+     * runs, rather than by forking ps once it's done.
+     */
+    private boolean dump(File outFile, String type, String mode, SaveProgress progress) {
+        ProcessRunner.Command cmd = new ProcessRunner.Command(type,
+                "atrace", mode, "-z", "-c", "-o", outFile.getPath())
+            .setTimeoutMs(DUMP_TIMEOUT_MS);
 
         Log.v(TAG, "Dumping async atrace: " + cmd);
         try {
-            Process atrace = TraceUtils.exec(cmd);
+            progress.startPhase(SaveProgress.PHASE_STOP, SaveProgress.UNKNOWN,
+                SystemClock.elapsedRealtime());
+            Future<ProcessRunner.Result> future = ProcessRunner.getInstance().submit(cmd);
+
+            long scanStartMs = SystemClock.elapsedRealtime();
+            String tasks = null;
+            try {
+                tasks = new TaskScanner(new File(mRootDir, PROC_DIR), AtraceUtils::getUserName,
+                        Os.sysconf(OsConstants._SC_PAGESIZE) / 1024)
+                    .scan(Runtime.getRuntime().availableProcessors());
+                Log.v(TAG, "Listed tasks in " + (SystemClock.elapsedRealtime() - scanStartMs)
+                    + " ms");
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to list tasks; saving the trace without them", e);
+            }
 
-            if (atrace.waitFor() != 0) {
-                Log.e(TAG, "atraceDump failed with: " + atrace.exitValue());
+            ProcessRunner.Result atrace = await(future);
+            if (!atrace.succeeded()) {
+                Log.e(TAG, "atraceDump failed with: " + atrace.exitCode);
                 return false;
             }
 
-            Process ps = TraceUtils.exec("ps -AT");
-
-            new Streamer("atraceDump:ps:stdout",
-                    ps.getInputStream(), new FileOutputStream(outFile, true /* append */));
-
-            if (ps.waitFor() != 0) {
-                Log.e(TAG, "atraceDump:ps failed with: " + ps.exitValue());
-                return false;
+            // The trace is still usable without thread names, so it's saved
+            // as it is if they couldn't be listed.
+            if (tasks != null) {
+                // The runner only returns once the output has been fully written.
+                progress.startPhase(SaveProgress.PHASE_LIST_THREADS, SaveProgress.UNKNOWN,
+                    SystemClock.elapsedRealtime());
+                try (FileOutputStream out = new FileOutputStream(outFile, true /* append */)) {
+                    out.write(tasks.getBytes(StandardCharsets.UTF_8));
+                }
+                progress.endPhase(SystemClock.elapsedRealtime());
             }
 
             // Set the new file world readable to allow it to be adb pulled.
@@ -121,6 +236,38 @@ public class AtraceUtils implements TraceUtils.TraceEngine {
         return true;
     }
 
+    private static ProcessRunner.Result await(Future<ProcessRunner.Result> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while dumping atrace", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to dump atrace", e.getCause());
+        }
+    }
+
+    /*
+     * Returns the name ps would show for the user, e.g. "u0_a123".
+     */
+    private static String getUserName(int uid) {
+        synchronized (USER_NAMES) {
+            String name = USER_NAMES.get(uid);
+            if (name == null) {
+                try {
+                    StructPasswd passwd = Os.getpwuid(uid);
+                    name = passwd != null ? passwd.pw_name : Integer.toString(uid);
+                } catch (ErrnoException e) {
+                    name = Integer.toString(uid);
+                }
+                USER_NAMES.put(uid, name);
+            }
+            return name;
+        }
+    }
+
     public boolean isTracingOn() {
         boolean userInitiatedTracingFlag =
             TraceProperties.user_initiated().orElse(false);
@@ -134,8 +281,8 @@ public class AtraceUtils implements TraceUtils.TraceEngine {
         try {
             List<String> tracingOnContents;
 
-            Path debugTracingOnPath = Paths.get(DEBUG_TRACING_FILE);
-            Path tracingOnPath = Paths.get(TRACING_FILE);
+            Path debugTracingOnPath = new File(mRootDir, DEBUG_TRACING_FILE).toPath();
+            Path tracingOnPath = new File(mRootDir, TRACING_FILE).toPath();
 
             if (Files.isReadable(debugTracingOnPath)) {
                 tracingOnContents = Files.readAllLines(debugTracingOnPath);
@@ -154,110 +301,23 @@ public class AtraceUtils implements TraceUtils.TraceEngine {
     }
 
     public static TreeMap<String,String> atraceListCategories() {
-        String cmd = "atrace --list_categories";
+        ProcessRunner.Command cmd = new ProcessRunner.Command("atrace_list_categories",
+                "atrace", "--list_categories")
+            .setCaptureStdout(true)
+            .setTimeoutMs(LIST_CATEGORIES_TIMEOUT_MS);
 
         Log.v(TAG, "Listing tags: " + cmd);
         try {
-            Process atrace = TraceUtils.exec(cmd);
+            ProcessRunner.Result atrace = ProcessRunner.getInstance().run(cmd);
 
-            new Logger("atraceListCat:stderr", atrace.getErrorStream());
-            BufferedReader stdout = new BufferedReader(
-                    new InputStreamReader(atrace.getInputStream()));
-
-            if (atrace.waitFor() != 0) {
-                Log.e(TAG, "atraceListCategories failed with: " + atrace.exitValue());
+            if (!atrace.succeeded()) {
+                Log.e(TAG, "atraceListCategories failed with: " + atrace.exitCode);
             }
 
-            TreeMap<String, String> result = new TreeMap<>();
-            String line;
-            while ((line = stdout.readLine()) != null) {
-                String[] fields = line.trim().split(" - ", 2);
-                if (fields.length == 2) {
-                    result.put(fields[0], fields[1]);
-                }
-            }
-            return result;
+            return CategoryCatalog.parse(
+                new BufferedReader(new StringReader(atrace.getStdout())));
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
-
-
-    /**
-     * Streams data from an InputStream to an OutputStream
-     */
-    private static class Streamer {
-        private boolean mDone;
-
-        Streamer(final String tag, final InputStream in, final OutputStream out) {
-            new Thread(tag) {
-                @Override
-                public void run() {
-                    int read;
-                    byte[] buf = new byte[2 << 10];
-                    try {
-                        while ((read = in.read(buf)) != -1) {
-                            out.write(buf, 0, read);
-                        }
-                    } catch (IOException e) {
-                        Log.e(TAG, "Error while streaming " + tag);
-                    } finally {
-                        try {
-                            out.close();
-                        } catch (IOException e) {
-                            // Welp.
-                        }
-                        synchronized (Streamer.this) {
-                            mDone = true;
-                            Streamer.this.notify();
-                        }
-                    }
-                }
-            }.start();
-        }
-
-        synchronized boolean isDone() {
-            return mDone;
-        }
-
-        synchronized void waitForDone() {
-            while (!isDone()) {
-                try {
-                    wait();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            }
-        }
-    }
-
-    /**
-     * Streams data from an InputStream to an OutputStream
-     */
-    private static class Logger {
-
-        Logger(final String tag, final InputStream in) {
-            new Thread(tag) {
-                @Override
-                public void run() {
-                    int read;
-                    String line;
-                    BufferedReader r = new BufferedReader(new InputStreamReader(in));
-                    try {
-                        while ((line = r.readLine()) != null) {
-                            Log.e(TAG, tag + ": " + line);
-                        }
-                    } catch (IOException e) {
-                        Log.e(TAG, "Error while streaming " + tag);
-                    } finally {
-                        try {
-                            r.close();
-                        } catch (IOException e) {
-                            // Welp.
-                        }
-                    }
-                }
-            }.start();
-        }
-    }
 }
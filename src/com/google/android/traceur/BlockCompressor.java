@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses a file on several threads at once.
+ *
+ * The input is split into fixed-size blocks which are compressed
+ * independently, each into its own gzip member. The members are written out
+ * in order, and since a gzip file may consist of several members, the result
+ * can be read by gzip, zcat and java.util.zip.GZIPInputStream as usual.
+ */
+public class BlockCompressor {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4 << 20;
+
+    // Traces compress well even at the fastest level, and saving is what the
+    // user is waiting on.
+    private static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+
+    private static final byte[] GZIP_HEADER = {
+        0x1f, (byte) 0x8b, // Magic number
+        Deflater.DEFLATED, // Compression method
+        0,                 // Flags
+        0, 0, 0, 0,        // Modification time
+        0,                 // Extra flags
+        (byte) 0xff,       // Operating system (unknown)
+    };
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    /**
+     * Receives progress updates, after each block is written out.
+     */
+    public interface Listener {
+        public void onProgress(long bytesCompressed, long totalBytes);
+    }
+
+    /**
+     * Compresses {@code in} into {@code out} using one thread per core.
+     * Returns the size of the compressed file.
+     */
+    public static long gzip(File in, File out) throws IOException {
+        return gzip(in, out, null);
+    }
+
+    /**
+     * Like {@link #gzip(File, File)}, reporting progress to the listener if
+     * it's not null.
+     */
+    public static long gzip(File in, File out, Listener listener) throws IOException {
+        return gzip(in, out, DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors(),
+            listener);
+    }
+
+    /**
+     * Compresses {@code in} into {@code out}, then deletes {@code in}. If
+     * compression fails, {@code out} is deleted and {@code in} is renamed to
+     * {@code fallback} instead, so that its data isn't lost.
+     *
+     * Returns the file the data was saved to: {@code out}, {@code fallback},
+     * or null if it couldn't be renamed either.
+     */
+    public static File gzipOrRename(File in, File out, File fallback, Listener listener) {
+        try {
+            gzip(in, out, listener);
+            in.delete();
+            return out;
+        } catch (IOException e) {
+            out.delete();
+            return in.renameTo(fallback) ? fallback : null;
+        }
+    }
+
+    public static long gzip(File in, File out, int blockSize, int numThreads)
+            throws IOException {
+        return gzip(in, out, blockSize, numThreads, null);
+    }
+
+    public static long gzip(File in, File out, int blockSize, int numThreads, Listener listener)
+            throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try (FileChannel sink = FileChannel.open(out.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Bound the number of blocks held in memory while keeping every
+            // thread busy.
+            gzip(in, sink, blockSize, executor, 2 * numThreads, listener);
+            return sink.size();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Compresses {@code in} into {@code sink}, which may be a pipe, with the
+     * blocks compressed on the given executor. At most {@code maxPendingBlocks}
+     * blocks are held in memory, so a sink that is read slowly slows down
+     * compression rather than filling memory. Interrupting the calling thread
+     * or closing the sink stops compression. The sink is left open.
+     *
+     * Returns the number of bytes written to the sink.
+     */
+    public static long gzip(File in, WritableByteChannel sink, int blockSize,
+            ExecutorService executor, int maxPendingBlocks, Listener listener)
+            throws IOException {
+        ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+        try (FileChannel source = FileChannel.open(in.toPath(), StandardOpenOption.READ)) {
+            long size = source.size();
+            long position = 0;
+            long compressed = 0;
+            long written = 0;
+            int numBlocks = 0;
+            do {
+                // An empty input still gets one (empty) member.
+                while (pending.size() < maxPendingBlocks && (position < size || numBlocks == 0)) {
+                    int length = (int) Math.min(blockSize, size - position);
+                    pending.add(executor.submit(new BlockTask(source, position, length)));
+                    position += length;
+                    numBlocks++;
+                }
+                ByteBuffer block = await(pending.remove());
+                while (block.hasRemaining()) {
+                    written += sink.write(block);
+                }
+                if (listener != null) {
+                    // Every block but the last is full-sized.
+                    compressed = Math.min(size, compressed + blockSize);
+                    listener.onProgress(compressed, size);
+                }
+            } while (!pending.isEmpty());
+            return written;
+        } finally {
+            // Only left over if compression failed; the executor may be shared.
+            for (Future<ByteBuffer> block : pending) {
+                block.cancel(true);
+            }
+        }
+    }
+
+    private static ByteBuffer await(Future<ByteBuffer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to compress", e.getCause());
+        }
+    }
+
+    /**
+     * Reads one block of the input and returns it as a complete gzip member.
+     */
+    private static class BlockTask implements Callable<ByteBuffer> {
+        private final FileChannel mSource;
+        private final long mPosition;
+        private final int mLength;
+
+        BlockTask(FileChannel source, long position, int length) {
+            mSource = source;
+            mPosition = position;
+            mLength = length;
+        }
+
+        @Override
+        public ByteBuffer call() throws IOException {
+            byte[] input = new byte[mLength];
+            ByteBuffer buffer = ByteBuffer.wrap(input);
+            while (buffer.hasRemaining()) {
+                // Positional reads don't touch the shared channel position.
+                if (mSource.read(buffer, mPosition + buffer.position()) < 0) {
+                    throw new EOFException("File was truncated while compressing");
+                }
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(input, 0, mLength);
+
+            Deflater deflater = new Deflater(COMPRESSION_LEVEL, true /* nowrap */);
+            try {
+                deflater.setInput(input, 0, mLength);
+                deflater.finish();
+
+                // Worst case deflate output is a little larger than its input.
+                byte[] output = new byte[GZIP_HEADER.length + mLength + (mLength >> 8) + 64
+                    + GZIP_TRAILER_SIZE];
+                System.arraycopy(GZIP_HEADER, 0, output, 0, GZIP_HEADER.length);
+                int size = GZIP_HEADER.length;
+                while (!deflater.finished()) {
+                    if (size == output.length - GZIP_TRAILER_SIZE) {
+                        output = Arrays.copyOf(output, output.length * 2);
+                    }
+                    size += deflater.deflate(
+                        output, size, output.length - GZIP_TRAILER_SIZE - size);
+                }
+
+                // Blocks may wait a while to be written, so they only keep
+                // the compressed bytes rather than the worst-case array.
+                ByteBuffer member = ByteBuffer.wrap(
+                    Arrays.copyOf(output, size + GZIP_TRAILER_SIZE))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+                member.putInt(size, (int) crc.getValue());
+                member.putInt(size + 4, mLength);
+                return member;
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Caches the list of tracing categories available on this device.
+ *
+ * The list only changes when the build or the set of loaded vendor modules
+ * changes, so it is read from the trace engine once, persisted together with a
+ * key describing the current build and boot, and handed out as an immutable
+ * snapshot from then on. A new key (i.e. a reboot or an OTA) or an explicit
+ * call to {@link #invalidate()} causes the list to be read again.
+ *
+ * This class has no Android dependencies so that it can be exercised on host.
+ */
+public class CategoryCatalog {
+
+    private static final String KEY_PREFIX = "# ";
+
+    /**
+     * Produces the list of categories from the trace engine.
+     */
+    public interface Source {
+        public SortedMap<String, String> listCategories() throws IOException;
+    }
+
+    private final File mCacheFile;
+    private final String mKey;
+    private final Source mSource;
+
+    private SortedMap<String, String> mSnapshot;
+
+    public CategoryCatalog(File cacheFile, String key, Source source) {
+        mCacheFile = cacheFile;
+        mKey = key;
+        mSource = source;
+    }
+
+    /**
+     * Returns an immutable snapshot of the available categories, mapping
+     * category names to their descriptions.
+     */
+    public synchronized SortedMap<String, String> get() throws IOException {
+        if (mSnapshot != null) {
+            return mSnapshot;
+        }
+
+        SortedMap<String, String> categories = readCache();
+        if (categories == null) {
+            categories = new TreeMap<>(mSource.listCategories());
+
+            // An empty list means the engine failed to list anything. Don't
+            // persist or remember it, so that the next caller tries again.
+            if (categories.isEmpty()) {
+                return Collections.unmodifiableSortedMap(categories);
+            }
+            writeCache(categories);
+        }
+
+        mSnapshot = Collections.unmodifiableSortedMap(categories);
+        return mSnapshot;
+    }
+
+    /**
+     * Drops both the in-memory snapshot and the persisted copy, so that the
+     * next call to {@link #get()} reads the list from the engine again.
+     */
+    public synchronized void invalidate() {
+        mSnapshot = null;
+        mCacheFile.delete();
+    }
+
+    /**
+     * Parses the output of "atrace --list_categories", where each line has
+     * the form "  name - description".
+     */
+    public static TreeMap<String, String> parse(BufferedReader reader) throws IOException {
+        TreeMap<String, String> result = new TreeMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.trim().split(" - ", 2);
+            if (fields.length == 2) {
+                result.put(fields[0], fields[1]);
+            }
+        }
+        return result;
+    }
+
+    private SortedMap<String, String> readCache() {
+        if (!mCacheFile.exists()) {
+            return null;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(mCacheFile))) {
+            String header = reader.readLine();
+            if (header == null || !header.equals(KEY_PREFIX + mKey)) {
+                return null;
+            }
+            TreeMap<String, String> categories = parse(reader);
+            return categories.isEmpty() ? null : categories;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeCache(SortedMap<String, String> categories) throws IOException {
+        // Write to a temporary file first so that a crash can never leave a
+        // truncated list behind under a valid key.
+        File tmp = new File(mCacheFile.getPath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmp))) {
+            writer.write(KEY_PREFIX + mKey);
+            writer.newLine();
+            for (Map.Entry<String, String> entry : categories.entrySet()) {
+                writer.write(entry.getKey() + " - " + entry.getValue());
+                writer.newLine();
+            }
+        }
+        if (!tmp.renameTo(mCacheFile)) {
+            tmp.delete();
+            throw new IOException("Unable to write category catalog to " + mCacheFile);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tells whether a saved trace is missing data, and where from, using the
+ * TraceStats and FtraceStats that perfetto writes into it.
+ *
+ * Data is lost when a trace buffer discards or, unless it's a ring buffer,
+ * overwrites chunks, when patches or packets from a producer don't make it
+ * into a buffer, when a CPU's kernel buffer overruns before traced_probes
+ * reads it, or when the trace file ends in the middle of a packet.
+ *
+ * This class has no Android dependencies so that it can be tested on host.
+ */
+public class DataLossReport {
+
+    /**
+     * What a trace buffer lost. Buffers are numbered in the order of the
+     * trace config.
+     */
+    public static class BufferLoss {
+        public final int index;
+        public final long chunksOverwritten;
+        public final long chunksDiscarded;
+        public final long patchesFailed;
+        public final long packetsLost;
+
+        BufferLoss(int index, long chunksOverwritten, long chunksDiscarded, long patchesFailed,
+                long packetsLost) {
+            this.index = index;
+            this.chunksOverwritten = chunksOverwritten;
+            this.chunksDiscarded = chunksDiscarded;
+            this.patchesFailed = patchesFailed;
+            this.packetsLost = packetsLost;
+        }
+    }
+
+    private final List<BufferLoss> mBuffers;
+    private final List<TraceSummary.FtraceCpuStats> mCpus;
+    private final boolean mTruncated;
+
+    private DataLossReport(List<BufferLoss> buffers, List<TraceSummary.FtraceCpuStats> cpus,
+            boolean truncated) {
+        mBuffers = Collections.unmodifiableList(buffers);
+        mCpus = Collections.unmodifiableList(cpus);
+        mTruncated = truncated;
+    }
+
+    /**
+     * @param ringBuffer whether the trace was recorded into ring buffers, in
+     *     which overwriting old data is expected.
+     */
+    public static DataLossReport from(TraceSummary summary, boolean ringBuffer) {
+        List<BufferLoss> buffers = new ArrayList<>();
+        List<TraceSummary.BufferStats> bufferStats = summary.getBufferStats();
+        for (int i = 0; i < bufferStats.size(); i++) {
+            TraceSummary.BufferStats stats = bufferStats.get(i);
+            long chunksOverwritten = ringBuffer ? 0 : stats.chunksOverwritten;
+            if (chunksOverwritten > 0 || stats.chunksDiscarded > 0 || stats.patchesFailed > 0
+                    || stats.traceWriterPacketLoss > 0) {
+                buffers.add(new BufferLoss(i, chunksOverwritten, stats.chunksDiscarded,
+                    stats.patchesFailed, stats.traceWriterPacketLoss));
+            }
+        }
+
+        List<TraceSummary.FtraceCpuStats> cpus = new ArrayList<>();
+        for (TraceSummary.FtraceCpuStats stats : summary.getFtraceCpuStats()) {
+            if (stats.overrun > 0 || stats.commitOverrun > 0 || stats.droppedEvents > 0) {
+                cpus.add(stats);
+            }
+        }
+        return new DataLossReport(buffers, cpus, summary.isTruncated());
+    }
+
+    public boolean hasLoss() {
+        return mTruncated || !mBuffers.isEmpty() || !mCpus.isEmpty();
+    }
+
+    /**
+     * Returns the trace buffers that lost data, in order.
+     */
+    public List<BufferLoss> getBuffers() {
+        return mBuffers;
+    }
+
+    /**
+     * Returns what changed in the stats of the CPUs whose kernel buffers lost
+     * events, in order.
+     */
+    public List<TraceSummary.FtraceCpuStats> getCpus() {
+        return mCpus;
+    }
+
+    /**
+     * Returns whether the trace file ends in the middle of a packet.
+     */
+    public boolean isTruncated() {
+        return mTruncated;
+    }
+
+    /**
+     * Describes what was lost for the log, for example "buffer 0: 12 chunks
+     * overwritten; cpu 3: 450 events overrun", or "no data lost".
+     */
+    @Override
+    public String toString() {
+        if (!hasLoss()) {
+            return "no data lost";
+        }
+        List<String> parts = new ArrayList<>();
+        for (BufferLoss buffer : mBuffers) {
+            List<String> losses = new ArrayList<>();
+            addCount(losses, buffer.chunksOverwritten, "chunks overwritten");
+            addCount(losses, buffer.chunksDiscarded, "chunks discarded");
+            addCount(losses, buffer.patchesFailed, "patches failed");
+            addCount(losses, buffer.packetsLost, "packets lost");
+            parts.add("buffer " + buffer.index + ": " + String.join(", ", losses));
+        }
+        for (TraceSummary.FtraceCpuStats cpu : mCpus) {
+            List<String> losses = new ArrayList<>();
+            addCount(losses, cpu.overrun, "events overrun");
+            addCount(losses, cpu.commitOverrun, "commit overruns");
+            addCount(losses, cpu.droppedEvents, "events dropped");
+            parts.add("cpu " + cpu.cpu + ": " + String.join(", ", losses));
+        }
+        if (mTruncated) {
+            parts.add("truncated");
+        }
+        return String.join("; ", parts);
+    }
+
+    private static void addCount(List<String> losses, long count, String what) {
+        if (count > 0) {
+            losses.add(count + " " + what);
+        }
+    }
+}
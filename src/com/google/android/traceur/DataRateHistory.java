@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Remembers how fast past trace sessions filled each trace buffer, per set of
+ * categories, so that buffers for the next session can be sized to cover a
+ * given window of time.
+ *
+ * A session's rates are its buffers' bytes written, as reported in the
+ * trace's last TraceStats packet, over the time between the start of the
+ * session and the end. Bytes written include those that were later
+ * overwritten, so the rates hold for ring buffers too.
+ *
+ * This class has no Android dependencies so that it can be tested on host.
+ * Its methods do file I/O and should be called off the main thread.
+ */
+public class DataRateHistory {
+
+    private static final String KEY_PENDING_CATEGORIES = "pending.categories";
+    private static final String KEY_PENDING_START = "pending.start";
+    private static final String KEY_RATES = "rates.";
+
+    // Only this many of the most recent sessions are kept per category set.
+    private static final int MAX_SESSIONS = 5;
+    // Shorter sessions are mostly startup, which isn't representative.
+    private static final long MIN_SESSION_MS = 5000;
+
+    // Recommended sizes are this much larger than the measured need, out of 100.
+    private static final int HEADROOM_PERCENT = 25;
+    private static final int SIZE_GRANULARITY_KB = 1024;
+
+    public static final int MIN_PER_CPU_BUFFER_KB = 4096;
+    public static final int MAX_PER_CPU_BUFFER_KB = 65536;
+    public static final int MIN_AUX_BUFFER_KB = TraceConfig.DEFAULT_AUX_BUFFER_SIZE_KB;
+    public static final int MAX_AUX_BUFFER_KB = 32768;
+
+    /**
+     * Trace buffer sizes recommended for a session.
+     */
+    public static class BufferSizes {
+        public final int perCpuBufferKb;
+        public final int auxBufferKb;
+
+        public BufferSizes(int perCpuBufferKb, int auxBufferKb) {
+            this.perCpuBufferKb = perCpuBufferKb;
+            this.auxBufferKb = auxBufferKb;
+        }
+
+        @Override
+        public String toString() {
+            return perCpuBufferKb + " KB per CPU, " + auxBufferKb + " KB aux";
+        }
+    }
+
+    private final File mStateFile;
+    private Properties mState;
+
+    public DataRateHistory(File stateFile) {
+        mStateFile = stateFile;
+    }
+
+    /**
+     * Records that a session with the given categories started, to be
+     * completed by {@link #endSession}.
+     */
+    public synchronized void startSession(Collection<String> categories, long nowMs)
+            throws IOException {
+        Properties state = getState();
+        state.setProperty(KEY_PENDING_CATEGORIES, getKey(categories));
+        state.setProperty(KEY_PENDING_START, Long.toString(nowMs));
+        writeState();
+    }
+
+    /**
+     * Records the rates of the session started with {@link #startSession},
+     * given the buffer statistics at its end. Does nothing if no session was
+     * started or it was too short to tell.
+     *
+     * @return the rates recorded in bytes per second, indexed by buffer, or
+     *     null if none were.
+     */
+    public synchronized long[] endSession(List<TraceSummary.BufferStats> bufferStats,
+            long nowMs) throws IOException {
+        Properties state = getState();
+        String key = state.getProperty(KEY_PENDING_CATEGORIES);
+        long startMs = parseLong(state.getProperty(KEY_PENDING_START), -1);
+        state.remove(KEY_PENDING_CATEGORIES);
+        state.remove(KEY_PENDING_START);
+
+        long durationMs = nowMs - startMs;
+        if (key == null || startMs < 0 || durationMs < MIN_SESSION_MS || bufferStats.isEmpty()) {
+            writeState();
+            return null;
+        }
+
+        long[] rates = new long[bufferStats.size()];
+        StringBuilder session = new StringBuilder();
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = bufferStats.get(i).bytesWritten * 1000 / durationMs;
+            session.append(i > 0 ? ":" : "").append(rates[i]);
+        }
+
+        List<String> sessions = getSessions(key);
+        sessions.add(session.toString());
+        while (sessions.size() > MAX_SESSIONS) {
+            sessions.remove(0);
+        }
+        state.setProperty(KEY_RATES + key, String.join(";", sessions));
+        writeState();
+        return rates;
+    }
+
+    /**
+     * Forgets the session started with {@link #startSession} without
+     * recording its rates, e.g. because its trace couldn't be saved.
+     */
+    public synchronized void abandonSession() throws IOException {
+        Properties state = getState();
+        state.remove(KEY_PENDING_CATEGORIES);
+        state.remove(KEY_PENDING_START);
+        writeState();
+    }
+
+    /**
+     * Returns the highest rate of each buffer in the recent sessions with
+     * exactly these categories, in bytes per second, or null if there were
+     * none.
+     */
+    public synchronized long[] getPeakRates(Collection<String> categories) {
+        List<String> sessions = getSessions(getKey(categories));
+        if (sessions.isEmpty()) {
+            return null;
+        }
+        long[] peaks = new long[0];
+        for (String session : sessions) {
+            String[] rates = session.split(":");
+            if (rates.length > peaks.length) {
+                peaks = Arrays.copyOf(peaks, rates.length);
+            }
+            for (int i = 0; i < rates.length; i++) {
+                peaks[i] = Math.max(peaks[i], parseLong(rates[i], 0));
+            }
+        }
+        return peaks;
+    }
+
+    /**
+     * Returns the buffer sizes that would hold {@code windowSeconds} of data
+     * at the given rates, with some headroom, or null if there are no rates.
+     * The ftrace buffer is split evenly between CPUs.
+     */
+    public static BufferSizes recommend(long[] peakRates, int windowSeconds, int numCpus) {
+        if (peakRates == null || peakRates.length <= TraceConfig.FTRACE_BUFFER) {
+            return null;
+        }
+        long ftraceKb = getNeededKb(peakRates[TraceConfig.FTRACE_BUFFER], windowSeconds);
+        long auxKb = peakRates.length > TraceConfig.AUX_BUFFER
+            ? getNeededKb(peakRates[TraceConfig.AUX_BUFFER], windowSeconds) : 0;
+        return new BufferSizes(
+            clamp(ftraceKb / Math.max(numCpus, 1), MIN_PER_CPU_BUFFER_KB,
+                MAX_PER_CPU_BUFFER_KB),
+            clamp(auxKb, MIN_AUX_BUFFER_KB, MAX_AUX_BUFFER_KB));
+    }
+
+    private static long getNeededKb(long bytesPerSecond, int windowSeconds) {
+        long bytes = bytesPerSecond * windowSeconds * (100 + HEADROOM_PERCENT) / 100;
+        return (bytes + 1023) / 1024;
+    }
+
+    private static int clamp(long sizeKb, int minKb, int maxKb) {
+        long rounded = (sizeKb + SIZE_GRANULARITY_KB - 1)
+            / SIZE_GRANULARITY_KB * SIZE_GRANULARITY_KB;
+        return (int) Math.max(minKb, Math.min(maxKb, rounded));
+    }
+
+    /*
+     * Category sets are keyed by their sorted names, so that the order in
+     * which they were selected doesn't matter.
+     */
+    private static String getKey(Collection<String> categories) {
+        return String.join(",", new TreeSet<>(categories));
+    }
+
+    private List<String> getSessions(String key) {
+        List<String> sessions = new ArrayList<>();
+        String value = getState().getProperty(KEY_RATES + key);
+        if (value != null && !value.isEmpty()) {
+            for (String session : value.split(";")) {
+                sessions.add(session);
+            }
+        }
+        return sessions;
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private Properties getState() {
+        if (mState == null) {
+            mState = new Properties();
+            if (mStateFile.exists()) {
+                try (InputStream in = new FileInputStream(mStateFile)) {
+                    mState.load(in);
+                } catch (IOException | IllegalArgumentException e) {
+                    // Start over; Auto falls back to the default sizes until
+                    // there is history again.
+                    mState.clear();
+                }
+            }
+        }
+        return mState;
+    }
+
+    private void writeState() throws IOException {
+        // Write to a temporary file first so that a crash can never leave a
+        // truncated state file behind.
+        File tmp = new File(mStateFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            getState().store(out, null);
+        }
+        if (!tmp.renameTo(mStateFile)) {
+            tmp.delete();
+            throw new IOException("Unable to write data rate history to " + mStateFile);
+        }
+    }
+}
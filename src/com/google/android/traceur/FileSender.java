@@ -26,11 +26,15 @@ import android.content.Context;
 import androidx.core.content.FileProvider;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.graphics.drawable.Icon;
 import android.net.Uri;
 import android.os.SystemProperties;
+import android.preference.PreferenceManager;
 import android.util.Patterns;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Sends bugreport-y files, adapted from fw/base/packages/Shell's BugreportReceiver.
@@ -39,14 +43,33 @@ public class FileSender {
 
     private static final String AUTHORITY = "com.android.traceur.files";
     private static final String MIME_TYPE = "application/vnd.android.systrace";
+    private static final String MANIFEST_MIME_TYPE = "text/plain";
+    private static final long MEGABYTES_TO_BYTES = 1024L * 1024L;
 
     public static void postNotification(Context context, File file) {
+        postNotification(context, file, context.getString(R.string.tap_to_share));
+    }
+
+    /**
+     * Posts the trace-saved notification with the given text, which should
+     * tell the user that they can tap to share.
+     */
+    public static void postNotification(Context context, File file, String text) {
+        postNotification(context, file, text, true);
+    }
+
+    /**
+     * @param offerKeep whether to offer to protect the trace from being
+     *     deleted to stay within the storage limit.
+     */
+    public static void postNotification(Context context, File file, String text,
+            boolean offerKeep) {
         // Files are kept on private storage, so turn into Uris that we can
         // grant temporary permissions for.
         final Uri traceUri = getUriForFile(context, file);
 
         // Intent to send the file
-        Intent sendIntent = buildSendIntent(context, traceUri);
+        Intent sendIntent = buildSendIntent(context, traceUri, getMimeType(file));
         sendIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
 
         // This dialog will show to warn the user about sharing traces, then will execute
@@ -60,7 +83,7 @@ public class FileSender {
                 .setSmallIcon(R.drawable.stat_sys_adb)
                 .setContentTitle(context.getString(R.string.trace_saved))
                 .setTicker(context.getString(R.string.trace_saved))
-                .setContentText(context.getString(R.string.tap_to_share))
+                .setContentText(text)
                 .setContentIntent(PendingIntent.getActivity(
                         context, traceUri.hashCode(), intent, PendingIntent.FLAG_ONE_SHOT
                                 | PendingIntent.FLAG_CANCEL_CURRENT))
@@ -69,6 +92,28 @@ public class FileSender {
                 .setColor(context.getColor(
                         com.android.internal.R.color.system_notification_accent_color));
 
+        if (offerKeep) {
+            Intent keepIntent = new Intent(Receiver.KEEP_ACTION, null, context, Receiver.class);
+            keepIntent.addFlags(Intent.FLAG_RECEIVER_FOREGROUND);
+            keepIntent.putExtra(Receiver.EXTRA_TRACE_NAME, file.getName());
+            builder.addAction(new Notification.Action.Builder(
+                Icon.createWithResource(context, R.drawable.stat_sys_adb),
+                context.getString(R.string.keep_trace),
+                PendingIntent.getBroadcast(context, traceUri.hashCode(), keepIntent,
+                    PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_CANCEL_CURRENT)).build());
+        }
+
+        if (shouldOfferParts(context, file)) {
+            Intent splitIntent = new Intent(Receiver.SPLIT_ACTION, null, context, Receiver.class);
+            splitIntent.addFlags(Intent.FLAG_RECEIVER_FOREGROUND);
+            splitIntent.putExtra(Receiver.EXTRA_TRACE_NAME, file.getName());
+            builder.addAction(new Notification.Action.Builder(
+                Icon.createWithResource(context, R.drawable.stat_sys_adb),
+                context.getString(R.string.share_in_parts),
+                PendingIntent.getBroadcast(context, traceUri.hashCode() + 1, splitIntent,
+                    PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_CANCEL_CURRENT)).build());
+        }
+
         if (context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_LEANBACK)) {
             builder.extend(new Notification.TvExtender());
         }
@@ -76,14 +121,73 @@ public class FileSender {
         NotificationManager.from(context).notify(file.getName(), 0, builder.build());
     }
 
+    /**
+     * Posts a notification that shares the parts a trace was split into,
+     * along with their manifest, in a single intent.
+     *
+     * @param files the manifest followed by the parts, as returned by
+     *     {@link TraceSplitter#split}.
+     */
+    public static void postPartsNotification(Context context, File trace, List<File> files) {
+        ArrayList<Uri> uris = new ArrayList<>(files.size());
+        for (File file : files) {
+            uris.add(getUriForFile(context, file));
+        }
+
+        Intent sendIntent = buildSendMultipleIntent(context, trace.getName(), uris);
+        sendIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+
+        final Intent intent = new Intent(context, UserConsentActivityDialog.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_RECEIVER_FOREGROUND);
+        intent.putExtra(Intent.EXTRA_INTENT, sendIntent);
+
+        final Notification.Builder builder =
+            new Notification.Builder(context, Receiver.NOTIFICATION_CHANNEL_OTHER)
+                .setSmallIcon(R.drawable.stat_sys_adb)
+                .setContentTitle(context.getString(R.string.trace_parts_ready))
+                .setTicker(context.getString(R.string.trace_parts_ready))
+                .setContentText(context.getString(R.string.tap_to_share_parts,
+                    files.size() - 1))
+                .setContentIntent(PendingIntent.getActivity(
+                        context, uris.get(0).hashCode(), intent, PendingIntent.FLAG_ONE_SHOT
+                                | PendingIntent.FLAG_CANCEL_CURRENT))
+                .setAutoCancel(true)
+                .setLocalOnly(true)
+                .setColor(context.getColor(
+                        com.android.internal.R.color.system_notification_accent_color));
+
+        if (context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_LEANBACK)) {
+            builder.extend(new Notification.TvExtender());
+        }
+
+        NotificationManager.from(context).notify(trace.getName(), 0, builder.build());
+    }
+
+    /*
+     * Only uncompressed perfetto traces can be split on packet boundaries, and
+     * only traces larger than a part are worth splitting.
+     */
+    private static boolean shouldOfferParts(Context context, File file) {
+        if (!TraceUtils.currentTraceEngine().equals(PerfettoUtils.NAME)
+                || TraceCompression.forFileName(file.getName()) != TraceCompression.NONE) {
+            return false;
+        }
+        long partSizeMb = Long.parseLong(
+            PreferenceManager.getDefaultSharedPreferences(context).getString(
+                context.getString(R.string.pref_key_export_part_size),
+                context.getString(R.string.default_export_part_size)));
+        return file.length() > partSizeMb * MEGABYTES_TO_BYTES;
+    }
+
     public static void send(Context context, File file) {
         // Files are kept on private storage, so turn into Uris that we can
         // grant temporary permissions for.
         final Uri traceUri = getUriForFile(context, file);
 
-        Intent sendIntent = buildSendIntent(context, traceUri);
+        Intent sendIntent = buildSendIntent(context, traceUri, getMimeType(file));
         sendIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
 
+        TraceUtils.markTraceAccessed(context, file);
         context.startActivity(sendIntent);
     }
 
@@ -91,23 +195,31 @@ public class FileSender {
         return FileProvider.getUriForFile(context, AUTHORITY, file);
     }
 
+    /**
+     * Returns the MIME type to share the given trace as. Compressed traces
+     * are shared as the compressed format so receivers know to unpack them.
+     */
+    static String getMimeType(File file) {
+        return TraceCompression.forFileName(file.getName()).getMimeType(MIME_TYPE);
+    }
+
     /**
      * Build {@link Intent} that can be used to share the given bugreport.
      */
-    private static Intent buildSendIntent(Context context, Uri traceUri) {
+    private static Intent buildSendIntent(Context context, Uri traceUri, String mimeType) {
         final CharSequence description = SystemProperties.get("ro.build.description");
 
         final Intent intent = new Intent(Intent.ACTION_SEND);
         intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
         intent.addCategory(Intent.CATEGORY_DEFAULT);
-        intent.setType(MIME_TYPE);
+        intent.setType(mimeType);
 
         intent.putExtra(Intent.EXTRA_SUBJECT, traceUri.getLastPathSegment());
         intent.putExtra(Intent.EXTRA_TEXT, description);
         intent.putExtra(Intent.EXTRA_STREAM, traceUri);
 
         // Explicitly set the clip data; see b/119399115
-        intent.setClipData(new ClipData(null, new String[] { MIME_TYPE },
+        intent.setClipData(new ClipData(null, new String[] { mimeType },
             new ClipData.Item(description, null, traceUri)));
 
         final Account sendToAccount = findSendToAccount(context);
@@ -118,6 +230,40 @@ public class FileSender {
         return intent;
     }
 
+    /**
+     * Build {@link Intent} that can be used to share the parts of a trace
+     * and their manifest.
+     */
+    private static Intent buildSendMultipleIntent(Context context, String traceName,
+            ArrayList<Uri> uris) {
+        final CharSequence description = SystemProperties.get("ro.build.description");
+
+        final Intent intent = new Intent(Intent.ACTION_SEND_MULTIPLE);
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        intent.addCategory(Intent.CATEGORY_DEFAULT);
+        // The parts are traces, but the manifest is text.
+        intent.setType("*/*");
+
+        intent.putExtra(Intent.EXTRA_SUBJECT, traceName);
+        intent.putExtra(Intent.EXTRA_TEXT, description);
+        intent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, uris);
+
+        // Explicitly set the clip data; see b/119399115
+        ClipData clipData = new ClipData(null, new String[] { MANIFEST_MIME_TYPE, MIME_TYPE },
+            new ClipData.Item(description, null, uris.get(0)));
+        for (Uri uri : uris.subList(1, uris.size())) {
+            clipData.addItem(new ClipData.Item(uri));
+        }
+        intent.setClipData(clipData);
+
+        final Account sendToAccount = findSendToAccount(context);
+        if (sendToAccount != null) {
+            intent.putExtra(Intent.EXTRA_EMAIL, new String[] { sendToAccount.name });
+        }
+
+        return intent;
+    }
+
     /**
      * Find the best matching {@link Account} based on build properties.
      */
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size histogram of latencies with power-of-two millisecond buckets.
+ *
+ * Bucket 0 counts latencies under 1 ms, bucket i counts latencies in
+ * [2^(i-1), 2^i) ms, and the last bucket counts everything above that.
+ * Percentiles are reported as the upper bound of the bucket they fall in.
+ */
+public class LatencyHistogram {
+
+    private static final int NUM_BUCKETS = 24;
+
+    private final long[] mBuckets = new long[NUM_BUCKETS];
+    private long mCount;
+    private long mSumMs;
+    private long mMinMs = Long.MAX_VALUE;
+    private long mMaxMs;
+
+    public synchronized void record(long latencyMs) {
+        latencyMs = Math.max(latencyMs, 0);
+        int bucket = 64 - Long.numberOfLeadingZeros(latencyMs);
+        mBuckets[Math.min(bucket, NUM_BUCKETS - 1)]++;
+        mCount++;
+        mSumMs += latencyMs;
+        mMinMs = Math.min(mMinMs, latencyMs);
+        mMaxMs = Math.max(mMaxMs, latencyMs);
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    public synchronized long getMaxMs() {
+        return mMaxMs;
+    }
+
+    public synchronized long getMeanMs() {
+        return mCount == 0 ? 0 : mSumMs / mCount;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile (0-100), in milliseconds.
+     */
+    public synchronized long getPercentileMs(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(mCount * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += mBuckets[i];
+            if (seen >= Math.max(target, 1)) {
+                return Math.min(i == 0 ? 1 : 1L << i, mMaxMs);
+            }
+        }
+        return mMaxMs;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(mBuckets, 0);
+        mCount = 0;
+        mSumMs = 0;
+        mMinMs = Long.MAX_VALUE;
+        mMaxMs = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (mCount == 0) {
+            return "count=0";
+        }
+        return "count=" + mCount
+            + " min=" + mMinMs + "ms"
+            + " mean=" + getMeanMs() + "ms"
+            + " p50<=" + getPercentileMs(50) + "ms"
+            + " p90<=" + getPercentileMs(90) + "ms"
+            + " p99<=" + getPercentileMs(99) + "ms"
+            + " max=" + mMaxMs + "ms";
+    }
+}
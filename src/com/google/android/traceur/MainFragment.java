@@ -52,7 +52,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
 
 public class MainFragment extends PreferenceFragment {
 
@@ -66,16 +67,40 @@ public class MainFragment extends PreferenceFragment {
     private SharedPreferences mPrefs;
 
     private MultiSelectListPreference mTags;
+    // Null until the categories have been loaded in the background.
+    private SortedMap<String, String> mAvailableTags;
 
     private boolean mRefreshing;
 
     private BroadcastReceiver mRefreshReceiver;
 
+    private final TracingStateStore.Listener mStateListener = new TracingStateStore.Listener() {
+        @Override
+        public void onTracingStateChanged(TracingStateStore.State state) {
+            updateTracingState(state);
+        }
+    };
+
     OnSharedPreferenceChangeListener mSharedPreferenceChangeListener =
         new OnSharedPreferenceChangeListener () {
               public void onSharedPreferenceChanged(
                       SharedPreferences sharedPreferences, String key) {
                   refreshUi();
+                  // The boot trace config and the armed session follow the
+                  // trace settings.
+                  if (!getString(R.string.pref_key_tracing_on).equals(key)
+                          && !getString(R.string.pref_key_time_to_first_event).equals(key)
+                          && !getString(R.string.pref_key_armed_buffer_size).equals(key)
+                          && !getString(R.string.pref_key_armed_buffer_clamped).equals(key)) {
+                      final Context context = getContext().getApplicationContext();
+                      TraceWorker.execute(new Runnable() {
+                          @Override
+                          public void run() {
+                              Receiver.updateBootTrace(context);
+                              Receiver.updateArmedSession(context);
+                          }
+                      });
+                  }
               }
         };
 
@@ -90,7 +115,7 @@ public class MainFragment extends PreferenceFragment {
         mTracingOn.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
             @Override
             public boolean onPreferenceClick(Preference preference) {
-              Receiver.updateTracing(getContext());
+              updateTracing();
               return true;
             }
         });
@@ -103,7 +128,12 @@ public class MainFragment extends PreferenceFragment {
                     return true;
                 }
                 Set<String> set = (Set<String>) newValue;
-                TreeMap<String, String> available = TraceUtils.listCategories();
+                SortedMap<String, String> available = mAvailableTags;
+                if (available == null) {
+                    // The choices come from the same list, so there is
+                    // nothing to clean up before it has been loaded.
+                    return true;
+                }
                 ArrayList<String> clean = new ArrayList<>(set.size());
 
                 for (String s : set) {
@@ -117,11 +147,23 @@ public class MainFragment extends PreferenceFragment {
             }
         });
 
+        findPreference(getString(R.string.pref_key_profile)).setOnPreferenceChangeListener(
+                new Preference.OnPreferenceChangeListener() {
+                    @Override
+                    public boolean onPreferenceChange(Preference preference, Object newValue) {
+                        // Build its config now, rather than when tracing starts.
+                        TraceUtils.precompileProfile(getContext(), (String) newValue);
+                        return true;
+                    }
+                });
+
         findPreference("restore_default_tags").setOnPreferenceClickListener(
                 new Preference.OnPreferenceClickListener() {
                     @Override
                     public boolean onPreferenceClick(Preference preference) {
-                        refreshUi(/* restoreDefaultTags =*/ true);
+                        // Also re-read the available categories, in case the
+                        // cached list has gone stale.
+                        loadCategories(/* invalidate =*/ true, /* restoreDefaultTags =*/ true);
                         Toast.makeText(getContext(),
                             getContext().getString(R.string.default_categories_restored),
                                 Toast.LENGTH_SHORT).show();
@@ -149,7 +191,7 @@ public class MainFragment extends PreferenceFragment {
                             .setPositiveButton(R.string.clear,
                                 new DialogInterface.OnClickListener() {
                                     public void onClick(DialogInterface dialog, int which) {
-                                        TraceUtils.clearSavedTraces();
+                                        TraceUtils.clearSavedTraces(getContext());
                                     }
                                 })
                             .setNegativeButton(android.R.string.no,
@@ -164,6 +206,7 @@ public class MainFragment extends PreferenceFragment {
                     }
                 });
 
+        loadCategories(/* invalidate =*/ false, /* restoreDefaultTags =*/ false);
         refreshUi();
 
         mRefreshReceiver = new BroadcastReceiver() {
@@ -187,7 +230,9 @@ public class MainFragment extends PreferenceFragment {
         getPreferenceScreen().getSharedPreferences()
             .registerOnSharedPreferenceChangeListener(mSharedPreferenceChangeListener);
         getActivity().registerReceiver(mRefreshReceiver, new IntentFilter(ACTION_REFRESH_TAGS));
-        Receiver.updateTracing(getContext());
+        TracingStateStore.getInstance().addListener(mStateListener);
+        updateTracing();
+        updateTracingState(TracingStateStore.getInstance().getState());
     }
 
     @Override
@@ -195,6 +240,7 @@ public class MainFragment extends PreferenceFragment {
         getPreferenceScreen().getSharedPreferences()
             .unregisterOnSharedPreferenceChangeListener(mSharedPreferenceChangeListener);
         getActivity().unregisterReceiver(mRefreshReceiver);
+        TracingStateStore.getInstance().removeListener(mStateListener);
 
         if (mAlertDialog != null) {
             mAlertDialog.cancel();
@@ -219,6 +265,60 @@ public class MainFragment extends PreferenceFragment {
         refreshUi(/* restoreDefaultTags =*/ false);
     }
 
+    /*
+     * Starts or stops tracing to match the preferences, in the background.
+     */
+    private void updateTracing() {
+        final Context context = getContext().getApplicationContext();
+        TraceWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                Receiver.updateTracing(context);
+            }
+        });
+    }
+
+    /*
+     * Reads the available categories in the background, since that may run
+     * atrace, and refreshes the UI with them.
+     */
+    private void loadCategories(final boolean invalidate, final boolean restoreDefaultTags) {
+        final Context context = getContext().getApplicationContext();
+        TraceWorker.submit(new Callable<SortedMap<String, String>>() {
+            @Override
+            public SortedMap<String, String> call() {
+                if (invalidate) {
+                    TraceUtils.invalidateCategories(context);
+                }
+                return TraceUtils.listCategories(context);
+            }
+        }, new TraceWorker.Callback<SortedMap<String, String>>() {
+            @Override
+            public void onResult(SortedMap<String, String> categories) {
+                mAvailableTags = categories;
+                if (isAdded()) {
+                    refreshUi(restoreDefaultTags);
+                }
+            }
+        });
+    }
+
+    /*
+     * The Record Trace toggle can't be flipped while a trace is being started
+     * or saved.
+     */
+    private void updateTracingState(TracingStateStore.State state) {
+        mTracingOn.setEnabled(state == TracingStateStore.State.IDLE
+                || state == TracingStateStore.State.RECORDING);
+        // The mode of a running trace can't be changed; it's also needed to
+        // know how to save it.
+        findPreference(getString(R.string.pref_key_flight_recorder))
+                .setEnabled(state == TracingStateStore.State.IDLE
+                    && TraceService.getProfileName(getContext()) == null);
+        findPreference(getString(R.string.pref_key_profile))
+                .setEnabled(state == TracingStateStore.State.IDLE);
+    }
+
     /*
      * Refresh the preferences UI to make sure it reflects the current state of the preferences and
      * system.
@@ -230,24 +330,28 @@ public class MainFragment extends PreferenceFragment {
         mTracingOn.setChecked(mTracingOn.getPreferenceManager().getSharedPreferences().getBoolean(
                 mTracingOn.getKey(), false));
 
-        // Update category list to match the categories available on the system.
-        Set<Entry<String, String>> availableTags = TraceUtils.listCategories().entrySet();
-        ArrayList<String> entries = new ArrayList<String>(availableTags.size());
-        ArrayList<String> values = new ArrayList<String>(availableTags.size());
-        for (Entry<String, String> entry : availableTags) {
-            entries.add(entry.getKey() + ": " + entry.getValue());
-            values.add(entry.getKey());
-        }
+        // Update category list to match the categories available on the system,
+        // once they have been loaded.
+        if (mAvailableTags != null) {
+            Set<Entry<String, String>> availableTags = mAvailableTags.entrySet();
+            ArrayList<String> entries = new ArrayList<String>(availableTags.size());
+            ArrayList<String> values = new ArrayList<String>(availableTags.size());
+            for (Entry<String, String> entry : availableTags) {
+                entries.add(entry.getKey() + ": " + entry.getValue());
+                values.add(entry.getKey());
+            }
 
-        mRefreshing = true;
-        try {
-            mTags.setEntries(entries.toArray(new String[0]));
-            mTags.setEntryValues(values.toArray(new String[0]));
-            if (restoreDefaultTags || !mPrefs.contains(context.getString(R.string.pref_key_tags))) {
-                mTags.setValues(Receiver.getDefaultTagList());
+            mRefreshing = true;
+            try {
+                mTags.setEntries(entries.toArray(new String[0]));
+                mTags.setEntryValues(values.toArray(new String[0]));
+                if (restoreDefaultTags
+                        || !mPrefs.contains(context.getString(R.string.pref_key_tags))) {
+                    mTags.setValues(Receiver.getDefaultTagList());
+                }
+            } finally {
+                mRefreshing = false;
             }
-        } finally {
-            mRefreshing = false;
         }
 
         // Update subtitles on this screen.
@@ -261,9 +365,38 @@ public class MainFragment extends PreferenceFragment {
                 context.getString(R.string.pref_key_buffer_size));
         bufferSize.setSummary(bufferSize.getEntry());
 
+        ListPreference profile = (ListPreference)findPreference(
+                context.getString(R.string.pref_key_profile));
+        profile.setSummary(profile.getEntry());
+
+        // A profile brings its own settings, so the ones it replaces can't be
+        // changed while it's selected.
+        boolean custom = TraceService.getProfileName(context) == null;
+        mTags.setEnabled(custom);
+        bufferSize.setEnabled(custom);
+        findPreference(context.getString(R.string.pref_key_apps)).setEnabled(custom);
+        findPreference("restore_default_tags").setEnabled(custom);
+        updateTracingState(TracingStateStore.getInstance().getState());
+
+        ListPreference memoryHeadroom = (ListPreference)findPreference(
+                context.getString(R.string.pref_key_memory_headroom));
+        memoryHeadroom.setSummary(memoryHeadroom.getEntry());
+
+        ListPreference traceQuota = (ListPreference)findPreference(
+                context.getString(R.string.pref_key_trace_quota));
+        traceQuota.setSummary(traceQuota.getEntry());
+
         // If we are not using the Perfetto trace backend,
         // hide the unsupported preferences.
         if (TraceUtils.currentTraceEngine().equals(PerfettoUtils.NAME)) {
+            ListPreference compression = (ListPreference)findPreference(
+                    context.getString(R.string.pref_key_compression));
+            compression.setSummary(compression.getEntry());
+
+            ListPreference exportPartSize = (ListPreference)findPreference(
+                    context.getString(R.string.pref_key_export_part_size));
+            exportPartSize.setSummary(exportPartSize.getEntry());
+
             ListPreference maxLongTraceSize = (ListPreference)findPreference(
                     context.getString(R.string.pref_key_max_long_trace_size));
             maxLongTraceSize.setSummary(maxLongTraceSize.getEntry());
@@ -271,11 +404,43 @@ public class MainFragment extends PreferenceFragment {
             ListPreference maxLongTraceDuration = (ListPreference)findPreference(
                     context.getString(R.string.pref_key_max_long_trace_duration));
             maxLongTraceDuration.setSummary(maxLongTraceDuration.getEntry());
+
+            findPreference("long_trace_category").setEnabled(custom);
+
+            String timeToFirstEvent = context.getString(R.string.pref_key_time_to_first_event);
+            findPreference(context.getString(R.string.pref_key_keep_armed)).setSummary(
+                    mPrefs.contains(timeToFirstEvent)
+                    ? context.getString(R.string.keep_armed_summary_with_latency,
+                        mPrefs.getLong(timeToFirstEvent, 0))
+                    : context.getString(R.string.keep_armed_summary));
         } else {
             Preference longTraceCategory = findPreference("long_trace_category");
             if (longTraceCategory != null) {
                 getPreferenceScreen().removePreference(longTraceCategory);
             }
+            // atrace output is always compressed.
+            Preference compression = findPreference(
+                    context.getString(R.string.pref_key_compression));
+            if (compression != null) {
+                getPreferenceScreen().removePreference(compression);
+            }
+            // Only perfetto can trace the boot.
+            Preference bootTrace = findPreference(
+                    context.getString(R.string.pref_key_boot_trace));
+            if (bootTrace != null) {
+                getPreferenceScreen().removePreference(bootTrace);
+            }
+            Preference keepArmed = findPreference(
+                    context.getString(R.string.pref_key_keep_armed));
+            if (keepArmed != null) {
+                getPreferenceScreen().removePreference(keepArmed);
+            }
+            // Only perfetto traces can be split into parts.
+            Preference exportPartSize = findPreference(
+                    context.getString(R.string.pref_key_export_part_size));
+            if (exportPartSize != null) {
+                getPreferenceScreen().removePreference(exportPartSize);
+            }
         }
     }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+/**
+ * Decides whether the trace buffers asked for fit in the memory that is free,
+ * before traced allocates them. Large buffers on a device short of memory
+ * cause low memory kills, which distort the very workload being traced.
+ *
+ * The buffers must leave a headroom of free memory, which is the larger of
+ * the system's low memory threshold and a fraction of total RAM. If they
+ * don't, the per-CPU buffer is shrunk to fit. If even the smallest buffer
+ * doesn't fit, or the system already reports low memory, tracing is refused.
+ *
+ * This class has no Android dependencies so that it can be tested on host.
+ */
+public class MemoryAdmission {
+
+    public static final int MIN_PER_CPU_BUFFER_KB = 1024;
+    private static final int SIZE_GRANULARITY_KB = 1024;
+
+    public enum Result {
+        ADMITTED,
+        CLAMPED,
+        REJECTED,
+    }
+
+    /**
+     * The memory state to decide against, in KB.
+     */
+    public static class MemoryState {
+        public long totalKb;
+        public long availableKb;
+        public long lowMemoryThresholdKb;
+        public boolean lowMemory;
+
+        /**
+         * Reads MemTotal and MemAvailable from the contents of /proc/meminfo.
+         * Fields that are missing are left at zero.
+         */
+        public static MemoryState fromMemInfo(String memInfo) {
+            MemoryState state = new MemoryState();
+            for (String line : memInfo.split("\n")) {
+                if (line.startsWith("MemTotal:")) {
+                    state.totalKb = parseKb(line);
+                } else if (line.startsWith("MemAvailable:")) {
+                    state.availableKb = parseKb(line);
+                }
+            }
+            return state;
+        }
+
+        private static long parseKb(String line) {
+            // For example "MemAvailable:    1234567 kB".
+            String[] fields = line.trim().split("\\s+");
+            try {
+                return fields.length >= 2 ? Long.parseLong(fields[1]) : 0;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * The outcome of {@link #decide}.
+     */
+    public static class Decision {
+        public final Result result;
+        public final int perCpuBufferKb;
+        public final long requestedKb;
+        public final long budgetKb;
+
+        Decision(Result result, int perCpuBufferKb, long requestedKb, long budgetKb) {
+            this.result = result;
+            this.perCpuBufferKb = perCpuBufferKb;
+            this.requestedKb = requestedKb;
+            this.budgetKb = budgetKb;
+        }
+
+        public boolean isAdmitted() {
+            return result != Result.REJECTED;
+        }
+
+        @Override
+        public String toString() {
+            return result + ": " + perCpuBufferKb + " KB per CPU, requested " + requestedKb
+                + " KB of a " + budgetKb + " KB budget";
+        }
+    }
+
+    /**
+     * @param headroomPercent the percentage of total RAM to leave free, or
+     *     zero to admit any request.
+     */
+    public static Decision decide(MemoryState memory, int perCpuBufferKb, int auxBufferKb,
+            int numCpus, int headroomPercent) {
+        long requestedKb = (long) perCpuBufferKb * numCpus + auxBufferKb;
+        if (headroomPercent <= 0 || memory.totalKb <= 0) {
+            // Either disabled, or nothing to go on.
+            return new Decision(Result.ADMITTED, perCpuBufferKb, requestedKb, -1);
+        }
+
+        long reserveKb = Math.max(memory.lowMemoryThresholdKb,
+            memory.totalKb * headroomPercent / 100);
+        long budgetKb = Math.max(0, memory.availableKb - reserveKb);
+        if (memory.lowMemory) {
+            return new Decision(Result.REJECTED, 0, requestedKb, budgetKb);
+        }
+        if (requestedKb <= budgetKb) {
+            return new Decision(Result.ADMITTED, perCpuBufferKb, requestedKb, budgetKb);
+        }
+
+        long fitKb = (budgetKb - auxBufferKb) / Math.max(numCpus, 1);
+        fitKb -= fitKb % SIZE_GRANULARITY_KB;
+        if (fitKb < MIN_PER_CPU_BUFFER_KB) {
+            return new Decision(Result.REJECTED, 0, requestedKb, budgetKb);
+        }
+        return new Decision(Result.CLAMPED, (int) fitKb, requestedKb, budgetKb);
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures how much CPU and memory the tracing daemons use while a trace is
+ * recorded, from their /proc stat and status files.
+ *
+ * Each call to {@link #sample} finds the daemons by name, works out their CPU
+ * use since the previous sample and appends a line per daemon to a CSV file
+ * of the form "time_ms,process,pid,cpu_percent,rss_kb". CPU use is given in
+ * percent of one core, so a busy daemon on a multi-core device can exceed
+ * 100. A daemon's first sample has no CPU use, as there is nothing to
+ * compare it with, and daemons that aren't running are left out.
+ *
+ * This class has no Android dependencies so that it can be tested on host.
+ * Its methods do file I/O and should be called off the main thread.
+ */
+public class OverheadMonitor {
+
+    // The processes that do the work of a perfetto trace.
+    public static final List<String> DAEMONS = Collections.unmodifiableList(
+        Arrays.asList("traced", "traced_probes", "perfetto"));
+
+    public static final String CSV_HEADER = "time_ms,process,pid,cpu_percent,rss_kb\n";
+
+    public static final double UNKNOWN = -1;
+
+    // Fields of /proc/<pid>/stat, counted after the name, which is field 2:
+    // utime and stime are fields 14 and 15.
+    private static final int STAT_UTIME = 11;
+    private static final int STAT_STIME = 12;
+
+    /**
+     * Receives samples, on the thread that took them.
+     */
+    public interface Listener {
+        public void onSample(Sample sample);
+    }
+
+    /**
+     * How much one daemon was using when it was sampled.
+     */
+    public static class Usage {
+        public final String name;
+        public final int pid;
+        // In percent of one core, or UNKNOWN.
+        public final double cpuPercent;
+        public final long rssKb;
+
+        Usage(String name, int pid, double cpuPercent, long rssKb) {
+            this.name = name;
+            this.pid = pid;
+            this.cpuPercent = cpuPercent;
+            this.rssKb = rssKb;
+        }
+    }
+
+    /**
+     * The usage of all daemons that were running at one time.
+     */
+    public static class Sample {
+        public final long timeMs;
+        public final List<Usage> usages;
+
+        Sample(long timeMs, List<Usage> usages) {
+            this.timeMs = timeMs;
+            this.usages = Collections.unmodifiableList(usages);
+        }
+
+        /**
+         * Returns the CPU use of the daemons together, or {@link #UNKNOWN} if
+         * none of them has been sampled before.
+         */
+        public double getCpuPercent() {
+            double total = UNKNOWN;
+            for (Usage usage : usages) {
+                if (usage.cpuPercent != UNKNOWN) {
+                    total = Math.max(total, 0) + usage.cpuPercent;
+                }
+            }
+            return total;
+        }
+
+        public long getRssKb() {
+            long total = 0;
+            for (Usage usage : usages) {
+                total += usage.rssKb;
+            }
+            return total;
+        }
+    }
+
+    private static class CpuTime {
+        final long ticks;
+        final long timeMs;
+
+        CpuTime(long ticks, long timeMs) {
+            this.ticks = ticks;
+            this.timeMs = timeMs;
+        }
+    }
+
+    private final File mProcDir;
+    private final long mClockTicksPerSecond;
+    private final List<String> mNames;
+    private final File mSeriesFile;
+
+    private final Map<String, Integer> mPids = new HashMap<>();
+    private final Map<Integer, CpuTime> mLastCpuTimes = new HashMap<>();
+    private boolean mStarted;
+    private double mPeakCpuPercent = UNKNOWN;
+    private long mPeakRssKb;
+
+    /**
+     * @param procDir where procfs is mounted, normally /proc.
+     * @param names the names of the processes to sample, as in their comm.
+     * @param seriesFile the CSV file to append samples to. It's started
+     *     afresh by the first sample.
+     */
+    public OverheadMonitor(File procDir, long clockTicksPerSecond, List<String> names,
+            File seriesFile) {
+        mProcDir = procDir;
+        mClockTicksPerSecond = clockTicksPerSecond;
+        mNames = new ArrayList<>(names);
+        mSeriesFile = seriesFile;
+    }
+
+    /**
+     * Samples the daemons and appends the result to the series file.
+     */
+    public synchronized Sample sample(long nowMs) throws IOException {
+        findMissingPids();
+
+        List<Usage> usages = new ArrayList<>();
+        StringBuilder lines = new StringBuilder();
+        if (!mStarted) {
+            lines.append(CSV_HEADER);
+        }
+        for (String name : mNames) {
+            Integer pid = mPids.get(name);
+            Usage usage = pid != null ? sampleProcess(name, pid, nowMs) : null;
+            if (usage == null) {
+                // It exited since it was found; look for it again next time.
+                mPids.remove(name);
+                continue;
+            }
+            usages.add(usage);
+            lines.append(String.format(Locale.US, "%d,%s,%d,%s,%d\n", nowMs, name, usage.pid,
+                usage.cpuPercent != UNKNOWN
+                    ? String.format(Locale.US, "%.1f", usage.cpuPercent) : "",
+                usage.rssKb));
+        }
+
+        Sample sample = new Sample(nowMs, usages);
+        mPeakCpuPercent = Math.max(mPeakCpuPercent, sample.getCpuPercent());
+        mPeakRssKb = Math.max(mPeakRssKb, sample.getRssKb());
+
+        try (OutputStream out = new FileOutputStream(mSeriesFile, mStarted /* append */)) {
+            out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        mStarted = true;
+        return sample;
+    }
+
+    /**
+     * Returns the highest combined CPU use seen so far, or {@link #UNKNOWN}.
+     */
+    public synchronized double getPeakCpuPercent() {
+        return mPeakCpuPercent;
+    }
+
+    public synchronized long getPeakRssKb() {
+        return mPeakRssKb;
+    }
+
+    public File getSeriesFile() {
+        return mSeriesFile;
+    }
+
+    /*
+     * Returns the usage of the process, or null if it isn't the named one
+     * any more.
+     */
+    private Usage sampleProcess(String name, int pid, long nowMs) {
+        File processDir = new File(mProcDir, Integer.toString(pid));
+        String stat = readFile(new File(processDir, "stat"));
+        String status = readFile(new File(processDir, "status"));
+        if (stat == null || status == null || !name.equals(parseName(stat))) {
+            mLastCpuTimes.remove(pid);
+            return null;
+        }
+
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 1).trim().split(" ");
+        long ticks;
+        try {
+            ticks = Long.parseLong(fields[STAT_UTIME]) + Long.parseLong(fields[STAT_STIME]);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+
+        double cpuPercent = UNKNOWN;
+        CpuTime last = mLastCpuTimes.put(pid, new CpuTime(ticks, nowMs));
+        if (last != null && nowMs > last.timeMs) {
+            cpuPercent = (ticks - last.ticks) * 1000.0 * 100
+                / mClockTicksPerSecond / (nowMs - last.timeMs);
+        }
+        return new Usage(name, pid, cpuPercent, parseRssKb(status));
+    }
+
+    /*
+     * Looks through /proc for the daemons that haven't been found yet, or
+     * have exited.
+     */
+    private void findMissingPids() {
+        if (mPids.size() == mNames.size()) {
+            return;
+        }
+        String[] entries = mProcDir.list();
+        if (entries == null) {
+            return;
+        }
+        for (String entry : entries) {
+            if (entry.isEmpty() || !Character.isDigit(entry.charAt(0))) {
+                continue;
+            }
+            String comm = readFile(new File(mProcDir, entry + "/comm"));
+            if (comm == null) {
+                continue;
+            }
+            String name = comm.trim();
+            if (mNames.contains(name) && !mPids.containsKey(name)) {
+                try {
+                    mPids.put(name, Integer.parseInt(entry));
+                } catch (NumberFormatException e) {
+                    // Not a process.
+                }
+            }
+        }
+    }
+
+    private static String parseName(String stat) {
+        int start = stat.indexOf('(');
+        int end = stat.lastIndexOf(')');
+        return start >= 0 && end > start ? stat.substring(start + 1, end) : null;
+    }
+
+    /*
+     * Returns the resident set size from a status file, e.g.
+     * "VmRSS:\t   12345 kB", or 0 if it has none, as kernel threads don't.
+     */
+    private static long parseRssKb(String status) {
+        for (String line : status.split("\n")) {
+            if (line.startsWith("VmRSS:")) {
+                String[] parts = line.substring(6).trim().split("\\s+");
+                try {
+                    return Long.parseLong(parts[0]);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static String readFile(File file) {
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            // The process exited, or isn't ours to read.
+            return null;
+        }
+    }
+}
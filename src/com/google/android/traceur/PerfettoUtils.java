@@ -17,6 +17,7 @@
 package com.android.traceur;
 
 import android.sysprop.TraceProperties;
+import android.os.SystemClock;
 import android.system.Os;
 import android.util.Log;
 
@@ -25,40 +26,160 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Utility functions for calling Perfetto
  */
-public class PerfettoUtils implements TraceUtils.TraceEngine {
+public class PerfettoUtils implements TraceEngine {
 
     static final String TAG = "Traceur";
     public static final String NAME = "PERFETTO";
 
     private static final String OUTPUT_EXTENSION = "perfetto-trace";
-    private static final String TEMP_DIR= "/data/local/traces/";
-    private static final String TEMP_TRACE_LOCATION = "/data/local/traces/.trace-in-progress.trace";
+    // Where traced writes traces, relative to the root directory.
+    private static final String TEMP_DIR = "data/local/traces";
+    private static final String TEMP_TRACE_NAME = ".trace-in-progress.trace";
+    private static final String TEMP_SNAPSHOT_NAME = ".snapshot-in-progress.trace";
+    // Read by traceur_boot_trace.sh early in boot.
+    private static final String BOOT_CONFIG_NAME = ".boot-trace-config";
+
+    // The armed session waits under its own key, so that it isn't taken for
+    // a trace being recorded. Once started it is the trace being recorded.
+    // Marker files record both states in case Traceur is restarted meanwhile.
+    private static final String TEMP_ARMED_TRACE_NAME = ".armed-trace-in-progress.trace";
+    private static final String ARMED_MARKER_NAME = ".armed-trace-armed";
+    private static final String ARMED_STARTED_MARKER_NAME = ".armed-trace-started";
+    private static final String ARMED_TAG = "traceur_armed";
+    private static final String ARMED_START_TRIGGER = "traceur_start";
+    // An armed session that is never started ends after this long. Traceur
+    // arms it again when it's next asked to trace.
+    private static final long ARMED_TIMEOUT_MS = 7L * 24 * 60 * 60 * 1000;
 
     private static final String PERFETTO_TAG = "traceur";
-    private static final String MARKER = "PERFETTO_ARGUMENTS";
     private static final int STARTUP_TIMEOUT_MS = 10000;
-    private static final long MEGABYTES_TO_BYTES = 1024L * 1024L;
-    private static final long MINUTES_TO_MILLISECONDS = 60L * 1000L;
+    private static final int STOP_TIMEOUT_MS = 30000;
+    private static final int QUERY_TIMEOUT_MS = 5000;
+    private static final int CLONE_TIMEOUT_MS = 60000;
+    private static final int TRIGGER_TIMEOUT_MS = 5000;
+    // How often the trace file is checked for progress while it's flushed.
+    private static final int FLUSH_POLL_INTERVAL_MS = 250;
+
+    private final String mTempDir;
+    private final String mTempTraceLocation;
+    private final String mTempSnapshotLocation;
+    private final String mBootConfigLocation;
+    private final String mTempArmedTraceLocation;
+    private final String mArmedMarker;
+    private final String mArmedStartedMarker;
+
+    public PerfettoUtils() {
+        this(new File("/"));
+    }
 
-    private static final String POWER_TAG = "power";
-    private static final String MEMORY_TAG = "memory";
+    /**
+     * Keeps temporary files under the given root directory rather than the
+     * device's, so that the engine can be run against fake binaries on host.
+     */
+    PerfettoUtils(File rootDir) {
+        File tempDir = new File(rootDir, TEMP_DIR);
+        mTempDir = tempDir.getPath();
+        mTempTraceLocation = new File(tempDir, TEMP_TRACE_NAME).getPath();
+        mTempSnapshotLocation = new File(tempDir, TEMP_SNAPSHOT_NAME).getPath();
+        mBootConfigLocation = new File(tempDir, BOOT_CONFIG_NAME).getPath();
+        mTempArmedTraceLocation = new File(tempDir, TEMP_ARMED_TRACE_NAME).getPath();
+        mArmedMarker = new File(tempDir, ARMED_MARKER_NAME).getPath();
+        mArmedStartedMarker = new File(tempDir, ARMED_STARTED_MARKER_NAME).getPath();
+    }
 
     public String getName() {
         return NAME;
     }
 
-    public String getOutputExtension() {
-        return OUTPUT_EXTENSION;
+    public String getOutputExtension(TraceCompression compression) {
+        return OUTPUT_EXTENSION + compression.getExtension();
+    }
+
+    public boolean traceStart(Collection<String> tags, int bufferSizeKb, int auxBufferSizeKb,
+            boolean apps, boolean flightRecorder, boolean longTrace, int maxLongTraceSizeMb,
+            int maxLongTraceDurationMinutes) {
+        // The user chooses a per-CPU buffer size due to atrace limitations.
+        // So we use this to ensure that we reserve the correctly-sized buffer.
+        int numCpus = Runtime.getRuntime().availableProcessors();
+
+        // Build the perfetto config, which is passed to perfetto on stdin as a
+        // binary TraceConfig proto.
+        TraceConfig traceConfig = TraceConfig.create(cleanTags(tags), bufferSizeKb,
+            auxBufferSizeKb, numCpus, apps, longTrace && !flightRecorder, maxLongTraceSizeMb,
+            maxLongTraceDurationMinutes);
+        if (flightRecorder) {
+            // Keep the data in the ring buffers, where a clone can see it, and
+            // name the session so that it can be cloned.
+            traceConfig.setWriteIntoFile(false)
+                .setFileWritePeriodMs(0)
+                .setUniqueSessionName(PERFETTO_TAG);
+        }
+        return startWithConfig(traceConfig.toByteArray());
+    }
+
+    public boolean traceStart(TraceProfile profile, byte[] config) {
+        Log.v(TAG, "Starting perfetto trace with the " + profile.getName() + " profile.");
+        return startWithConfig(config);
+    }
+
+    public boolean traceArm(Collection<String> tags, int bufferSizeKb, int auxBufferSizeKb,
+            boolean apps, TriggerRules triggers) {
+        int numCpus = Runtime.getRuntime().availableProcessors();
+        TraceConfig traceConfig = TraceConfig.create(cleanTags(tags), bufferSizeKb,
+            auxBufferSizeKb, numCpus, apps, false, 0, 0);
+        triggers.applyTo(traceConfig);
+        Log.v(TAG, "Arming perfetto trace with " + triggers.getRules().size() + " triggers.");
+        return startWithConfig(traceConfig.toByteArray());
     }
 
-    public boolean traceStart(Collection<String> tags, int bufferSizeKb, boolean apps,
-            boolean longTrace, int maxLongTraceSizeMb, int maxLongTraceDurationMinutes) {
+    private static List<String> cleanTags(Collection<String> tags) {
+        List<String> cleanTags = new ArrayList<>(tags.size());
+        for (String tag : tags) {
+            // Tags are expected to be only letters, numbers, and underscores.
+            String cleanTag = tag.replaceAll("[^a-zA-Z0-9_]", "");
+            if (!cleanTag.equals(tag)) {
+                Log.w(TAG, "Attempting to use an invalid tag: " + tag);
+            }
+            cleanTags.add(cleanTag);
+        }
+        return cleanTags;
+    }
+
+    public boolean setBootTraceConfig(byte[] config) {
+        File file = new File(mBootConfigLocation);
+        if (config == null) {
+            file.delete();
+            return true;
+        }
+
+        // traced has to start at boot for the boot to be traced.
+        enableTraced();
+        File tmp = new File(mBootConfigLocation + ".tmp");
+        try {
+            Files.write(tmp.toPath(), config);
+            Os.rename(tmp.getPath(), file.getPath());
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to write the boot trace config", e);
+            tmp.delete();
+            return false;
+        }
+        // The boot script runs perfetto as shell.
+        file.setReadable(true, false); // (readable, ownerOnly)
+        Log.v(TAG, "The next boot will be traced.");
+        return true;
+    }
+
+    private static void enableTraced() {
         // If setprop persist.traced.enable isn't set, the perfetto traced service
         // is not enabled on this device. If the user wants to trace, we should enable
         // this service. Since it's such a low-overhead service, we will leave it enabled
@@ -68,156 +189,144 @@ public class PerfettoUtils implements TraceUtils.TraceEngine {
             Log.e(TAG, "Starting the traced service to allow Perfetto to trace.");
             TraceProperties.enable(true);
         }
+    }
 
-        if (isTracingOn()) {
-            Log.e(TAG, "Attempting to start perfetto trace but trace is already in progress");
+    public boolean traceKeepArmed(byte[] config, long durationMs) {
+        // Only one session is kept armed.
+        traceDisarm();
+
+        // Marked first, so that the session is never left behind unknown.
+        File marker = new File(mArmedMarker);
+        try {
+            marker.createNewFile();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to mark the session as armed", e);
             return false;
-        } else {
-            // Ensure the temporary trace file is cleared.
-            try {
-                Files.deleteIfExists(Paths.get(TEMP_TRACE_LOCATION));
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }
         }
 
-        // The user chooses a per-CPU buffer size due to atrace limitations.
-        // So we use this to ensure that we reserve the correctly-sized buffer.
-        int numCpus = Runtime.getRuntime().availableProcessors();
-
-        // Build the perfetto config that will be passed on the command line.
-        StringBuilder config = new StringBuilder()
-            .append("write_into_file: true\n")
-            // Ensure that we flush ftrace data every 30s even if cpus are idle.
-            .append("flush_period_ms: 30000\n");
-
-            // If we have set one of the long trace parameters, we must also
-            // tell Perfetto to notify Traceur when the long trace is done.
-            if (longTrace) {
-                config.append("notify_traceur: true\n");
-
-                if (maxLongTraceSizeMb != 0) {
-                    config.append("max_file_size_bytes: "
-                        + (maxLongTraceSizeMb * MEGABYTES_TO_BYTES) + "\n");
-                }
+        Log.v(TAG, "Arming perfetto trace.");
+        if (!startDetached("perfetto_keep_armed", ARMED_TAG, mTempArmedTraceLocation,
+                TraceConfig.withStartTrigger(config, ARMED_START_TRIGGER, ARMED_TIMEOUT_MS,
+                    durationMs))) {
+            marker.delete();
+            return false;
+        }
+        return true;
+    }
 
-                if (maxLongTraceDurationMinutes != 0) {
-                    config.append("duration_ms: "
-                        + (maxLongTraceDurationMinutes * MINUTES_TO_MILLISECONDS)
-                        + "\n");
-                }
+    public boolean traceStartArmed() {
+        if (!isArmed()) {
+            return false;
+        }
 
-                // Default value for long traces to write to file.
-                config.append("file_write_period_ms: 1000\n");
-            } else {
-                // For short traces, we don't write to the file.
-                // So, always use the maximum value here: 7 days.
-                config.append("file_write_period_ms: 604800000\n");
-            }
+        // Mark the session as started first, so that once it records it's
+        // always found again to be stopped.
+        File marker = new File(mArmedStartedMarker);
+        try {
+            marker.createNewFile();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to mark the armed session as started", e);
+            traceDisarm();
+            return false;
+        }
+        new File(mArmedMarker).delete();
 
-        config.append("incremental_state_config {\n")
-            .append("  clear_period_ms: 15000\n")
-            .append("} \n")
-            // This is target_buffer: 0, which is used for ftrace.
-            .append("buffers {\n")
-            .append("  size_kb: " + bufferSizeKb * numCpus + "\n")
-            .append("  fill_policy: RING_BUFFER\n")
-            .append("} \n")
-            // This is target_buffer: 1, which is used for additional data sources.
-            .append("buffers {\n")
-            .append("  size_kb: 2048\n")
-            .append("  fill_policy: RING_BUFFER\n")
-            .append("} \n")
-            .append("data_sources {\n")
-            .append("  config {\n")
-            .append("    name: \"linux.ftrace\"\n")
-            .append("    target_buffer: 0\n")
-            .append("    ftrace_config {\n");
+        ProcessRunner.Command cmd = new ProcessRunner.Command("perfetto_trigger",
+                "trigger_perfetto", ARMED_START_TRIGGER)
+            .setTimeoutMs(TRIGGER_TIMEOUT_MS);
 
-        for (String tag : tags) {
-            // Tags are expected to be only letters, numbers, and underscores.
-            String cleanTag = tag.replaceAll("[^a-zA-Z0-9_]", "");
-            if (!cleanTag.equals(tag)) {
-                Log.w(TAG, "Attempting to use an invalid tag: " + tag);
+        Log.v(TAG, "Starting armed perfetto trace.");
+        try {
+            ProcessRunner.Result result = ProcessRunner.getInstance().run(cmd);
+            if (!result.succeeded()) {
+                Log.e(TAG, "trigger_perfetto failed with: " + result.exitCode);
+                marker.delete();
+                traceDisarm();
+                return false;
             }
-            config.append("      atrace_categories: \"" + cleanTag + "\"\n");
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
+        return true;
+    }
 
-        if (apps) {
-            config.append("      atrace_apps: \"*\"\n");
+    public void traceDisarm() {
+        if (isArmedSessionStarted()) {
+            // It's the trace being recorded now.
+            return;
         }
+        new File(mArmedMarker).delete();
 
-        // These parameters affect only the kernel trace buffer size and how
-        // frequently it gets moved into the userspace buffer defined above.
-        config.append("      buffer_size_kb: 8192\n")
-            .append("      drain_period_ms: 1000\n")
-            .append("    }\n")
-            .append("  }\n")
-            .append("}\n")
-            .append(" \n");
-
-        // For process association. If the memory tag is enabled,
-        // poll periodically instead of just once at the beginning.
-        config.append("data_sources {\n")
-            .append("  config {\n")
-            .append("    name: \"linux.process_stats\"\n")
-            .append("    target_buffer: 1\n");
-        if (tags.contains(MEMORY_TAG)) {
-            config.append("    process_stats_config {\n")
-                .append("      proc_stats_poll_ms: 60000\n")
-                .append("    }\n");
-        }
-        config.append("  }\n")
-            .append("} \n");
-
-        if (tags.contains(POWER_TAG)) {
-            config.append("data_sources: {\n")
-                .append("  config { \n")
-                .append("    name: \"android.power\"\n")
-                .append("    target_buffer: 1\n")
-                .append("    android_power_config {\n");
-            if (longTrace) {
-                config.append("      battery_poll_ms: 5000\n");
-            } else {
-                config.append("      battery_poll_ms: 1000\n");
-            }
-            config.append("      collect_power_rails: true\n")
-                .append("      battery_counters: BATTERY_COUNTER_CAPACITY_PERCENT\n")
-                .append("      battery_counters: BATTERY_COUNTER_CHARGE\n")
-                .append("      battery_counters: BATTERY_COUNTER_CURRENT\n")
-                .append("    }\n")
-                .append("  }\n")
-                .append("}\n");
+        // Also ends a session left armed by an earlier run of Traceur.
+        ProcessRunner.Command cmd = new ProcessRunner.Command("perfetto_disarm",
+                "perfetto", "--stop", "--attach=" + ARMED_TAG)
+            .setTimeoutMs(STOP_TIMEOUT_MS);
+        try {
+            ProcessRunner.getInstance().run(cmd);
+            Files.deleteIfExists(Paths.get(mTempArmedTraceLocation));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
         }
+    }
 
-        String configString = config.toString();
+    public boolean isArmed() {
+        // Perfetto ends the session once it times out.
+        File marker = new File(mArmedMarker);
+        return marker.exists()
+            && System.currentTimeMillis() - marker.lastModified() < ARMED_TIMEOUT_MS;
+    }
 
-        // If the here-doc ends early, within the config string, exit immediately.
-        // This should never happen.
-        if (configString.contains(MARKER)) {
-            throw new RuntimeException("The arguments to the Perfetto command are malformed.");
-        }
+    private boolean isArmedSessionStarted() {
+        return new File(mArmedStartedMarker).exists();
+    }
 
-        String cmd = "perfetto --detach=" + PERFETTO_TAG
-            + " -o " + TEMP_TRACE_LOCATION
-            + " -c - --txt"
-            + " <<" + MARKER +"\n" + configString + "\n" + MARKER;
+    /*
+     * Starts a detached session with the given binary TraceConfig.
+     */
+    private boolean startWithConfig(byte[] config) {
+        // Whatever was recorded before has been saved or abandoned by now.
+        new File(mArmedStartedMarker).delete();
+        if (new File(mArmedMarker).exists()) {
+            // A session left armed, e.g. by a Traceur that was since killed,
+            // would otherwise hold its buffers alongside this one's.
+            traceDisarm();
+        }
 
+        // Callers check TracingStateStore before starting a trace, so we don't
+        // ask perfetto again here. If a session with our key does exist,
+        // "perfetto --detach" fails below and we report that instead.
         Log.v(TAG, "Starting perfetto trace.");
+        return startDetached("perfetto_start", PERFETTO_TAG, mTempTraceLocation, config);
+    }
+
+    private boolean startDetached(String name, String key, String outputLocation,
+            byte[] config) {
+        enableTraced();
+
+        // Ensure the temporary trace file is cleared.
         try {
-            Process process = TraceUtils.exec(cmd, TEMP_DIR);
+            Files.deleteIfExists(Paths.get(outputLocation));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
 
-            // If we time out, ensure that the perfetto process is destroyed.
-            if (!process.waitFor(STARTUP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        ProcessRunner.Command cmd = new ProcessRunner.Command(name,
+                "perfetto", "--detach=" + key, "-o", outputLocation, "-c", "-")
+            .setStdin(config)
+            .setTmpDir(mTempDir)
+            .setTimeoutMs(STARTUP_TIMEOUT_MS);
+
+        try {
+            // If we time out, the runner ensures that the perfetto process is destroyed.
+            ProcessRunner.Result result = ProcessRunner.getInstance().run(cmd);
+            if (result.timedOut) {
                 Log.e(TAG, "perfetto traceStart has timed out after "
                     + STARTUP_TIMEOUT_MS + " ms.");
-                process.destroyForcibly();
                 return false;
             }
 
-            if (process.exitValue() != 0) {
-                Log.e(TAG, "perfetto traceStart failed with: "
-                    + process.exitValue());
+            if (result.exitCode != 0) {
+                Log.e(TAG, "perfetto traceStart failed with: " + result.exitCode);
                 return false;
             }
         } catch (Exception e) {
@@ -229,42 +338,154 @@ public class PerfettoUtils implements TraceUtils.TraceEngine {
     }
 
     public void traceStop() {
-        Log.v(TAG, "Stopping perfetto trace.");
+        stop(null, null);
+    }
 
-        if (!isTracingOn()) {
-            Log.w(TAG, "No trace appears to be in progress. Stopping perfetto trace may not work.");
-        }
+    /*
+     * Stops the session. While traced flushes the session's buffers to the
+     * given file, its size is reported to progress, if given.
+     */
+    private void stop(File tempFile, SaveProgress progress) {
+        Log.v(TAG, "Stopping perfetto trace.");
 
-        String cmd = "perfetto --stop --attach=" + PERFETTO_TAG;
+        boolean armedSessionStarted = isArmedSessionStarted();
+        ProcessRunner.Command cmd = new ProcessRunner.Command("perfetto_stop",
+                "perfetto", "--stop",
+                "--attach=" + (armedSessionStarted ? ARMED_TAG : PERFETTO_TAG))
+            .setTimeoutMs(STOP_TIMEOUT_MS);
         try {
-            Process process = TraceUtils.exec(cmd);
-            if (process.waitFor() != 0) {
-                Log.e(TAG, "perfetto traceStop failed with: " + process.exitValue());
+            ProcessRunner.Result result = progress != null
+                ? runWatchingFile(cmd, tempFile, progress)
+                : ProcessRunner.getInstance().run(cmd);
+            if (!result.succeeded()) {
+                Log.e(TAG, "perfetto traceStop failed with: " + result.exitCode);
             }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        if (armedSessionStarted) {
+            new File(mArmedStartedMarker).delete();
+        }
     }
 
-    public boolean traceDump(File outFile) {
-        traceStop();
+    private static ProcessRunner.Result runWatchingFile(ProcessRunner.Command cmd, File file,
+            SaveProgress progress) throws Exception {
+        Future<ProcessRunner.Result> future = ProcessRunner.getInstance().submit(cmd);
+        try {
+            while (true) {
+                try {
+                    return future.get(FLUSH_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    progress.update(file.length(), SystemClock.elapsedRealtime());
+                }
+            }
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    public File traceDump(File outFile, TraceCompression compression,
+            SaveProgress progress) {
+        String tempLocation = isArmedSessionStarted()
+            ? mTempArmedTraceLocation : mTempTraceLocation;
+        progress.startPhase(SaveProgress.PHASE_STOP, SaveProgress.UNKNOWN,
+            SystemClock.elapsedRealtime());
+        stop(new File(tempLocation), progress);
+        progress.update(new File(tempLocation).length(), SystemClock.elapsedRealtime());
 
         // Short-circuit if the file we're trying to dump to doesn't exist.
-        if (!Files.exists(Paths.get(TEMP_TRACE_LOCATION))) {
+        if (!Files.exists(Paths.get(tempLocation))) {
             Log.e(TAG, "In-progress trace file doesn't exist, aborting trace dump.");
-            return false;
+            return null;
         }
 
         Log.v(TAG, "Saving perfetto trace to " + outFile);
+        return saveTrace(tempLocation, outFile, compression, progress);
+    }
 
+    public File traceSnapshot(File outFile, TraceCompression compression) {
         try {
-            Os.rename(TEMP_TRACE_LOCATION, outFile.getCanonicalPath());
+            Files.deleteIfExists(Paths.get(mTempSnapshotLocation));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        // Cloning copies the session's buffers into a new session, which is
+        // written out straight away while the original keeps recording.
+        ProcessRunner.Command cmd = new ProcessRunner.Command("perfetto_clone",
+                "perfetto", "--clone-by-name=" + PERFETTO_TAG, "-o", mTempSnapshotLocation)
+            .setTmpDir(mTempDir)
+            .setTimeoutMs(CLONE_TIMEOUT_MS);
+
+        Log.v(TAG, "Cloning perfetto trace.");
+        try {
+            ProcessRunner.Result result = ProcessRunner.getInstance().run(cmd);
+            if (!result.succeeded()) {
+                Log.e(TAG, "perfetto traceSnapshot failed with: " + result.exitCode);
+                return null;
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
 
+        Log.v(TAG, "Saving perfetto snapshot to " + outFile);
+        return saveTrace(mTempSnapshotLocation, outFile, compression, new SaveProgress(null));
+    }
+
+    /*
+     * Returns the file the trace was saved to, which is the uncompressed
+     * trace next to outFile if it couldn't be compressed, or null.
+     */
+    private static File saveTrace(String tempLocation, File outFile,
+            TraceCompression compression, final SaveProgress progress) {
+        File tempFile = new File(tempLocation);
+        if (compression == TraceCompression.GZIP) {
+            long startMs = SystemClock.elapsedRealtime();
+            long tempSize = tempFile.length();
+            progress.startPhase(SaveProgress.PHASE_COMPRESS, tempSize, startMs);
+            // Don't lose the trace if it can't be compressed; keep it next
+            // to where it should have been.
+            String name = outFile.getName();
+            File uncompressedFile = new File(outFile.getParentFile(),
+                name.substring(0, name.length() - compression.getExtension().length()));
+            File savedFile = BlockCompressor.gzipOrRename(tempFile, outFile, uncompressedFile,
+                new BlockCompressor.Listener() {
+                    @Override
+                    public void onProgress(long bytesCompressed, long totalBytes) {
+                        progress.update(bytesCompressed, SystemClock.elapsedRealtime());
+                    }
+                });
+            progress.endPhase(SystemClock.elapsedRealtime());
+            if (savedFile == null) {
+                Log.e(TAG, "Failed to compress or save trace " + outFile);
+                return null;
+            } else if (!savedFile.equals(outFile)) {
+                Log.e(TAG, "Failed to compress trace, saved it to " + savedFile);
+            } else {
+                Log.v(TAG, "Compressed " + tempSize + " bytes to " + outFile.length() + " in "
+                    + (SystemClock.elapsedRealtime() - startMs) + " ms");
+            }
+            savedFile.setReadable(true, false); // (readable, ownerOnly)
+            return savedFile;
+        } else {
+            long size = tempFile.length();
+            progress.startPhase(SaveProgress.PHASE_RENAME, size, SystemClock.elapsedRealtime());
+            renameTrace(tempLocation, outFile);
+            progress.update(size, SystemClock.elapsedRealtime());
+            progress.endPhase(SystemClock.elapsedRealtime());
+        }
+
         outFile.setReadable(true, false); // (readable, ownerOnly)
-        return true;
+        return outFile;
+    }
+
+    private static void renameTrace(String tempLocation, File outFile) {
+        try {
+            Os.rename(tempLocation, outFile.getCanonicalPath());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public boolean isTracingOn() {
@@ -277,15 +498,21 @@ public class PerfettoUtils implements TraceUtils.TraceEngine {
             return false;
         }
 
-        String cmd = "perfetto --is_detached=" + PERFETTO_TAG;
+        ProcessRunner.Command cmd = new ProcessRunner.Command("perfetto_is_detached",
+                "perfetto", "--is_detached="
+                    + (isArmedSessionStarted() ? ARMED_TAG : PERFETTO_TAG))
+            .setTimeoutMs(QUERY_TIMEOUT_MS);
 
         try {
-            Process process = TraceUtils.exec(cmd);
+            ProcessRunner.Result process = ProcessRunner.getInstance().run(cmd);
+            if (process.timedOut) {
+                throw new RuntimeException("Perfetto timed out after " + QUERY_TIMEOUT_MS + " ms");
+            }
 
             // 0 represents a detached process exists with this name
             // 2 represents no detached process with this name
             // 1 (or other error code) represents an error
-            int result = process.waitFor();
+            int result = process.exitCode;
             if (result == 0) {
                 return true;
             } else if (result == 2) {
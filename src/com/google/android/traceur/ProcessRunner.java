@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs trace engine commands without a shell.
+ *
+ * Every command gets a deadline after which the process is killed, and can be
+ * cancelled through the returned {@link Future}. It can never block on a full
+ * pipe: stdout goes to /dev/null unless it's captured, in which case it's
+ * drained by the {@link StreamPump}, and stderr goes to a temporary file whose
+ * start is kept for logging. The time from spawn to exit is recorded in a
+ * {@link LatencyHistogram} per command type.
+ */
+public class ProcessRunner {
+
+    static final String TAG = "Traceur";
+
+    // How long to wait for output to be drained once the process has exited.
+    private static final long DRAIN_TIMEOUT_MS = 5000;
+    // How much of stderr to keep for logging when a command fails.
+    private static final int MAX_STDERR_BYTES = 4096;
+    // Captured output is a few KB, e.g. the category list.
+    private static final int CAPTURE_BUFFER_SIZE = 8 << 10;
+    private static final File DEV_NULL = new File("/dev/null");
+
+    private static ProcessRunner sInstance;
+    // Where to find the binaries that commands name, or null to search PATH.
+    private static volatile File sBinDir;
+
+    private final ExecutorService mExecutor;
+    private final Map<String, LatencyHistogram> mHistograms = new TreeMap<>();
+
+    /**
+     * A command to run, and what to do with its input and output.
+     */
+    public static class Command {
+        private final String mType;
+        private final List<String> mArgv;
+        private long mTimeoutMs;
+        private byte[] mStdin;
+        private boolean mCaptureStdout;
+        private String mTmpDir;
+
+        /**
+         * @param type the name the latency of this command is recorded under.
+         */
+        public Command(String type, String... argv) {
+            this(type, Arrays.asList(argv));
+        }
+
+        public Command(String type, List<String> argv) {
+            mType = type;
+            mArgv = new ArrayList<>(argv);
+        }
+
+        /**
+         * Kills the process if it hasn't exited after the given time. Zero
+         * means no deadline.
+         */
+        public Command setTimeoutMs(long timeoutMs) {
+            mTimeoutMs = timeoutMs;
+            return this;
+        }
+
+        public Command setStdin(byte[] stdin) {
+            mStdin = stdin;
+            return this;
+        }
+
+        /**
+         * Keeps stdout in memory so that it's available from {@link Result}.
+         */
+        public Command setCaptureStdout(boolean captureStdout) {
+            mCaptureStdout = captureStdout;
+            return this;
+        }
+
+        public Command setTmpDir(String tmpDir) {
+            mTmpDir = tmpDir;
+            return this;
+        }
+
+        public String getType() {
+            return mType;
+        }
+
+        @Override
+        public String toString() {
+            return mArgv.toString();
+        }
+    }
+
+    /**
+     * The outcome of a command.
+     */
+    public static class Result {
+        public final int exitCode;
+        public final boolean timedOut;
+        public final long latencyMs;
+        private final byte[] mStdout;
+        private final byte[] mStderr;
+
+        Result(int exitCode, boolean timedOut, long latencyMs, byte[] stdout, byte[] stderr) {
+            this.exitCode = exitCode;
+            this.timedOut = timedOut;
+            this.latencyMs = latencyMs;
+            mStdout = stdout;
+            mStderr = stderr;
+        }
+
+        public boolean succeeded() {
+            return !timedOut && exitCode == 0;
+        }
+
+        public String getStdout() {
+            return new String(mStdout, StandardCharsets.UTF_8);
+        }
+
+        public String getStderr() {
+            return new String(mStderr, StandardCharsets.UTF_8);
+        }
+    }
+
+    public static synchronized ProcessRunner getInstance() {
+        if (sInstance == null) {
+            sInstance = new ProcessRunner();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Makes commands run the binaries of the same name in the given directory
+     * instead of searching PATH, e.g. fakes when running on host.
+     */
+    static void setBinDir(File binDir) {
+        sBinDir = binDir;
+    }
+
+    private ProcessRunner() {
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ProcessRunner-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts the command in the background. Cancelling the returned future
+     * kills the process.
+     */
+    public Future<Result> submit(final Command command) {
+        return mExecutor.submit(new Callable<Result>() {
+            @Override
+            public Result call() throws IOException, InterruptedException {
+                return runInternal(command);
+            }
+        });
+    }
+
+    /**
+     * Runs the command and waits for it to finish or hit its deadline.
+     */
+    public Result run(Command command) throws IOException {
+        long startMs = SystemClock.elapsedRealtime();
+        Future<Result> future = submit(command);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running " + command, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to run " + command, e.getCause());
+        } finally {
+            TraceWorker.recordIfMainThread(command.getType(),
+                SystemClock.elapsedRealtime() - startMs);
+        }
+    }
+
+    /**
+     * Returns the latency histogram for the given command type.
+     */
+    public LatencyHistogram getHistogram(String type) {
+        synchronized (mHistograms) {
+            LatencyHistogram histogram = mHistograms.get(type);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                mHistograms.put(type, histogram);
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * Returns a snapshot of all latency histograms, keyed by command type.
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        synchronized (mHistograms) {
+            return Collections.unmodifiableMap(new TreeMap<>(mHistograms));
+        }
+    }
+
+    private Result runInternal(Command command) throws IOException, InterruptedException {
+        List<String> argv = command.mArgv;
+        File binDir = sBinDir;
+        if (binDir != null) {
+            argv = new ArrayList<>(argv);
+            argv.set(0, new File(binDir, argv.get(0)).getPath());
+        }
+        ProcessBuilder builder = new ProcessBuilder(argv);
+        if (command.mTmpDir != null) {
+            builder.environment().put("TMPDIR", command.mTmpDir);
+        }
+        if (command.mStdin == null) {
+            builder.redirectInput(DEV_NULL);
+        }
+        if (!command.mCaptureStdout) {
+            builder.redirectOutput(DEV_NULL);
+        }
+        // Read back once the process has exited, so it needs no thread; and
+        // a detached child that inherits it can't hold up the command.
+        File stderrFile = File.createTempFile("stderr", null);
+        try {
+            builder.redirectError(stderrFile);
+            return runProcess(command, builder, stderrFile);
+        } finally {
+            stderrFile.delete();
+        }
+    }
+
+    private Result runProcess(Command command, ProcessBuilder builder, File stderrFile)
+            throws IOException, InterruptedException {
+        Log.v(TAG, "exec: " + command);
+        long startNs = System.nanoTime();
+        Process process = builder.start();
+
+        ByteArrayOutputStream stdoutBuffer = new ByteArrayOutputStream();
+        Future<Long> stdoutDrain = command.mCaptureStdout
+            ? StreamPump.getInstance().pump(process.getInputStream(), stdoutBuffer,
+                CAPTURE_BUFFER_SIZE)
+            : null;
+
+        boolean timedOut = false;
+        try {
+            if (command.mStdin != null) {
+                try (OutputStream stdin = process.getOutputStream()) {
+                    stdin.write(command.mStdin);
+                }
+            }
+
+            if (command.mTimeoutMs > 0) {
+                timedOut = !process.waitFor(command.mTimeoutMs, TimeUnit.MILLISECONDS);
+            } else {
+                process.waitFor();
+            }
+        } catch (InterruptedException | IOException e) {
+            process.destroyForcibly();
+            if (stdoutDrain != null) {
+                stdoutDrain.cancel(true);
+            }
+            throw e;
+        }
+
+        if (timedOut) {
+            Log.e(TAG, command + " timed out after " + command.mTimeoutMs + " ms");
+            process.destroyForcibly();
+        }
+
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+        getHistogram(command.mType).record(latencyMs);
+
+        // Once the process is gone, its output is bounded; but a detached
+        // child may have inherited the pipes, so don't wait for EOF forever.
+        if (stdoutDrain != null) {
+            awaitDrain(stdoutDrain, command);
+        }
+
+        int exitCode = timedOut ? -1 : process.exitValue();
+        byte[] stderr = readStart(stderrFile, MAX_STDERR_BYTES);
+        Result result = new Result(exitCode, timedOut, latencyMs,
+            stdoutBuffer.toByteArray(), stderr);
+        if (!result.succeeded() && stderr.length > 0) {
+            Log.e(TAG, command.mType + ": " + result.getStderr().trim());
+        }
+        return result;
+    }
+
+    /*
+     * Returns up to the given number of bytes from the start of the file.
+     */
+    private static byte[] readStart(File file, int maxBytes) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(file.length(), maxBytes)];
+        int length = 0;
+        try (FileInputStream in = new FileInputStream(file)) {
+            int read;
+            while (length < buffer.length
+                    && (read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+        }
+        return length < buffer.length ? Arrays.copyOf(buffer, length) : buffer;
+    }
+
+    private static void awaitDrain(Future<?> drain, Command command) {
+        try {
+            drain.get(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Gave up waiting for output of " + command);
+            drain.cancel(true);
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Error while streaming output of " + command, e.getCause());
+        } catch (CancellationException e) {
+            // Cancelled along with the command.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches the serialized TraceConfig of each {@link TraceProfile}, so that
+ * starting a trace with a profile doesn't build a config.
+ *
+ * A profile's config is built the first time it's asked for and persisted
+ * together with the profile's config key. It's only built again when the key
+ * changes, e.g. when the profile is edited or the available categories change.
+ *
+ * This class has no Android dependencies so that it can be tested on host.
+ */
+public class ProfileConfigCache {
+
+    private static final String SUFFIX = ".config";
+
+    private final File mDir;
+    private final Map<String, byte[]> mConfigs = new HashMap<>();
+
+    public ProfileConfigCache(File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * Returns the binary TraceConfig for the given profile. The returned
+     * array must not be modified.
+     */
+    public synchronized byte[] get(TraceProfile profile, int numCpus) throws IOException {
+        String key = profile.getConfigKey(numCpus);
+        byte[] config = mConfigs.get(key);
+        if (config != null) {
+            return config;
+        }
+
+        File file = new File(mDir, profile.getName() + SUFFIX);
+        config = read(file, key);
+        if (config == null) {
+            config = profile.createConfig(numCpus).toByteArray();
+            write(file, key, config);
+        }
+        mConfigs.put(key, config);
+        return config;
+    }
+
+    /**
+     * Drops all cached configs, in memory and on disk.
+     */
+    public synchronized void clear() {
+        mConfigs.clear();
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private static byte[] read(File file, String key) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (!key.equals(in.readUTF())) {
+                return null;
+            }
+            byte[] config = new byte[in.readInt()];
+            in.readFully(config);
+            return config;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void write(File file, String key, byte[] config) throws IOException {
+        file.getParentFile().mkdirs();
+        // Write to a temporary file first so that a crash can never leave a
+        // truncated config behind under a valid key.
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp))) {
+            out.writeUTF(key);
+            out.writeInt(config.length);
+            out.write(config);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Unable to write profile config to " + file);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A minimal decoder for the protobuf wire format, the counterpart of
+ * {@link ProtoWriter}.
+ *
+ * Fields are visited in order with {@link #next()}. Values that aren't read
+ * are skipped, and nested messages are read without copying.
+ */
+public class ProtoReader {
+
+    public static final int WIRE_TYPE_VARINT = 0;
+    public static final int WIRE_TYPE_FIXED64 = 1;
+    public static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+    public static final int WIRE_TYPE_FIXED32 = 5;
+
+    private final byte[] mBuffer;
+    private final int mEnd;
+    private int mPosition;
+    private int mTag;
+    private boolean mHasPendingValue;
+
+    public ProtoReader(byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    public ProtoReader(byte[] buffer, int offset, int length) {
+        mBuffer = buffer;
+        mPosition = offset;
+        mEnd = offset + length;
+    }
+
+    /**
+     * Moves to the next field, skipping the value of the current one if it
+     * hasn't been read. Returns false at the end of the message.
+     */
+    public boolean next() {
+        if (mHasPendingValue) {
+            skipValue();
+        }
+        if (mPosition >= mEnd) {
+            return false;
+        }
+        mTag = (int) readRawVarint();
+        mHasPendingValue = true;
+        return true;
+    }
+
+    public int getField() {
+        return mTag >>> 3;
+    }
+
+    public int getWireType() {
+        return mTag & 0x7;
+    }
+
+    public long readVarint() {
+        consume(WIRE_TYPE_VARINT);
+        return readRawVarint();
+    }
+
+    public boolean readBool() {
+        return readVarint() != 0;
+    }
+
+    public long readFixed64() {
+        consume(WIRE_TYPE_FIXED64);
+        return readRawLittleEndian(8);
+    }
+
+    public int readFixed32() {
+        consume(WIRE_TYPE_FIXED32);
+        return (int) readRawLittleEndian(4);
+    }
+
+    public String readString() {
+        int length = consumeLengthDelimited();
+        String value = new String(mBuffer, mPosition, length, StandardCharsets.UTF_8);
+        mPosition += length;
+        return value;
+    }
+
+    public byte[] readBytes() {
+        int length = consumeLengthDelimited();
+        byte[] value = Arrays.copyOfRange(mBuffer, mPosition, mPosition + length);
+        mPosition += length;
+        return value;
+    }
+
+    /**
+     * Returns a reader over the nested message in the current field.
+     */
+    public ProtoReader readMessage() {
+        int length = consumeLengthDelimited();
+        ProtoReader message = new ProtoReader(mBuffer, mPosition, length);
+        mPosition += length;
+        return message;
+    }
+
+    /**
+     * Reads a repeated varint field, which may or may not be packed.
+     */
+    public long[] readPackedVarints() {
+        if (getWireType() == WIRE_TYPE_VARINT) {
+            return new long[] { readVarint() };
+        }
+        ProtoReader packed = readMessage();
+        long[] values = new long[8];
+        int count = 0;
+        while (packed.mPosition < packed.mEnd) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = packed.readRawVarint();
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+    private void consume(int wireType) {
+        if (!mHasPendingValue || getWireType() != wireType) {
+            throw new IllegalStateException("Field " + getField() + " has wire type "
+                + getWireType() + ", not " + wireType);
+        }
+        mHasPendingValue = false;
+    }
+
+    private int consumeLengthDelimited() {
+        consume(WIRE_TYPE_LENGTH_DELIMITED);
+        long length = readRawVarint();
+        if (length < 0 || length > mEnd - mPosition) {
+            throw new IllegalStateException("Truncated message");
+        }
+        return (int) length;
+    }
+
+    private void skipValue() {
+        switch (getWireType()) {
+            case WIRE_TYPE_VARINT:
+                readVarint();
+                break;
+            case WIRE_TYPE_FIXED64:
+                readFixed64();
+                break;
+            case WIRE_TYPE_LENGTH_DELIMITED:
+                int length = consumeLengthDelimited();
+                mPosition += length;
+                break;
+            case WIRE_TYPE_FIXED32:
+                readFixed32();
+                break;
+            default:
+                throw new IllegalStateException("Unsupported wire type " + getWireType());
+        }
+    }
+
+    private long readRawVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (mPosition >= mEnd) {
+                throw new IllegalStateException("Truncated varint");
+            }
+            byte b = mBuffer[mPosition++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    private long readRawLittleEndian(int size) {
+        if (size > mEnd - mPosition) {
+            throw new IllegalStateException("Truncated message");
+        }
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value |= (mBuffer[mPosition++] & 0xFFL) << (8 * i);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A minimal encoder for the protobuf wire format.
+ *
+ * Traceur only ever writes a handful of small messages, so this avoids
+ * pulling a protobuf runtime and generated code into the app. The writer can
+ * be reset and reused to avoid allocating a buffer per message.
+ */
+public class ProtoWriter {
+
+    private static final int WIRE_TYPE_VARINT = 0;
+    private static final int WIRE_TYPE_FIXED64 = 1;
+    private static final int WIRE_TYPE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_TYPE_FIXED32 = 5;
+
+    private byte[] mBuffer;
+    private int mSize;
+
+    public ProtoWriter() {
+        this(64);
+    }
+
+    public ProtoWriter(int initialCapacity) {
+        mBuffer = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    public ProtoWriter writeVarint(int field, long value) {
+        writeTag(field, WIRE_TYPE_VARINT);
+        writeRawVarint(value);
+        return this;
+    }
+
+    public ProtoWriter writeBool(int field, boolean value) {
+        return writeVarint(field, value ? 1 : 0);
+    }
+
+    public ProtoWriter writeFixed64(int field, long value) {
+        writeTag(field, WIRE_TYPE_FIXED64);
+        ensureCapacity(8);
+        for (int i = 0; i < 8; i++) {
+            mBuffer[mSize++] = (byte) (value >>> (8 * i));
+        }
+        return this;
+    }
+
+    public ProtoWriter writeFloat(int field, float value) {
+        writeTag(field, WIRE_TYPE_FIXED32);
+        int bits = Float.floatToIntBits(value);
+        ensureCapacity(4);
+        for (int i = 0; i < 4; i++) {
+            mBuffer[mSize++] = (byte) (bits >>> (8 * i));
+        }
+        return this;
+    }
+
+    public ProtoWriter writeString(int field, String value) {
+        return writeBytes(field, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public ProtoWriter writeBytes(int field, byte[] value) {
+        return writeBytes(field, value, 0, value.length);
+    }
+
+    public ProtoWriter writeBytes(int field, byte[] value, int offset, int length) {
+        writeTag(field, WIRE_TYPE_LENGTH_DELIMITED);
+        writeRawVarint(length);
+        ensureCapacity(length);
+        System.arraycopy(value, offset, mBuffer, mSize, length);
+        mSize += length;
+        return this;
+    }
+
+    /**
+     * Writes the contents of another writer as a nested message.
+     */
+    public ProtoWriter writeMessage(int field, ProtoWriter message) {
+        return writeBytes(field, message.mBuffer, 0, message.mSize);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public void reset() {
+        mSize = 0;
+    }
+
+    /**
+     * Returns the underlying buffer, which is valid up to {@link #size()}.
+     */
+    public byte[] buffer() {
+        return mBuffer;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(mBuffer, mSize);
+    }
+
+    /**
+     * Returns the number of bytes needed to encode the given value as a varint.
+     */
+    public static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private void writeTag(int field, int wireType) {
+        writeRawVarint((field << 3) | wireType);
+    }
+
+    private void writeRawVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            mBuffer[mSize++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mBuffer[mSize++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mSize + extra > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mSize + extra));
+        }
+    }
+}
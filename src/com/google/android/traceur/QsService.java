@@ -28,20 +28,36 @@ public class QsService extends TileService {
 
     private static QsService sListeningInstance;
 
-    public static void updateTile() {
-        if (sListeningInstance != null) {
-            sListeningInstance.update();
+    private final TracingStateStore.Listener mStateListener = new TracingStateStore.Listener() {
+        @Override
+        public void onTracingStateChanged(TracingStateStore.State state) {
+            update();
         }
+    };
+
+    public static void updateTile() {
+        // This is also called from background work, but the tile belongs to
+        // the main thread.
+        TraceWorker.runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                if (sListeningInstance != null) {
+                    sListeningInstance.update();
+                }
+            }
+        });
     }
 
     @Override
     public void onStartListening() {
         sListeningInstance = this;
+        TracingStateStore.getInstance().addListener(mStateListener);
         update();
     }
 
     @Override
     public void onStopListening() {
+        TracingStateStore.getInstance().removeListener(mStateListener);
         if (sListeningInstance == this) {
             sListeningInstance = null;
         }
@@ -50,23 +66,57 @@ public class QsService extends TileService {
     private void update() {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
         boolean tracingOn = prefs.getBoolean(getString(R.string.pref_key_tracing_on), false);
+        // While a trace is being saved, a tap couldn't do anything useful.
+        boolean saving = TracingStateStore.getInstance().getState()
+                == TracingStateStore.State.SAVING;
+        showState(tracingOn, saving);
+    }
 
+    private void showState(boolean tracingOn, boolean saving) {
         String titleString = getString(tracingOn ? R.string.stop_tracing: R.string.record_trace);
 
         getQsTile().setIcon(Icon.createWithResource(this, R.drawable.stat_sys_adb));
-        getQsTile().setState(tracingOn ? Tile.STATE_ACTIVE : Tile.STATE_INACTIVE);
+        getQsTile().setState(saving ? Tile.STATE_UNAVAILABLE
+                : tracingOn ? Tile.STATE_ACTIVE : Tile.STATE_INACTIVE);
         getQsTile().setLabel(titleString);
+        // Profiles are picked in Traceur's settings, which a long press on the
+        // tile opens.
+        String profile = TraceService.getProfileName(this);
+        getQsTile().setSubtitle(profile != null ? getProfileLabel(profile) : null);
         getQsTile().updateTile();
     }
 
+    private CharSequence getProfileLabel(String profile) {
+        String[] values = getResources().getStringArray(R.array.profile_values);
+        String[] names = getResources().getStringArray(R.array.profile_names);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].equals(profile)) {
+                return names[i];
+            }
+        }
+        return profile;
+    }
+
     /** When we click the tile, toggle tracing state.
      *  If tracing is being turned off, dump and offer to share. */
     @Override
     public void onClick() {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
-        boolean newTracingState = !prefs.getBoolean(getString(R.string.pref_key_tracing_on), false);
-        prefs.edit().putBoolean(getString(R.string.pref_key_tracing_on), newTracingState).commit();
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        final boolean newTracingState =
+            !prefs.getBoolean(getString(R.string.pref_key_tracing_on), false);
+
+        // Show the new state straight away; the tile is updated again once
+        // tracing has actually started or stopped.
+        showState(newTracingState, false);
 
-        Receiver.updateTracing(this);
+        final Context context = getApplicationContext();
+        TraceWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                prefs.edit().putBoolean(context.getString(R.string.pref_key_tracing_on),
+                    newTracingState).commit();
+                Receiver.updateTracing(context);
+            }
+        });
     }
 }
@@ -30,6 +30,7 @@ import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.preference.PreferenceManager;
@@ -40,6 +41,7 @@ import android.util.Log;
 
 import com.android.internal.statusbar.IStatusBarService;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
@@ -48,6 +50,16 @@ public class Receiver extends BroadcastReceiver {
 
     public static final String STOP_ACTION = "com.android.traceur.STOP";
     public static final String OPEN_ACTION = "com.android.traceur.OPEN";
+    public static final String SNAPSHOT_ACTION = "com.android.traceur.SNAPSHOT";
+    public static final String KEEP_ACTION = "com.android.traceur.KEEP";
+    public static final String SPLIT_ACTION = "com.android.traceur.SPLIT";
+    public static final String START_ACTION = "com.android.traceur.START";
+
+    public static final String EXTRA_TRACE_NAME = "trace_name";
+    public static final String EXTRA_PROFILE = "profile";
+    public static final String EXTRA_TRIGGER_MODE = "trigger_mode";
+    public static final String EXTRA_TRIGGERS = "triggers";
+    public static final String EXTRA_TRIGGER_TIMEOUT_MINUTES = "trigger_timeout_minutes";
 
     public static final String NOTIFICATION_CHANNEL_TRACING = "trace-is-being-recorded";
     public static final String NOTIFICATION_CHANNEL_OTHER = "system-tracing";
@@ -69,19 +81,95 @@ public class Receiver extends BroadcastReceiver {
     private static ContentObserver mDeveloperOptionsObserver;
 
     @Override
-    public void onReceive(Context context, Intent intent) {
+    public void onReceive(final Context context, final Intent intent) {
+        // The request is recorded before returning, with apply() so that it
+        // doesn't wait for the disk. Acting on it can keep the trace engine
+        // busy for tens of seconds, e.g. to disarm a session, or wait behind
+        // other work on the worker, so the broadcast isn't held for it.
+        if (!recordIntent(context, intent)) {
+            return;
+        }
+        TraceWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                handleIntent(context, intent);
+            }
+        });
+    }
+
+    /*
+     * Records the change the intent asks for in preferences, which the work
+     * on the worker then reads. Returns false if the intent is to be ignored.
+     */
+    private static boolean recordIntent(Context context, Intent intent) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+
+        if (START_ACTION.equals(intent.getAction()) && !intent.hasExtra(EXTRA_TRIGGERS)) {
+            SharedPreferences.Editor editor = prefs.edit();
+            // Selects a profile, if one is given, and starts tracing with it.
+            String profile = intent.getStringExtra(EXTRA_PROFILE);
+            if (profile != null) {
+                if (TraceProfile.forName(profile) == null) {
+                    Log.e(TAG, "Ignoring start request with unknown profile: " + profile);
+                    return false;
+                }
+                editor.putString(context.getString(R.string.pref_key_profile), profile);
+            }
+            editor.putBoolean(context.getString(R.string.pref_key_tracing_on), true).apply();
+        } else if (STOP_ACTION.equals(intent.getAction())) {
+            prefs.edit().putBoolean(context.getString(R.string.pref_key_tracing_on), false)
+                .apply();
+        }
+        return true;
+    }
+
+    private static void handleIntent(Context context, Intent intent) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
 
         if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
             createNotificationChannels(context);
             updateDeveloperOptionsWatcher(context);
 
-            // We know that Perfetto won't be tracing already at boot, so pass the
-            // tracingIsOff argument to avoid the Perfetto check.
-            updateTracing(context, /* assumeTracingIsOff= */ true);
+            if (isBootTraceScheduled(context, prefs)) {
+                // The trace was started early in boot; take it over. Only one
+                // boot is traced.
+                prefs.edit().putBoolean(context.getString(R.string.pref_key_boot_trace), false)
+                    .commit();
+                TracingStateStore.getInstance().setState(TracingStateStore.State.STARTING);
+                TraceService.adoptBootTrace(context);
+            } else {
+                // We know that Perfetto won't be tracing already at boot, so pass the
+                // tracingIsOff argument to avoid the Perfetto check.
+                updateTracing(context, /* assumeTracingIsOff= */ true);
+            }
+            updateArmedSession(context);
+        } else if (START_ACTION.equals(intent.getAction())
+                && intent.hasExtra(EXTRA_TRIGGERS)) {
+            armTracing(context, prefs, intent);
+        } else if (START_ACTION.equals(intent.getAction())) {
+            if (intent.getStringExtra(EXTRA_PROFILE) != null) {
+                // The profile was selected when the intent was received.
+                updateArmedSession(context);
+            }
+            updateTracing(context);
         } else if (STOP_ACTION.equals(intent.getAction())) {
-            prefs.edit().putBoolean(context.getString(R.string.pref_key_tracing_on), false).commit();
             updateTracing(context);
+        } else if (SNAPSHOT_ACTION.equals(intent.getAction())) {
+            TraceService.snapshotTracing(context);
+        } else if (KEEP_ACTION.equals(intent.getAction())) {
+            String name = intent.getStringExtra(EXTRA_TRACE_NAME);
+            // Only accept plain file names inside the trace directory.
+            if (name != null && name.equals(new File(name).getName())) {
+                File trace = TraceUtils.getOutputFile(name);
+                TraceUtils.pinTrace(context, trace);
+                FileSender.postNotification(context, trace,
+                    context.getString(R.string.trace_kept), /* offerKeep= */ false);
+            }
+        } else if (SPLIT_ACTION.equals(intent.getAction())) {
+            String name = intent.getStringExtra(EXTRA_TRACE_NAME);
+            if (name != null && name.equals(new File(name).getName())) {
+                TraceService.splitTrace(context, name);
+            }
         } else if (OPEN_ACTION.equals(intent.getAction())) {
             context.sendBroadcast(new Intent(Intent.ACTION_CLOSE_SYSTEM_DIALOGS));
             context.startActivity(new Intent(context, MainActivity.class)
@@ -89,6 +177,48 @@ public class Receiver extends BroadcastReceiver {
         }
     }
 
+    /*
+     * Starts a session that waits for the triggers in the intent, with the
+     * categories and buffer size from preferences. For example:
+     *
+     *   am broadcast -n com.android.traceur/.Receiver -a com.android.traceur.START \
+     *       --es trigger_mode stop --es triggers "slow_launch:10000:2000,jank:5000:1000"
+     *
+     * after which "perfetto --trigger slow_launch" ends the session 2 s later.
+     */
+    private static void armTracing(Context context, SharedPreferences prefs, Intent intent) {
+        TracingStateStore stateStore = TracingStateStore.getInstance();
+        if (stateStore.isTracingOn()) {
+            Log.e(TAG, "Ignoring trigger rules, a trace is already being recorded.");
+            return;
+        }
+
+        String mode = intent.getStringExtra(EXTRA_TRIGGER_MODE);
+        String rules = intent.getStringExtra(EXTRA_TRIGGERS);
+        long timeoutMs = intent.getIntExtra(EXTRA_TRIGGER_TIMEOUT_MINUTES,
+            Integer.parseInt(context.getString(R.string.default_long_trace_duration)))
+            * 60L * 1000L;
+        try {
+            TriggerRules.parse(mode != null ? mode : TriggerRules.MODE_STOP, rules, timeoutMs);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Ignoring invalid trigger rules", e);
+            return;
+        }
+
+        int bufferSize = Integer.parseInt(
+            prefs.getString(context.getString(R.string.pref_key_buffer_size),
+                context.getString(R.string.default_buffer_size)));
+        boolean appTracing = prefs.getBoolean(context.getString(R.string.pref_key_apps), true);
+
+        prefs.edit().putBoolean(context.getString(R.string.pref_key_tracing_on), true).commit();
+        stateStore.setState(TracingStateStore.State.STARTING);
+        TraceService.armTracing(context, getActiveTags(context, prefs, true), bufferSize,
+            appTracing, mode != null ? mode : TriggerRules.MODE_STOP, rules, timeoutMs);
+
+        context.sendBroadcast(new Intent(MainFragment.ACTION_REFRESH_TAGS));
+        QsService.updateTile();
+    }
+
     /*
      * Updates the current tracing state based on the current state of preferences.
      */
@@ -100,10 +230,22 @@ public class Receiver extends BroadcastReceiver {
         boolean prefsTracingOn =
                 prefs.getBoolean(context.getString(R.string.pref_key_tracing_on), false);
 
-        boolean traceUtilsTracingOn = assumeTracingIsOff ? false : TraceUtils.isTracingOn();
+        TracingStateStore stateStore = TracingStateStore.getInstance();
+        if (assumeTracingIsOff) {
+            stateStore.setState(TracingStateStore.State.IDLE);
+        }
+        boolean traceUtilsTracingOn = stateStore.isTracingOn();
 
         if (prefsTracingOn != traceUtilsTracingOn) {
-            if (prefsTracingOn) {
+            String profileName = TraceService.getProfileName(context);
+            if (prefsTracingOn && TraceUtils.isArmed()) {
+                // The session was set up with these settings ahead of time.
+                stateStore.setState(TracingStateStore.State.STARTING);
+                TraceService.startArmedTracing(context);
+            } else if (prefsTracingOn && profileName != null) {
+                stateStore.setState(TracingStateStore.State.STARTING);
+                TraceService.startTracingProfile(context, profileName);
+            } else if (prefsTracingOn) {
                 // Show notification if the tags in preferences are not all actually available.
                 Set<String> activeAvailableTags = getActiveTags(context, prefs, true);
                 Set<String> activeTags = getActiveTags(context, prefs, false);
@@ -117,6 +259,8 @@ public class Receiver extends BroadcastReceiver {
                         context.getString(R.string.default_buffer_size)));
 
                 boolean appTracing = prefs.getBoolean(context.getString(R.string.pref_key_apps), true);
+                boolean flightRecorder = prefs.getBoolean(
+                    context.getString(R.string.pref_key_flight_recorder), false);
                 boolean longTrace = prefs.getBoolean(context.getString(R.string.pref_key_long_traces), true);
 
                 int maxLongTraceSize = Integer.parseInt(
@@ -127,9 +271,11 @@ public class Receiver extends BroadcastReceiver {
                     prefs.getString(context.getString(R.string.pref_key_max_long_trace_duration),
                         context.getString(R.string.default_long_trace_duration)));
 
+                stateStore.setState(TracingStateStore.State.STARTING);
                 TraceService.startTracing(context, activeAvailableTags, bufferSize,
-                    appTracing, longTrace, maxLongTraceSize, maxLongTraceDuration);
+                    appTracing, flightRecorder, longTrace, maxLongTraceSize, maxLongTraceDuration);
             } else {
+                stateStore.setState(TracingStateStore.State.SAVING);
                 TraceService.stopTracing(context);
             }
         }
@@ -139,6 +285,158 @@ public class Receiver extends BroadcastReceiver {
         QsService.updateTile();
     }
 
+    private static boolean isBootTraceScheduled(Context context, SharedPreferences prefs) {
+        // A flight recorder trace is saved by cloning it, which the boot trace
+        // can't be.
+        return prefs.getBoolean(context.getString(R.string.pref_key_boot_trace), false)
+            && !prefs.getBoolean(context.getString(R.string.pref_key_flight_recorder), false);
+    }
+
+    /*
+     * Writes or removes the config for tracing the next boot, based on the
+     * current state of preferences.
+     */
+    public static void updateBootTrace(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (!isBootTraceScheduled(context, prefs)) {
+            TraceUtils.setBootTraceConfig(null);
+            return;
+        }
+
+        if (!TraceUtils.setBootTraceConfig(buildTraceConfig(context, prefs))) {
+            prefs.edit().putBoolean(context.getString(R.string.pref_key_boot_trace), false)
+                .commit();
+        }
+    }
+
+    /*
+     * Creates, replaces or removes the session kept armed to start traces
+     * quickly, based on the current state of preferences.
+     */
+    public static void updateArmedSession(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        // A flight recorder trace is saved by cloning it by name, which the
+        // armed session's isn't.
+        if (!prefs.getBoolean(context.getString(R.string.pref_key_keep_armed), false)
+                || prefs.getBoolean(context.getString(R.string.pref_key_flight_recorder), false)) {
+            TraceUtils.traceDisarm();
+            return;
+        }
+        if (TracingStateStore.getInstance().isTracingOn()) {
+            // It's armed again once this trace has been saved.
+            return;
+        }
+
+        long durationMs = 0;
+        String profileName = TraceService.getProfileName(context);
+        TraceProfile profile = profileName != null
+            ? TraceUtils.getProfile(context, profileName) : null;
+        if (profile != null ? profile.isLongTrace()
+                : prefs.getBoolean(context.getString(R.string.pref_key_long_traces), true)) {
+            durationMs = 60L * 1000L * (profile != null
+                ? profile.getMaxLongTraceDurationMinutes()
+                : Integer.parseInt(prefs.getString(
+                    context.getString(R.string.pref_key_max_long_trace_duration),
+                    context.getString(R.string.default_long_trace_duration))));
+        }
+
+        // Traced allocates the buffers as soon as the session is set up and
+        // holds them until it's started, so they're checked against free
+        // memory first, as they are before any other trace.
+        DataRateHistory.BufferSizes sizes = profile != null
+            ? new DataRateHistory.BufferSizes(profile.getBufferSizeKb(),
+                profile.getAuxBufferSizeKb())
+            : getBufferSizes(context, prefs);
+        MemoryAdmission.Decision admission = TraceUtils.admitTraceBuffers(context,
+            sizes.perCpuBufferKb, sizes.auxBufferKb,
+            TraceService.getMemoryHeadroomPercent(context));
+        Log.i(TAG, "Armed trace buffer admission: " + admission);
+        if (!admission.isAdmitted()) {
+            // Starting a trace checks again, and says why if it can't.
+            TraceUtils.traceDisarm();
+            return;
+        }
+
+        byte[] config;
+        if (profile != null && admission.result == MemoryAdmission.Result.ADMITTED) {
+            config = TraceUtils.getProfileConfig(context, profile);
+        } else if (profile != null) {
+            config = profile.setBufferSizeKb(admission.perCpuBufferKb)
+                .createConfig(Runtime.getRuntime().availableProcessors()).toByteArray();
+        } else {
+            config = buildTraceConfig(context, prefs, admission.perCpuBufferKb,
+                sizes.auxBufferKb);
+        }
+        if (!TraceUtils.traceKeepArmed(config, durationMs)) {
+            prefs.edit().putBoolean(context.getString(R.string.pref_key_keep_armed), false)
+                .commit();
+            return;
+        }
+        // Shown once the armed trace starts.
+        prefs.edit()
+            .putInt(context.getString(R.string.pref_key_armed_buffer_size),
+                admission.perCpuBufferKb)
+            .putBoolean(context.getString(R.string.pref_key_armed_buffer_clamped),
+                admission.result == MemoryAdmission.Result.CLAMPED)
+            .commit();
+    }
+
+    /*
+     * Builds the binary TraceConfig for a trace with the selected profile, or
+     * with the trace settings if there is none.
+     */
+    private static byte[] buildTraceConfig(Context context, SharedPreferences prefs) {
+        String profileName = TraceService.getProfileName(context);
+        if (profileName != null) {
+            return TraceUtils.getProfileConfig(context,
+                TraceUtils.getProfile(context, profileName));
+        }
+        DataRateHistory.BufferSizes sizes = getBufferSizes(context, prefs);
+        return buildTraceConfig(context, prefs, sizes.perCpuBufferKb, sizes.auxBufferKb);
+    }
+
+    /*
+     * Returns the buffer sizes the trace settings ask for, with "Auto" worked
+     * out from past sessions.
+     */
+    private static DataRateHistory.BufferSizes getBufferSizes(Context context,
+            SharedPreferences prefs) {
+        int bufferSize = Integer.parseInt(
+            prefs.getString(context.getString(R.string.pref_key_buffer_size),
+                context.getString(R.string.default_buffer_size)));
+        if (bufferSize == TraceUtils.AUTO_BUFFER_SIZE_KB) {
+            DataRateHistory.BufferSizes sizes = TraceUtils.getAutoBufferSizes(context,
+                getActiveTags(context, prefs, true));
+            if (sizes != null) {
+                return sizes;
+            }
+            bufferSize = Integer.parseInt(context.getString(R.string.default_buffer_size));
+        }
+        return new DataRateHistory.BufferSizes(bufferSize,
+            TraceConfig.DEFAULT_AUX_BUFFER_SIZE_KB);
+    }
+
+    /*
+     * Builds the binary TraceConfig for a trace with the trace settings and
+     * the given buffer sizes.
+     */
+    private static byte[] buildTraceConfig(Context context, SharedPreferences prefs,
+            int bufferSizeKb, int auxBufferSizeKb) {
+        Set<String> tags = getActiveTags(context, prefs, true);
+        boolean appTracing = prefs.getBoolean(context.getString(R.string.pref_key_apps), true);
+        boolean longTrace = prefs.getBoolean(
+            context.getString(R.string.pref_key_long_traces), true);
+        int maxLongTraceSize = Integer.parseInt(
+            prefs.getString(context.getString(R.string.pref_key_max_long_trace_size),
+                context.getString(R.string.default_long_trace_size)));
+        int maxLongTraceDuration = Integer.parseInt(
+            prefs.getString(context.getString(R.string.pref_key_max_long_trace_duration),
+                context.getString(R.string.default_long_trace_duration)));
+        return TraceConfig.create(tags, bufferSizeKb, auxBufferSizeKb,
+            Runtime.getRuntime().availableProcessors(), appTracing, longTrace,
+            maxLongTraceSize, maxLongTraceDuration).toByteArray();
+    }
+
     /*
      * Updates the current Quick Settings tile state based on the current state
      * of preferences.
@@ -184,32 +482,18 @@ public class Receiver extends BroadcastReceiver {
         Uri settingUri = Settings.Global.getUriFor(
             Settings.Global.DEVELOPMENT_SETTINGS_ENABLED);
 
+        // This runs on TraceWorker, which has no looper to deliver changes on.
         ContentObserver developerOptionsObserver =
-            new ContentObserver(new Handler()) {
+            new ContentObserver(new Handler(Looper.getMainLooper())) {
                 @Override
                 public void onChange(boolean selfChange) {
                     super.onChange(selfChange);
-
-                    boolean developerOptionsEnabled = (1 ==
-                        Settings.Global.getInt(context.getContentResolver(),
-                            Settings.Global.DEVELOPMENT_SETTINGS_ENABLED , 0));
-
-                    ComponentName name = new ComponentName(context,
-                        StorageProvider.class);
-                    context.getPackageManager().setComponentEnabledSetting(name,
-                       developerOptionsEnabled
-                            ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
-                            : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
-                        PackageManager.DONT_KILL_APP);
-
-                    if (!developerOptionsEnabled) {
-                        SharedPreferences prefs =
-                            PreferenceManager.getDefaultSharedPreferences(context);
-                        prefs.edit().putBoolean(
-                            context.getString(R.string.pref_key_quick_setting), false)
-                            .commit();
-                        updateQuickSettings(context);
-                    }
+                    TraceWorker.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            updateDeveloperOptions(context);
+                        }
+                    });
                 }
             };
 
@@ -218,6 +502,29 @@ public class Receiver extends BroadcastReceiver {
         developerOptionsObserver.onChange(true);
     }
 
+    private static void updateDeveloperOptions(Context context) {
+        boolean developerOptionsEnabled = (1 ==
+            Settings.Global.getInt(context.getContentResolver(),
+                Settings.Global.DEVELOPMENT_SETTINGS_ENABLED , 0));
+
+        ComponentName name = new ComponentName(context,
+            StorageProvider.class);
+        context.getPackageManager().setComponentEnabledSetting(name,
+           developerOptionsEnabled
+                ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+            PackageManager.DONT_KILL_APP);
+
+        if (!developerOptionsEnabled) {
+            SharedPreferences prefs =
+                PreferenceManager.getDefaultSharedPreferences(context);
+            prefs.edit().putBoolean(
+                context.getString(R.string.pref_key_quick_setting), false)
+                .commit();
+            updateQuickSettings(context);
+        }
+    }
+
     private static void postCategoryNotification(Context context, SharedPreferences prefs) {
         Intent sendIntent = new Intent(context, MainActivity.class);
 
@@ -271,7 +578,7 @@ public class Receiver extends BroadcastReceiver {
     public static Set<String> getActiveTags(Context context, SharedPreferences prefs, boolean onlyAvailable) {
         Set<String> tags = prefs.getStringSet(context.getString(R.string.pref_key_tags),
                 getDefaultTagList());
-        Set<String> available = TraceUtils.listCategories().keySet();
+        Set<String> available = TraceUtils.listCategories(context).keySet();
 
         if (onlyAvailable) {
             tags.retainAll(available);
@@ -284,7 +591,7 @@ public class Receiver extends BroadcastReceiver {
     public static Set<String> getActiveUnavailableTags(Context context, SharedPreferences prefs) {
         Set<String> tags = prefs.getStringSet(context.getString(R.string.pref_key_tags),
                 getDefaultTagList());
-        Set<String> available = TraceUtils.listCategories().keySet();
+        Set<String> available = TraceUtils.listCategories(context).keySet();
 
         tags.removeAll(available);
 
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Tracks how far saving a trace has got, for the "Saving trace" notification,
+ * and how long each phase of it took, for the log.
+ *
+ * Saving goes through phases, e.g. stopping the session while its buffers
+ * are flushed to the file, then compressing the file. Each phase reports how
+ * many bytes it has processed and, if it's known, how many it will process
+ * in total, from which its throughput and the time left are estimated.
+ * Updates reach the listener at a bounded rate, as each one rebuilds the
+ * notification.
+ *
+ * This class has no Android dependencies so that it can be tested on host.
+ */
+public class SaveProgress {
+
+    static final long MIN_UPDATE_INTERVAL_MS = 500;
+
+    public static final long UNKNOWN = -1;
+
+    // The phases of saving a trace, in the order they happen.
+    public static final String PHASE_SNAPSHOT = "snapshot";
+    public static final String PHASE_STOP = "stop";
+    public static final String PHASE_LIST_THREADS = "list-threads";
+    public static final String PHASE_RENAME = "rename";
+    public static final String PHASE_COMPRESS = "compress";
+    public static final String PHASE_POST_PROCESS = "post-process";
+
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    /**
+     * Receives updates, on whichever thread made them.
+     */
+    public interface Listener {
+        public void onProgress(SaveProgress progress);
+    }
+
+    private static class Phase {
+        final String name;
+        final long totalBytes;
+        final long startMs;
+        long lastUpdateMs;
+        long endMs = UNKNOWN;
+        long bytesDone;
+
+        Phase(String name, long totalBytes, long startMs) {
+            this.name = name;
+            this.totalBytes = totalBytes;
+            this.startMs = startMs;
+            this.lastUpdateMs = startMs;
+        }
+
+        long getBytesPerSecond() {
+            long elapsedMs = (endMs != UNKNOWN ? endMs : lastUpdateMs) - startMs;
+            return elapsedMs > 0 ? bytesDone * 1000 / elapsedMs : 0;
+        }
+    }
+
+    private final Listener mListener;
+    private final List<Phase> mPhases = new ArrayList<>();
+    private long mLastNotifiedMs = UNKNOWN;
+
+    /**
+     * @param listener the listener to pass updates on to, or null.
+     */
+    public SaveProgress(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Ends the current phase, if any, and starts the next one. The listener
+     * always hears about a new phase.
+     *
+     * @param totalBytes how many bytes the phase will process, or
+     *     {@link #UNKNOWN}.
+     */
+    public synchronized void startPhase(String name, long totalBytes, long nowMs) {
+        endPhase(nowMs);
+        mPhases.add(new Phase(name, totalBytes, nowMs));
+        notifyListener(nowMs, true);
+    }
+
+    /**
+     * Reports how many bytes the current phase has processed so far.
+     */
+    public synchronized void update(long bytesDone, long nowMs) {
+        Phase phase = getCurrentPhase();
+        if (phase == null || phase.endMs != UNKNOWN) {
+            return;
+        }
+        phase.bytesDone = bytesDone;
+        phase.lastUpdateMs = nowMs;
+        notifyListener(nowMs, false);
+    }
+
+    public synchronized void endPhase(long nowMs) {
+        Phase phase = getCurrentPhase();
+        if (phase != null && phase.endMs == UNKNOWN) {
+            phase.endMs = nowMs;
+        }
+    }
+
+    private void notifyListener(long nowMs, boolean force) {
+        if (mListener == null) {
+            return;
+        }
+        if (!force && mLastNotifiedMs != UNKNOWN
+                && nowMs - mLastNotifiedMs < MIN_UPDATE_INTERVAL_MS) {
+            return;
+        }
+        mLastNotifiedMs = nowMs;
+        mListener.onProgress(this);
+    }
+
+    private Phase getCurrentPhase() {
+        return mPhases.isEmpty() ? null : mPhases.get(mPhases.size() - 1);
+    }
+
+    /**
+     * Returns the name of the current phase, or null before the first.
+     */
+    public synchronized String getPhase() {
+        Phase phase = getCurrentPhase();
+        return phase != null ? phase.name : null;
+    }
+
+    public synchronized long getBytesDone() {
+        Phase phase = getCurrentPhase();
+        return phase != null ? phase.bytesDone : 0;
+    }
+
+    public synchronized long getTotalBytes() {
+        Phase phase = getCurrentPhase();
+        return phase != null ? phase.totalBytes : UNKNOWN;
+    }
+
+    /**
+     * Returns how far the current phase has got, from 0 to 100, or
+     * {@link #UNKNOWN} if its total isn't known.
+     */
+    public synchronized int getPercent() {
+        Phase phase = getCurrentPhase();
+        if (phase == null || phase.totalBytes == UNKNOWN) {
+            return (int) UNKNOWN;
+        }
+        if (phase.totalBytes == 0) {
+            return 100;
+        }
+        return (int) Math.min(100, phase.bytesDone * 100 / phase.totalBytes);
+    }
+
+    /**
+     * Returns the throughput of the current phase so far.
+     */
+    public synchronized long getBytesPerSecond() {
+        Phase phase = getCurrentPhase();
+        return phase != null ? phase.getBytesPerSecond() : 0;
+    }
+
+    /**
+     * Returns how long the current phase should take to finish at its
+     * throughput so far, or {@link #UNKNOWN} if that can't be told yet.
+     */
+    public synchronized long getEtaMs() {
+        Phase phase = getCurrentPhase();
+        long bytesPerSecond = getBytesPerSecond();
+        if (phase == null || phase.totalBytes == UNKNOWN || bytesPerSecond == 0) {
+            return UNKNOWN;
+        }
+        return Math.max(0, phase.totalBytes - phase.bytesDone) * 1000 / bytesPerSecond;
+    }
+
+    /**
+     * Returns how long all phases took together, up to the end of the last
+     * one that ended.
+     */
+    public synchronized long getElapsedMs() {
+        if (mPhases.isEmpty()) {
+            return 0;
+        }
+        Phase last = getCurrentPhase();
+        return (last.endMs != UNKNOWN ? last.endMs : last.lastUpdateMs) - mPhases.get(0).startMs;
+    }
+
+    /**
+     * Describes how long each phase took and how fast it went, for example
+     * "stop 1200 ms (512.0 MB, 426.7 MB/s), rename 1 ms".
+     */
+    public synchronized String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (Phase phase : mPhases) {
+            if (summary.length() > 0) {
+                summary.append(", ");
+            }
+            long endMs = phase.endMs != UNKNOWN ? phase.endMs : phase.lastUpdateMs;
+            summary.append(phase.name).append(' ').append(endMs - phase.startMs).append(" ms");
+            if (phase.bytesDone > 0) {
+                summary.append(String.format(Locale.US, " (%.1f MB, %.1f MB/s)",
+                    phase.bytesDone / BYTES_PER_MEGABYTE,
+                    phase.getBytesPerSecond() / BYTES_PER_MEGABYTE));
+            }
+        }
+        return summary.toString();
+    }
+}
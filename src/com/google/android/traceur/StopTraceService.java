@@ -42,9 +42,13 @@ public class StopTraceService extends TraceService {
         boolean prefsTracingOn =
             prefs.getBoolean(context.getString(R.string.pref_key_tracing_on), false);
 
+        // The trace-end signal is one of the points where we re-check the
+        // tracing state with the trace engine.
+        TracingStateStore.State state = TracingStateStore.getInstance().verify();
+
         // If the user thinks tracing is off and the trace processor agrees, we have no work to do.
         // We must still start a foreground service, but let's log as an FYI.
-        if (!prefsTracingOn && !TraceUtils.isTracingOn()) {
+        if (!prefsTracingOn && state != TracingStateStore.State.RECORDING) {
             Log.i(TAG, "StopTraceService does not see a trace to stop.");
         }
 
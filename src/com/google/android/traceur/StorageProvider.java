@@ -28,6 +28,8 @@ import android.provider.DocumentsContract.Document;
 import android.provider.DocumentsContract.Root;
 import android.provider.DocumentsProvider;
 import android.provider.Settings;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
 
@@ -35,9 +37,20 @@ import com.android.internal.content.FileSystemProvider;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Adds an entry for traces in the file picker.
+ *
+ * Each uncompressed perfetto trace is also listed as a gzipped copy, named
+ * like the trace with ".gz" added, which doesn't exist on disk: the trace is
+ * compressed as the copy is read, so that it can be pulled in a fraction of
+ * the time without storing it twice.
  */
 public class StorageProvider extends FileSystemProvider{
 
@@ -47,6 +60,22 @@ public class StorageProvider extends FileSystemProvider{
     private static final String DOC_ID_ROOT = "traces";
     private static final String ROOT_DIR = "/data/local/traces";
     private static final String MIME_TYPE = "application/vnd.android.systrace";
+    private static final String PERFETTO_EXTENSION = ".perfetto-trace";
+
+    // Compressed copies are compressed a block at a time on threads shared by
+    // all reads, with a few blocks per read held until the reader catches up.
+    private static final int COMPRESSION_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int COMPRESSION_BLOCK_SIZE = 1 << 20;
+    private static final int MAX_PENDING_BLOCKS = 2 * COMPRESSION_THREADS;
+    private static final ExecutorService COMPRESSION_EXECUTOR =
+        Executors.newFixedThreadPool(COMPRESSION_THREADS);
+    // Each read is fed from its own thread, which blocks while the pipe is full.
+    private static final ExecutorService STREAM_EXECUTOR = Executors.newCachedThreadPool();
+
+    // Extra document columns, read from the index written when a trace is
+    // saved. They're null for traces that haven't been indexed.
+    public static final String COLUMN_TRACE_DURATION_MS = "trace_duration_ms";
+    public static final String COLUMN_TRACE_CATEGORIES = "trace_categories";
 
     private static final String[] DEFAULT_ROOT_PROJECTION = new String[] {
             Root.COLUMN_ROOT_ID,
@@ -63,6 +92,8 @@ public class StorageProvider extends FileSystemProvider{
             Document.COLUMN_FLAGS,
             Document.COLUMN_SIZE,
             Document.COLUMN_LAST_MODIFIED,
+            COLUMN_TRACE_DURATION_MS,
+            COLUMN_TRACE_CATEGORIES,
     };
 
     @Override
@@ -88,7 +119,8 @@ public class StorageProvider extends FileSystemProvider{
         final MatrixCursor.RowBuilder row = result.newRow();
         row.add(Root.COLUMN_ROOT_ID, DOC_ID_ROOT);
         row.add(Root.COLUMN_FLAGS, Root.FLAG_LOCAL_ONLY);
-        row.add(Root.COLUMN_MIME_TYPES, MIME_TYPE);
+        row.add(Root.COLUMN_MIME_TYPES,
+            MIME_TYPE + "\n" + TraceCompression.GZIP.getMimeType(MIME_TYPE));
         row.add(Root.COLUMN_ICON, R.drawable.stat_sys_adb_green);
         row.add(Root.COLUMN_TITLE,
             getContext().getString(R.string.system_traces_storage_title));
@@ -100,6 +132,12 @@ public class StorageProvider extends FileSystemProvider{
     public Cursor queryDocument(String documentId, String[] projection)
             throws FileNotFoundException {
         final MatrixCursor result = new MatrixCursor(resolveDocumentProjection(projection));
+        File trace = getTraceForCompressedDocId(documentId);
+        if (trace != null) {
+            includeCompressedCopy(result, trace);
+            return result;
+        }
+
         final MatrixCursor.RowBuilder row = result.newRow();
         File file;
         String mimeType;
@@ -109,7 +147,7 @@ public class StorageProvider extends FileSystemProvider{
             mimeType = Document.MIME_TYPE_DIR;
         } else {
             file = getFileForDocId(documentId);
-            mimeType = MIME_TYPE;
+            mimeType = FileSender.getMimeType(file);
         }
 
         row.add(Document.COLUMN_DOCUMENT_ID, documentId);
@@ -118,9 +156,81 @@ public class StorageProvider extends FileSystemProvider{
         row.add(Document.COLUMN_LAST_MODIFIED, file.lastModified());
         row.add(Document.COLUMN_SIZE, file.length());
         row.add(Document.COLUMN_FLAGS, Document.FLAG_DIR_PREFERS_LAST_MODIFIED | Document.FLAG_SUPPORTS_DELETE);
+        addIndexColumns(row, file);
         return result;
     }
 
+    @Override
+    protected MatrixCursor.RowBuilder includeFile(MatrixCursor result, String docId, File file)
+            throws FileNotFoundException {
+        MatrixCursor.RowBuilder row = super.includeFile(result, docId, file);
+        addIndexColumns(row, file);
+        if (hasCompressedCopy(file)) {
+            includeCompressedCopy(result, file);
+        }
+        return row;
+    }
+
+    private void includeCompressedCopy(MatrixCursor result, File trace) {
+        File copy = getCompressedCopy(trace);
+        MatrixCursor.RowBuilder row = result.newRow();
+        row.add(Document.COLUMN_DOCUMENT_ID, getDocIdForFile(copy));
+        row.add(Document.COLUMN_MIME_TYPE, FileSender.getMimeType(copy));
+        row.add(Document.COLUMN_DISPLAY_NAME, copy.getName());
+        row.add(Document.COLUMN_LAST_MODIFIED, trace.lastModified());
+        // The size isn't known until the trace has been compressed.
+        row.add(Document.COLUMN_SIZE, null);
+        row.add(Document.COLUMN_FLAGS, 0);
+        addIndexColumns(row, trace);
+    }
+
+    private static boolean hasCompressedCopy(File file) {
+        return file.isFile() && file.getName().endsWith(PERFETTO_EXTENSION)
+            && !getCompressedCopy(file).exists();
+    }
+
+    private static File getCompressedCopy(File trace) {
+        return new File(trace.getParentFile(),
+            trace.getName() + TraceCompression.GZIP.getExtension());
+    }
+
+    /*
+     * Returns the trace that the document is a compressed copy of, or null if
+     * it's not a compressed copy. Files on disk take precedence, so any other
+     * operation on a copy fails as it would for a missing file.
+     */
+    private File getTraceForCompressedDocId(String documentId) {
+        String extension = TraceCompression.GZIP.getExtension();
+        if (!documentId.endsWith(extension)) {
+            return null;
+        }
+        try {
+            File trace = getFileForDocId(
+                documentId.substring(0, documentId.length() - extension.length()));
+            return hasCompressedCopy(trace) ? trace : null;
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Fills in the columns that come from the trace index. The trace itself is
+     * never read here, since traces can be large and listing must stay fast.
+     */
+    private void addIndexColumns(MatrixCursor.RowBuilder row, File file) {
+        if (!file.isFile()) {
+            return;
+        }
+        TraceSummary summary = TraceUtils.getTraceIndex(getContext(), file);
+        if (summary == null) {
+            return;
+        }
+        if (summary.hasTimestamps()) {
+            row.add(COLUMN_TRACE_DURATION_MS, summary.getCoverageNs() / 1000000);
+        }
+        row.add(COLUMN_TRACE_CATEGORIES, String.join(",", summary.getCategories()));
+    }
+
     @Override
     public Cursor queryChildDocuments(
             String parentDocumentId, String[] projection, String sortOrder)
@@ -144,8 +254,136 @@ public class StorageProvider extends FileSystemProvider{
             throw new UnsupportedOperationException(
                 "Attempt to open read-only file " + documentId + " in mode " + mode);
         }
-        return ParcelFileDescriptor.open(getFileForDocId(documentId),
-                ParcelFileDescriptor.MODE_READ_ONLY);
+        File trace = getTraceForCompressedDocId(documentId);
+        if (trace != null) {
+            TraceUtils.markTraceAccessed(getContext(), trace);
+            return openCompressed(trace, signal);
+        }
+        File file = getFileForDocId(documentId);
+        TraceUtils.markTraceAccessed(getContext(), file);
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public String getDocumentType(String documentId) throws FileNotFoundException {
+        File trace = getTraceForCompressedDocId(documentId);
+        if (trace != null) {
+            return FileSender.getMimeType(getCompressedCopy(trace));
+        }
+        return super.getDocumentType(documentId);
+    }
+
+    /*
+     * Returns the read end of a pipe that the trace is compressed into as it's
+     * read. Compression waits while the pipe is full, and stops if the reader
+     * goes away or the signal is cancelled. The pipe reports errors, so that a
+     * copy that stopped early can't be taken for a whole, shorter trace.
+     */
+    private ParcelFileDescriptor openCompressed(final File trace, CancellationSignal signal)
+            throws FileNotFoundException {
+        if (signal != null) {
+            signal.throwIfCanceled();
+        }
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Unable to create a pipe for " + trace + ": " + e);
+        }
+
+        final ParcelFileDescriptor sink = pipe[1];
+        final PipeChannel channel = new PipeChannel(sink);
+        if (signal != null) {
+            signal.setOnCancelListener(new CancellationSignal.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    // The copy stops at its next write, and still closes the pipe.
+                    channel.cancel();
+                }
+            });
+        }
+        try {
+            STREAM_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    String error = null;
+                    try {
+                        long size = BlockCompressor.gzip(trace, channel, COMPRESSION_BLOCK_SIZE,
+                            COMPRESSION_EXECUTOR, MAX_PENDING_BLOCKS, null);
+                        Log.v(TAG, "Streamed " + trace.getName() + " compressed from "
+                            + trace.length() + " to " + size + " bytes");
+                    } catch (IOException | RuntimeException e) {
+                        Log.w(TAG, "Stopped streaming " + trace.getName() + " compressed", e);
+                        error = e.toString();
+                    } finally {
+                        // Unless the pipe is closed with an error, the reader
+                        // waits for more forever.
+                        close(sink, error);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            close(sink, e.toString());
+            close(pipe[0], null);
+            throw new FileNotFoundException("Unable to stream " + trace + ": " + e);
+        }
+        return pipe[0];
+    }
+
+    /*
+     * Closes the pipe end, with the error if there is one.
+     */
+    private static void close(ParcelFileDescriptor pfd, String error) {
+        try {
+            if (error != null) {
+                pfd.closeWithError(error);
+            } else {
+                pfd.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close pipe", e);
+        }
+    }
+
+    /*
+     * Writes to the pipe's descriptor without owning it. Unlike a FileChannel,
+     * it isn't closed if the writing thread is interrupted, so the pipe is only
+     * ever closed once, by whoever holds the ParcelFileDescriptor. Once
+     * cancelled, every write fails.
+     */
+    private static class PipeChannel implements WritableByteChannel {
+        private final ParcelFileDescriptor mPipe;
+        private volatile boolean mCancelled;
+
+        PipeChannel(ParcelFileDescriptor pipe) {
+            mPipe = pipe;
+        }
+
+        void cancel() {
+            mCancelled = true;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (mCancelled) {
+                throw new IOException("Cancelled");
+            }
+            try {
+                return Os.write(mPipe.getFileDescriptor(), src);
+            } catch (ErrnoException e) {
+                throw e.rethrowAsIOException();
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !mCancelled;
+        }
+
+        @Override
+        public void close() {
+            // The descriptor belongs to the ParcelFileDescriptor.
+        }
     }
 
     private static String[] resolveRootProjection(String[] projection) {
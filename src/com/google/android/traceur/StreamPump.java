@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies streams that someone reads to their destination, on a small shared
+ * pool of threads.
+ *
+ * Output nobody reads shouldn't come through here at all, but be redirected
+ * to a file or /dev/null when the process is started. Copies into a file go
+ * through {@link FileChannel#transferFrom}, everything else through a buffer
+ * of the size the caller asks for. The returned {@link Future} completes once
+ * all data has been written and both streams have been closed, so callers can
+ * wait for output to be fully flushed.
+ */
+public class StreamPump {
+
+    // Each pump holds a thread until its input reaches EOF, so pumps beyond
+    // this many wait for one to finish or be cancelled. Cancelling interrupts
+    // the copy, which closes its input.
+    private static final int NUM_THREADS = 2;
+    // How much transferFrom() is asked to move at a time.
+    private static final int TRANSFER_SIZE = 256 << 10;
+
+    private static StreamPump sInstance;
+
+    private final ExecutorService mExecutor;
+
+    public static synchronized StreamPump getInstance() {
+        if (sInstance == null) {
+            sInstance = new StreamPump();
+        }
+        return sInstance;
+    }
+
+    private StreamPump() {
+        mExecutor = Executors.newFixedThreadPool(NUM_THREADS, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "StreamPump-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Copies everything from {@code in} to {@code out}, then closes both. The
+     * future yields the number of bytes copied.
+     *
+     * @param bufferSize how much to read at a time, unless {@code out} is a
+     *     file, which is written without a buffer.
+     */
+    public Future<Long> pump(final InputStream in, final OutputStream out, final int bufferSize) {
+        return mExecutor.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws IOException {
+                try (ReadableByteChannel source = Channels.newChannel(in)) {
+                    if (out instanceof FileOutputStream) {
+                        return transferToFile(source, ((FileOutputStream) out).getChannel());
+                    }
+                    return copy(source, Channels.newChannel(out), bufferSize);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+    }
+
+    private static long transferToFile(ReadableByteChannel source, FileChannel file)
+            throws IOException {
+        // transferFrom() writes at an explicit position and doesn't move the
+        // channel, which also keeps append mode working.
+        long start = file.position();
+        long position = start;
+        long transferred;
+        while ((transferred = file.transferFrom(source, position, TRANSFER_SIZE)) > 0) {
+            position += transferred;
+        }
+        file.position(position);
+        return position - start;
+    }
+
+    private static long copy(ReadableByteChannel source, WritableByteChannel sink,
+            int bufferSize) throws IOException {
+        // A heap buffer, since the sinks that get here, e.g. captured output,
+        // are on the heap too.
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        long total = 0;
+        int read;
+        while ((read = source.read(buffer)) != -1) {
+            total += read;
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                sink.write(buffer);
+            }
+            buffer.clear();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lists every thread on the device by reading /proc, in the format of
+ * "ps -AT", which atrace traces carry after the trace data so that viewers
+ * can name processes and threads.
+ *
+ * Processes are read in parallel, one slice of them per thread, and their
+ * lines are put back together in PID order. Processes and threads that exit
+ * while they are being read are left out, as ps does.
+ *
+ * A thread's name is the one in its stat file, which is the same as its comm
+ * file, so only stat and wchan are read per thread.
+ *
+ * This class has no Android dependencies so that it can be tested on host.
+ */
+public class TaskScanner {
+
+    // Matches the columns of "ps -AT" as printed by toybox.
+    public static final String HEADER =
+        "USER           PID   TID  PPID     VSZ    RSS WCHAN            ADDR S CMD\n";
+    private static final String LINE_FORMAT = "%-12s %5d %5d %5d %7d %6d %-16s %4s %c %s\n";
+
+    // Fields of /proc/<pid>/task/<tid>/stat, counted after the name, which
+    // is field 2: the state is field 3.
+    private static final int STAT_STATE = 0;
+    private static final int STAT_PPID = 1;
+    private static final int STAT_VSIZE = 20;
+    private static final int STAT_RSS = 21;
+
+    /**
+     * Maps a user ID to the name ps shows for it.
+     */
+    public interface UserNames {
+        public String getName(int uid);
+    }
+
+    private final File mProcDir;
+    private final UserNames mUserNames;
+    private final long mPageSizeKb;
+
+    /**
+     * @param procDir where procfs is mounted, normally /proc.
+     * @param userNames names users, or null to show their IDs.
+     */
+    public TaskScanner(File procDir, UserNames userNames, long pageSizeKb) {
+        mProcDir = procDir;
+        mUserNames = userNames;
+        mPageSizeKb = pageSizeKb;
+    }
+
+    /**
+     * Returns the listing of all threads, starting with the header line.
+     */
+    public String scan(int numThreads) throws IOException {
+        int[] pids = listIds(mProcDir);
+        int numSlices = Math.max(1, Math.min(numThreads, pids.length));
+        ExecutorService executor = Executors.newFixedThreadPool(numSlices);
+        try {
+            // Slices are interleaved, since low PIDs tend to have more threads.
+            List<Future<List<String>>> slices = new ArrayList<>(numSlices);
+            for (int i = 0; i < numSlices; i++) {
+                final int first = i;
+                final int step = numSlices;
+                slices.add(executor.submit(() -> {
+                    List<String> lines = new ArrayList<>();
+                    for (int j = first; j < pids.length; j += step) {
+                        lines.add(scanProcess(pids[j]));
+                    }
+                    return lines;
+                }));
+            }
+
+            List<List<String>> results = new ArrayList<>(numSlices);
+            for (Future<List<String>> slice : slices) {
+                results.add(await(slice));
+            }
+            StringBuilder out = new StringBuilder(HEADER);
+            for (int j = 0; j < pids.length; j++) {
+                out.append(results.get(j % numSlices).get(j / numSlices));
+            }
+            return out.toString();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> await(Future<List<String>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning tasks", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to scan tasks", e.getCause());
+        }
+    }
+
+    /*
+     * Returns the lines for all threads of the process, or an empty string if
+     * it has exited.
+     */
+    private String scanProcess(int pid) {
+        File processDir = new File(mProcDir, Integer.toString(pid));
+        String user = getUser(processDir);
+        if (user == null) {
+            return "";
+        }
+
+        StringBuilder lines = new StringBuilder();
+        File taskDir = new File(processDir, "task");
+        for (int tid : listIds(taskDir)) {
+            File threadDir = new File(taskDir, Integer.toString(tid));
+            String stat = readFile(new File(threadDir, "stat"));
+            if (stat == null) {
+                continue;
+            }
+            String line = formatLine(user, pid, tid, stat, readFile(new File(threadDir, "wchan")));
+            if (line != null) {
+                lines.append(line);
+            }
+        }
+        return lines.toString();
+    }
+
+    /*
+     * Returns the name of the process's effective user, as ps shows it, or
+     * null if the process has exited.
+     */
+    private String getUser(File processDir) {
+        String status = readFile(new File(processDir, "status"));
+        if (status == null) {
+            return null;
+        }
+        for (String line : status.split("\n")) {
+            // For example "Uid:\t10123\t10123\t10123\t10123".
+            if (line.startsWith("Uid:")) {
+                String[] ids = line.substring(4).trim().split("\\s+");
+                try {
+                    int uid = Integer.parseInt(ids.length > 1 ? ids[1] : ids[0]);
+                    return mUserNames != null ? mUserNames.getName(uid) : Integer.toString(uid);
+                } catch (NumberFormatException e) {
+                    break;
+                }
+            }
+        }
+        return "?";
+    }
+
+    /*
+     * Formats the ps line for a thread from the contents of its stat and
+     * wchan files, or returns null if stat can't be parsed.
+     */
+    String formatLine(String user, int pid, int tid, String stat, String wchan) {
+        // The name is in parentheses and may itself contain spaces and
+        // parentheses, so the fields after it start at the last ')'.
+        int nameStart = stat.indexOf('(');
+        int nameEnd = stat.lastIndexOf(')');
+        if (nameStart < 0 || nameEnd < nameStart) {
+            return null;
+        }
+        String name = stat.substring(nameStart + 1, nameEnd);
+        String[] fields = stat.substring(nameEnd + 1).trim().split(" ");
+        if (fields.length <= STAT_RSS || fields[STAT_STATE].isEmpty()) {
+            return null;
+        }
+        try {
+            return String.format(LINE_FORMAT, user, pid, tid,
+                Integer.parseInt(fields[STAT_PPID]),
+                Long.parseLong(fields[STAT_VSIZE]) / 1024,
+                Long.parseLong(fields[STAT_RSS]) * mPageSizeKb,
+                wchan == null || wchan.isEmpty() ? "0" : wchan.trim(),
+                "0",
+                fields[STAT_STATE].charAt(0),
+                name);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Returns the numerically named entries of the directory, in order.
+     */
+    private static int[] listIds(File dir) {
+        String[] names = dir.list();
+        if (names == null) {
+            return new int[0];
+        }
+        int[] ids = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (!name.isEmpty() && Character.isDigit(name.charAt(0))) {
+                try {
+                    ids[count++] = Integer.parseInt(name);
+                } catch (NumberFormatException e) {
+                    // Not a task.
+                }
+            }
+        }
+        ids = Arrays.copyOf(ids, count);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static String readFile(File file) {
+        try {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            // The task exited, or isn't ours to read.
+            return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+/**
+ * How saved traces are compressed.
+ */
+public enum TraceCompression {
+    NONE("none", "", null),
+    GZIP("gzip", ".gz", "application/gzip");
+
+    private final String mPreferenceValue;
+    private final String mExtension;
+    private final String mMimeType;
+
+    TraceCompression(String preferenceValue, String extension, String mimeType) {
+        mPreferenceValue = preferenceValue;
+        mExtension = extension;
+        mMimeType = mimeType;
+    }
+
+    /**
+     * Returns the suffix appended to the file name of a compressed trace.
+     */
+    public String getExtension() {
+        return mExtension;
+    }
+
+    /**
+     * Returns the MIME type of a trace of the given type once compressed.
+     */
+    public String getMimeType(String uncompressedMimeType) {
+        return mMimeType != null ? mMimeType : uncompressedMimeType;
+    }
+
+    /**
+     * Parses the value of the compression preference. Unknown values mean no
+     * compression.
+     */
+    public static TraceCompression fromPreference(String value) {
+        for (TraceCompression compression : values()) {
+            if (compression.mPreferenceValue.equals(value)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the compression used by a saved trace, based on its name.
+     */
+    public static TraceCompression forFileName(String name) {
+        for (TraceCompression compression : values()) {
+            if (compression != NONE && name.endsWith(compression.mExtension)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A typed model of the subset of Perfetto's TraceConfig that Traceur uses,
+ * serialized straight to the binary protobuf that perfetto reads from stdin.
+ *
+ * Field numbers come from protos/perfetto/config/trace_config.proto and the
+ * data source config protos it includes.
+ *
+ * This class has no Android dependencies so that it can be tested on host.
+ */
+public class TraceConfig {
+
+    // TraceConfig
+    private static final int BUFFERS = 1;
+    private static final int DATA_SOURCES = 2;
+    private static final int DURATION_MS = 3;
+    private static final int WRITE_INTO_FILE = 8;
+    private static final int FILE_WRITE_PERIOD_MS = 9;
+    private static final int MAX_FILE_SIZE_BYTES = 10;
+    private static final int FLUSH_PERIOD_MS = 13;
+    private static final int NOTIFY_TRACEUR = 16;
+    private static final int TRIGGER_CONFIG = 17;
+    private static final int INCREMENTAL_STATE_CONFIG = 21;
+    private static final int UNIQUE_SESSION_NAME = 22;
+
+    // TraceConfig.BufferConfig
+    private static final int BUFFER_SIZE_KB = 1;
+    private static final int BUFFER_FILL_POLICY = 4;
+
+    // TraceConfig.DataSource
+    private static final int DATA_SOURCE_CONFIG = 1;
+
+    // TraceConfig.TriggerConfig
+    private static final int TRIGGER_MODE = 1;
+    private static final int TRIGGERS = 2;
+    private static final int TRIGGER_TIMEOUT_MS = 3;
+
+    // TraceConfig.TriggerConfig.Trigger
+    private static final int TRIGGER_NAME = 1;
+    private static final int TRIGGER_STOP_DELAY_MS = 3;
+
+    // TraceConfig.IncrementalStateConfig
+    private static final int INCREMENTAL_STATE_CLEAR_PERIOD_MS = 1;
+
+    // DataSourceConfig
+    private static final int DS_NAME = 1;
+    private static final int DS_TARGET_BUFFER = 2;
+    private static final int DS_FTRACE_CONFIG = 100;
+    private static final int DS_PROCESS_STATS_CONFIG = 103;
+    private static final int DS_ANDROID_POWER_CONFIG = 106;
+
+    // FtraceConfig
+    private static final int FTRACE_ATRACE_CATEGORIES = 2;
+    private static final int FTRACE_ATRACE_APPS = 3;
+    private static final int FTRACE_BUFFER_SIZE_KB = 10;
+    private static final int FTRACE_DRAIN_PERIOD_MS = 11;
+
+    // ProcessStatsConfig
+    private static final int PROCESS_STATS_POLL_MS = 4;
+
+    // AndroidPowerConfig
+    private static final int POWER_BATTERY_POLL_MS = 1;
+    private static final int POWER_BATTERY_COUNTERS = 2;
+    private static final int POWER_COLLECT_POWER_RAILS = 3;
+
+    public static final int FILL_POLICY_RING_BUFFER = 1;
+    public static final int FILL_POLICY_DISCARD = 2;
+
+    public static final int TRIGGER_MODE_START_TRACING = 1;
+    public static final int TRIGGER_MODE_STOP_TRACING = 2;
+
+    public static final int BATTERY_COUNTER_CHARGE = 1;
+    public static final int BATTERY_COUNTER_CAPACITY_PERCENT = 2;
+    public static final int BATTERY_COUNTER_CURRENT = 3;
+
+    static final String FTRACE_DATA_SOURCE = "linux.ftrace";
+    static final String PROCESS_STATS_DATA_SOURCE = "linux.process_stats";
+    static final String POWER_DATA_SOURCE = "android.power";
+
+    private static final String POWER_TAG = "power";
+    private static final String MEMORY_TAG = "memory";
+
+    private static final long MEGABYTES_TO_BYTES = 1024L * 1024L;
+    private static final long MINUTES_TO_MILLISECONDS = 60L * 1000L;
+
+    // The ftrace buffer is target_buffer 0; everything else goes to buffer 1.
+    static final int FTRACE_BUFFER = 0;
+    static final int AUX_BUFFER = 1;
+    static final int DEFAULT_AUX_BUFFER_SIZE_KB = 2048;
+
+    private boolean mWriteIntoFile;
+    private long mFlushPeriodMs;
+    private boolean mNotifyTraceur;
+    private long mMaxFileSizeBytes;
+    private long mDurationMs;
+    private long mFileWritePeriodMs;
+    private long mIncrementalStateClearPeriodMs;
+    private String mUniqueSessionName;
+    private TriggerConfig mTriggerConfig;
+    private final List<Buffer> mBuffers = new ArrayList<>();
+    private final List<DataSource> mDataSources = new ArrayList<>();
+
+    /**
+     * Builds the config Traceur uses for a trace with the given settings.
+     *
+     * @param tags atrace categories; expected to be already sanitized.
+     * @param bufferSizeKb the per-CPU buffer size chosen by the user.
+     * @param numCpus the number of CPUs the ftrace buffer is sized for.
+     */
+    public static TraceConfig create(Collection<String> tags, int bufferSizeKb, int numCpus,
+            boolean apps, boolean longTrace, int maxLongTraceSizeMb,
+            int maxLongTraceDurationMinutes) {
+        return create(tags, bufferSizeKb, DEFAULT_AUX_BUFFER_SIZE_KB, numCpus, apps, longTrace,
+            maxLongTraceSizeMb, maxLongTraceDurationMinutes);
+    }
+
+    /**
+     * Like {@link #create(Collection, int, int, boolean, boolean, int, int)},
+     * with the size of the buffer for everything but ftrace.
+     */
+    public static TraceConfig create(Collection<String> tags, int bufferSizeKb,
+            int auxBufferSizeKb, int numCpus, boolean apps, boolean longTrace,
+            int maxLongTraceSizeMb, int maxLongTraceDurationMinutes) {
+        TraceConfig config = new TraceConfig()
+            .setWriteIntoFile(true)
+            // Ensure that we flush ftrace data every 30s even if cpus are idle.
+            .setFlushPeriodMs(30000);
+
+        // If we have set one of the long trace parameters, we must also
+        // tell Perfetto to notify Traceur when the long trace is done.
+        if (longTrace) {
+            config.setNotifyTraceur(true);
+            if (maxLongTraceSizeMb != 0) {
+                config.setMaxFileSizeBytes(maxLongTraceSizeMb * MEGABYTES_TO_BYTES);
+            }
+            if (maxLongTraceDurationMinutes != 0) {
+                config.setDurationMs(maxLongTraceDurationMinutes * MINUTES_TO_MILLISECONDS);
+            }
+            // Default value for long traces to write to file.
+            config.setFileWritePeriodMs(1000);
+        } else {
+            // For short traces, we don't write to the file.
+            // So, always use the maximum value here: 7 days.
+            config.setFileWritePeriodMs(604800000);
+        }
+
+        config.setIncrementalStateClearPeriodMs(15000)
+            // The user chooses a per-CPU buffer size due to atrace limitations.
+            // So we use this to ensure that we reserve the correctly-sized buffer.
+            .addBuffer(new Buffer(bufferSizeKb * numCpus, FILL_POLICY_RING_BUFFER))
+            .addBuffer(new Buffer(auxBufferSizeKb, FILL_POLICY_RING_BUFFER));
+
+        // These parameters affect only the kernel trace buffer size and how
+        // frequently it gets moved into the userspace buffer defined above.
+        FtraceConfig ftrace = new FtraceConfig()
+            .setBufferSizeKb(8192)
+            .setDrainPeriodMs(1000);
+        for (String tag : tags) {
+            ftrace.addAtraceCategory(tag);
+        }
+        if (apps) {
+            ftrace.addAtraceApp("*");
+        }
+        config.addDataSource(new DataSource(FTRACE_DATA_SOURCE, FTRACE_BUFFER)
+            .setFtraceConfig(ftrace));
+
+        // For process association. If the memory tag is enabled,
+        // poll periodically instead of just once at the beginning.
+        DataSource processStats = new DataSource(PROCESS_STATS_DATA_SOURCE, AUX_BUFFER);
+        if (tags.contains(MEMORY_TAG)) {
+            processStats.setProcessStatsPollMs(60000);
+        }
+        config.addDataSource(processStats);
+
+        if (tags.contains(POWER_TAG)) {
+            config.addDataSource(new DataSource(POWER_DATA_SOURCE, AUX_BUFFER)
+                .setAndroidPowerConfig(new AndroidPowerConfig()
+                    .setBatteryPollMs(longTrace ? 5000 : 1000)
+                    .setCollectPowerRails(true)
+                    .addBatteryCounter(BATTERY_COUNTER_CAPACITY_PERCENT)
+                    .addBatteryCounter(BATTERY_COUNTER_CHARGE)
+                    .addBatteryCounter(BATTERY_COUNTER_CURRENT)));
+        }
+
+        return config;
+    }
+
+    public TraceConfig setWriteIntoFile(boolean writeIntoFile) {
+        mWriteIntoFile = writeIntoFile;
+        return this;
+    }
+
+    public TraceConfig setFlushPeriodMs(long flushPeriodMs) {
+        mFlushPeriodMs = flushPeriodMs;
+        return this;
+    }
+
+    public TraceConfig setNotifyTraceur(boolean notifyTraceur) {
+        mNotifyTraceur = notifyTraceur;
+        return this;
+    }
+
+    public TraceConfig setMaxFileSizeBytes(long maxFileSizeBytes) {
+        mMaxFileSizeBytes = maxFileSizeBytes;
+        return this;
+    }
+
+    public TraceConfig setDurationMs(long durationMs) {
+        mDurationMs = durationMs;
+        return this;
+    }
+
+    public TraceConfig setFileWritePeriodMs(long fileWritePeriodMs) {
+        mFileWritePeriodMs = fileWritePeriodMs;
+        return this;
+    }
+
+    public TraceConfig setIncrementalStateClearPeriodMs(long clearPeriodMs) {
+        mIncrementalStateClearPeriodMs = clearPeriodMs;
+        return this;
+    }
+
+    /**
+     * Names the session, which lets it be cloned by name while it's running.
+     */
+    public TraceConfig setUniqueSessionName(String uniqueSessionName) {
+        mUniqueSessionName = uniqueSessionName;
+        return this;
+    }
+
+    /**
+     * Makes the session start or stop on triggers rather than on request.
+     */
+    public TraceConfig setTriggerConfig(TriggerConfig triggerConfig) {
+        mTriggerConfig = triggerConfig;
+        return this;
+    }
+
+    /**
+     * Returns the given binary config, changed so that the session is set up
+     * straight away but only starts recording when the named trigger fires.
+     * It then records for {@code durationMs}, or until it's stopped if that's
+     * zero, since perfetto replaces the duration of a session started by a
+     * trigger with the trigger's stop delay.
+     *
+     * This works on the serialized config so that cached profile configs can
+     * be used too: a protobuf message followed by another is parsed as both
+     * merged together.
+     */
+    public static byte[] withStartTrigger(byte[] config, String triggerName, long timeoutMs,
+            long durationMs) {
+        byte[] trigger = new TraceConfig()
+            .setTriggerConfig(new TriggerConfig(TRIGGER_MODE_START_TRACING, timeoutMs)
+                .addTrigger(triggerName, durationMs))
+            .toByteArray();
+        byte[] result = Arrays.copyOf(config, config.length + trigger.length);
+        System.arraycopy(trigger, 0, result, config.length, trigger.length);
+        return result;
+    }
+
+    public TraceConfig addBuffer(Buffer buffer) {
+        mBuffers.add(buffer);
+        return this;
+    }
+
+    public TraceConfig addDataSource(DataSource dataSource) {
+        mDataSources.add(dataSource);
+        return this;
+    }
+
+    public List<Buffer> getBuffers() {
+        return mBuffers;
+    }
+
+    public List<DataSource> getDataSources() {
+        return mDataSources;
+    }
+
+    /**
+     * Serializes this config to a binary TraceConfig proto.
+     */
+    public byte[] toByteArray() {
+        ProtoWriter out = new ProtoWriter(256);
+        ProtoWriter scratch = new ProtoWriter();
+
+        for (Buffer buffer : mBuffers) {
+            scratch.reset();
+            buffer.writeTo(scratch);
+            out.writeMessage(BUFFERS, scratch);
+        }
+        for (DataSource dataSource : mDataSources) {
+            out.writeMessage(DATA_SOURCES, dataSource.toProto());
+        }
+        if (mDurationMs != 0) {
+            out.writeVarint(DURATION_MS, mDurationMs);
+        }
+        if (mWriteIntoFile) {
+            out.writeBool(WRITE_INTO_FILE, true);
+        }
+        if (mFileWritePeriodMs != 0) {
+            out.writeVarint(FILE_WRITE_PERIOD_MS, mFileWritePeriodMs);
+        }
+        if (mMaxFileSizeBytes != 0) {
+            out.writeVarint(MAX_FILE_SIZE_BYTES, mMaxFileSizeBytes);
+        }
+        if (mFlushPeriodMs != 0) {
+            out.writeVarint(FLUSH_PERIOD_MS, mFlushPeriodMs);
+        }
+        if (mNotifyTraceur) {
+            out.writeBool(NOTIFY_TRACEUR, true);
+        }
+        if (mTriggerConfig != null) {
+            out.writeMessage(TRIGGER_CONFIG, mTriggerConfig.toProto());
+        }
+        if (mIncrementalStateClearPeriodMs != 0) {
+            scratch.reset();
+            scratch.writeVarint(INCREMENTAL_STATE_CLEAR_PERIOD_MS, mIncrementalStateClearPeriodMs);
+            out.writeMessage(INCREMENTAL_STATE_CONFIG, scratch);
+        }
+        if (mUniqueSessionName != null) {
+            out.writeString(UNIQUE_SESSION_NAME, mUniqueSessionName);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * TraceConfig.BufferConfig
+     */
+    public static class Buffer {
+        private final int mSizeKb;
+        private final int mFillPolicy;
+
+        public Buffer(int sizeKb, int fillPolicy) {
+            mSizeKb = sizeKb;
+            mFillPolicy = fillPolicy;
+        }
+
+        public int getSizeKb() {
+            return mSizeKb;
+        }
+
+        private void writeTo(ProtoWriter out) {
+            out.writeVarint(BUFFER_SIZE_KB, mSizeKb);
+            out.writeVarint(BUFFER_FILL_POLICY, mFillPolicy);
+        }
+    }
+
+    /**
+     * TraceConfig.DataSource, flattened with its DataSourceConfig.
+     */
+    public static class DataSource {
+        private final String mName;
+        private final int mTargetBuffer;
+        private FtraceConfig mFtraceConfig;
+        private long mProcessStatsPollMs;
+        private AndroidPowerConfig mAndroidPowerConfig;
+
+        public DataSource(String name, int targetBuffer) {
+            mName = name;
+            mTargetBuffer = targetBuffer;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public FtraceConfig getFtraceConfig() {
+            return mFtraceConfig;
+        }
+
+        public DataSource setFtraceConfig(FtraceConfig ftraceConfig) {
+            mFtraceConfig = ftraceConfig;
+            return this;
+        }
+
+        public DataSource setProcessStatsPollMs(long pollMs) {
+            mProcessStatsPollMs = pollMs;
+            return this;
+        }
+
+        public DataSource setAndroidPowerConfig(AndroidPowerConfig powerConfig) {
+            mAndroidPowerConfig = powerConfig;
+            return this;
+        }
+
+        private ProtoWriter toProto() {
+            ProtoWriter config = new ProtoWriter();
+            config.writeString(DS_NAME, mName);
+            config.writeVarint(DS_TARGET_BUFFER, mTargetBuffer);
+            if (mFtraceConfig != null) {
+                config.writeMessage(DS_FTRACE_CONFIG, mFtraceConfig.toProto());
+            }
+            if (mProcessStatsPollMs != 0) {
+                config.writeMessage(DS_PROCESS_STATS_CONFIG,
+                    new ProtoWriter().writeVarint(PROCESS_STATS_POLL_MS, mProcessStatsPollMs));
+            }
+            if (mAndroidPowerConfig != null) {
+                config.writeMessage(DS_ANDROID_POWER_CONFIG, mAndroidPowerConfig.toProto());
+            }
+            return new ProtoWriter().writeMessage(DATA_SOURCE_CONFIG, config);
+        }
+    }
+
+    /**
+     * TraceConfig.TriggerConfig
+     */
+    public static class TriggerConfig {
+        private final int mMode;
+        private final long mTimeoutMs;
+        private final List<String> mNames = new ArrayList<>();
+        private final List<Long> mStopDelaysMs = new ArrayList<>();
+
+        /**
+         * @param timeoutMs how long to wait for a trigger before the session
+         *     ends anyway.
+         */
+        public TriggerConfig(int mode, long timeoutMs) {
+            mMode = mode;
+            mTimeoutMs = timeoutMs;
+        }
+
+        /**
+         * @param stopDelayMs how long the session keeps recording after the
+         *     trigger.
+         */
+        public TriggerConfig addTrigger(String name, long stopDelayMs) {
+            mNames.add(name);
+            mStopDelaysMs.add(stopDelayMs);
+            return this;
+        }
+
+        private ProtoWriter toProto() {
+            ProtoWriter out = new ProtoWriter();
+            out.writeVarint(TRIGGER_MODE, mMode);
+            for (int i = 0; i < mNames.size(); i++) {
+                ProtoWriter trigger = new ProtoWriter().writeString(TRIGGER_NAME, mNames.get(i));
+                if (mStopDelaysMs.get(i) != 0) {
+                    trigger.writeVarint(TRIGGER_STOP_DELAY_MS, mStopDelaysMs.get(i));
+                }
+                out.writeMessage(TRIGGERS, trigger);
+            }
+            out.writeVarint(TRIGGER_TIMEOUT_MS, mTimeoutMs);
+            return out;
+        }
+    }
+
+    /**
+     * FtraceConfig
+     */
+    public static class FtraceConfig {
+        private final List<String> mAtraceCategories = new ArrayList<>();
+        private final List<String> mAtraceApps = new ArrayList<>();
+        private int mBufferSizeKb;
+        private int mDrainPeriodMs;
+
+        public FtraceConfig addAtraceCategory(String category) {
+            mAtraceCategories.add(category);
+            return this;
+        }
+
+        public FtraceConfig addAtraceApp(String app) {
+            mAtraceApps.add(app);
+            return this;
+        }
+
+        public FtraceConfig setBufferSizeKb(int bufferSizeKb) {
+            mBufferSizeKb = bufferSizeKb;
+            return this;
+        }
+
+        public FtraceConfig setDrainPeriodMs(int drainPeriodMs) {
+            mDrainPeriodMs = drainPeriodMs;
+            return this;
+        }
+
+        public List<String> getAtraceCategories() {
+            return mAtraceCategories;
+        }
+
+        private ProtoWriter toProto() {
+            ProtoWriter out = new ProtoWriter();
+            for (String category : mAtraceCategories) {
+                out.writeString(FTRACE_ATRACE_CATEGORIES, category);
+            }
+            for (String app : mAtraceApps) {
+                out.writeString(FTRACE_ATRACE_APPS, app);
+            }
+            if (mBufferSizeKb != 0) {
+                out.writeVarint(FTRACE_BUFFER_SIZE_KB, mBufferSizeKb);
+            }
+            if (mDrainPeriodMs != 0) {
+                out.writeVarint(FTRACE_DRAIN_PERIOD_MS, mDrainPeriodMs);
+            }
+            return out;
+        }
+    }
+
+    /**
+     * AndroidPowerConfig
+     */
+    public static class AndroidPowerConfig {
+        private int mBatteryPollMs;
+        private boolean mCollectPowerRails;
+        private final List<Integer> mBatteryCounters = new ArrayList<>();
+
+        public AndroidPowerConfig setBatteryPollMs(int batteryPollMs) {
+            mBatteryPollMs = batteryPollMs;
+            return this;
+        }
+
+        public AndroidPowerConfig setCollectPowerRails(boolean collectPowerRails) {
+            mCollectPowerRails = collectPowerRails;
+            return this;
+        }
+
+        public AndroidPowerConfig addBatteryCounter(int counter) {
+            mBatteryCounters.add(counter);
+            return this;
+        }
+
+        private ProtoWriter toProto() {
+            ProtoWriter out = new ProtoWriter();
+            if (mBatteryPollMs != 0) {
+                out.writeVarint(POWER_BATTERY_POLL_MS, mBatteryPollMs);
+            }
+            for (int counter : mBatteryCounters) {
+                out.writeVarint(POWER_BATTERY_COUNTERS, counter);
+            }
+            if (mCollectPowerRails) {
+                out.writeBool(POWER_COLLECT_POWER_RAILS, true);
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * A way of recording traces, i.e. {@link PerfettoUtils} or
+ * {@link AtraceUtils}. {@link TraceUtils} forwards to the current one.
+ *
+ * This interface has no Android dependencies so that the engines can be run
+ * against fake binaries on host.
+ */
+public interface TraceEngine {
+    public String getName();
+    public String getOutputExtension(TraceCompression compression);
+    public boolean traceStart(Collection<String> tags, int bufferSizeKb,
+        int auxBufferSizeKb, boolean apps, boolean flightRecorder, boolean longTrace,
+        int maxLongTraceSizeMb, int maxLongTraceDurationMinutes);
+    public boolean traceStart(TraceProfile profile, byte[] config);
+    public boolean traceArm(Collection<String> tags, int bufferSizeKb,
+        int auxBufferSizeKb, boolean apps, TriggerRules triggers);
+    public boolean setBootTraceConfig(byte[] config);
+    public boolean traceKeepArmed(byte[] config, long durationMs);
+    public boolean traceStartArmed();
+    public void traceDisarm();
+    public boolean isArmed();
+    public void traceStop();
+    public File traceDump(File outFile, TraceCompression compression,
+        SaveProgress progress);
+    public File traceSnapshot(File outFile, TraceCompression compression);
+    public boolean isTracingOn();
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A named set of trace settings, to switch quickly between the setups used
+ * for common investigations.
+ *
+ * A profile bundles the categories, buffer sizes and long trace limits of a
+ * trace. The data sources follow from the categories, as in
+ * {@link TraceConfig#create}: "memory" polls process stats, and "power" adds
+ * battery counters and power rails.
+ *
+ * This class has no Android dependencies so that it can be tested on host.
+ */
+public class TraceProfile {
+
+    public static final String JANK = "jank";
+    public static final String BOOT = "boot";
+    public static final String POWER = "power";
+    public static final String MEMORY = "memory";
+
+    private static final List<TraceProfile> BUILT_IN_PROFILES = Collections.unmodifiableList(
+        Arrays.asList(
+            new TraceProfile(JANK)
+                .setCategories(Arrays.asList("am", "binder_driver", "dalvik", "freq", "gfx",
+                    "hal", "input", "res", "sched", "view", "wm"))
+                .setBufferSizeKb(32768),
+            new TraceProfile(BOOT)
+                .setCategories(Arrays.asList("am", "binder_driver", "dalvik", "disk", "freq",
+                    "idle", "pm", "sched", "wm"))
+                .setBufferSizeKb(65536)
+                .setLongTrace(true, 1024, 10),
+            new TraceProfile(POWER)
+                .setCategories(Arrays.asList("freq", "idle", "power", "sched"))
+                .setBufferSizeKb(8192)
+                .setApps(false)
+                .setLongTrace(true, 1024, 60),
+            new TraceProfile(MEMORY)
+                .setCategories(Arrays.asList("am", "binder_driver", "dalvik", "memory",
+                    "sched"))
+                .setBufferSizeKb(16384)
+                .setAuxBufferSizeKb(8192)
+                .setLongTrace(true, 1024, 30)));
+
+    private final String mName;
+    private final List<String> mCategories = new ArrayList<>();
+    private int mBufferSizeKb = 16384;
+    private int mAuxBufferSizeKb = TraceConfig.DEFAULT_AUX_BUFFER_SIZE_KB;
+    private boolean mApps = true;
+    private boolean mLongTrace;
+    private int mMaxLongTraceSizeMb;
+    private int mMaxLongTraceDurationMinutes;
+
+    public TraceProfile(String name) {
+        mName = name;
+    }
+
+    /**
+     * Returns the profiles Traceur comes with.
+     */
+    public static List<TraceProfile> getBuiltInProfiles() {
+        return BUILT_IN_PROFILES;
+    }
+
+    /**
+     * Returns the built-in profile with the given name, or null if there is
+     * none, which means the trace settings are used instead.
+     */
+    public static TraceProfile forName(String name) {
+        for (TraceProfile profile : BUILT_IN_PROFILES) {
+            if (profile.mName.equals(name)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public List<String> getCategories() {
+        return Collections.unmodifiableList(mCategories);
+    }
+
+    public int getBufferSizeKb() {
+        return mBufferSizeKb;
+    }
+
+    public int getAuxBufferSizeKb() {
+        return mAuxBufferSizeKb;
+    }
+
+    public boolean getApps() {
+        return mApps;
+    }
+
+    public boolean isLongTrace() {
+        return mLongTrace;
+    }
+
+    public int getMaxLongTraceSizeMb() {
+        return mMaxLongTraceSizeMb;
+    }
+
+    public int getMaxLongTraceDurationMinutes() {
+        return mMaxLongTraceDurationMinutes;
+    }
+
+    public TraceProfile setCategories(Collection<String> categories) {
+        mCategories.clear();
+        mCategories.addAll(new TreeSet<>(categories));
+        return this;
+    }
+
+    public TraceProfile setBufferSizeKb(int bufferSizeKb) {
+        mBufferSizeKb = bufferSizeKb;
+        return this;
+    }
+
+    public TraceProfile setAuxBufferSizeKb(int auxBufferSizeKb) {
+        mAuxBufferSizeKb = auxBufferSizeKb;
+        return this;
+    }
+
+    public TraceProfile setApps(boolean apps) {
+        mApps = apps;
+        return this;
+    }
+
+    public TraceProfile setLongTrace(boolean longTrace, int maxSizeMb, int maxDurationMinutes) {
+        mLongTrace = longTrace;
+        mMaxLongTraceSizeMb = maxSizeMb;
+        mMaxLongTraceDurationMinutes = maxDurationMinutes;
+        return this;
+    }
+
+    /**
+     * Returns a copy of this profile with only those of its categories that
+     * are also in {@code available}.
+     */
+    public TraceProfile retainCategories(Collection<String> available) {
+        List<String> categories = new ArrayList<>(mCategories);
+        categories.retainAll(available);
+        return new TraceProfile(mName)
+            .setCategories(categories)
+            .setBufferSizeKb(mBufferSizeKb)
+            .setAuxBufferSizeKb(mAuxBufferSizeKb)
+            .setApps(mApps)
+            .setLongTrace(mLongTrace, mMaxLongTraceSizeMb, mMaxLongTraceDurationMinutes);
+    }
+
+    /**
+     * Builds the config for a trace with this profile.
+     */
+    public TraceConfig createConfig(int numCpus) {
+        return TraceConfig.create(mCategories, mBufferSizeKb, mAuxBufferSizeKb, numCpus,
+            mApps, mLongTrace, mMaxLongTraceSizeMb, mMaxLongTraceDurationMinutes);
+    }
+
+    /**
+     * Returns a string that differs whenever the config this profile builds
+     * for the given number of CPUs would.
+     */
+    public String getConfigKey(int numCpus) {
+        return mName + ";" + String.join(",", mCategories) + ";" + mBufferSizeKb + ";"
+            + mAuxBufferSizeKb + ";" + mApps + ";" + mLongTrace + ";" + mMaxLongTraceSizeMb
+            + ";" + mMaxLongTraceDurationMinutes + ";" + numCpus;
+    }
+}
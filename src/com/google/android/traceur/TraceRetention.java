@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Keeps the saved traces within a byte quota and a maximum count.
+ *
+ * When over either limit, the least recently accessed traces are deleted
+ * first. Pinned traces are never deleted by {@link #enforce}, although they
+ * count towards the limits. Access times and pins are persisted in a small
+ * state file, since atime is usually not maintained on /data.
+ *
+ * This class has no Android dependencies so that it can be tested on host.
+ * Its methods do file I/O and should be called off the main thread.
+ */
+public class TraceRetention {
+
+    private static final String TRACE_PREFIX = "trace-";
+    private static final String KEY_ACCESSED = "accessed.";
+    private static final String KEY_PINNED = "pinned.";
+
+    private final File mTraceDir;
+    private final File mStateFile;
+    private Properties mState;
+
+    public TraceRetention(File traceDir, File stateFile) {
+        mTraceDir = traceDir;
+        mStateFile = stateFile;
+    }
+
+    /**
+     * Returns the name for a trace saved at the given time, which starts
+     * with the prefix that identifies saved traces.
+     */
+    public static String formatTraceName(String board, String buildId, long timeMs,
+            String extension) {
+        String format = "yyyy-MM-dd-HH-mm-ss";
+        String time = new SimpleDateFormat(format, Locale.US).format(new Date(timeMs));
+        return String.format("%s%s-%s-%s.%s", TRACE_PREFIX, board, buildId, time, extension);
+    }
+
+    /**
+     * Returns the saved traces, oldest access first.
+     */
+    public synchronized List<File> listTraces() {
+        List<File> traces = new ArrayList<>();
+        File[] files = mTraceDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && file.getName().startsWith(TRACE_PREFIX)) {
+                    traces.add(file);
+                }
+            }
+        }
+        final Properties state = getState();
+        Collections.sort(traces, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(getLastAccessMs(state, a), getLastAccessMs(state, b));
+            }
+        });
+        return traces;
+    }
+
+    /**
+     * Records that the given trace was just opened or shared.
+     */
+    public synchronized void markAccessed(String name, long nowMs) throws IOException {
+        getState().setProperty(KEY_ACCESSED + name, Long.toString(nowMs));
+        writeState();
+    }
+
+    public synchronized void setPinned(String name, boolean pinned) throws IOException {
+        if (pinned) {
+            getState().setProperty(KEY_PINNED + name, "true");
+        } else {
+            getState().remove(KEY_PINNED + name);
+        }
+        writeState();
+    }
+
+    public synchronized boolean isPinned(String name) {
+        return getState().containsKey(KEY_PINNED + name);
+    }
+
+    /**
+     * Deletes traces until at most {@code maxCount} traces using at most
+     * {@code quotaBytes} are left. A quota or count of zero means no limit.
+     * {@code keep}, if not null, is never deleted, so that a trace that was
+     * just saved survives even if it's larger than the quota on its own.
+     *
+     * @return the traces that were deleted.
+     */
+    public synchronized List<File> enforce(long quotaBytes, int maxCount, File keep)
+            throws IOException {
+        List<File> traces = listTraces();
+        long totalBytes = 0;
+        for (File trace : traces) {
+            totalBytes += trace.length();
+        }
+        int count = traces.size();
+
+        List<File> deleted = new ArrayList<>();
+        for (File trace : traces) {
+            boolean overQuota = quotaBytes > 0 && totalBytes > quotaBytes;
+            boolean overCount = maxCount > 0 && count > maxCount;
+            if (!overQuota && !overCount) {
+                break;
+            }
+            if (trace.equals(keep) || isPinned(trace.getName())) {
+                continue;
+            }
+            long size = trace.length();
+            if (Files.deleteIfExists(trace.toPath())) {
+                deleted.add(trace);
+            }
+            totalBytes -= size;
+            count--;
+        }
+
+        pruneState();
+        return deleted;
+    }
+
+    /**
+     * Deletes all saved traces, pinned or not.
+     *
+     * @return the number of traces deleted.
+     */
+    public synchronized int clear() throws IOException {
+        int deleted = 0;
+        for (File trace : listTraces()) {
+            if (Files.deleteIfExists(trace.toPath())) {
+                deleted++;
+            }
+        }
+        getState().clear();
+        writeState();
+        return deleted;
+    }
+
+    private static long getLastAccessMs(Properties state, File trace) {
+        long accessedMs = 0;
+        try {
+            accessedMs = Long.parseLong(state.getProperty(KEY_ACCESSED + trace.getName(), "0"));
+        } catch (NumberFormatException e) {
+            // Treat as never accessed.
+        }
+        return Math.max(accessedMs, trace.lastModified());
+    }
+
+    /*
+     * Forgets about traces that no longer exist.
+     */
+    private void pruneState() throws IOException {
+        Properties state = getState();
+        boolean changed = false;
+        for (String key : state.stringPropertyNames()) {
+            String name = key.substring(key.indexOf('.') + 1);
+            if (!new File(mTraceDir, name).exists()) {
+                state.remove(key);
+                changed = true;
+            }
+        }
+        if (changed) {
+            writeState();
+        }
+    }
+
+    private Properties getState() {
+        if (mState == null) {
+            mState = new Properties();
+            if (mStateFile.exists()) {
+                try (InputStream in = new FileInputStream(mStateFile)) {
+                    mState.load(in);
+                } catch (IOException | IllegalArgumentException e) {
+                    // Start over; the worst case is evicting in modification order.
+                    mState.clear();
+                }
+            }
+        }
+        return mState;
+    }
+
+    private void writeState() throws IOException {
+        // Write to a temporary file first so that a crash can never leave a
+        // truncated state file behind.
+        File tmp = new File(mStateFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            getState().store(out, null);
+        }
+        if (!tmp.renameTo(mStateFile)) {
+            tmp.delete();
+            throw new IOException("Unable to write retention state to " + mStateFile);
+        }
+    }
+}
@@ -24,42 +24,137 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.graphics.drawable.Icon;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 public class TraceService extends IntentService {
 
+    static final String TAG = TraceUtils.TAG;
+
     protected static String INTENT_ACTION_FORCE_STOP_TRACING = "com.android.traceur.FORCE_STOP_TRACING";
     private static String INTENT_ACTION_STOP_TRACING = "com.android.traceur.STOP_TRACING";
     private static String INTENT_ACTION_START_TRACING = "com.android.traceur.START_TRACING";
+    private static String INTENT_ACTION_START_ARMED_TRACING =
+        "com.android.traceur.START_ARMED_TRACING";
+    private static String INTENT_ACTION_ARM_TRACING = "com.android.traceur.ARM_TRACING";
+    private static String INTENT_ACTION_ADOPT_BOOT_TRACE = "com.android.traceur.ADOPT_BOOT_TRACE";
+    private static String INTENT_ACTION_SNAPSHOT = "com.android.traceur.SNAPSHOT";
+    private static String INTENT_ACTION_SPLIT = "com.android.traceur.SPLIT";
 
     private static String INTENT_EXTRA_TAGS= "tags";
     private static String INTENT_EXTRA_BUFFER = "buffer";
     private static String INTENT_EXTRA_APPS = "apps";
+    private static String INTENT_EXTRA_FLIGHT_RECORDER = "flight_recorder";
     private static String INTENT_EXTRA_LONG_TRACE = "long_trace";
     private static String INTENT_EXTRA_LONG_TRACE_SIZE = "long_trace_size";
     private static String INTENT_EXTRA_LONG_TRACE_DURATION = "long_trace_duration";
+    private static String INTENT_EXTRA_TRACE_NAME = "trace_name";
+    private static String INTENT_EXTRA_PROFILE = "profile";
+    private static String INTENT_EXTRA_TRIGGER_MODE = "trigger_mode";
+    private static String INTENT_EXTRA_TRIGGERS = "triggers";
+    private static String INTENT_EXTRA_TRIGGER_TIMEOUT = "trigger_timeout";
+    private static String INTENT_EXTRA_REQUEST_TIME = "request_time";
 
     private static int TRACE_NOTIFICATION = 1;
     private static int SAVING_TRACE_NOTIFICATION = 2;
     private static int FORCE_STOP_SAVING_TRACE_NOTIFICATION = 3;
+    private static int SAVING_SNAPSHOT_NOTIFICATION = 4;
+    private static int SPLITTING_TRACE_NOTIFICATION = 5;
+    private static int BUFFER_REJECTED_NOTIFICATION = 6;
+
+    // Beyond this many saved traces, the least recently used ones are deleted.
+    private static final int MAX_SAVED_TRACES = 100;
+    private static final long MEGABYTES_TO_BYTES = 1024L * 1024L;
+    private static final int KILOBYTES_PER_MEGABYTE = 1024;
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    // How long after tracing was asked for the first event was recorded, for
+    // traces started from an armed session and for all others.
+    private static final LatencyHistogram ARMED_TIME_TO_FIRST_EVENT = new LatencyHistogram();
+    private static final LatencyHistogram COLD_TIME_TO_FIRST_EVENT = new LatencyHistogram();
+
+    // When the trace being recorded was asked for, on the clock perfetto
+    // timestamps events with, or zero if unknown.
+    private static volatile long mStartRequestNs;
+    private static volatile boolean mStartedArmed;
 
     public static void startTracing(final Context context,
-            Collection<String> tags, int bufferSizeKb, boolean apps,
+            Collection<String> tags, int bufferSizeKb, boolean apps, boolean flightRecorder,
             boolean longTrace, int maxLongTraceSizeMb, int maxLongTraceDurationMinutes) {
         Intent intent = new Intent(context, TraceService.class);
         intent.setAction(INTENT_ACTION_START_TRACING);
         intent.putExtra(INTENT_EXTRA_TAGS, new ArrayList(tags));
         intent.putExtra(INTENT_EXTRA_BUFFER, bufferSizeKb);
         intent.putExtra(INTENT_EXTRA_APPS, apps);
+        intent.putExtra(INTENT_EXTRA_FLIGHT_RECORDER, flightRecorder);
         intent.putExtra(INTENT_EXTRA_LONG_TRACE, longTrace);
         intent.putExtra(INTENT_EXTRA_LONG_TRACE_SIZE, maxLongTraceSizeMb);
         intent.putExtra(INTENT_EXTRA_LONG_TRACE_DURATION, maxLongTraceDurationMinutes);
+        intent.putExtra(INTENT_EXTRA_REQUEST_TIME, SystemClock.elapsedRealtimeNanos());
+        context.startForegroundService(intent);
+    }
+
+    /**
+     * Starts tracing with the settings of the named profile; see
+     * {@link TraceProfile}.
+     */
+    public static void startTracingProfile(final Context context, String profileName) {
+        Intent intent = new Intent(context, TraceService.class);
+        intent.setAction(INTENT_ACTION_START_TRACING);
+        intent.putExtra(INTENT_EXTRA_PROFILE, profileName);
+        intent.putExtra(INTENT_EXTRA_REQUEST_TIME, SystemClock.elapsedRealtimeNanos());
+        context.startForegroundService(intent);
+    }
+
+    /**
+     * Starts the session kept armed with the current settings; see
+     * {@link Receiver#updateArmedSession}.
+     */
+    public static void startArmedTracing(final Context context) {
+        Intent intent = new Intent(context, TraceService.class);
+        intent.setAction(INTENT_ACTION_START_ARMED_TRACING);
+        intent.putExtra(INTENT_EXTRA_REQUEST_TIME, SystemClock.elapsedRealtimeNanos());
+        context.startForegroundService(intent);
+    }
+
+    /**
+     * Starts a session that waits for the given triggers; see
+     * {@link TriggerRules} for the arguments. The trace is saved when the
+     * session ends by itself.
+     */
+    public static void armTracing(final Context context, Collection<String> tags,
+            int bufferSizeKb, boolean apps, String triggerMode, String triggers,
+            long triggerTimeoutMs) {
+        Intent intent = new Intent(context, TraceService.class);
+        intent.setAction(INTENT_ACTION_ARM_TRACING);
+        intent.putExtra(INTENT_EXTRA_TAGS, new ArrayList(tags));
+        intent.putExtra(INTENT_EXTRA_BUFFER, bufferSizeKb);
+        intent.putExtra(INTENT_EXTRA_APPS, apps);
+        intent.putExtra(INTENT_EXTRA_TRIGGER_MODE, triggerMode);
+        intent.putExtra(INTENT_EXTRA_TRIGGERS, triggers);
+        intent.putExtra(INTENT_EXTRA_TRIGGER_TIMEOUT, triggerTimeoutMs);
+        context.startForegroundService(intent);
+    }
+
+    /**
+     * Takes over the session started early in boot, if it's running, so that
+     * it can be stopped and saved like any other trace.
+     */
+    public static void adoptBootTrace(final Context context) {
+        Intent intent = new Intent(context, TraceService.class);
+        intent.setAction(INTENT_ACTION_ADOPT_BOOT_TRACE);
         context.startForegroundService(intent);
     }
 
@@ -69,6 +164,23 @@ public class TraceService extends IntentService {
         context.startForegroundService(intent);
     }
 
+    public static void snapshotTracing(final Context context) {
+        Intent intent = new Intent(context, TraceService.class);
+        intent.setAction(INTENT_ACTION_SNAPSHOT);
+        context.startForegroundService(intent);
+    }
+
+    /**
+     * Splits the saved trace with the given name into parts that can be
+     * shared together.
+     */
+    public static void splitTrace(final Context context, String traceName) {
+        Intent intent = new Intent(context, TraceService.class);
+        intent.setAction(INTENT_ACTION_SPLIT);
+        intent.putExtra(INTENT_EXTRA_TRACE_NAME, traceName);
+        context.startForegroundService(intent);
+    }
+
     public TraceService() {
         this("TraceService");
     }
@@ -82,31 +194,232 @@ public class TraceService extends IntentService {
     public void onHandleIntent(Intent intent) {
         Context context = getApplicationContext();
 
-        if (intent.getAction().equals(INTENT_ACTION_START_TRACING)) {
+        if (intent.hasExtra(INTENT_EXTRA_REQUEST_TIME)) {
+            mStartRequestNs = intent.getLongExtra(INTENT_EXTRA_REQUEST_TIME, 0);
+            mStartedArmed = intent.getAction().equals(INTENT_ACTION_START_ARMED_TRACING);
+        }
+
+        if (intent.getAction().equals(INTENT_ACTION_START_ARMED_TRACING)) {
+            startArmedTracingInternal();
+        } else if (intent.getAction().equals(INTENT_ACTION_START_TRACING)
+                && intent.hasExtra(INTENT_EXTRA_PROFILE)) {
+            TraceProfile profile = TraceUtils.getProfile(context,
+                intent.getStringExtra(INTENT_EXTRA_PROFILE));
+            if (profile != null) {
+                startTracingInternal(profile.getCategories(), profile.getBufferSizeKb(),
+                    profile.getApps(), false, profile.isLongTrace(),
+                    profile.getMaxLongTraceSizeMb(), profile.getMaxLongTraceDurationMinutes(),
+                    profile, null);
+            } else {
+                Log.e(TAG, "Unknown profile: " + intent.getStringExtra(INTENT_EXTRA_PROFILE));
+            }
+        } else if (intent.getAction().equals(INTENT_ACTION_START_TRACING)) {
             startTracingInternal(intent.getStringArrayListExtra(INTENT_EXTRA_TAGS),
                 intent.getIntExtra(INTENT_EXTRA_BUFFER,
                     Integer.parseInt(context.getString(R.string.default_buffer_size))),
                 intent.getBooleanExtra(INTENT_EXTRA_APPS, false),
+                intent.getBooleanExtra(INTENT_EXTRA_FLIGHT_RECORDER, false),
                 intent.getBooleanExtra(INTENT_EXTRA_LONG_TRACE, false),
                 intent.getIntExtra(INTENT_EXTRA_LONG_TRACE_SIZE,
                     Integer.parseInt(context.getString(R.string.default_long_trace_size))),
                 intent.getIntExtra(INTENT_EXTRA_LONG_TRACE_DURATION,
-                    Integer.parseInt(context.getString(R.string.default_long_trace_duration))));
+                    Integer.parseInt(context.getString(R.string.default_long_trace_duration))),
+                null, null);
+        } else if (intent.getAction().equals(INTENT_ACTION_ARM_TRACING)) {
+            // The rules were checked by the receiver before it got here.
+            TriggerRules triggers = TriggerRules.parse(
+                intent.getStringExtra(INTENT_EXTRA_TRIGGER_MODE),
+                intent.getStringExtra(INTENT_EXTRA_TRIGGERS),
+                intent.getLongExtra(INTENT_EXTRA_TRIGGER_TIMEOUT, 0));
+            startTracingInternal(intent.getStringArrayListExtra(INTENT_EXTRA_TAGS),
+                intent.getIntExtra(INTENT_EXTRA_BUFFER,
+                    Integer.parseInt(context.getString(R.string.default_buffer_size))),
+                intent.getBooleanExtra(INTENT_EXTRA_APPS, false),
+                false, false, 0, 0, null, triggers);
+        } else if (intent.getAction().equals(INTENT_ACTION_ADOPT_BOOT_TRACE)) {
+            adoptBootTraceInternal();
         } else if (intent.getAction().equals(INTENT_ACTION_STOP_TRACING)) {
-            stopTracingInternal(TraceUtils.getOutputFilename(), false);
+            stopTracingInternal(getCompression(context), false);
         } else if (intent.getAction().equals(INTENT_ACTION_FORCE_STOP_TRACING)) {
-            stopTracingInternal(TraceUtils.getOutputFilename(), true);
+            stopTracingInternal(getCompression(context), true);
+        } else if (intent.getAction().equals(INTENT_ACTION_SNAPSHOT)) {
+            snapshotInternal(getCompression(context));
+        } else if (intent.getAction().equals(INTENT_ACTION_SPLIT)) {
+            splitTraceInternal(intent.getStringExtra(INTENT_EXTRA_TRACE_NAME));
         }
     }
 
+    private static boolean isFlightRecorder(Context context) {
+        // Profiles don't record into a ring buffer.
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(
+            context.getString(R.string.pref_key_flight_recorder), false)
+            && getProfileName(context) == null;
+    }
+
+    /**
+     * Returns the name of the selected profile, or null if the trace settings
+     * are used instead.
+     */
+    static String getProfileName(Context context) {
+        String name = PreferenceManager.getDefaultSharedPreferences(context).getString(
+            context.getString(R.string.pref_key_profile),
+            context.getString(R.string.default_profile));
+        return TraceProfile.forName(name) != null ? name : null;
+    }
+
+    static int getMemoryHeadroomPercent(Context context) {
+        return Integer.parseInt(
+            PreferenceManager.getDefaultSharedPreferences(context).getString(
+                context.getString(R.string.pref_key_memory_headroom),
+                context.getString(R.string.default_memory_headroom)));
+    }
+
+    private static TraceCompression getCompression(Context context) {
+        return TraceCompression.fromPreference(
+            PreferenceManager.getDefaultSharedPreferences(context).getString(
+                context.getString(R.string.pref_key_compression),
+                context.getString(R.string.default_compression)));
+    }
+
+    /*
+     * @param profile the profile the other settings come from, if any. Its
+     *     cached config is used unless the buffers had to be made smaller.
+     * @param triggers the triggers to arm the session with, if any.
+     */
     private void startTracingInternal(Collection<String> tags, int bufferSizeKb, boolean appTracing,
-            boolean longTrace, int maxLongTraceSizeMb, int maxLongTraceDurationMinutes) {
+            boolean flightRecorder, boolean longTrace, int maxLongTraceSizeMb,
+            int maxLongTraceDurationMinutes, TraceProfile profile, TriggerRules triggers) {
+        Context context = getApplicationContext();
+
+        int auxBufferSizeKb = profile != null
+            ? profile.getAuxBufferSizeKb() : TraceConfig.DEFAULT_AUX_BUFFER_SIZE_KB;
+        if (triggers != null) {
+            // Size the ring buffers to hold the window around a trigger, if
+            // past sessions tell how fast they fill.
+            DataRateHistory.BufferSizes sizes = TraceUtils.getBufferSizesForWindow(context,
+                tags, triggers.getWindowSeconds());
+            if (sizes != null) {
+                Log.i(TAG, "Using buffer sizes for a " + triggers.getWindowSeconds()
+                    + " s trigger window: " + sizes);
+                bufferSizeKb = sizes.perCpuBufferKb;
+                auxBufferSizeKb = sizes.auxBufferKb;
+            }
+        }
+        if (bufferSizeKb == TraceUtils.AUTO_BUFFER_SIZE_KB) {
+            DataRateHistory.BufferSizes sizes = TraceUtils.getAutoBufferSizes(context, tags);
+            if (sizes != null) {
+                Log.i(TAG, "Using buffer sizes from past sessions: " + sizes);
+                bufferSizeKb = sizes.perCpuBufferKb;
+                auxBufferSizeKb = sizes.auxBufferKb;
+            } else {
+                // Nothing to go on until a session with these categories stops.
+                bufferSizeKb = Integer.parseInt(context.getString(R.string.default_buffer_size));
+            }
+        }
+
+        // Check that the buffers fit in free memory before traced allocates them.
+        MemoryAdmission.Decision admission = TraceUtils.admitTraceBuffers(context,
+            bufferSizeKb, auxBufferSizeKb, getMemoryHeadroomPercent(context));
+        Log.i(TAG, "Trace buffer admission: " + admission);
+        boolean clamped = admission.result == MemoryAdmission.Result.CLAMPED;
+        if (clamped) {
+            bufferSizeKb = admission.perCpuBufferKb;
+        }
+        String bufferSummary = getBufferSummary(context, bufferSizeKb, clamped);
+
+        String title = context.getString(triggers != null
+            ? R.string.trace_is_armed : R.string.trace_is_being_recorded);
+        Notification.Builder notification =
+            buildTracingNotification(context, title, bufferSummary, flightRecorder);
+        startForeground(TRACE_NOTIFICATION, notification.build());
+
+        TracingStateStore stateStore = TracingStateStore.getInstance();
+        if (!admission.isAdmitted()) {
+            PreferenceManager.getDefaultSharedPreferences(context)
+                .edit().putBoolean(context.getString(R.string.pref_key_tracing_on),
+                        false).commit();
+            stateStore.setState(TracingStateStore.State.IDLE);
+            QsService.updateTile();
+            stopForeground(Service.STOP_FOREGROUND_REMOVE);
+            postBufferRejectedNotification(context, admission);
+        } else if (triggers != null
+                ? TraceUtils.traceArm(tags, bufferSizeKb, auxBufferSizeKb, appTracing, triggers)
+                : profile != null && admission.result == MemoryAdmission.Result.ADMITTED
+                ? TraceUtils.traceStart(profile, TraceUtils.getProfileConfig(context, profile))
+                : TraceUtils.traceStart(tags, bufferSizeKb, auxBufferSizeKb, appTracing,
+                    flightRecorder, longTrace, maxLongTraceSizeMb,
+                    maxLongTraceDurationMinutes)) {
+            TraceUtils.startDataRateSession(context, tags);
+            stateStore.setState(TracingStateStore.State.RECORDING);
+            startOverheadMonitor(context, notification);
+            stopForeground(Service.STOP_FOREGROUND_DETACH);
+        } else {
+            // Starting the trace was unsuccessful, so ensure that tracing
+            // is stopped and the preference is reset.
+            TraceUtils.traceStop();
+            PreferenceManager.getDefaultSharedPreferences(context)
+                .edit().putBoolean(context.getString(R.string.pref_key_tracing_on),
+                        false).commit();
+            stateStore.setState(TracingStateStore.State.IDLE);
+            QsService.updateTile();
+            stopForeground(Service.STOP_FOREGROUND_REMOVE);
+        }
+    }
+
+    private void startArmedTracingInternal() {
         Context context = getApplicationContext();
+
+        // Start first; the notification can wait a few milliseconds.
+        boolean started = TraceUtils.traceStartArmed();
+        long startMs = (SystemClock.elapsedRealtimeNanos() - mStartRequestNs) / NANOS_PER_MILLI;
+
+        // The buffers were checked against free memory when it was armed.
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String bufferSummary = getBufferSummary(context,
+            prefs.getInt(context.getString(R.string.pref_key_armed_buffer_size), 0),
+            prefs.getBoolean(context.getString(R.string.pref_key_armed_buffer_clamped), false));
+        String title = context.getString(R.string.trace_is_being_recorded);
+        Notification.Builder notification = buildTracingNotification(context, title,
+            context.getString(R.string.started_armed, startMs, bufferSummary), false);
+        startForeground(TRACE_NOTIFICATION, notification.build());
+
+        if (started) {
+            Log.i(TAG, "Started the armed trace " + startMs + " ms after it was asked for.");
+            String profileName = getProfileName(context);
+            TraceProfile profile = profileName != null
+                ? TraceUtils.getProfile(context, profileName) : null;
+            TraceUtils.startDataRateSession(context, profile != null
+                ? profile.getCategories()
+                : Receiver.getActiveTags(context,
+                    PreferenceManager.getDefaultSharedPreferences(context), true));
+            TracingStateStore.getInstance().setState(TracingStateStore.State.RECORDING);
+            startOverheadMonitor(context, notification);
+            stopForeground(Service.STOP_FOREGROUND_DETACH);
+        } else {
+            // The armed session went away; start the usual way instead.
+            Log.w(TAG, "No armed trace to start.");
+            stopForeground(Service.STOP_FOREGROUND_REMOVE);
+            Receiver.updateTracing(context, /* assumeTracingIsOff= */ true);
+        }
+    }
+
+    private static String getBufferSummary(Context context, int perCpuBufferKb,
+            boolean clamped) {
+        return context.getString(clamped
+            ? R.string.buffer_size_clamped : R.string.buffer_size_admitted,
+            perCpuBufferKb / KILOBYTES_PER_MEGABYTE);
+    }
+
+    /*
+     * Builds the notification shown while tracing, which stops the trace
+     * when tapped.
+     */
+    private Notification.Builder buildTracingNotification(Context context, String title,
+            String subText, boolean flightRecorder) {
         Intent stopIntent = new Intent(Receiver.STOP_ACTION,
             null, context, Receiver.class);
         stopIntent.addFlags(Intent.FLAG_RECEIVER_FOREGROUND);
 
-        String title = context.getString(R.string.trace_is_being_recorded);
         String msg = context.getString(R.string.tap_to_stop_tracing);
 
         Notification.Builder notification =
@@ -115,6 +428,7 @@ public class TraceService extends IntentService {
                 .setContentTitle(title)
                 .setTicker(title)
                 .setContentText(msg)
+                .setSubText(subText)
                 .setContentIntent(
                     PendingIntent.getBroadcast(context, 0, stopIntent, 0))
                 .setOngoing(true)
@@ -122,38 +436,107 @@ public class TraceService extends IntentService {
                 .setColor(getColor(
                     com.android.internal.R.color.system_notification_accent_color));
 
+        if (flightRecorder) {
+            Intent snapshotIntent = new Intent(Receiver.SNAPSHOT_ACTION,
+                null, context, Receiver.class);
+            snapshotIntent.addFlags(Intent.FLAG_RECEIVER_FOREGROUND);
+            notification.addAction(new Notification.Action.Builder(
+                Icon.createWithResource(context, R.drawable.stat_sys_adb),
+                context.getString(R.string.save_snapshot),
+                PendingIntent.getBroadcast(context, 0, snapshotIntent, 0)).build());
+        }
+
         if (context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_LEANBACK)) {
             notification.extend(new Notification.TvExtender());
         }
+        return notification;
+    }
+
+    /*
+     * Shows how much CPU and memory the tracing daemons use in the tracing
+     * notification, until the trace is stopped.
+     */
+    private void startOverheadMonitor(final Context context,
+            final Notification.Builder notification) {
+        final NotificationManager notificationManager =
+            getSystemService(NotificationManager.class);
+        TraceUtils.startOverheadMonitor(context, new OverheadMonitor.Listener() {
+            @Override
+            public void onSample(OverheadMonitor.Sample sample) {
+                double cpuPercent = sample.getCpuPercent();
+                if (cpuPercent == OverheadMonitor.UNKNOWN) {
+                    return;
+                }
+                notification.setContentText(context.getString(
+                        R.string.tap_to_stop_tracing_overhead, cpuPercent,
+                        sample.getRssKb() / KILOBYTES_PER_MEGABYTE))
+                    .setOnlyAlertOnce(true);
+                notificationManager.notify(TRACE_NOTIFICATION, notification.build());
+            }
+        });
+    }
 
+    private void adoptBootTraceInternal() {
+        Context context = getApplicationContext();
+        String title = context.getString(R.string.trace_is_being_recorded);
+        Notification.Builder notification = buildTracingNotification(context, title,
+            context.getString(R.string.recording_since_boot), false);
         startForeground(TRACE_NOTIFICATION, notification.build());
 
-        if (TraceUtils.traceStart(tags, bufferSizeKb, appTracing,
-                longTrace, maxLongTraceSizeMb, maxLongTraceDurationMinutes)) {
-            stopForeground(Service.STOP_FOREGROUND_DETACH);
-        } else {
-            // Starting the trace was unsuccessful, so ensure that tracing
-            // is stopped and the preference is reset.
-            TraceUtils.traceStop();
+        TracingStateStore stateStore = TracingStateStore.getInstance();
+        if (stateStore.verify() == TracingStateStore.State.RECORDING) {
+            Log.i(TAG, "Adopted the trace started at boot.");
             PreferenceManager.getDefaultSharedPreferences(context)
                 .edit().putBoolean(context.getString(R.string.pref_key_tracing_on),
-                        false).commit();
+                        true).commit();
+            context.sendBroadcast(new Intent(MainFragment.ACTION_REFRESH_TAGS));
             QsService.updateTile();
+            startOverheadMonitor(context, notification);
+            stopForeground(Service.STOP_FOREGROUND_DETACH);
+        } else {
+            // The session didn't start, or already ended; carry on as after
+            // any other boot.
+            Log.w(TAG, "No trace was started at boot.");
             stopForeground(Service.STOP_FOREGROUND_REMOVE);
+            Receiver.updateTracing(context, /* assumeTracingIsOff= */ true);
         }
     }
 
-    private void stopTracingInternal(String outputFilename, boolean forceStop) {
-        Context context = getApplicationContext();
-        NotificationManager notificationManager =
+    private void postBufferRejectedNotification(Context context,
+            MemoryAdmission.Decision admission) {
+        String title = context.getString(R.string.trace_not_started);
+        Notification.Builder notification =
+            new Notification.Builder(context, Receiver.NOTIFICATION_CHANNEL_OTHER)
+                .setSmallIcon(R.drawable.stat_sys_adb)
+                .setContentTitle(title)
+                .setTicker(title)
+                .setContentText(context.getString(R.string.not_enough_memory_for_buffer,
+                    admission.requestedKb / KILOBYTES_PER_MEGABYTE))
+                .setAutoCancel(true)
+                .setLocalOnly(true)
+                .setColor(getColor(
+                    com.android.internal.R.color.system_notification_accent_color));
+
+        if (context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_LEANBACK)) {
+            notification.extend(new Notification.TvExtender());
+        }
+
+        getSystemService(NotificationManager.class).notify(
+            BUFFER_REJECTED_NOTIFICATION, notification.build());
+    }
+
+    private void stopTracingInternal(TraceCompression compression, boolean forceStop) {
+        final Context context = getApplicationContext();
+        final NotificationManager notificationManager =
             getSystemService(NotificationManager.class);
 
-        Notification.Builder notification =
+        final Notification.Builder notification =
             new Notification.Builder(this, Receiver.NOTIFICATION_CHANNEL_OTHER)
                 .setSmallIcon(R.drawable.stat_sys_adb)
                 .setContentTitle(getString(R.string.saving_trace))
                 .setTicker(getString(R.string.saving_trace))
                 .setLocalOnly(true)
+                .setOnlyAlertOnce(true)
                 .setProgress(1, 0, true)
                 .setColor(getColor(
                     com.android.internal.R.color.system_notification_accent_color));
@@ -167,20 +550,299 @@ public class TraceService extends IntentService {
         // two stopping mechanisms must use different notification IDs so that
         // one doesn't accidentally remove or override notifications from the
         // other.
-        int notificationId = forceStop
+        final int notificationId = forceStop
                 ? FORCE_STOP_SAVING_TRACE_NOTIFICATION : SAVING_TRACE_NOTIFICATION;
 
         startForeground(notificationId, notification.build());
 
+        // Stop sampling first, so that the tracing notification isn't
+        // posted again once it's gone.
+        TraceUtils.stopOverheadMonitor();
         notificationManager.cancel(TRACE_NOTIFICATION);
 
-        File file = TraceUtils.getOutputFile(outputFilename);
+        File outFile = TraceUtils.getOutputFile(TraceUtils.getOutputFilename(compression));
+
+        SaveProgress progress = new SaveProgress(new SaveProgress.Listener() {
+            @Override
+            public void onProgress(SaveProgress progress) {
+                int percent = progress.getPercent();
+                notification.setContentText(describeSaveProgress(context, progress))
+                    .setProgress(100, Math.max(percent, 0), percent == SaveProgress.UNKNOWN);
+                notificationManager.notify(notificationId, notification.build());
+            }
+        });
+
+        TracingStateStore stateStore = TracingStateStore.getInstance();
+        stateStore.setState(TracingStateStore.State.SAVING);
+        boolean flightRecorder = isFlightRecorder(context);
+        File savedFile;
+        if (flightRecorder) {
+            // The ring buffer isn't written to a file as it's recorded, so
+            // save it the same way as a snapshot before ending the session.
+            progress.startPhase(SaveProgress.PHASE_SNAPSHOT, SaveProgress.UNKNOWN,
+                SystemClock.elapsedRealtime());
+            savedFile = TraceUtils.traceSnapshot(outFile, compression);
+            progress.startPhase(SaveProgress.PHASE_STOP, SaveProgress.UNKNOWN,
+                SystemClock.elapsedRealtime());
+            TraceUtils.traceStop();
+        } else {
+            savedFile = TraceUtils.traceDump(outFile, compression, progress);
+        }
+        stateStore.setState(TracingStateStore.State.IDLE);
+        // It's saved uncompressed if it couldn't be compressed.
+        boolean saved = savedFile != null;
+        File file = saved ? savedFile : outFile;
 
-        if (TraceUtils.traceDump(file)) {
-            FileSender.postNotification(getApplicationContext(), file);
+        progress.startPhase(SaveProgress.PHASE_POST_PROCESS, SaveProgress.UNKNOWN,
+            SystemClock.elapsedRealtime());
+        // A file left by a failed save may be partial, which would skew the
+        // data rates that "Auto" buffer sizes come from.
+        TraceSummary summary = saved ? indexTrace(context, file) : null;
+        if (!saved) {
+            TraceUtils.abandonDataRateSession(context);
+        }
+        String details = context.getString(R.string.tap_to_share);
+        if (summary != null) {
+            TraceUtils.recordDataRates(context, summary);
+            recordTimeToFirstEvent(context, summary);
+            // The buffer and ftrace stats behind this are kept in the index.
+            DataLossReport dataLoss = DataLossReport.from(summary, flightRecorder);
+            if (dataLoss.hasLoss()) {
+                Log.w(TAG, "Data lost in " + file.getName() + ": " + dataLoss);
+            }
+            details = describeDataLoss(context, dataLoss);
         }
+        if (saved) {
+            FileSender.postNotification(context, file, details);
+        }
+        TraceUtils.saveOverhead(context, file);
+        enforceTraceQuota(context, file);
+        progress.endPhase(SystemClock.elapsedRealtime());
+        Log.i(TAG, "Saved " + file.getName() + " in " + progress.getElapsedMs() + " ms: "
+            + progress.getSummary());
+
+        // Set up the next session to start quickly.
+        Receiver.updateArmedSession(context);
 
         stopForeground(Service.STOP_FOREGROUND_REMOVE);
     }
 
+    /*
+     * Describes the phase saving a trace is in, and how far it has got, for
+     * the "Saving trace" notification.
+     */
+    private static String describeSaveProgress(Context context, SaveProgress progress) {
+        int phase;
+        switch (progress.getPhase()) {
+            case SaveProgress.PHASE_STOP:
+                phase = R.string.save_phase_stop;
+                break;
+            case SaveProgress.PHASE_LIST_THREADS:
+                phase = R.string.save_phase_list_threads;
+                break;
+            case SaveProgress.PHASE_COMPRESS:
+                phase = R.string.save_phase_compress;
+                break;
+            case SaveProgress.PHASE_POST_PROCESS:
+                phase = R.string.save_phase_post_process;
+                break;
+            default:
+                phase = R.string.save_phase_other;
+                break;
+        }
+        if (progress.getBytesDone() == 0) {
+            return context.getString(phase);
+        }
+
+        double doneMb = (double) progress.getBytesDone() / MEGABYTES_TO_BYTES;
+        double mbPerSecond = (double) progress.getBytesPerSecond() / MEGABYTES_TO_BYTES;
+        long etaMs = progress.getEtaMs();
+        if (etaMs == SaveProgress.UNKNOWN) {
+            return context.getString(R.string.save_progress, context.getString(phase), doneMb,
+                mbPerSecond);
+        }
+        return context.getString(R.string.save_progress_eta, context.getString(phase), doneMb,
+            (double) progress.getTotalBytes() / MEGABYTES_TO_BYTES, mbPerSecond,
+            (etaMs + 999) / 1000);
+    }
+
+    /*
+     * Tells the user whether the trace is complete, and if not, which buffers
+     * and CPUs lost data, for the trace-saved notification.
+     */
+    private static String describeDataLoss(Context context, DataLossReport report) {
+        if (!report.hasLoss()) {
+            return context.getString(R.string.no_data_lost);
+        }
+        List<String> sources = new ArrayList<>();
+        for (DataLossReport.BufferLoss buffer : report.getBuffers()) {
+            sources.add(context.getString(R.string.data_loss_buffer, buffer.index));
+        }
+        for (TraceSummary.FtraceCpuStats cpu : report.getCpus()) {
+            sources.add(context.getString(R.string.data_loss_cpu, cpu.cpu));
+        }
+        if (report.isTruncated()) {
+            sources.add(context.getString(R.string.data_loss_truncated));
+        }
+        return context.getString(R.string.data_lost, String.join(", ", sources));
+    }
+
+    /*
+     * Records how long after the trace was asked for its first event was
+     * recorded, which is what a user waiting on a trace to start sees.
+     */
+    private static void recordTimeToFirstEvent(Context context, TraceSummary summary) {
+        long requestNs = mStartRequestNs;
+        mStartRequestNs = 0;
+        // Traces can only be matched up with the request when it was made
+        // in this process, and started after it.
+        if (requestNs == 0 || summary.getFirstTimestampNs() < requestNs) {
+            return;
+        }
+        long latencyMs = (summary.getFirstTimestampNs() - requestNs) / NANOS_PER_MILLI;
+        Log.i(TAG, "First event recorded " + latencyMs + " ms after tracing was asked for"
+            + (mStartedArmed ? ", from an armed session." : "."));
+        (mStartedArmed ? ARMED_TIME_TO_FIRST_EVENT : COLD_TIME_TO_FIRST_EVENT).record(latencyMs);
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+            .putLong(context.getString(R.string.pref_key_time_to_first_event), latencyMs)
+            .apply();
+    }
+
+    private void snapshotInternal(TraceCompression compression) {
+        Context context = getApplicationContext();
+
+        Notification.Builder notification =
+            new Notification.Builder(this, Receiver.NOTIFICATION_CHANNEL_OTHER)
+                .setSmallIcon(R.drawable.stat_sys_adb)
+                .setContentTitle(getString(R.string.saving_snapshot))
+                .setTicker(getString(R.string.saving_snapshot))
+                .setLocalOnly(true)
+                .setProgress(1, 0, true)
+                .setColor(getColor(
+                    com.android.internal.R.color.system_notification_accent_color));
+
+        if (context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_LEANBACK)) {
+            notification.extend(new Notification.TvExtender());
+        }
+
+        startForeground(SAVING_SNAPSHOT_NOTIFICATION, notification.build());
+
+        if (!TracingStateStore.getInstance().isTracingOn()) {
+            Log.w(TAG, "Ignoring snapshot request, no trace is being recorded.");
+            stopForeground(Service.STOP_FOREGROUND_REMOVE);
+            return;
+        }
+
+        File file = TraceUtils.getOutputFile(TraceUtils.getOutputFilename(compression));
+
+        long startMs = SystemClock.elapsedRealtime();
+        File savedFile = TraceUtils.traceSnapshot(file, compression);
+        if (savedFile != null) {
+            file = savedFile;
+            long latencyMs = SystemClock.elapsedRealtime() - startMs;
+            String details;
+            TraceSummary summary = indexTrace(context, file);
+            long coverageNs = summary != null ? summary.getCoverageNs() : 0;
+            if (coverageNs > 0) {
+                details = context.getString(R.string.snapshot_saved_details,
+                    coverageNs / 1e9, latencyMs / 1e3);
+            } else {
+                details = context.getString(R.string.snapshot_saved_latency, latencyMs / 1e3);
+            }
+            Log.i(TAG, "Saved snapshot " + file + " in " + latencyMs + " ms, covering "
+                + coverageNs / 1000000 + " ms");
+            FileSender.postNotification(context, file, details);
+        }
+        enforceTraceQuota(context, file);
+
+        stopForeground(Service.STOP_FOREGROUND_REMOVE);
+    }
+
+    private void splitTraceInternal(String traceName) {
+        Context context = getApplicationContext();
+        final NotificationManager notificationManager =
+            getSystemService(NotificationManager.class);
+
+        final Notification.Builder notification =
+            new Notification.Builder(this, Receiver.NOTIFICATION_CHANNEL_OTHER)
+                .setSmallIcon(R.drawable.stat_sys_adb)
+                .setContentTitle(getString(R.string.splitting_trace))
+                .setTicker(getString(R.string.splitting_trace))
+                .setLocalOnly(true)
+                .setOnlyAlertOnce(true)
+                .setProgress(1, 0, true)
+                .setColor(getColor(
+                    com.android.internal.R.color.system_notification_accent_color));
+
+        if (context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_LEANBACK)) {
+            notification.extend(new Notification.TvExtender());
+        }
+
+        startForeground(SPLITTING_TRACE_NOTIFICATION, notification.build());
+
+        // The trace-saved notification is replaced by the one for its parts.
+        notificationManager.cancel(traceName, 0);
+
+        File trace = TraceUtils.getOutputFile(traceName);
+        long partSizeMb = Long.parseLong(
+            PreferenceManager.getDefaultSharedPreferences(context).getString(
+                context.getString(R.string.pref_key_export_part_size),
+                context.getString(R.string.default_export_part_size)));
+
+        List<File> files = TraceUtils.splitTrace(context, trace, partSizeMb * MEGABYTES_TO_BYTES,
+            new TraceSplitter.Listener() {
+                private int mLastPercent = -1;
+
+                @Override
+                public void onProgress(long bytesWritten, long totalBytes) {
+                    int percent = totalBytes > 0 ? (int) (bytesWritten * 100 / totalBytes) : 100;
+                    // Only post an update when it would change what is shown.
+                    if (percent != mLastPercent) {
+                        mLastPercent = percent;
+                        notification.setProgress(100, percent, false);
+                        notificationManager.notify(SPLITTING_TRACE_NOTIFICATION,
+                            notification.build());
+                    }
+                }
+            });
+        if (files != null) {
+            TraceUtils.markTraceAccessed(context, trace);
+            FileSender.postPartsNotification(context, trace, files);
+        }
+
+        stopForeground(Service.STOP_FOREGROUND_REMOVE);
+    }
+
+    private static void enforceTraceQuota(Context context, File justSaved) {
+        long quotaMb = Long.parseLong(
+            PreferenceManager.getDefaultSharedPreferences(context).getString(
+                context.getString(R.string.pref_key_trace_quota),
+                context.getString(R.string.default_trace_quota)));
+        TraceUtils.enforceTraceQuota(context, quotaMb * MEGABYTES_TO_BYTES, MAX_SAVED_TRACES,
+            justSaved);
+    }
+
+    /*
+     * Indexes a saved perfetto trace so that the file picker can show what it
+     * contains. Returns null if the trace wasn't saved or isn't indexable.
+     */
+    private static TraceSummary indexTrace(Context context, File file) {
+        if (!TraceUtils.currentTraceEngine().equals(PerfettoUtils.NAME) || !file.exists()) {
+            return null;
+        }
+        return TraceUtils.indexTrace(context, file);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("Command latencies:");
+        for (Map.Entry<String, LatencyHistogram> entry :
+                ProcessRunner.getInstance().getHistograms().entrySet()) {
+            pw.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+        pw.println("Main thread blocked: " + TraceWorker.getMainThreadBlocking());
+        pw.println("Time to first event:");
+        pw.println("  armed: " + ARMED_TIME_TO_FIRST_EVENT);
+        pw.println("  cold: " + COLD_TIME_TO_FIRST_EVENT);
+    }
 }
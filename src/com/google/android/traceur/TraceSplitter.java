@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits a perfetto trace into parts of a limited size, so that traces too
+ * large to share as one file can be shared in pieces.
+ *
+ * A perfetto trace is a sequence of TracePacket fields, so a trace cut at a
+ * packet boundary is still a valid trace. Each part after the first also
+ * starts with copies of the packets that describe the whole trace (its
+ * config, system info and clock snapshots), so that it can be opened on its
+ * own. Packets are copied with {@link FileChannel#transferTo}, which lets the
+ * kernel move the data without it passing through the Java heap.
+ *
+ * A manifest listing the parts, and where each came from in the original
+ * trace, is written next to them.
+ */
+public class TraceSplitter {
+
+    public static final String MANIFEST_SUFFIX = ".manifest.txt";
+
+    private static final String TRACE_EXTENSION = ".perfetto-trace";
+
+    // Trace
+    private static final int TRACE_PACKET = 1;
+
+    // TracePacket fields that describe the whole trace.
+    private static final int PACKET_CLOCK_SNAPSHOT = 6;
+    private static final int PACKET_TRACE_CONFIG = 33;
+    private static final int PACKET_SYSTEM_INFO = 45;
+
+    // Perfetto writes the packets describing the trace at its start, so only
+    // this much of it is searched for them.
+    private static final long HEADER_SCAN_BYTES = 1 << 20;
+    // Larger packets aren't copied into every part.
+    private static final int MAX_HEADER_PACKET_SIZE = 64 << 10;
+    // Header packets may take up at most this fraction of a part.
+    private static final int MAX_HEADER_FRACTION = 4;
+
+    // Large enough to hold any header packet along with its tag and length.
+    private static final int READ_BUFFER_SIZE = 128 << 10;
+    // Progress is reported after each step of this many bytes.
+    private static final long TRANSFER_STEP_SIZE = 8 << 20;
+    // A tag and a length, both varints.
+    private static final int MAX_PACKET_HEADER_SIZE = 20;
+
+    /**
+     * Notified as parts are written.
+     */
+    public interface Listener {
+        void onProgress(long bytesWritten, long totalBytes);
+    }
+
+    /**
+     * A part of the trace: where its packets came from in the original trace,
+     * and how many bytes of header packets were copied in front of them.
+     */
+    public static class Part {
+        public final File file;
+        public final long sourceOffset;
+        public final long sourceLength;
+        public final long headerLength;
+
+        Part(File file, long sourceOffset, long sourceLength, long headerLength) {
+            this.file = file;
+            this.sourceOffset = sourceOffset;
+            this.sourceLength = sourceLength;
+            this.headerLength = headerLength;
+        }
+
+        public long getSize() {
+            return headerLength + sourceLength;
+        }
+    }
+
+    /*
+     * A range of bytes in the original trace.
+     */
+    private static class Range {
+        final long offset;
+        final long length;
+
+        Range(long offset, long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final long mMaxPartSize;
+    private final Listener mListener;
+
+    /**
+     * @param maxPartSize the size parts are kept within, unless a single
+     *     packet is larger.
+     */
+    public TraceSplitter(long maxPartSize, Listener listener) {
+        if (maxPartSize <= 0) {
+            throw new IllegalArgumentException("Invalid part size: " + maxPartSize);
+        }
+        mMaxPartSize = maxPartSize;
+        mListener = listener;
+    }
+
+    /**
+     * Splits {@code trace} into parts in {@code outDir}, replacing any
+     * existing files of the same names, and writes their manifest.
+     *
+     * @return the manifest, followed by the parts in order.
+     */
+    public List<File> split(File trace, File outDir) throws IOException {
+        List<Part> parts = new ArrayList<>();
+        try (FileChannel in = FileChannel.open(trace.toPath(), StandardOpenOption.READ)) {
+            List<Range> headers = new ArrayList<>();
+            long headerLength = scanHeaders(in, headers);
+            if (headerLength > mMaxPartSize / MAX_HEADER_FRACTION) {
+                headers.clear();
+                headerLength = 0;
+            }
+
+            List<Range> plan = plan(in, headerLength);
+            long total = 0;
+            for (int i = 0; i < plan.size(); i++) {
+                total += plan.get(i).length + (i > 0 ? headerLength : 0);
+            }
+
+            long written = 0;
+            for (int i = 0; i < plan.size(); i++) {
+                Range range = plan.get(i);
+                File file = new File(outDir, getPartName(trace.getName(), i, plan.size()));
+                List<Range> partHeaders = i > 0 ? headers : Collections.<Range>emptyList();
+                try (FileChannel out = FileChannel.open(file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    for (Range header : partHeaders) {
+                        transfer(in, header, out);
+                        written += header.length;
+                    }
+                    for (long offset = range.offset; offset < range.offset + range.length; ) {
+                        long length = Math.min(TRANSFER_STEP_SIZE,
+                            range.offset + range.length - offset);
+                        transfer(in, new Range(offset, length), out);
+                        offset += length;
+                        written += length;
+                        if (mListener != null) {
+                            mListener.onProgress(written, total);
+                        }
+                    }
+                }
+                parts.add(new Part(file, range.offset, range.length,
+                    i > 0 ? headerLength : 0));
+            }
+        }
+
+        File manifest = new File(outDir, trace.getName() + MANIFEST_SUFFIX);
+        writeManifest(manifest, trace, parts);
+
+        List<File> files = new ArrayList<>(parts.size() + 1);
+        files.add(manifest);
+        for (Part part : parts) {
+            files.add(part.file);
+        }
+        return files;
+    }
+
+    /**
+     * Returns the name of a part of a trace, which keeps the trace's
+     * extension so that it's still recognized as a trace.
+     */
+    public static String getPartName(String traceName, int index, int count) {
+        String suffix = String.format(Locale.US, "-part%02dof%02d", index + 1, count);
+        if (traceName.endsWith(TRACE_EXTENSION)) {
+            return traceName.substring(0, traceName.length() - TRACE_EXTENSION.length())
+                + suffix + TRACE_EXTENSION;
+        }
+        return traceName + suffix;
+    }
+
+    /*
+     * Finds the header packets near the start of the trace. Returns their
+     * total length.
+     */
+    private static long scanHeaders(FileChannel in, List<Range> headers) throws IOException {
+        PacketScanner packets = new PacketScanner(in);
+        long headerLength = 0;
+        while (packets.next() && packets.getOffset() < HEADER_SCAN_BYTES) {
+            if (packets.isHeaderPacket()) {
+                headers.add(new Range(packets.getOffset(), packets.getLength()));
+                headerLength += packets.getLength();
+            }
+        }
+        return headerLength;
+    }
+
+    /*
+     * Groups consecutive packets into the source ranges of each part as the
+     * trace is read, so that only the parts are held in memory however many
+     * packets there are. Parts after the first have room for the header
+     * packets too.
+     */
+    private List<Range> plan(FileChannel in, long headerLength) throws IOException {
+        List<Range> plan = new ArrayList<>();
+        PacketScanner packets = new PacketScanner(in);
+        long start = 0;
+        long length = 0;
+        while (packets.next()) {
+            long limit = mMaxPartSize - (plan.isEmpty() ? 0 : headerLength);
+            if (length > 0 && length + packets.getLength() > limit) {
+                plan.add(new Range(start, length));
+                start = packets.getOffset();
+                length = 0;
+            }
+            length += packets.getLength();
+        }
+        if (length > 0 || plan.isEmpty()) {
+            plan.add(new Range(start, length));
+        }
+        return plan;
+    }
+
+    /*
+     * Reads the packet boundaries of a trace in order, through a buffer that
+     * is reused for the whole trace.
+     */
+    private static class PacketScanner {
+        private final FileChannel mIn;
+        private final long mSize;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private long mBufferStart;
+
+        private long mOffset;
+        private long mEnd;
+        private long mPayloadStart;
+        private long mTag;
+
+        PacketScanner(FileChannel in) throws IOException {
+            mIn = in;
+            mSize = in.size();
+            mBuffer.limit(0);
+        }
+
+        /*
+         * Moves to the next packet. Returns false at the end of the trace,
+         * including when the next packet is cut short by it.
+         */
+        boolean next() throws IOException {
+            mOffset = mEnd;
+            if (mOffset >= mSize) {
+                return false;
+            }
+            int packetHeaderSize = (int) Math.min(MAX_PACKET_HEADER_SIZE, mSize - mOffset);
+            if (mOffset + packetHeaderSize > mBufferStart + mBuffer.limit()) {
+                fill(mOffset);
+            }
+            mBuffer.position((int) (mOffset - mBufferStart));
+            long length;
+            try {
+                mTag = readRawVarint(mBuffer);
+                if ((mTag & 0x7) != ProtoReader.WIRE_TYPE_LENGTH_DELIMITED) {
+                    throw new IOException("Not a perfetto trace");
+                }
+                length = readRawVarint(mBuffer);
+            } catch (EOFException e) {
+                // The trace ends in the middle of a packet's tag or length.
+                return false;
+            }
+            mPayloadStart = mBufferStart + mBuffer.position();
+            if (length < 0 || mPayloadStart + length > mSize) {
+                return false;
+            }
+            mEnd = mPayloadStart + length;
+            return true;
+        }
+
+        long getOffset() {
+            return mOffset;
+        }
+
+        long getLength() {
+            return mEnd - mOffset;
+        }
+
+        boolean isHeaderPacket() throws IOException {
+            long length = mEnd - mPayloadStart;
+            if ((mTag >>> 3) != TRACE_PACKET || length > MAX_HEADER_PACKET_SIZE) {
+                return false;
+            }
+            if (mEnd > mBufferStart + mBuffer.limit()) {
+                fill(mOffset);
+            }
+            ProtoReader packet = new ProtoReader(mBuffer.array(),
+                (int) (mPayloadStart - mBufferStart), (int) length);
+            try {
+                while (packet.next()) {
+                    switch (packet.getField()) {
+                        case PACKET_CLOCK_SNAPSHOT:
+                        case PACKET_TRACE_CONFIG:
+                        case PACKET_SYSTEM_INFO:
+                            return true;
+                    }
+                }
+            } catch (IllegalStateException e) {
+                // Not a packet we know how to read, so leave it where it is.
+            }
+            return false;
+        }
+
+        private void fill(long position) throws IOException {
+            mBufferStart = position;
+            mBuffer.clear();
+            while (mBuffer.hasRemaining()) {
+                if (mIn.read(mBuffer, position + mBuffer.position()) == -1) {
+                    break;
+                }
+            }
+            mBuffer.flip();
+        }
+    }
+
+    private static void transfer(FileChannel in, Range range, FileChannel out)
+            throws IOException {
+        long position = range.offset;
+        long end = range.offset + range.length;
+        while (position < end) {
+            long transferred = in.transferTo(position, end - position, out);
+            if (transferred <= 0) {
+                throw new EOFException("Trace changed while it was being split");
+            }
+            position += transferred;
+        }
+    }
+
+    private static long readRawVarint(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                throw new EOFException();
+            }
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /*
+     * The manifest is meant to be read by people, and by scripts that put the
+     * original trace back together: for each part, skip its header bytes and
+     * append the rest.
+     */
+    private void writeManifest(File manifest, File trace, List<Part> parts)
+            throws IOException {
+        try (Writer out = new OutputStreamWriter(
+                Files.newOutputStream(manifest.toPath()), StandardCharsets.UTF_8)) {
+            out.write("# " + trace.getName() + " (" + trace.length() + " bytes), split into "
+                + parts.size() + " parts of at most " + mMaxPartSize + " bytes.\n");
+            out.write("# Each part is a trace of its own. To restore the original trace,\n");
+            out.write("# skip the header bytes of each part and concatenate the rest.\n");
+            out.write("# part\tsize\tsource_offset\tsource_length\theader_bytes\n");
+            for (Part part : parts) {
+                out.write(String.format(Locale.US, "%s\t%d\t%d\t%d\t%d\n", part.file.getName(),
+                    part.getSize(), part.sourceOffset, part.sourceLength, part.headerLength));
+            }
+        }
+    }
+}
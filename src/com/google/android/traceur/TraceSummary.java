@@ -0,0 +1,767 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Facts about a saved perfetto trace, gathered in a single pass over its
+ * packets without loading the whole trace into memory.
+ *
+ * A summary can be saved as a small index next to the trace with
+ * {@link #writeIndex}, so that it can be shown later without reading the
+ * trace again.
+ *
+ * Field numbers come from protos/perfetto/trace/trace.proto and
+ * trace_packet.proto, and the protos they include.
+ */
+public class TraceSummary {
+
+    // Trace
+    private static final int TRACE_PACKET = 1;
+
+    // TracePacket
+    private static final int PACKET_FTRACE_EVENTS = 1;
+    private static final int PACKET_TIMESTAMP = 8;
+    private static final int PACKET_TRUSTED_PACKET_SEQUENCE_ID = 10;
+    private static final int PACKET_TRACE_CONFIG = 33;
+    private static final int PACKET_FTRACE_STATS = 34;
+    private static final int PACKET_TRACE_STATS = 35;
+
+    // FtraceEventBundle
+    private static final int BUNDLE_EVENT = 2;
+    private static final int BUNDLE_COMPACT_SCHED = 4;
+
+    // FtraceEvent
+    private static final int EVENT_TIMESTAMP = 1;
+
+    // FtraceEventBundle.CompactSched, whose timestamps are delta-encoded.
+    private static final int COMPACT_SWITCH_TIMESTAMP = 1;
+    private static final int COMPACT_WAKING_TIMESTAMP = 7;
+
+    // TraceConfig, TraceConfig.DataSource and DataSourceConfig
+    private static final int CONFIG_DATA_SOURCES = 2;
+    private static final int DATA_SOURCE_CONFIG = 1;
+    private static final int DS_FTRACE_CONFIG = 100;
+
+    // FtraceConfig
+    private static final int FTRACE_ATRACE_CATEGORIES = 2;
+
+    // TraceStats
+    private static final int STATS_BUFFER_STATS = 1;
+
+    // FtraceStats
+    private static final int FTRACE_STATS_PHASE = 1;
+    private static final int FTRACE_STATS_CPU_STATS = 2;
+    private static final int PHASE_START_OF_TRACE = 1;
+
+    // The index file format, which reuses BufferStats as is.
+    private static final int INDEX_VERSION = 1;
+    private static final int INDEX_TRACE_SIZE = 2;
+    private static final int INDEX_PACKET_COUNT = 3;
+    private static final int INDEX_FIRST_TIMESTAMP = 4;
+    private static final int INDEX_LAST_TIMESTAMP = 5;
+    private static final int INDEX_TRUNCATED = 6;
+    private static final int INDEX_CHECKPOINT = 7;
+    private static final int INDEX_SEQUENCE = 8;
+    private static final int INDEX_CATEGORY = 9;
+    private static final int INDEX_BUFFER_STATS = 10;
+    private static final int INDEX_FILE_SIZE = 11;
+    private static final int INDEX_FTRACE_CPU_STATS = 12;
+
+    // Checkpoint and sequence entries of the index.
+    private static final int ENTRY_KEY = 1;
+    private static final int ENTRY_VALUE = 2;
+
+    private static final int CURRENT_INDEX_VERSION = 1;
+
+    // A checkpoint is recorded at the first packet after every this many bytes.
+    public static final long CHECKPOINT_INTERVAL_BYTES = 16 << 20;
+
+    private static final int MAP_WINDOW_SIZE = 256 << 20;
+    // A tag and a length, both varints.
+    private static final int MAX_PACKET_HEADER_SIZE = 20;
+
+    private long mTraceSize;
+    private long mPacketCount;
+    private long mFirstTimestampNs = Long.MAX_VALUE;
+    private long mLastTimestampNs = Long.MIN_VALUE;
+    private boolean mTruncated;
+    private final TreeMap<Long, Long> mCheckpoints = new TreeMap<>();
+    private final TreeMap<Long, Long> mSequencePacketCounts = new TreeMap<>();
+    private final TreeSet<String> mCategories = new TreeSet<>();
+    private final List<BufferStats> mBufferStats = new ArrayList<>();
+    // Per-CPU ftrace stats at the start of the trace and the latest after it.
+    private final TreeMap<Long, FtraceCpuStats> mFtraceStartStats = new TreeMap<>();
+    private final TreeMap<Long, FtraceCpuStats> mFtraceEndStats = new TreeMap<>();
+
+    /**
+     * Reads a trace file. Uncompressed traces are memory-mapped and get
+     * checkpoints; compressed ones are decompressed as they're read.
+     */
+    public static TraceSummary read(File file) throws IOException {
+        if (TraceCompression.forFileName(file.getName()) == TraceCompression.GZIP) {
+            try (InputStream in = new GZIPInputStream(new FileInputStream(file), 64 << 10)) {
+                return read(in);
+            }
+        }
+
+        TraceSummary summary = new TraceSummary();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            summary.readMapped(channel);
+        }
+        return summary;
+    }
+
+    public static TraceSummary read(InputStream in) throws IOException {
+        TraceSummary summary = new TraceSummary();
+        InputStream trace = new BufferedInputStream(in, 64 << 10);
+        byte[] packet = new byte[4096];
+        long offset = 0;
+        try {
+            int firstByte;
+            while ((firstByte = trace.read()) != -1) {
+                long tag = readRawVarint(trace, firstByte);
+                if ((tag & 0x7) != ProtoReader.WIRE_TYPE_LENGTH_DELIMITED) {
+                    throw new IOException("Not a perfetto trace");
+                }
+                long length = readRawVarint(trace, trace.read());
+                if (length > Integer.MAX_VALUE) {
+                    throw new IOException("Packet too large: " + length);
+                }
+                if (length > packet.length) {
+                    packet = new byte[(int) Math.max(length, packet.length * 2L)];
+                }
+                readFully(trace, packet, (int) length);
+                if ((tag >>> 3) == TRACE_PACKET) {
+                    summary.addPacket(new ProtoReader(packet, 0, (int) length));
+                }
+                offset += ProtoWriter.varintSize(tag) + ProtoWriter.varintSize(length) + length;
+            }
+        } catch (EOFException | IllegalStateException e) {
+            // Keep what was read so far; a trace cut short is still useful.
+            summary.mTruncated = true;
+        }
+        summary.mTraceSize = offset;
+        return summary;
+    }
+
+    /*
+     * Walks the packet framing through a sliding memory-mapped window, so the
+     * kernel pages the trace in and out instead of it being copied through
+     * the Java heap.
+     */
+    private void readMapped(FileChannel channel) throws IOException {
+        mTraceSize = channel.size();
+        MappedByteBuffer window = null;
+        long windowStart = 0;
+        byte[] packet = new byte[4096];
+        long nextCheckpoint = 0;
+
+        long offset = 0;
+        try {
+            while (offset < mTraceSize) {
+                int headerSize = (int) Math.min(MAX_PACKET_HEADER_SIZE, mTraceSize - offset);
+                if (window == null || offset + headerSize > windowStart + window.limit()) {
+                    window = map(channel, offset, headerSize);
+                    windowStart = offset;
+                }
+                window.position((int) (offset - windowStart));
+                long tag = readRawVarint(window);
+                if ((tag & 0x7) != ProtoReader.WIRE_TYPE_LENGTH_DELIMITED) {
+                    throw new IOException("Not a perfetto trace");
+                }
+                long length = readRawVarint(window);
+                long payloadStart = windowStart + window.position();
+                long end = payloadStart + length;
+                if (end > mTraceSize) {
+                    throw new EOFException();
+                }
+
+                if ((tag >>> 3) == TRACE_PACKET) {
+                    if (end > windowStart + window.limit()) {
+                        window = map(channel, offset, end - offset);
+                        windowStart = offset;
+                    }
+                    if (length > packet.length) {
+                        packet = new byte[(int) Math.max(length, packet.length * 2L)];
+                    }
+                    window.position((int) (payloadStart - windowStart));
+                    window.get(packet, 0, (int) length);
+                    if (offset >= nextCheckpoint) {
+                        mCheckpoints.put(offset, hasTimestamps() ? mLastTimestampNs : 0);
+                        nextCheckpoint = offset - offset % CHECKPOINT_INTERVAL_BYTES
+                            + CHECKPOINT_INTERVAL_BYTES;
+                    }
+                    addPacket(new ProtoReader(packet, 0, (int) length));
+                }
+                offset = end;
+            }
+        } catch (EOFException | IllegalStateException e) {
+            mTruncated = true;
+        }
+    }
+
+    private MappedByteBuffer map(FileChannel channel, long offset, long minLength)
+            throws IOException {
+        if (minLength > Integer.MAX_VALUE) {
+            throw new IOException("Packet too large: " + minLength);
+        }
+        long length = Math.min(Math.max(minLength, MAP_WINDOW_SIZE), mTraceSize - offset);
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    private static long readRawVarint(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                throw new EOFException();
+            }
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Reads a summary of {@code traceFile} saved with {@link #writeIndex}.
+     * Returns null if the index doesn't exist, can't be read, or is for
+     * another version of the trace.
+     */
+    public static TraceSummary readIndex(File indexFile, File traceFile) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(indexFile.toPath());
+        } catch (IOException e) {
+            return null;
+        }
+
+        TraceSummary summary = new TraceSummary();
+        try {
+            ProtoReader index = new ProtoReader(bytes);
+            long version = 0;
+            long fileSize = -1;
+            while (index.next()) {
+                switch (index.getField()) {
+                    case INDEX_VERSION:
+                        version = index.readVarint();
+                        break;
+                    case INDEX_FILE_SIZE:
+                        fileSize = index.readVarint();
+                        break;
+                    case INDEX_TRACE_SIZE:
+                        summary.mTraceSize = index.readVarint();
+                        break;
+                    case INDEX_PACKET_COUNT:
+                        summary.mPacketCount = index.readVarint();
+                        break;
+                    case INDEX_FIRST_TIMESTAMP:
+                        summary.mFirstTimestampNs = index.readVarint();
+                        break;
+                    case INDEX_LAST_TIMESTAMP:
+                        summary.mLastTimestampNs = index.readVarint();
+                        break;
+                    case INDEX_TRUNCATED:
+                        summary.mTruncated = index.readBool();
+                        break;
+                    case INDEX_CHECKPOINT:
+                        readEntry(index.readMessage(), summary.mCheckpoints);
+                        break;
+                    case INDEX_SEQUENCE:
+                        readEntry(index.readMessage(), summary.mSequencePacketCounts);
+                        break;
+                    case INDEX_CATEGORY:
+                        summary.mCategories.add(index.readString());
+                        break;
+                    case INDEX_BUFFER_STATS:
+                        summary.mBufferStats.add(BufferStats.parse(index.readMessage()));
+                        break;
+                    case INDEX_FTRACE_CPU_STATS:
+                        // The index keeps what changed during the trace.
+                        FtraceCpuStats cpuStats = FtraceCpuStats.parse(index.readMessage());
+                        summary.mFtraceEndStats.put(cpuStats.cpu, cpuStats);
+                        break;
+                }
+            }
+            // A trace that was replaced or compressed since has a new size.
+            if (version != CURRENT_INDEX_VERSION || fileSize != traceFile.length()) {
+                return null;
+            }
+        } catch (IllegalStateException e) {
+            return null;
+        }
+        return summary;
+    }
+
+    /**
+     * Saves this summary of {@code traceFile} to {@code indexFile}.
+     */
+    public void writeIndex(File indexFile, File traceFile) throws IOException {
+        ProtoWriter index = new ProtoWriter(256);
+        ProtoWriter scratch = new ProtoWriter();
+        index.writeVarint(INDEX_VERSION, CURRENT_INDEX_VERSION);
+        index.writeVarint(INDEX_FILE_SIZE, traceFile.length());
+        index.writeVarint(INDEX_TRACE_SIZE, mTraceSize);
+        index.writeVarint(INDEX_PACKET_COUNT, mPacketCount);
+        if (hasTimestamps()) {
+            index.writeVarint(INDEX_FIRST_TIMESTAMP, mFirstTimestampNs);
+            index.writeVarint(INDEX_LAST_TIMESTAMP, mLastTimestampNs);
+        }
+        if (mTruncated) {
+            index.writeBool(INDEX_TRUNCATED, true);
+        }
+        writeEntries(index, scratch, INDEX_CHECKPOINT, mCheckpoints);
+        writeEntries(index, scratch, INDEX_SEQUENCE, mSequencePacketCounts);
+        for (String category : mCategories) {
+            index.writeString(INDEX_CATEGORY, category);
+        }
+        for (BufferStats stats : mBufferStats) {
+            scratch.reset();
+            stats.writeTo(scratch);
+            index.writeMessage(INDEX_BUFFER_STATS, scratch);
+        }
+        for (FtraceCpuStats stats : getFtraceCpuStats()) {
+            scratch.reset();
+            stats.writeTo(scratch);
+            index.writeMessage(INDEX_FTRACE_CPU_STATS, scratch);
+        }
+
+        // Write to a temporary file first so that a crash can never leave a
+        // truncated index behind.
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(index.buffer(), 0, index.size());
+        }
+        if (!tmp.renameTo(indexFile)) {
+            tmp.delete();
+            throw new IOException("Unable to write trace index to " + indexFile);
+        }
+    }
+
+    /**
+     * Returns the size of the trace in bytes, uncompressed.
+     */
+    public long getTraceSize() {
+        return mTraceSize;
+    }
+
+    public long getPacketCount() {
+        return mPacketCount;
+    }
+
+    /**
+     * Returns whether the trace ended in the middle of a packet.
+     */
+    public boolean isTruncated() {
+        return mTruncated;
+    }
+
+    public boolean hasTimestamps() {
+        return mFirstTimestampNs <= mLastTimestampNs;
+    }
+
+    public long getFirstTimestampNs() {
+        return hasTimestamps() ? mFirstTimestampNs : 0;
+    }
+
+    public long getLastTimestampNs() {
+        return hasTimestamps() ? mLastTimestampNs : 0;
+    }
+
+    /**
+     * Returns the time between the first and last event in the trace.
+     */
+    public long getCoverageNs() {
+        return hasTimestamps() ? mLastTimestampNs - mFirstTimestampNs : 0;
+    }
+
+    /**
+     * Returns the offsets of packets roughly every
+     * {@link #CHECKPOINT_INTERVAL_BYTES}, mapped to the latest timestamp seen
+     * before them. Only uncompressed traces have checkpoints.
+     */
+    public SortedMap<Long, Long> getCheckpoints() {
+        return Collections.unmodifiableSortedMap(mCheckpoints);
+    }
+
+    /**
+     * Returns the number of packets written by each trusted sequence ID.
+     */
+    public SortedMap<Long, Long> getSequencePacketCounts() {
+        return Collections.unmodifiableSortedMap(mSequencePacketCounts);
+    }
+
+    /**
+     * Returns the atrace categories the trace was recorded with.
+     */
+    public SortedSet<String> getCategories() {
+        return Collections.unmodifiableSortedSet(mCategories);
+    }
+
+    /**
+     * Returns the statistics of each trace buffer, as of the last TraceStats
+     * packet in the trace.
+     */
+    public List<BufferStats> getBufferStats() {
+        return Collections.unmodifiableList(mBufferStats);
+    }
+
+    /**
+     * Returns the ftrace statistics of each CPU that changed while the trace
+     * was recorded, i.e. as of the last FtraceStats packet in the trace less
+     * those at its start. Empty if the trace has no ftrace stats after its
+     * start.
+     */
+    public List<FtraceCpuStats> getFtraceCpuStats() {
+        List<FtraceCpuStats> stats = new ArrayList<>(mFtraceEndStats.size());
+        for (FtraceCpuStats end : mFtraceEndStats.values()) {
+            stats.add(end.minus(mFtraceStartStats.get(end.cpu)));
+        }
+        return stats;
+    }
+
+    private void addPacket(ProtoReader packet) {
+        mPacketCount++;
+        while (packet.next()) {
+            switch (packet.getField()) {
+                case PACKET_TIMESTAMP:
+                    addTimestamp(packet.readVarint());
+                    break;
+                case PACKET_FTRACE_EVENTS:
+                    addFtraceEvents(packet.readMessage());
+                    break;
+                case PACKET_TRUSTED_PACKET_SEQUENCE_ID:
+                    long sequenceId = packet.readVarint();
+                    Long count = mSequencePacketCounts.get(sequenceId);
+                    mSequencePacketCounts.put(sequenceId, count == null ? 1 : count + 1);
+                    break;
+                case PACKET_TRACE_CONFIG:
+                    addTraceConfig(packet.readMessage());
+                    break;
+                case PACKET_TRACE_STATS:
+                    addTraceStats(packet.readMessage());
+                    break;
+                case PACKET_FTRACE_STATS:
+                    addFtraceStats(packet.readMessage());
+                    break;
+            }
+        }
+    }
+
+    private void addFtraceEvents(ProtoReader bundle) {
+        while (bundle.next()) {
+            switch (bundle.getField()) {
+                case BUNDLE_EVENT:
+                    ProtoReader event = bundle.readMessage();
+                    while (event.next()) {
+                        if (event.getField() == EVENT_TIMESTAMP) {
+                            addTimestamp(event.readVarint());
+                        }
+                    }
+                    break;
+                case BUNDLE_COMPACT_SCHED:
+                    ProtoReader compactSched = bundle.readMessage();
+                    while (compactSched.next()) {
+                        if (compactSched.getField() == COMPACT_SWITCH_TIMESTAMP
+                                || compactSched.getField() == COMPACT_WAKING_TIMESTAMP) {
+                            addDeltaTimestamps(compactSched.readPackedVarints());
+                        }
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void addTraceConfig(ProtoReader config) {
+        while (config.next()) {
+            if (config.getField() != CONFIG_DATA_SOURCES) {
+                continue;
+            }
+            ProtoReader dataSource = config.readMessage();
+            while (dataSource.next()) {
+                if (dataSource.getField() != DATA_SOURCE_CONFIG) {
+                    continue;
+                }
+                ProtoReader dataSourceConfig = dataSource.readMessage();
+                while (dataSourceConfig.next()) {
+                    if (dataSourceConfig.getField() != DS_FTRACE_CONFIG) {
+                        continue;
+                    }
+                    ProtoReader ftrace = dataSourceConfig.readMessage();
+                    while (ftrace.next()) {
+                        if (ftrace.getField() == FTRACE_ATRACE_CATEGORIES) {
+                            mCategories.add(ftrace.readString());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void addTraceStats(ProtoReader stats) {
+        // Stats are cumulative, so only the last packet matters.
+        mBufferStats.clear();
+        while (stats.next()) {
+            if (stats.getField() == STATS_BUFFER_STATS) {
+                mBufferStats.add(BufferStats.parse(stats.readMessage()));
+            }
+        }
+    }
+
+    private void addFtraceStats(ProtoReader stats) {
+        long phase = 0;
+        List<FtraceCpuStats> cpuStats = new ArrayList<>();
+        while (stats.next()) {
+            if (stats.getField() == FTRACE_STATS_PHASE) {
+                phase = stats.readVarint();
+            } else if (stats.getField() == FTRACE_STATS_CPU_STATS) {
+                cpuStats.add(FtraceCpuStats.parse(stats.readMessage()));
+            }
+        }
+        // Like TraceStats, these are cumulative, from when ftrace was set up.
+        TreeMap<Long, FtraceCpuStats> target =
+            phase == PHASE_START_OF_TRACE ? mFtraceStartStats : mFtraceEndStats;
+        for (FtraceCpuStats cpu : cpuStats) {
+            target.put(cpu.cpu, cpu);
+        }
+    }
+
+    private void addDeltaTimestamps(long[] deltas) {
+        long timestamp = 0;
+        for (long delta : deltas) {
+            timestamp += delta;
+            addTimestamp(timestamp);
+        }
+    }
+
+    private void addTimestamp(long timestampNs) {
+        // Packets without a timestamp leave it at zero.
+        if (timestampNs > 0) {
+            mFirstTimestampNs = Math.min(mFirstTimestampNs, timestampNs);
+            mLastTimestampNs = Math.max(mLastTimestampNs, timestampNs);
+        }
+    }
+
+    private static void readEntry(ProtoReader entry, Map<Long, Long> map) {
+        long key = 0;
+        long value = 0;
+        while (entry.next()) {
+            if (entry.getField() == ENTRY_KEY) {
+                key = entry.readVarint();
+            } else if (entry.getField() == ENTRY_VALUE) {
+                value = entry.readVarint();
+            }
+        }
+        map.put(key, value);
+    }
+
+    private static void writeEntries(ProtoWriter out, ProtoWriter scratch, int field,
+            Map<Long, Long> map) {
+        for (Map.Entry<Long, Long> entry : map.entrySet()) {
+            scratch.reset();
+            scratch.writeVarint(ENTRY_KEY, entry.getKey());
+            scratch.writeVarint(ENTRY_VALUE, entry.getValue());
+            out.writeMessage(field, scratch);
+        }
+    }
+
+    private static long readRawVarint(InputStream in, int firstByte) throws IOException {
+        long value = 0;
+        int b = firstByte;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (b == -1) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            b = in.read();
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(buffer, offset, length - offset);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * The subset of TraceStats.BufferStats that says whether data was lost.
+     */
+    public static class BufferStats {
+        private static final int BYTES_WRITTEN = 1;
+        private static final int CHUNKS_WRITTEN = 2;
+        private static final int CHUNKS_OVERWRITTEN = 3;
+        private static final int PATCHES_FAILED = 6;
+        private static final int BUFFER_SIZE = 12;
+        private static final int BYTES_OVERWRITTEN = 13;
+        private static final int CHUNKS_DISCARDED = 18;
+        private static final int TRACE_WRITER_PACKET_LOSS = 19;
+
+        public long bufferSize;
+        public long bytesWritten;
+        public long bytesOverwritten;
+        public long chunksWritten;
+        public long chunksOverwritten;
+        public long chunksDiscarded;
+        public long patchesFailed;
+        public long traceWriterPacketLoss;
+
+        static BufferStats parse(ProtoReader in) {
+            BufferStats stats = new BufferStats();
+            while (in.next()) {
+                if (in.getWireType() != ProtoReader.WIRE_TYPE_VARINT) {
+                    continue;
+                }
+                switch (in.getField()) {
+                    case BYTES_WRITTEN:
+                        stats.bytesWritten = in.readVarint();
+                        break;
+                    case CHUNKS_WRITTEN:
+                        stats.chunksWritten = in.readVarint();
+                        break;
+                    case CHUNKS_OVERWRITTEN:
+                        stats.chunksOverwritten = in.readVarint();
+                        break;
+                    case PATCHES_FAILED:
+                        stats.patchesFailed = in.readVarint();
+                        break;
+                    case BUFFER_SIZE:
+                        stats.bufferSize = in.readVarint();
+                        break;
+                    case BYTES_OVERWRITTEN:
+                        stats.bytesOverwritten = in.readVarint();
+                        break;
+                    case CHUNKS_DISCARDED:
+                        stats.chunksDiscarded = in.readVarint();
+                        break;
+                    case TRACE_WRITER_PACKET_LOSS:
+                        stats.traceWriterPacketLoss = in.readVarint();
+                        break;
+                }
+            }
+            return stats;
+        }
+
+        void writeTo(ProtoWriter out) {
+            out.writeVarint(BUFFER_SIZE, bufferSize);
+            out.writeVarint(BYTES_WRITTEN, bytesWritten);
+            out.writeVarint(BYTES_OVERWRITTEN, bytesOverwritten);
+            out.writeVarint(CHUNKS_WRITTEN, chunksWritten);
+            out.writeVarint(CHUNKS_OVERWRITTEN, chunksOverwritten);
+            out.writeVarint(CHUNKS_DISCARDED, chunksDiscarded);
+            out.writeVarint(PATCHES_FAILED, patchesFailed);
+            out.writeVarint(TRACE_WRITER_PACKET_LOSS, traceWriterPacketLoss);
+        }
+    }
+
+    /**
+     * The subset of FtraceCpuStats that says whether the kernel lost events
+     * before traced_probes could read them.
+     */
+    public static class FtraceCpuStats {
+        private static final int CPU = 1;
+        private static final int OVERRUN = 3;
+        private static final int COMMIT_OVERRUN = 4;
+        private static final int DROPPED_EVENTS = 8;
+
+        public long cpu;
+        // Events overwritten in the kernel's ring buffer before being read.
+        public long overrun;
+        public long commitOverrun;
+        // Events dropped because the kernel's buffer was full, if it doesn't
+        // overwrite.
+        public long droppedEvents;
+
+        static FtraceCpuStats parse(ProtoReader in) {
+            FtraceCpuStats stats = new FtraceCpuStats();
+            while (in.next()) {
+                if (in.getWireType() != ProtoReader.WIRE_TYPE_VARINT) {
+                    continue;
+                }
+                switch (in.getField()) {
+                    case CPU:
+                        stats.cpu = in.readVarint();
+                        break;
+                    case OVERRUN:
+                        stats.overrun = in.readVarint();
+                        break;
+                    case COMMIT_OVERRUN:
+                        stats.commitOverrun = in.readVarint();
+                        break;
+                    case DROPPED_EVENTS:
+                        stats.droppedEvents = in.readVarint();
+                        break;
+                }
+            }
+            return stats;
+        }
+
+        /*
+         * Returns what changed since the given stats of the same CPU, if any.
+         */
+        FtraceCpuStats minus(FtraceCpuStats start) {
+            if (start == null) {
+                return this;
+            }
+            FtraceCpuStats stats = new FtraceCpuStats();
+            stats.cpu = cpu;
+            stats.overrun = Math.max(0, overrun - start.overrun);
+            stats.commitOverrun = Math.max(0, commitOverrun - start.commitOverrun);
+            stats.droppedEvents = Math.max(0, droppedEvents - start.droppedEvents);
+            return stats;
+        }
+
+        void writeTo(ProtoWriter out) {
+            out.writeVarint(CPU, cpu);
+            out.writeVarint(OVERRUN, overrun);
+            out.writeVarint(COMMIT_OVERRUN, commitOverrun);
+            out.writeVarint(DROPPED_EVENTS, droppedEvents);
+        }
+    }
+}
@@ -16,20 +16,29 @@
 
 package com.android.traceur;
 
+import android.app.ActivityManager;
+import android.content.Context;
 import android.os.Build;
+import android.os.SystemClock;
+import android.system.Os;
+import android.system.OsConstants;
 import android.util.Log;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.Collection;
-import java.util.TreeMap;
+import java.util.SortedMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Utility functions for tracing.
@@ -41,82 +50,621 @@ public class TraceUtils {
 
     public static final String TRACE_DIRECTORY = "/data/local/traces/";
 
+    // The buffer size preference value that sizes buffers from past sessions.
+    public static final int AUTO_BUFFER_SIZE_KB = 0;
+    // Automatically sized buffers are meant to hold at least this much of a trace.
+    private static final int AUTO_BUFFER_WINDOW_SECONDS = 30;
+
+    // The tracing daemons are sampled this often while a trace is recorded.
+    private static final long OVERHEAD_SAMPLE_INTERVAL_MS = 10000;
+    private static final long OVERHEAD_STOP_TIMEOUT_MS = 5000;
+
     // To change Traceur to use atrace to collect traces,
     // change mTraceEngine to point to AtraceUtils().
     private static TraceEngine mTraceEngine = new PerfettoUtils();
 
-    private static final Runtime RUNTIME = Runtime.getRuntime();
+    private static final String CATEGORY_CATALOG_FILE = "category_catalog";
+    private static final String TRACE_RETENTION_FILE = "trace_retention";
+    private static final String DATA_RATE_HISTORY_FILE = "data_rate_history";
+    private static final String PROFILE_CONFIG_DIR = "profile_configs";
+    private static final String TRACE_INDEX_DIR = "trace_index";
+    private static final String TRACE_INDEX_SUFFIX = ".index";
+    private static final String TRACE_OVERHEAD_DIR = "trace_overhead";
+    private static final String TRACE_OVERHEAD_SUFFIX = ".overhead.csv";
+    // The overhead of the trace being recorded, until it's saved.
+    private static final String RECORDING_OVERHEAD_FILE = "recording.csv";
+    private static final String EXPORT_DIR = "export";
+    private static final String PROC_DIR = "/proc";
+    private static final String BOOT_ID_FILE = "/proc/sys/kernel/random/boot_id";
+    private static final String MEMINFO_FILE = "/proc/meminfo";
 
-    public interface TraceEngine {
-        public String getName();
-        public String getOutputExtension();
-        public boolean traceStart(Collection<String> tags, int bufferSizeKb, boolean apps,
-            boolean longTrace, int maxLongTraceSizeMb, int maxLongTraceDurationMinutes);
-        public void traceStop();
-        public boolean traceDump(File outFile);
-        public boolean isTracingOn();
-    }
+    private static CategoryCatalog mCategoryCatalog;
+    private static TraceRetention mTraceRetention;
+    private static DataRateHistory mDataRateHistory;
+    private static ProfileConfigCache mProfileConfigCache;
+    private static ScheduledExecutorService mOverheadExecutor;
+    private static OverheadMonitor mOverheadMonitor;
+
+    // Deleting and bookkeeping of saved traces happens in order, off the main thread.
+    private static final ExecutorService RETENTION_EXECUTOR =
+        Executors.newSingleThreadExecutor();
+
+    // Profile configs are compiled ahead of use, off the main thread.
+    private static final ExecutorService PROFILE_EXECUTOR =
+        Executors.newSingleThreadExecutor();
 
     public static String currentTraceEngine() {
         return mTraceEngine.getName();
     }
 
-    public static boolean traceStart(Collection<String> tags, int bufferSizeKb, boolean apps,
-            boolean longTrace, int maxLongTraceSizeMb, int maxLongTraceDurationMinutes) {
-        return mTraceEngine.traceStart(tags, bufferSizeKb, apps,
-            longTrace, maxLongTraceSizeMb, maxLongTraceDurationMinutes);
+    /**
+     * @param bufferSizeKb the per-CPU ftrace buffer size.
+     * @param auxBufferSizeKb the size of the buffer for everything but ftrace.
+     *     Ignored by atrace.
+     */
+    public static boolean traceStart(Collection<String> tags, int bufferSizeKb,
+            int auxBufferSizeKb, boolean apps, boolean flightRecorder, boolean longTrace,
+            int maxLongTraceSizeMb, int maxLongTraceDurationMinutes) {
+        return mTraceEngine.traceStart(tags, bufferSizeKb, auxBufferSizeKb, apps,
+            flightRecorder, longTrace, maxLongTraceSizeMb, maxLongTraceDurationMinutes);
+    }
+
+    /**
+     * Starts a trace with a profile, using the config from
+     * {@link #getProfileConfig} as is.
+     */
+    public static boolean traceStart(TraceProfile profile, byte[] config) {
+        return mTraceEngine.traceStart(profile, config);
+    }
+
+    /**
+     * Starts a session that waits for the given triggers; see
+     * {@link TriggerRules}. Tracing stops by itself once they fire.
+     */
+    public static boolean traceArm(Collection<String> tags, int bufferSizeKb,
+            int auxBufferSizeKb, boolean apps, TriggerRules triggers) {
+        return mTraceEngine.traceArm(tags, bufferSizeKb, auxBufferSizeKb, apps, triggers);
+    }
+
+    /**
+     * Makes the next boot start a trace with the given binary TraceConfig
+     * early on, or doesn't if the config is null. See traceur_boot_trace.sh.
+     */
+    public static boolean setBootTraceConfig(byte[] config) {
+        return mTraceEngine.setBootTraceConfig(config);
+    }
+
+    /**
+     * Sets up a session with the given binary TraceConfig that waits to be
+     * started by {@link #traceStartArmed}, replacing the one set up before,
+     * if any. Once started, it records for durationMs, or until it's stopped
+     * if that's zero.
+     */
+    public static boolean traceKeepArmed(byte[] config, long durationMs) {
+        return mTraceEngine.traceKeepArmed(config, durationMs);
+    }
+
+    /**
+     * Starts the session set up by {@link #traceKeepArmed}, which is then
+     * stopped and saved like any other trace. Returns false if there is none.
+     */
+    public static boolean traceStartArmed() {
+        return mTraceEngine.traceStartArmed();
+    }
+
+    /**
+     * Ends the session set up by {@link #traceKeepArmed}, unless it has been
+     * started.
+     */
+    public static void traceDisarm() {
+        mTraceEngine.traceDisarm();
+    }
+
+    public static boolean isArmed() {
+        return mTraceEngine.isArmed();
     }
 
     public static void traceStop() {
         mTraceEngine.traceStop();
     }
 
-    public static boolean traceDump(File outFile) {
-        return mTraceEngine.traceDump(outFile);
+    /**
+     * Stops tracing and saves the trace, reporting each phase of saving it
+     * to progress. Returns the file the trace was saved to, which is not
+     * outFile if it couldn't be compressed, or null if it wasn't saved.
+     */
+    public static File traceDump(File outFile, TraceCompression compression,
+            SaveProgress progress) {
+        return mTraceEngine.traceDump(outFile, compression, progress);
+    }
+
+    /**
+     * Saves what is currently in the trace buffer without ending the trace.
+     * Returns the file it was saved to, as {@link #traceDump} does.
+     */
+    public static File traceSnapshot(File outFile, TraceCompression compression) {
+        return mTraceEngine.traceSnapshot(outFile, compression);
     }
 
     public static boolean isTracingOn() {
         return mTraceEngine.isTracingOn();
     }
 
-    public static TreeMap<String, String> listCategories() {
-        return AtraceUtils.atraceListCategories();
+    /**
+     * Returns the categories available on this device. The list is only read
+     * from atrace once per build and boot; see {@link CategoryCatalog}.
+     */
+    public static SortedMap<String, String> listCategories(Context context) {
+        long startMs = SystemClock.elapsedRealtime();
+        try {
+            return getCategoryCatalog(context).get();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to persist category catalog", e);
+            return AtraceUtils.atraceListCategories();
+        } finally {
+            TraceWorker.recordIfMainThread("list_categories",
+                SystemClock.elapsedRealtime() - startMs);
+        }
     }
 
-    public static void clearSavedTraces() {
-        String cmd = "rm -f " + TRACE_DIRECTORY + "trace-*.*trace";
+    /**
+     * Forces the next call to {@link #listCategories} to re-read the categories
+     * from atrace.
+     */
+    public static void invalidateCategories(Context context) {
+        getCategoryCatalog(context).invalidate();
+    }
+
+    private static synchronized CategoryCatalog getCategoryCatalog(Context context) {
+        if (mCategoryCatalog == null) {
+            // The available categories can only change with a new build or
+            // after a reboot (e.g. when vendor modules are updated).
+            String key = Build.FINGERPRINT + "/" + getBootId();
+            mCategoryCatalog = new CategoryCatalog(
+                new File(context.getApplicationContext().getFilesDir(), CATEGORY_CATALOG_FILE),
+                key,
+                new CategoryCatalog.Source() {
+                    @Override
+                    public SortedMap<String, String> listCategories() {
+                        return AtraceUtils.atraceListCategories();
+                    }
+                });
+        }
+        return mCategoryCatalog;
+    }
 
-        Log.v(TAG, "Clearing trace directory: " + cmd);
+    private static String getBootId() {
         try {
-            Process rm = exec(cmd);
+            List<String> lines = Files.readAllLines(Paths.get(BOOT_ID_FILE));
+            if (!lines.isEmpty()) {
+                return lines.get(0).trim();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read boot ID, falling back to boot time.");
+        }
+        // The wall clock time at boot, rounded to tolerate clock drift.
+        long bootTimeMs = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+        return Long.toString(bootTimeMs / 60000);
+    }
 
-            if (rm.waitFor() != 0) {
-                Log.e(TAG, "clearSavedTraces failed with: " + rm.exitValue());
+    /**
+     * Deletes all saved traces in the background.
+     */
+    public static void clearSavedTraces(final Context context) {
+        RETENTION_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int deleted = getTraceRetention(context).clear();
+                    pruneTraceMetadata(context);
+                    Log.v(TAG, "Cleared " + deleted + " saved traces.");
+                } catch (IOException e) {
+                    Log.e(TAG, "clearSavedTraces failed", e);
+                }
             }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        });
+    }
+
+    /**
+     * Deletes the least recently used saved traces in the background until
+     * the remaining ones fit within the given limits. The trace that was just
+     * saved, if any, is kept regardless.
+     */
+    public static void enforceTraceQuota(final Context context, final long quotaBytes,
+            final int maxCount, final File justSaved) {
+        RETENTION_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (File trace :
+                            getTraceRetention(context).enforce(quotaBytes, maxCount, justSaved)) {
+                        Log.i(TAG, "Deleted " + trace + " to stay within the storage limit.");
+                    }
+                    pruneTraceMetadata(context);
+                } catch (IOException e) {
+                    Log.e(TAG, "enforceTraceQuota failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Records in the background that the given trace was opened or shared.
+     */
+    public static void markTraceAccessed(final Context context, final File trace) {
+        RETENTION_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getTraceRetention(context).markAccessed(
+                        trace.getName(), System.currentTimeMillis());
+                } catch (IOException e) {
+                    Log.e(TAG, "markTraceAccessed failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Protects the given trace from being deleted to stay within the storage
+     * limit, in the background.
+     */
+    public static void pinTrace(final Context context, final File trace) {
+        RETENTION_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    getTraceRetention(context).setPinned(trace.getName(), true);
+                } catch (IOException e) {
+                    Log.e(TAG, "pinTrace failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads a saved perfetto trace and stores its summary in an index file,
+     * so that it can be looked up later without reading the trace again.
+     * This reads the whole trace and should be called off the main thread.
+     *
+     * @return the summary, or null if the trace couldn't be read.
+     */
+    public static TraceSummary indexTrace(Context context, File trace) {
+        long startMs = SystemClock.elapsedRealtime();
+        try {
+            TraceSummary summary = TraceSummary.read(trace);
+            File indexFile = getTraceIndexFile(context, trace);
+            indexFile.getParentFile().mkdirs();
+            summary.writeIndex(indexFile, trace);
+            Log.v(TAG, "Indexed " + summary.getPacketCount() + " packets of " + trace + " in "
+                + (SystemClock.elapsedRealtime() - startMs) + " ms");
+            return summary;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to index " + trace, e);
+            return null;
         }
     }
 
-    public static Process exec(String cmd) throws IOException {
-        return exec(cmd, null);
+    /**
+     * Returns the summary stored by {@link #indexTrace}, or null if the trace
+     * hasn't been indexed. Never reads the trace itself.
+     */
+    public static TraceSummary getTraceIndex(Context context, File trace) {
+        return TraceSummary.readIndex(getTraceIndexFile(context, trace), trace);
     }
 
-    public static Process exec(String cmd, String tmpdir) throws IOException {
-        String[] cmdarray = {"sh", "-c", cmd};
-        String[] envp = {"TMPDIR=" + tmpdir};
-        envp = tmpdir == null ? null : envp;
+    private static File getTraceIndexFile(Context context, File trace) {
+        File indexDir = new File(context.getApplicationContext().getFilesDir(), TRACE_INDEX_DIR);
+        return new File(indexDir, trace.getName() + TRACE_INDEX_SUFFIX);
+    }
 
-        Log.v(TAG, "exec: " + Arrays.toString(envp) + " " + Arrays.toString(cmdarray));
+    /*
+     * Deletes the indexes and overhead series of traces that no longer exist.
+     */
+    private static void pruneTraceMetadata(Context context) {
+        File filesDir = context.getApplicationContext().getFilesDir();
+        pruneTraceMetadata(new File(filesDir, TRACE_INDEX_DIR), TRACE_INDEX_SUFFIX);
+        pruneTraceMetadata(new File(filesDir, TRACE_OVERHEAD_DIR), TRACE_OVERHEAD_SUFFIX);
+    }
 
-        return RUNTIME.exec(cmdarray, envp);
+    private static void pruneTraceMetadata(File dir, String suffix) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(suffix) && !new File(TRACE_DIRECTORY,
+                    name.substring(0, name.length() - suffix.length())).exists()) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Starts sampling how much CPU and memory the tracing daemons use, every
+     * {@value #OVERHEAD_SAMPLE_INTERVAL_MS} ms until
+     * {@link #stopOverheadMonitor}; see {@link OverheadMonitor}. Only perfetto
+     * has daemons to sample.
+     */
+    public static synchronized void startOverheadMonitor(Context context,
+            final OverheadMonitor.Listener listener) {
+        stopOverheadMonitor();
+        if (!currentTraceEngine().equals(PerfettoUtils.NAME)) {
+            return;
+        }
+
+        File overheadDir = new File(context.getApplicationContext().getFilesDir(),
+            TRACE_OVERHEAD_DIR);
+        overheadDir.mkdirs();
+        final OverheadMonitor monitor = new OverheadMonitor(new File(PROC_DIR),
+            Os.sysconf(OsConstants._SC_CLK_TCK), OverheadMonitor.DAEMONS,
+            new File(overheadDir, RECORDING_OVERHEAD_FILE));
+        mOverheadMonitor = monitor;
+
+        mOverheadExecutor = Executors.newSingleThreadScheduledExecutor();
+        mOverheadExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    listener.onSample(monitor.sample(SystemClock.elapsedRealtime()));
+                } catch (IOException | RuntimeException e) {
+                    // Keep sampling; a later sample may well succeed.
+                    Log.e(TAG, "Unable to sample the tracing overhead", e);
+                }
+            }
+        }, 0, OVERHEAD_SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sampling the tracing daemons, and waits for a sample that is
+     * being taken, so that the listener isn't called afterwards.
+     */
+    public static synchronized void stopOverheadMonitor() {
+        if (mOverheadExecutor == null) {
+            return;
+        }
+        mOverheadExecutor.shutdownNow();
+        try {
+            mOverheadExecutor.awaitTermination(OVERHEAD_STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mOverheadExecutor = null;
+    }
+
+    /**
+     * Keeps the overhead sampled while the trace was recorded, as a CSV file
+     * that goes with the trace and is deleted with it.
+     */
+    public static synchronized void saveOverhead(Context context, File trace) {
+        if (mOverheadMonitor != null) {
+            Log.i(TAG, String.format(Locale.US,
+                "Tracing used up to %.1f%% CPU and %d KB while recording %s",
+                Math.max(mOverheadMonitor.getPeakCpuPercent(), 0),
+                mOverheadMonitor.getPeakRssKb(), trace.getName()));
+            mOverheadMonitor = null;
+        }
+
+        File overheadDir = new File(context.getApplicationContext().getFilesDir(),
+            TRACE_OVERHEAD_DIR);
+        File recording = new File(overheadDir, RECORDING_OVERHEAD_FILE);
+        if (!recording.exists()) {
+            return;
+        }
+        if (!trace.exists() || !recording.renameTo(getTraceOverheadFile(context, trace))) {
+            recording.delete();
+        }
+    }
+
+    /**
+     * Returns the CSV file of the overhead sampled while the trace was
+     * recorded, which exists if {@link #saveOverhead} kept one.
+     */
+    public static File getTraceOverheadFile(Context context, File trace) {
+        File overheadDir = new File(context.getApplicationContext().getFilesDir(),
+            TRACE_OVERHEAD_DIR);
+        return new File(overheadDir, trace.getName() + TRACE_OVERHEAD_SUFFIX);
+    }
+
+    /**
+     * Splits a saved perfetto trace into parts of at most
+     * {@code maxPartSizeBytes}, to be shared together in place of the
+     * trace. Parts of previously split traces are deleted first, so only one
+     * set of parts takes up space at a time. This copies the whole trace and
+     * should be called off the main thread.
+     *
+     * @return the manifest followed by the parts, or null if the trace
+     *     couldn't be split.
+     */
+    public static List<File> splitTrace(Context context, File trace, long maxPartSizeBytes,
+            TraceSplitter.Listener listener) {
+        File exportDir = new File(context.getApplicationContext().getCacheDir(), EXPORT_DIR);
+        File[] previous = exportDir.listFiles();
+        if (previous != null) {
+            for (File file : previous) {
+                file.delete();
+            }
+        }
+        if (!exportDir.isDirectory() && !exportDir.mkdirs()) {
+            Log.e(TAG, "Unable to create " + exportDir);
+            return null;
+        }
+
+        long startMs = SystemClock.elapsedRealtime();
+        try {
+            List<File> files = new TraceSplitter(maxPartSizeBytes, listener)
+                .split(trace, exportDir);
+            Log.v(TAG, "Split " + trace + " into " + (files.size() - 1) + " parts in "
+                + (SystemClock.elapsedRealtime() - startMs) + " ms");
+            return files;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to split " + trace, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the built-in profile with the given name, without the
+     * categories that aren't available on this device, or null if there is
+     * no such profile.
+     */
+    public static TraceProfile getProfile(Context context, String name) {
+        TraceProfile profile = TraceProfile.forName(name);
+        if (profile == null) {
+            return null;
+        }
+        return profile.retainCategories(listCategories(context).keySet());
+    }
+
+    /**
+     * Returns the binary TraceConfig for a profile from {@link #getProfile}.
+     * It's only built the first time; see {@link ProfileConfigCache}.
+     */
+    public static byte[] getProfileConfig(Context context, TraceProfile profile) {
+        int numCpus = Runtime.getRuntime().availableProcessors();
+        try {
+            return getProfileConfigCache(context).get(profile, numCpus);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to cache the config of profile " + profile.getName(), e);
+            return profile.createConfig(numCpus).toByteArray();
+        }
+    }
+
+    /**
+     * Builds and caches the config of the named profile in the background, so
+     * that it's ready when a trace with it is started.
+     */
+    public static void precompileProfile(final Context context, final String name) {
+        PROFILE_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                TraceProfile profile = getProfile(context, name);
+                if (profile != null) {
+                    getProfileConfig(context, profile);
+                }
+            }
+        });
+    }
+
+    private static synchronized ProfileConfigCache getProfileConfigCache(Context context) {
+        if (mProfileConfigCache == null) {
+            mProfileConfigCache = new ProfileConfigCache(
+                new File(context.getApplicationContext().getFilesDir(), PROFILE_CONFIG_DIR));
+        }
+        return mProfileConfigCache;
+    }
+
+    /**
+     * Decides whether trace buffers of the given sizes fit in free memory,
+     * leaving {@code headroomPercent} of RAM free; see {@link MemoryAdmission}.
+     * Free memory is the lower of the kernel's and the activity manager's
+     * estimates.
+     */
+    public static MemoryAdmission.Decision admitTraceBuffers(Context context,
+            int perCpuBufferKb, int auxBufferKb, int headroomPercent) {
+        MemoryAdmission.MemoryState memory;
+        try {
+            memory = MemoryAdmission.MemoryState.fromMemInfo(new String(
+                Files.readAllBytes(Paths.get(MEMINFO_FILE)), StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + MEMINFO_FILE, e);
+            memory = new MemoryAdmission.MemoryState();
+        }
+
+        ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+        context.getSystemService(ActivityManager.class).getMemoryInfo(info);
+        long availableKb = info.availMem / 1024;
+        memory.availableKb = memory.availableKb > 0
+            ? Math.min(memory.availableKb, availableKb) : availableKb;
+        if (memory.totalKb <= 0) {
+            memory.totalKb = info.totalMem / 1024;
+        }
+        memory.lowMemoryThresholdKb = info.threshold / 1024;
+        memory.lowMemory = info.lowMemory;
+
+        return MemoryAdmission.decide(memory, perCpuBufferKb, auxBufferKb,
+            Runtime.getRuntime().availableProcessors(), headroomPercent);
+    }
+
+    /**
+     * Returns the buffer sizes that would have held the last
+     * {@value #AUTO_BUFFER_WINDOW_SECONDS} seconds of past sessions with the
+     * same categories, or null if there were none.
+     */
+    public static DataRateHistory.BufferSizes getAutoBufferSizes(Context context,
+            Collection<String> tags) {
+        return getBufferSizesForWindow(context, tags, AUTO_BUFFER_WINDOW_SECONDS);
+    }
+
+    /**
+     * Like {@link #getAutoBufferSizes}, for a window of the given length.
+     */
+    public static DataRateHistory.BufferSizes getBufferSizesForWindow(Context context,
+            Collection<String> tags, int windowSeconds) {
+        return DataRateHistory.recommend(getDataRateHistory(context).getPeakRates(tags),
+            windowSeconds, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Records that a session with the given categories started, so that its
+     * data rates can be recorded by {@link #recordDataRates} when it stops.
+     */
+    public static void startDataRateSession(Context context, Collection<String> tags) {
+        try {
+            getDataRateHistory(context).startSession(tags, System.currentTimeMillis());
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to record the start of the session", e);
+        }
+    }
+
+    /**
+     * Records how fast the session that just stopped filled its buffers,
+     * from the statistics in its trace.
+     */
+    public static void recordDataRates(Context context, TraceSummary summary) {
+        try {
+            long[] rates = getDataRateHistory(context).endSession(
+                summary.getBufferStats(), System.currentTimeMillis());
+            if (rates != null) {
+                Log.v(TAG, "Recorded data rates in bytes/s: " + Arrays.toString(rates));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to record data rates", e);
+        }
+    }
+
+    /**
+     * Forgets the session that just stopped, whose trace couldn't be saved,
+     * so that it doesn't skew "Auto" buffer sizes.
+     */
+    public static void abandonDataRateSession(Context context) {
+        try {
+            getDataRateHistory(context).abandonSession();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to abandon the session", e);
+        }
+    }
+
+    private static synchronized DataRateHistory getDataRateHistory(Context context) {
+        if (mDataRateHistory == null) {
+            mDataRateHistory = new DataRateHistory(
+                new File(context.getApplicationContext().getFilesDir(), DATA_RATE_HISTORY_FILE));
+        }
+        return mDataRateHistory;
+    }
+
+    private static synchronized TraceRetention getTraceRetention(Context context) {
+        if (mTraceRetention == null) {
+            mTraceRetention = new TraceRetention(new File(TRACE_DIRECTORY),
+                new File(context.getApplicationContext().getFilesDir(), TRACE_RETENTION_FILE));
+        }
+        return mTraceRetention;
     }
 
-    public static String getOutputFilename() {
-        String format = "yyyy-MM-dd-HH-mm-ss";
-        String now = new SimpleDateFormat(format, Locale.US).format(new Date());
-        return String.format("trace-%s-%s-%s.%s", Build.BOARD, Build.ID, now,
-            mTraceEngine.getOutputExtension());
+    public static String getOutputFilename(TraceCompression compression) {
+        return TraceRetention.formatTraceName(Build.BOARD, Build.ID, System.currentTimeMillis(),
+            mTraceEngine.getOutputExtension(compression));
     }
 
     public static File getOutputFile(String filename) {
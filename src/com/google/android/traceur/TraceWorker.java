@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs work that can block, i.e. trace engine commands and synchronous
+ * preference writes, on a single background thread, so that neither the UI,
+ * the Quick Settings tile nor broadcasts wait for it.
+ *
+ * Work runs in the order it's submitted, so a start and a stop requested in
+ * quick succession are handled in that order. The UI updates optimistically
+ * and reconciles through {@link TracingStateStore.Listener} or a
+ * {@link Callback}.
+ *
+ * Blocking work that still ends up on the main thread is recorded in a
+ * {@link LatencyHistogram}, which "dumpsys activity service TraceService"
+ * prints and which should stay empty.
+ */
+public class TraceWorker {
+
+    static final String TAG = "Traceur";
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(
+        new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TraceWorker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static final LatencyHistogram MAIN_THREAD_BLOCKING = new LatencyHistogram();
+
+    /**
+     * Receives the result of work from {@link #submit} on the main thread.
+     */
+    public interface Callback<T> {
+        public void onResult(T result);
+    }
+
+    public static void execute(final Runnable work) {
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    work.run();
+                } catch (RuntimeException e) {
+                    // Don't take the worker down with it; later work must still run.
+                    Log.e(TAG, "Background work failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs the work in the background and hands its result to the callback
+     * on the main thread. The callback isn't called if the work throws.
+     */
+    public static <T> void submit(final Callable<T> work, final Callback<T> callback) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                final T result;
+                try {
+                    result = work.call();
+                } catch (Exception e) {
+                    Log.e(TAG, "Background work failed", e);
+                    return;
+                }
+                runOnMainThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult(result);
+                    }
+                });
+            }
+        });
+    }
+
+    public static void runOnMainThread(Runnable runnable) {
+        if (isMainThread()) {
+            runnable.run();
+        } else {
+            MAIN_HANDLER.post(runnable);
+        }
+    }
+
+    public static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    /**
+     * Records that the main thread was blocked for the given time by the
+     * named operation, if this is the main thread.
+     */
+    public static void recordIfMainThread(String operation, long durationMs) {
+        if (isMainThread()) {
+            MAIN_THREAD_BLOCKING.record(durationMs);
+            Log.w(TAG, operation + " blocked the main thread for " + durationMs + " ms",
+                new Throwable());
+        }
+    }
+
+    /**
+     * Returns how long the main thread was blocked by work that belongs on
+     * this worker, across the life of the process.
+     */
+    public static LatencyHistogram getMainThreadBlocking() {
+        return MAIN_THREAD_BLOCKING;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The in-process source of truth for whether a trace is being recorded.
+ *
+ * Asking the trace engine is expensive (for Perfetto it means forking a
+ * process), so the engine is only consulted when the process starts, when the
+ * trace-end signal arrives, and at a low frequency while recording in case the
+ * session ended behind our back. Everything else reads the state from memory
+ * and is told about changes through {@link Listener}.
+ *
+ * The engine is never asked on the main thread. There, a stale state is
+ * returned as is and checked on {@link TraceWorker}; listeners hear about the
+ * result.
+ */
+public class TracingStateStore {
+
+    static final String TAG = TraceUtils.TAG;
+
+    // While recording, re-check with the engine at most this often.
+    private static final long VERIFY_INTERVAL_MS = 5 * 60 * 1000;
+
+    public enum State {
+        IDLE,
+        STARTING,
+        RECORDING,
+        SAVING,
+    }
+
+    /**
+     * Notified on the main thread whenever the tracing state changes.
+     */
+    public interface Listener {
+        public void onTracingStateChanged(State state);
+    }
+
+    private static TracingStateStore sInstance;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    // Null until the state has been checked against the engine once.
+    private State mState;
+    private long mLastVerifiedMs;
+    private boolean mVerifyPending;
+
+    public static synchronized TracingStateStore getInstance() {
+        if (sInstance == null) {
+            sInstance = new TracingStateStore();
+        }
+        return sInstance;
+    }
+
+    private TracingStateStore() {
+    }
+
+    public State getState() {
+        State state;
+        boolean stale;
+        synchronized (this) {
+            state = mState;
+            stale = state == null || (state == State.RECORDING
+                && SystemClock.elapsedRealtime() - mLastVerifiedMs > VERIFY_INTERVAL_MS);
+        }
+        if (!stale) {
+            return state;
+        }
+        if (TraceWorker.isMainThread()) {
+            verifyAsync();
+            // Until the engine has been asked, assume nothing is running.
+            return state != null ? state : State.IDLE;
+        }
+        return verify();
+    }
+
+    /**
+     * Returns true if a trace is being started or recorded.
+     */
+    public boolean isTracingOn() {
+        State state = getState();
+        return state == State.STARTING || state == State.RECORDING;
+    }
+
+    /**
+     * Checks the state against the trace engine, e.g. after the trace-end
+     * signal, and returns the updated state.
+     */
+    public State verify() {
+        // The engine is asked without holding the lock, so that the main
+        // thread can keep reading the state meanwhile.
+        boolean engineTracingOn;
+        try {
+            engineTracingOn = TraceUtils.isTracingOn();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unable to query the trace engine for the tracing state.", e);
+            synchronized (this) {
+                if (mState == null) {
+                    updateLocked(State.IDLE);
+                }
+                return mState;
+            }
+        }
+
+        synchronized (this) {
+            mLastVerifiedMs = SystemClock.elapsedRealtime();
+
+            // The engine can't see a session that is still being set up, and it
+            // stops reporting one as soon as saving begins, so leave those
+            // transitional states for TraceService to resolve.
+            if (mState == State.STARTING || mState == State.SAVING) {
+                if (mState == State.STARTING && engineTracingOn) {
+                    updateLocked(State.RECORDING);
+                }
+            } else {
+                updateLocked(engineTracingOn ? State.RECORDING : State.IDLE);
+            }
+            return mState;
+        }
+    }
+
+    private synchronized void verifyAsync() {
+        if (mVerifyPending) {
+            return;
+        }
+        mVerifyPending = true;
+        TraceWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (TracingStateStore.this) {
+                    mVerifyPending = false;
+                }
+                verify();
+            }
+        });
+    }
+
+    public void setState(State state) {
+        synchronized (this) {
+            mLastVerifiedMs = SystemClock.elapsedRealtime();
+            if (mState == state) {
+                return;
+            }
+            Log.v(TAG, "Tracing state: " + mState + " -> " + state);
+            mState = state;
+        }
+        notifyListeners(state);
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void updateLocked(State state) {
+        if (mState != state) {
+            Log.v(TAG, "Tracing state (verified): " + mState + " -> " + state);
+            mState = state;
+            notifyListeners(state);
+        }
+    }
+
+    private void notifyListeners(final State state) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : mListeners) {
+                    listener.onTracingStateChanged(state);
+                }
+            }
+        });
+    }
+}
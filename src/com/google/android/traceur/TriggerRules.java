@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.traceur;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The triggers an armed session waits for, and how much of the trace to keep
+ * around each of them.
+ *
+ * In "stop" mode the session records into ring buffers from the start and
+ * ends a post-roll after the first trigger, so the trace holds what happened
+ * before and after it. Perfetto has no notion of pre-roll; instead the
+ * buffers are sized to hold the longest pre-roll plus post-roll, which bounds
+ * how far back the trace reaches. In "start" mode nothing is recorded before
+ * the trigger, so pre-rolls don't apply and the session records for the
+ * post-roll after it.
+ *
+ * Rules are written as "name[:preRollMs[:postRollMs]]", separated by commas,
+ * so that they can be passed in an intent extra.
+ *
+ * This class has no Android dependencies so that it can be tested on host.
+ */
+public class TriggerRules {
+
+    public static final String MODE_START = "start";
+    public static final String MODE_STOP = "stop";
+
+    // Used for the parts of a rule that are left out.
+    static final long DEFAULT_PRE_ROLL_MS = 10000;
+    static final long DEFAULT_POST_ROLL_MS = 5000;
+
+    /**
+     * A trigger, by the name it's fired with.
+     */
+    public static class Rule {
+        public final String name;
+        public final long preRollMs;
+        public final long postRollMs;
+
+        public Rule(String name, long preRollMs, long postRollMs) {
+            this.name = name;
+            this.preRollMs = preRollMs;
+            this.postRollMs = postRollMs;
+        }
+    }
+
+    private final int mMode;
+    private final long mTimeoutMs;
+    private final List<Rule> mRules;
+
+    private TriggerRules(int mode, long timeoutMs, List<Rule> rules) {
+        mMode = mode;
+        mTimeoutMs = timeoutMs;
+        mRules = Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * @param mode {@link #MODE_START} or {@link #MODE_STOP}.
+     * @param rules the rules, as described above.
+     * @param timeoutMs how long to wait for a trigger before the session
+     *     ends anyway.
+     * @throws IllegalArgumentException if any of them isn't valid.
+     */
+    public static TriggerRules parse(String mode, String rules, long timeoutMs) {
+        int triggerMode;
+        if (MODE_START.equals(mode)) {
+            triggerMode = TraceConfig.TRIGGER_MODE_START_TRACING;
+        } else if (MODE_STOP.equals(mode)) {
+            triggerMode = TraceConfig.TRIGGER_MODE_STOP_TRACING;
+        } else {
+            throw new IllegalArgumentException("Unknown trigger mode: " + mode);
+        }
+        if (timeoutMs <= 0) {
+            throw new IllegalArgumentException("Trigger timeout must be positive: " + timeoutMs);
+        }
+        if (rules == null || rules.trim().isEmpty()) {
+            throw new IllegalArgumentException("No triggers given");
+        }
+
+        List<Rule> parsed = new ArrayList<>();
+        for (String rule : rules.split(",")) {
+            String[] parts = rule.trim().split(":");
+            // Trigger names are passed to perfetto as they are.
+            if (parts.length > 3 || !parts[0].matches("[a-zA-Z0-9_.-]+")) {
+                throw new IllegalArgumentException("Invalid trigger rule: " + rule);
+            }
+            parsed.add(new Rule(parts[0],
+                parts.length > 1 ? parseMs(parts[1]) : DEFAULT_PRE_ROLL_MS,
+                parts.length > 2 ? parseMs(parts[2]) : DEFAULT_POST_ROLL_MS));
+        }
+        return new TriggerRules(triggerMode, timeoutMs, parsed);
+    }
+
+    private static long parseMs(String value) {
+        try {
+            long ms = Long.parseLong(value);
+            if (ms >= 0) {
+                return ms;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Invalid duration: " + value);
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    public long getTimeoutMs() {
+        return mTimeoutMs;
+    }
+
+    public List<Rule> getRules() {
+        return mRules;
+    }
+
+    /**
+     * Returns how many seconds of data the buffers must hold for every rule
+     * to get its full window.
+     */
+    public int getWindowSeconds() {
+        long windowMs = 0;
+        for (Rule rule : mRules) {
+            long ruleMs = rule.postRollMs;
+            if (mMode == TraceConfig.TRIGGER_MODE_STOP_TRACING) {
+                ruleMs += rule.preRollMs;
+            }
+            windowMs = Math.max(windowMs, ruleMs);
+        }
+        return (int) ((windowMs + 999) / 1000);
+    }
+
+    /**
+     * Arms the given config with these triggers. The session then ends by
+     * itself, so Traceur is told when to save it.
+     */
+    public void applyTo(TraceConfig config) {
+        TraceConfig.TriggerConfig triggers = new TraceConfig.TriggerConfig(mMode, mTimeoutMs);
+        for (Rule rule : mRules) {
+            triggers.addTrigger(rule.name, rule.postRollMs);
+        }
+        // The trigger timeout bounds the session instead.
+        config.setDurationMs(0)
+            .setNotifyTraceur(true)
+            .setTriggerConfig(triggers);
+    }
+}
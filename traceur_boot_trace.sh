@@ -0,0 +1,14 @@
+#!/system/bin/sh
+# Starts the trace Traceur scheduled for this boot, if any, as soon as traced
+# is up. Traceur takes the session over at BOOT_COMPLETED.
+CONFIG=/data/local/traces/.boot-trace-config
+
+# traced also starts when Traceur first enables it after boot.
+[ "$(getprop sys.boot_completed)" = "1" ] && exit 0
+[ -f "$CONFIG" ] || exit 0
+
+# Only the next boot is traced.
+mv "$CONFIG" "$CONFIG.started" || exit 1
+/system/bin/perfetto --detach=traceur -o /data/local/traces/.trace-in-progress.trace \
+    -c "$CONFIG.started"
+rm -f "$CONFIG.started"